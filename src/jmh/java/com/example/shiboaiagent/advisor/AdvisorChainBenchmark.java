@@ -0,0 +1,107 @@
+package com.example.shiboaiagent.advisor;
+
+import com.example.shiboaiagent.chatmemory.TokenBudgetChatMemory;
+import com.example.shiboaiagent.logging.AdvisorEventLog;
+import com.example.shiboaiagent.sensitive.SensitiveWordMatcher;
+import com.example.shiboaiagent.support.StubChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.ai.chat.memory.ChatMemory.CONVERSATION_ID;
+
+/**
+ * advisor 链本身的开销：模型为立即返回的本地替身，测得的耗时几乎全部来自 advisor
+ *
+ * - bare：只有 ChatClient，没有 advisor
+ * - memory：只有记忆advisor（按token预算裁剪的记忆 + 内存仓库）
+ * - full：与 PsychiatristApp 相同的链，依次为敏感词过滤、记忆、日志（异步）、提示词缓存、指标；
+ *   语义缓存需要向量模型，不在这里测量
+ *
+ * 每次调用的问题都不同，提示词缓存不会命中；对话ID在 64 个之间轮换，记忆的历史长度保持在稳定状态。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdvisorChainBenchmark {
+
+    @Param({"bare", "memory", "full"})
+    String chain;
+
+    private ChatClient chatClient;
+
+    private AdvisorEventLog eventLog;
+
+    private long sequence;
+
+    @Setup
+    public void setUp() {
+        StubChatModel chatModel = new StubChatModel()
+                .withResponder(prompt -> "建议规律作息，睡前避免使用手机，".repeat(25))
+                .withUsage(300, 200);
+        ChatClient.Builder builder = ChatClient.builder(chatModel).defaultSystem("你是一位医生，你会帮助到用户");
+        switch (chain) {
+            case "bare" -> {
+            }
+            case "memory" -> builder.defaultAdvisors(MessageChatMemoryAdvisor.builder(chatMemory()).build());
+            case "full" -> {
+                // 日志写到空操作的 sink，只测量记录事件的开销
+                eventLog = AdvisorEventLog.builder().sink(event -> {
+                }).build();
+                eventLog.start();
+                SensitiveWordMatcher matcher = SensitiveWordMatcher.of(List.of("自杀", "自残", "轻生"));
+                builder.defaultAdvisors(
+                        MessageChatMemoryAdvisor.builder(chatMemory()).build(),
+                        SensitiveWordFilteringAdvisor.builder(() -> matcher).build(),
+                        new MySimpleLoggerAdvisor(eventLog),
+                        PromptCacheAdvisor.builder().build(),
+                        MetricsAdvisor.builder().app("benchmark").meterRegistry(new SimpleMeterRegistry()).build());
+            }
+            default -> throw new IllegalArgumentException("unknown chain: " + chain);
+        }
+        chatClient = builder.build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (eventLog != null) {
+            eventLog.close();
+        }
+    }
+
+    @Benchmark
+    public String call() {
+        long n = sequence++;
+        return chatClient.prompt()
+                .user("第" + n + "次提问：最近总是失眠怎么办")
+                .advisors(spec -> spec.param(CONVERSATION_ID, "c" + (n & 63)))
+                .call()
+                .content();
+    }
+
+    private static TokenBudgetChatMemory chatMemory() {
+        return TokenBudgetChatMemory.builder()
+                .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                .maxTokens(2000)
+                .build();
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.shiboaiagent.advisor;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.FileAppender;
+import com.example.shiboaiagent.logging.AdvisorEventLog;
+import com.example.shiboaiagent.support.StubChatModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 日志advisor的单次调用开销：不记录 vs 同步写日志 vs 异步事件日志
+ *
+ * 模型为本地替身，回答约 2000 字，和真实诊断回答的长度相当；日志写入 target/jmh-logs 下的文件。
+ * SampleTime 模式会输出每次调用耗时的分位数，对比三组的 p0.99 即为日志在尾延迟上的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class MySimpleLoggerAdvisorBenchmark {
+
+    private ChatClient withoutLogging;
+
+    private ChatClient syncLogging;
+
+    private ChatClient asyncLogging;
+
+    private AdvisorEventLog eventLog;
+
+    private FileAppender<ILoggingEvent> appender;
+
+    @Setup
+    public void setUp() {
+        appender = fileAppender("target/jmh-logs/advisor.log");
+        String answer = "建议规律作息，睡前避免使用手机，".repeat(125);
+        StubChatModel chatModel = new StubChatModel().withResponder(prompt -> answer);
+
+        withoutLogging = ChatClient.builder(chatModel).build();
+        syncLogging = ChatClient.builder(chatModel)
+                .defaultAdvisors(new MySimpleLoggerAdvisor())
+                .build();
+        eventLog = AdvisorEventLog.builder().build();
+        eventLog.start();
+        asyncLogging = ChatClient.builder(chatModel)
+                .defaultAdvisors(new MySimpleLoggerAdvisor(eventLog))
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        eventLog.close();
+        // 写线程跟不上时事件被丢弃而不是阻塞请求，丢弃数量一并输出
+        System.out.println("async advisor log: " + eventLog.stats());
+        appender.stop();
+    }
+
+    @Benchmark
+    public String loggingOff() {
+        return withoutLogging.prompt().user("最近总是失眠怎么办").call().content();
+    }
+
+    @Benchmark
+    public String syncLogging() {
+        return syncLogging.prompt().user("最近总是失眠怎么办").call().content();
+    }
+
+    @Benchmark
+    public String asyncLogging() {
+        return asyncLogging.prompt().user("最近总是失眠怎么办").call().content();
+    }
+
+    /**
+     * 用文件 appender 替换 logback 的默认控制台输出，模拟 logback-spring.xml 中的 FILE appender
+     */
+    private static FileAppender<ILoggingEvent> fileAppender(String file) {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        context.reset();
+
+        PatternLayoutEncoder encoder = new PatternLayoutEncoder();
+        encoder.setContext(context);
+        encoder.setPattern("%d{yyyy-MM-dd HH:mm:ss.SSS} [%thread] %-5level %logger{36} - %msg%n");
+        encoder.start();
+
+        FileAppender<ILoggingEvent> appender = new FileAppender<>();
+        appender.setContext(context);
+        appender.setFile(file);
+        appender.setAppend(false);
+        appender.setEncoder(encoder);
+        appender.start();
+
+        Logger root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        root.setLevel(ch.qos.logback.classic.Level.INFO);
+        root.addAppender(appender);
+        return appender;
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件记忆仓库的保存、加载耗时，按历史长度和存储模式对比
+ *
+ * save 模拟多轮对话：每次保存去掉最早的一条消息、追加一条新消息，列表长度保持不变；
+ * 追加日志模式下因此会产生 TRIM 记录并定期压缩，和线上按窗口截断后的写入模式一致。
+ * load 读取一个固定长度的对话。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileChatMemoryRepositoryBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int historyLength;
+
+    @Param({"SNAPSHOT", "APPEND_LOG"})
+    FileChatMemoryRepository.StorageMode storageMode;
+
+    private Path dir;
+
+    private FileChatMemoryRepository repository;
+
+    private List<Message> history;
+
+    private int turn;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("jmh-chat-memory");
+        repository = new FileChatMemoryRepository(dir.toString(), storageMode);
+        history = new ArrayList<>();
+        for (turn = 0; turn < historyLength; turn++) {
+            history.add(message(turn));
+        }
+        repository.saveAll("load", history);
+        repository.saveAll("save", history);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public void save() {
+        List<Message> next = new ArrayList<>(history.subList(1, history.size()));
+        next.add(message(turn++));
+        history = next;
+        repository.saveAll("save", history);
+    }
+
+    @Benchmark
+    public List<Message> load() {
+        return repository.findByConversationId("load");
+    }
+
+    /**
+     * 用户消息和回答交替出现，回答比问题长
+     */
+    private static Message message(int turn) {
+        if (turn % 2 == 0) {
+            return new UserMessage("第" + turn + "轮：最近总是失眠，晚上很难入睡，白天头昏脑涨，应该怎么调理？");
+        }
+        return new AssistantMessage("第" + turn + "轮建议：" + "保持规律作息，睡前一小时避免使用手机，适量运动，".repeat(6));
+    }
+}
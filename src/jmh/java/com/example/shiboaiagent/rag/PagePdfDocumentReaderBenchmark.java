@@ -0,0 +1,73 @@
+package com.example.shiboaiagent.rag;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PDF 解析吞吐：依次解析 resources/document 下自带的全部 PDF
+ *
+ * 主结果为每秒解析的文件数，辅助计数器 pages 为每秒解析的页数（每页一个 Document）。
+ * 解析时逐个文件打印的 INFO 日志会干扰测量，这里把阅读器的日志级别调到 WARN。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PagePdfDocumentReaderBenchmark {
+
+    private PagePdfDocumentReader reader;
+
+    private Resource[] resources;
+
+    private int next;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Pages {
+
+        public long pages;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+        public void reset() {
+            pages = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        ((Logger) LoggerFactory.getLogger(PagePdfDocumentReader.class)).setLevel(Level.WARN);
+        reader = new PagePdfDocumentReader(new PathMatchingResourcePatternResolver());
+        resources = reader.loadPdfResources();
+        if (resources.length == 0) {
+            throw new IllegalStateException("no PDF found at " + PagePdfDocumentReader.PDF_LOCATION_PATTERN);
+        }
+    }
+
+    @Benchmark
+    public List<Document> readPdf(Pages pages) {
+        Resource resource = resources[next++ % resources.length];
+        List<Document> documents = reader.readPdf(resource);
+        pages.pages += documents.size();
+        return documents;
+    }
+}
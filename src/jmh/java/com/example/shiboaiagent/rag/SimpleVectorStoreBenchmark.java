@@ -0,0 +1,86 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SimpleVectorStore 暴力检索的耗时随切片数量的变化
+ *
+ * 切片向量为随机单位向量，通过 {@link PrecomputedEmbeddingModel} 直接登记，不经过向量模型；
+ * 查询向量由本地替身计算，耗时可以忽略，测得的基本就是逐条计算相似度和排序的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SimpleVectorStoreBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    int chunks;
+
+    @Param({"512"})
+    int dimensions;
+
+    private SimpleVectorStore vectorStore;
+
+    private final List<String> queries = List.of("失眠多梦怎么办", "头痛伴有恶心", "感冒发烧流鼻涕", "腰膝酸软畏寒",
+            "心悸健忘", "口干舌燥五心烦热", "偏头痛反复发作", "风寒感冒的症状");
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        PrecomputedEmbeddingModel embeddingModel = new PrecomputedEmbeddingModel(new StubEmbeddingModel(dimensions));
+        Random random = new Random(42);
+        List<Document> documents = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            String id = "chunk-" + i;
+            embeddingModel.register(id, randomUnitVector(random, dimensions));
+            documents.add(new Document(id, "第" + i + "段：中医治疗常见病症的方剂与调理方法", Map.of("source", "doc-" + (i % 50) + ".pdf")));
+        }
+        vectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        vectorStore.add(documents);
+        embeddingModel.clear();
+    }
+
+    @Benchmark
+    public List<Document> similaritySearch() {
+        String query = queries.get(next++ & (queries.size() - 1));
+        return vectorStore.similaritySearch(SearchRequest.builder().query(query).topK(4).build());
+    }
+
+    private static float[] randomUnitVector(Random random, int dimensions) {
+        float[] vector = new float[dimensions];
+        double norm = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.shiboaiagent.sensitive;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 敏感词匹配基准：Aho-Corasick 自动机 vs 逐词 String.contains
+ *
+ * 词典为随机生成的 2~6 字中文词，文本为一段约 2000 字的模型回答，其中混入少量敏感词。
+ * 逐词循环的耗时随词典大小线性增长，自动机只与文本长度有关。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensitiveWordMatcherBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    int dictionarySize;
+
+    private List<String> words;
+
+    private SensitiveWordMatcher matcher;
+
+    private String text;
+
+    private List<String> chunks;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        Set<String> dictionary = new LinkedHashSet<>();
+        while (dictionary.size() < dictionarySize) {
+            dictionary.add(randomCjk(random, 2 + random.nextInt(5)));
+        }
+        words = new ArrayList<>(dictionary);
+        matcher = SensitiveWordMatcher.of(words);
+
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 2000) {
+            builder.append(randomCjk(random, 20)).append('，');
+            if (random.nextInt(10) == 0) {
+                builder.append(words.get(random.nextInt(words.size())));
+            }
+        }
+        text = builder.toString();
+        // 模拟流式输出，每个片段 8 个字符
+        chunks = new ArrayList<>();
+        for (int start = 0; start < text.length(); start += 8) {
+            chunks.add(text.substring(start, Math.min(text.length(), start + 8)));
+        }
+    }
+
+    @Benchmark
+    public String ahoCorasickMask() {
+        return matcher.mask(text);
+    }
+
+    @Benchmark
+    public void ahoCorasickStreamMask(Blackhole blackhole) {
+        SensitiveWordMatcher.StreamMasker masker = matcher.streamMasker('*');
+        for (String chunk : chunks) {
+            blackhole.consume(masker.append(chunk));
+        }
+        blackhole.consume(masker.finish());
+    }
+
+    @Benchmark
+    public String naiveContainsLoop() {
+        String result = text;
+        for (String word : words) {
+            if (result.contains(word)) {
+                result = result.replace(word, "*".repeat(word.length()));
+            }
+        }
+        return result;
+    }
+
+    private static String randomCjk(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            // 常用汉字区间内取字
+            builder.append((char) (0x4E00 + random.nextInt(3000)));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.shiboaiagent.advisor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.core.Ordered;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按对话串行执行整轮对话的advisor
+ *
+ * StripedLockChatMemory 只保证单次记忆读写不丢消息；同一对话的两轮并发时，后一轮的提示词看不到前一轮的回答，
+ * 两轮的消息也可能交错写入。本advisor排在记忆advisor之前，同一对话的下一轮等上一轮
+ * （读取历史 - 调用模型 - 写回回答）整体结束后才开始，不同对话之间互不影响。
+ *
+ * 每个对话只记录最后一轮的完成信号（CompletableFuture），不持有线程锁：
+ * 流式响应在其他线程上结束也能放行下一轮；流式请求在订阅时才排队，正常结束、出错或取消都会放行下一轮。
+ * 没有进行中轮次的对话不占用内存。等待上一轮超过 maxWait 时不再等待，直接执行并打印告警，
+ * 异常的长请求不会一直阻塞整个对话。
+ */
+@Slf4j
+public class ConversationTurnAdvisor implements CallAdvisor, StreamAdvisor {
+
+    private final long maxWaitNanos;
+
+    private final int order;
+
+    /** 对话ID -> 最后一轮的完成信号，该轮结束且没有后续轮次时移除 */
+    private final Map<String, CompletableFuture<Void>> lastTurns = new ConcurrentHashMap<>();
+
+    private final LongAdder turns = new LongAdder();
+
+    private final LongAdder queued = new LongAdder();
+
+    private final LongAdder timedOut = new LongAdder();
+
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    private ConversationTurnAdvisor(Builder builder) {
+        this.maxWaitNanos = builder.maxWait.toNanos();
+        this.order = builder.order;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 轮次统计
+     *
+     * @param turns 经过本advisor的轮次数
+     * @param queued 需要等待同一对话上一轮结束的轮次数
+     * @param timedOut 等待超过 maxWait 后直接执行的轮次数
+     * @param totalWaitNanos 累计等待时长（纳秒）
+     * @param activeConversations 当前有进行中轮次的对话数
+     */
+    public record TurnStats(long turns, long queued, long timedOut, long totalWaitNanos, int activeConversations) {
+    }
+
+    public TurnStats stats() {
+        return new TurnStats(turns.sum(), queued.sum(), timedOut.sum(), totalWaitNanos.sum(), lastTurns.size());
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        Turn turn = enqueue(conversationId(chatClientRequest));
+        try {
+            awaitPrevious(turn);
+            return callAdvisorChain.nextCall(chatClientRequest);
+        } finally {
+            finish(turn);
+        }
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        String conversationId = conversationId(chatClientRequest);
+        return Flux.defer(() -> {
+            Turn turn = enqueue(conversationId);
+            if (turn.previous() == null) {
+                return releaseOnEnd(streamAdvisorChain.nextStream(chatClientRequest), turn);
+            }
+            queued.increment();
+            long start = System.nanoTime();
+            return releaseOnEnd(Mono.fromFuture(turn.previous().copy().orTimeout(maxWaitNanos, TimeUnit.NANOSECONDS))
+                    .onErrorResume(TimeoutException.class, e -> {
+                        onTimeout(turn);
+                        return Mono.empty();
+                    })
+                    .doFinally(signal -> totalWaitNanos.add(System.nanoTime() - start))
+                    .thenMany(Flux.defer(() -> streamAdvisorChain.nextStream(chatClientRequest))), turn);
+        });
+    }
+
+    /**
+     * 流结束时放行下一轮：正常结束和出错在结束信号传给下游之前放行，订阅方拿到结束信号时本轮已经放行；
+     * 取消没有下游信号，取消时放行
+     */
+    private Flux<ChatClientResponse> releaseOnEnd(Flux<ChatClientResponse> stream, Turn turn) {
+        return stream.doOnTerminate(() -> finish(turn))
+                .doOnCancel(() -> finish(turn));
+    }
+
+    @Override
+    public String getName() {
+        return "按对话串行执行的advisor";
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * 一轮对话
+     *
+     * @param conversationId 对话ID
+     * @param previous 同一对话上一轮的完成信号，没有进行中的轮次时为 null
+     * @param done 本轮的完成信号
+     */
+    private record Turn(String conversationId, CompletableFuture<Void> previous, CompletableFuture<Void> done) {
+    }
+
+    private Turn enqueue(String conversationId) {
+        turns.increment();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        return new Turn(conversationId, lastTurns.put(conversationId, done), done);
+    }
+
+    private void awaitPrevious(Turn turn) {
+        if (turn.previous() == null) {
+            return;
+        }
+        queued.increment();
+        long start = System.nanoTime();
+        try {
+            turn.previous().get(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            onTimeout(turn);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the previous turn of conversation "
+                    + turn.conversationId(), e);
+        } catch (ExecutionException e) {
+            // 完成信号只会正常完成
+            throw new IllegalStateException(e);
+        } finally {
+            totalWaitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private void onTimeout(Turn turn) {
+        timedOut.increment();
+        log.warn("Previous turn of conversation {} still running after {} ms, proceeding without waiting",
+                turn.conversationId(), TimeUnit.NANOSECONDS.toMillis(maxWaitNanos));
+    }
+
+    /**
+     * 放行同一对话的下一轮；没有后续轮次时移除对话，map 只保留有进行中轮次的对话
+     */
+    private void finish(Turn turn) {
+        turn.done().complete(null);
+        lastTurns.remove(turn.conversationId(), turn.done());
+    }
+
+    private static String conversationId(ChatClientRequest request) {
+        // 与 MessageChatMemoryAdvisor 相同：没有指定对话ID时使用默认对话
+        Object conversationId = request.context().get(ChatMemory.CONVERSATION_ID);
+        return conversationId == null ? ChatMemory.DEFAULT_CONVERSATION_ID : conversationId.toString();
+    }
+
+    public static final class Builder {
+
+        private Duration maxWait = Duration.ofMinutes(5);
+
+        /** 在敏感词过滤advisor（HIGHEST_PRECEDENCE + 500）之后、记忆advisor（HIGHEST_PRECEDENCE + 1000）之前 */
+        private int order = Ordered.HIGHEST_PRECEDENCE + 800;
+
+        private Builder() {
+        }
+
+        /**
+         * 等待同一对话上一轮结束的最长时间，默认 5 分钟，与 SSE 接口的异步超时一致
+         */
+        public Builder maxWait(Duration maxWait) {
+            this.maxWait = maxWait;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public ConversationTurnAdvisor build() {
+            Assert.notNull(maxWait, "maxWait cannot be null");
+            Assert.isTrue(!maxWait.isNegative() && !maxWait.isZero(), "maxWait must be positive");
+            return new ConversationTurnAdvisor(this);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.shiboaiagent.advisor;
+
+import com.example.shiboaiagent.rag.HybridDocumentRetriever;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.document.Document;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * 混合检索增强advisor：替代 QuestionAnswerAdvisor，用向量 + BM25 融合的结果增强用户消息
+ *
+ * 检索由 {@link HybridDocumentRetriever} 完成，检索到的文档拼接到用户消息后面作为参考资料；
+ * 文档列表与 QuestionAnswerAdvisor 一样放在请求上下文和响应元数据的
+ * {@link QuestionAnswerAdvisor#RETRIEVED_DOCUMENTS} 中，下游代码不需要区分两种检索方式。
+ *
+ * 流式调用时检索（向量化查询是阻塞的网络请求）在 boundedElastic 线程上执行，不阻塞订阅线程。
+ */
+@Slf4j
+public class HybridSearchAdvisor implements CallAdvisor, StreamAdvisor {
+
+    /** 增强后的用户消息模板，%1$s 为用户问题，%2$s 为检索到的资料 */
+    private static final String DEFAULT_USER_TEXT_ADVISE = """
+            %1$s
+
+            下面是从中医资料中检索到的参考内容：
+            ---------------------
+            %2$s
+            ---------------------
+
+            请结合上面的参考内容回答用户的问题。参考内容与问题无关时，按你自己的专业知识回答，
+            不要在回答中提到"参考内容"或"上下文"。
+            """;
+
+    private final HybridDocumentRetriever retriever;
+
+    private final int order;
+
+    private HybridSearchAdvisor(Builder builder) {
+        this.retriever = builder.retriever;
+        this.order = builder.order;
+    }
+
+    public static Builder builder(HybridDocumentRetriever retriever) {
+        return new Builder(retriever);
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        ChatClientRequest augmented = before(chatClientRequest);
+        return after(callAdvisorChain.nextCall(augmented), augmented);
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        return Mono.fromCallable(() -> before(chatClientRequest))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(augmented -> streamAdvisorChain.nextStream(augmented)
+                        .map(response -> after(response, augmented)));
+    }
+
+    @Override
+    public String getName() {
+        return "混合检索的advisor";
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    private ChatClientRequest before(ChatClientRequest request) {
+        String userText = request.prompt().getUserMessage().getText();
+        if (!StringUtils.hasText(userText)) {
+            return request;
+        }
+        long start = System.nanoTime();
+        List<Document> documents = retriever.retrieve(userText);
+        log.debug("Hybrid retrieval returned {} documents in {} ms",
+                documents.size(), (System.nanoTime() - start) / 1_000_000);
+
+        Map<String, Object> context = new HashMap<>(request.context());
+        context.put(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS, documents);
+        String documentContext = documents.stream()
+                .map(Document::getText)
+                .collect(Collectors.joining(System.lineSeparator()));
+        String augmentedUserText = DEFAULT_USER_TEXT_ADVISE.formatted(userText, documentContext);
+        return request.mutate()
+                .prompt(request.prompt().augmentUserMessage(augmentedUserText))
+                .context(context)
+                .build();
+    }
+
+    private ChatClientResponse after(ChatClientResponse response, ChatClientRequest request) {
+        Object documents = request.context().get(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS);
+        if (documents == null) {
+            return response;
+        }
+        ChatResponse.Builder chatResponseBuilder = response.chatResponse() == null
+                ? ChatResponse.builder()
+                : ChatResponse.builder().from(response.chatResponse());
+        chatResponseBuilder.metadata(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS, documents);
+        return ChatClientResponse.builder()
+                .chatResponse(chatResponseBuilder.build())
+                .context(response.context())
+                .build();
+    }
+
+    public static final class Builder {
+
+        private final HybridDocumentRetriever retriever;
+
+        /** 与 QuestionAnswerAdvisor 的默认顺序相同 */
+        private int order = 0;
+
+        private Builder(HybridDocumentRetriever retriever) {
+            this.retriever = retriever;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public HybridSearchAdvisor build() {
+            Assert.notNull(retriever, "retriever cannot be null");
+            return new HybridSearchAdvisor(this);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.shiboaiagent.advisor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.core.Ordered;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 模型调用指标advisor：模型耗时、流式首字延迟、token 用量和检索文档数，全部带 app 标签区分应用
+ *
+ * - ai.chat.model（Timer）：模型调用耗时，标签 mode=call/stream、outcome=success/error/cancelled
+ * - ai.chat.ttft（Timer）：流式调用从订阅到第一个非空片段的耗时
+ * - ai.chat.tokens（Counter）：标签 type=prompt/completion
+ * - ai.rag.documents（DistributionSummary）：检索增强advisor放入上下文的文档数
+ *
+ * 默认排在所有advisor之后、紧挨着模型调用，记忆、检索和缓存的耗时不计入模型耗时，
+ * 语义缓存、提示词缓存命中的请求不会产生模型指标。
+ * 流式调用的 token 用量取最后一个带用量的片段（DashScope 流式返回的是累计用量）。
+ */
+public class MetricsAdvisor implements CallAdvisor, StreamAdvisor {
+
+    public static final String MODEL_TIMER = "ai.chat.model";
+
+    public static final String TTFT_TIMER = "ai.chat.ttft";
+
+    public static final String TOKEN_COUNTER = "ai.chat.tokens";
+
+    public static final String RETRIEVED_DOCUMENTS = "ai.rag.documents";
+
+    private final MeterRegistry meterRegistry;
+
+    private final String app;
+
+    private final int order;
+
+    private final Timer ttftTimer;
+
+    private final Counter promptTokens;
+
+    private final Counter completionTokens;
+
+    private final DistributionSummary retrievedDocuments;
+
+    private MetricsAdvisor(Builder builder) {
+        this.meterRegistry = builder.meterRegistry;
+        this.app = builder.app;
+        this.order = builder.order;
+        this.ttftTimer = Timer.builder(TTFT_TIMER)
+                .description("Time to first token of streamed model responses")
+                .tag("app", app)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.promptTokens = tokenCounter("prompt");
+        this.completionTokens = tokenCounter("completion");
+        this.retrievedDocuments = DistributionSummary.builder(RETRIEVED_DOCUMENTS)
+                .description("Number of documents retrieved for one request")
+                .tag("app", app)
+                .serviceLevelObjectives(1, 2, 4, 8, 16)
+                .register(meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String getName() {
+        return "指标统计的advisor";
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        recordRetrievedDocuments(chatClientRequest);
+        long start = System.nanoTime();
+        ChatClientResponse chatClientResponse;
+        try {
+            chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+        } catch (RuntimeException e) {
+            modelTimer("call", "error").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+        modelTimer("call", "success").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        recordUsage(usageOf(chatClientResponse));
+        return chatClientResponse;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        return Flux.defer(() -> {
+            recordRetrievedDocuments(chatClientRequest);
+            long start = System.nanoTime();
+            AtomicBoolean firstToken = new AtomicBoolean();
+            AtomicReference<Usage> usage = new AtomicReference<>();
+            return streamAdvisorChain.nextStream(chatClientRequest)
+                    .doOnNext(response -> {
+                        if (!firstToken.get() && StringUtils.hasLength(textOf(response))
+                                && firstToken.compareAndSet(false, true)) {
+                            ttftTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        }
+                        Usage chunkUsage = usageOf(response);
+                        if (chunkUsage != null) {
+                            usage.set(chunkUsage);
+                        }
+                    })
+                    // 在信号传给下游之前记录，订阅方收到结束信号时指标已经写入（doFinally 在下游处理完之后才执行）
+                    .doOnComplete(() -> recordStream(start, usage.get(), SignalType.ON_COMPLETE))
+                    .doOnError(e -> recordStream(start, usage.get(), SignalType.ON_ERROR))
+                    .doOnCancel(() -> recordStream(start, usage.get(), SignalType.CANCEL));
+        });
+    }
+
+    private void recordStream(long start, Usage usage, SignalType signal) {
+        modelTimer("stream", outcome(signal)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        recordUsage(usage);
+    }
+
+    private Timer modelTimer(String mode, String outcome) {
+        // 相同名称和标签的 Timer 由注册表缓存，重复 register 返回同一个实例
+        return Timer.builder(MODEL_TIMER)
+                .description("Model call latency")
+                .tags("app", app, "mode", mode, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private Counter tokenCounter(String type) {
+        return Counter.builder(TOKEN_COUNTER)
+                .description("Tokens consumed by model calls")
+                .tags("app", app, "type", type)
+                .register(meterRegistry);
+    }
+
+    private void recordRetrievedDocuments(ChatClientRequest chatClientRequest) {
+        if (chatClientRequest.context().get(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS) instanceof List<?> documents) {
+            retrievedDocuments.record(documents.size());
+        }
+    }
+
+    private void recordUsage(Usage usage) {
+        if (usage == null) {
+            return;
+        }
+        if (usage.getPromptTokens() != null) {
+            promptTokens.increment(usage.getPromptTokens());
+        }
+        if (usage.getCompletionTokens() != null) {
+            completionTokens.increment(usage.getCompletionTokens());
+        }
+    }
+
+    private static String outcome(SignalType signal) {
+        return switch (signal) {
+            case ON_ERROR -> "error";
+            case CANCEL -> "cancelled";
+            default -> "success";
+        };
+    }
+
+    private static String textOf(ChatClientResponse chatClientResponse) {
+        ChatResponse chatResponse = chatClientResponse.chatResponse();
+        if (chatResponse == null || chatResponse.getResult() == null) {
+            return null;
+        }
+        return chatResponse.getResult().getOutput().getText();
+    }
+
+    /**
+     * 响应中的 token 用量，没有用量（或全部为 0）时返回 null
+     */
+    private static Usage usageOf(ChatClientResponse chatClientResponse) {
+        ChatResponse chatResponse = chatClientResponse.chatResponse();
+        if (chatResponse == null || chatResponse.getMetadata() == null) {
+            return null;
+        }
+        Usage usage = chatResponse.getMetadata().getUsage();
+        if (usage == null || usage.getTotalTokens() == null || usage.getTotalTokens() == 0) {
+            return null;
+        }
+        return usage;
+    }
+
+    public static final class Builder {
+
+        private String app = "default";
+
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        /** 紧挨着模型调用（ChatModelCallAdvisor 为 LOWEST_PRECEDENCE） */
+        private int order = Ordered.LOWEST_PRECEDENCE - 1000;
+
+        private Builder() {
+        }
+
+        /** app 标签，区分不同的应用 */
+        public Builder app(String app) {
+            this.app = app;
+            return this;
+        }
+
+        /**
+         * 指标注册表，默认为全局注册表（Spring Boot Actuator 会把自己的注册表加入全局注册表）
+         */
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public MetricsAdvisor build() {
+            Assert.hasText(app, "app cannot be empty");
+            Assert.notNull(meterRegistry, "meterRegistry cannot be null");
+            return new MetricsAdvisor(this);
+        }
+    }
+}
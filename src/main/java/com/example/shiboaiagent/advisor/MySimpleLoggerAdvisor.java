@@ -1,5 +1,7 @@
 package com.example.shiboaiagent.advisor;
 
+import com.example.shiboaiagent.logging.AdvisorEventLog;
+import com.example.shiboaiagent.logging.AdvisorLogEvent;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClientMessageAggregator;
 import org.springframework.ai.chat.client.ChatClientRequest;
@@ -8,12 +10,47 @@ import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
 import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
 import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
 import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 日志记录的advisor
+ *
+ * 默认同步写日志：请求和响应各一条 INFO 日志，在请求线程上写入。
+ * 设置 {@link AdvisorEventLog} 后切换为异步模式：每次调用在结束时生成一条结构化事件（截断后的请求、回答、耗时、结果），
+ * 按级别抽样后放入无锁队列，由后台线程写出；流式调用只保留回答的前若干字符，不再聚合整个回答。
+ */
 @Slf4j
 public class MySimpleLoggerAdvisor implements CallAdvisor, StreamAdvisor {
+
+    /** 异步模式的事件日志，为 null 时同步写日志 */
+    private volatile AdvisorEventLog eventLog;
+
+    public MySimpleLoggerAdvisor() {
+    }
+
+    public MySimpleLoggerAdvisor(AdvisorEventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
+    /**
+     * 切换到异步模式，传入 null 时恢复同步写日志
+     */
+    public void setEventLog(AdvisorEventLog eventLog) {
+        this.eventLog = eventLog;
+    }
+
     @Override
     public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        AdvisorEventLog eventLog = this.eventLog;
+        if (eventLog != null) {
+            return adviseCallAsync(chatClientRequest, callAdvisorChain, eventLog);
+        }
 
         logRequest(chatClientRequest);
         ChatClientResponse  chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
@@ -23,6 +60,10 @@ public class MySimpleLoggerAdvisor implements CallAdvisor, StreamAdvisor {
 
     @Override
     public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        AdvisorEventLog eventLog = this.eventLog;
+        if (eventLog != null) {
+            return adviseStreamAsync(chatClientRequest, streamAdvisorChain, eventLog);
+        }
 
         //记录请求日志
         logRequest(chatClientRequest);
@@ -51,15 +92,103 @@ public class MySimpleLoggerAdvisor implements CallAdvisor, StreamAdvisor {
     }
 
     public void logRequest(ChatClientRequest chatClientRequest) {
-        log.info("🔵 AI请求 - 用户消息: {}",
-                chatClientRequest.prompt().getInstructions().stream()
-                        .filter(msg -> "USER".equals(msg.getMessageType().toString()))
-                        .map(msg -> msg.getText())
-
-                        .findFirst().orElse("无用户消息"));
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        String userText = userText(chatClientRequest);
+        log.info("🔵 AI请求 - 用户消息: {}", userText != null ? userText : "无用户消息");
     }
+
     public void logResponse(ChatClientResponse chatClientResponse) {
-        String content = chatClientResponse.chatResponse().getResult().getOutput().getText();
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        String content = responseText(chatClientResponse);
+        if (content == null) {
+            return;
+        }
         log.info("🔴 AI响应 - 内容: {}", content.length() > 10000 ? content.substring(0, 10000) + "..." : content);
     }
+
+    private ChatClientResponse adviseCallAsync(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain,
+                                               AdvisorEventLog eventLog) {
+        long start = System.nanoTime();
+        String userText = userText(chatClientRequest);
+        ChatClientResponse chatClientResponse;
+        try {
+            chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+        } catch (RuntimeException e) {
+            eventLog.record("call", conversationId(chatClientRequest), start, userText, "", 0,
+                    AdvisorLogEvent.Outcome.ERROR, e);
+            throw e;
+        }
+        String content = responseText(chatClientResponse);
+        eventLog.record("call", conversationId(chatClientRequest), start, userText, content,
+                content == null ? 0 : content.length(), AdvisorLogEvent.Outcome.OK, null);
+        return chatClientResponse;
+    }
+
+    private Flux<ChatClientResponse> adviseStreamAsync(ChatClientRequest chatClientRequest,
+                                                       StreamAdvisorChain streamAdvisorChain, AdvisorEventLog eventLog) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            // 只保留事件日志会写出的开头部分，长度单独累计
+            int maxChars = eventLog.maxContentChars();
+            StringBuilder head = new StringBuilder();
+            AtomicInteger length = new AtomicInteger();
+            return streamAdvisorChain.nextStream(chatClientRequest)
+                    .doOnNext(response -> {
+                        String text = responseText(response);
+                        if (text == null) {
+                            return;
+                        }
+                        length.addAndGet(text.length());
+                        if (head.length() <= maxChars) {
+                            head.append(text, 0, Math.min(text.length(), maxChars + 1 - head.length()));
+                        }
+                    })
+                    // 在信号传给下游之前记录，订阅方收到结束信号时事件已经入队（doFinally 在下游处理完之后才执行）
+                    .doOnComplete(() -> recordStream(eventLog, chatClientRequest, start, head, length.get(),
+                            SignalType.ON_COMPLETE, null))
+                    .doOnError(e -> recordStream(eventLog, chatClientRequest, start, head, length.get(),
+                            SignalType.ON_ERROR, e))
+                    .doOnCancel(() -> recordStream(eventLog, chatClientRequest, start, head, length.get(),
+                            SignalType.CANCEL, null));
+        });
+    }
+
+    private static void recordStream(AdvisorEventLog eventLog, ChatClientRequest chatClientRequest, long start,
+                                     CharSequence head, int length, SignalType signal, Throwable error) {
+        eventLog.record("stream", conversationId(chatClientRequest), start, userText(chatClientRequest), head,
+                length, outcome(signal), error);
+    }
+
+    private static AdvisorLogEvent.Outcome outcome(SignalType signal) {
+        return switch (signal) {
+            case ON_ERROR -> AdvisorLogEvent.Outcome.ERROR;
+            case CANCEL -> AdvisorLogEvent.Outcome.CANCELLED;
+            default -> AdvisorLogEvent.Outcome.OK;
+        };
+    }
+
+    /**
+     * 本轮的用户消息（记忆advisor加入的历史消息不计）
+     */
+    private static String userText(ChatClientRequest chatClientRequest) {
+        UserMessage userMessage = chatClientRequest.prompt().getUserMessage();
+        return userMessage != null ? userMessage.getText() : null;
+    }
+
+    private static String responseText(ChatClientResponse chatClientResponse) {
+        ChatResponse chatResponse = chatClientResponse.chatResponse();
+        if (chatResponse == null || chatResponse.getResult() == null) {
+            return null;
+        }
+        return chatResponse.getResult().getOutput().getText();
+    }
+
+    private static String conversationId(ChatClientRequest chatClientRequest) {
+        Object conversationId = chatClientRequest.context().get(ChatMemory.CONVERSATION_ID);
+        return conversationId != null ? conversationId.toString() : null;
+    }
 }
@@ -0,0 +1,453 @@
+package com.example.shiboaiagent.advisor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClientAttributes;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.model.ModelOptionsUtils;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 精确匹配的提示词缓存advisor
+ *
+ * 对最终发给模型的完整提示词计算指纹：所有消息（含系统提示词、记忆中的历史、检索增强后的用户消息）、
+ * 模型参数和结构化输出格式。指纹相同的请求直接返回缓存的回答。
+ *
+ * 同一指纹的多个请求同时到达时只有第一个请求调用模型，其余请求等待它的结果（请求合并），
+ * N 个相同的并发请求只产生一次模型调用。等待超过 coalesceTimeout 时不再等待，自己调用模型。
+ *
+ * 每个请求的结果（hit / coalesced / miss）记录到 {@value #REQUESTS_COUNTER} 计数器，
+ * 合并等待超时的次数记录到 {@value #COALESCE_TIMEOUT_COUNTER}，均带 app 标签。
+ *
+ * 缓存按 TTL 过期，并同时限制条目数和缓存文本的总字符数，超出时淘汰最久未访问的条目。
+ * 请求上下文中 {@link #BYPASS} 为 true 时跳过缓存（HTTP 层可映射为请求头）。
+ *
+ * 顺序排在记忆、检索和日志advisor之后，这样指纹覆盖的是完整渲染后的提示词。
+ */
+@Slf4j
+public class PromptCacheAdvisor implements CallAdvisor, StreamAdvisor {
+
+    /** 请求上下文中设置为 true 时跳过提示词缓存 */
+    public static final String BYPASS = "prompt_cache_bypass";
+
+    /** 命中缓存（或合并到进行中的请求）时在响应上下文中设置为 true */
+    public static final String CACHE_HIT = "prompt_cache_hit";
+
+    public static final String REQUESTS_COUNTER = "ai.prompt.cache.requests";
+
+    public static final String COALESCE_TIMEOUT_COUNTER = "ai.prompt.cache.coalesce.timeouts";
+
+    private final long ttlNanos;
+
+    private final int maxEntries;
+
+    private final long maxTotalChars;
+
+    private final long coalesceTimeoutNanos;
+
+    private final int order;
+
+    /** 指纹 -> 缓存条目，按访问顺序排列，由 this 保护 */
+    private final LinkedHashMap<String, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalChars;
+
+    /** 指纹 -> 进行中的模型调用 */
+    private final Map<String, CompletableFuture<ChatResponse>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder coalesceTimeouts = new LongAdder();
+
+    private final Counter hitCounter;
+
+    private final Counter coalescedCounter;
+
+    private final Counter missCounter;
+
+    private final Counter coalesceTimeoutCounter;
+
+    private PromptCacheAdvisor(Builder builder) {
+        this.ttlNanos = builder.ttl.toNanos();
+        this.maxEntries = builder.maxEntries;
+        this.maxTotalChars = builder.maxTotalChars;
+        this.coalesceTimeoutNanos = builder.coalesceTimeout.toNanos();
+        this.order = builder.order;
+        this.hitCounter = requestCounter(builder, "hit");
+        this.coalescedCounter = requestCounter(builder, "coalesced");
+        this.missCounter = requestCounter(builder, "miss");
+        this.coalesceTimeoutCounter = Counter.builder(COALESCE_TIMEOUT_COUNTER)
+                .description("Coalesced prompt cache requests that stopped waiting and called the model")
+                .tag("app", builder.app)
+                .register(builder.meterRegistry);
+    }
+
+    private static Counter requestCounter(Builder builder, String result) {
+        return Counter.builder(REQUESTS_COUNTER)
+                .description("Prompt cache requests by result")
+                .tags("app", builder.app, "result", result)
+                .register(builder.meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 缓存统计
+     *
+     * @param hits 命中缓存的次数
+     * @param coalesced 合并到进行中请求的次数
+     * @param misses 调用模型的次数
+     * @param evictions 淘汰或过期的条目数
+     * @param size 当前条目数
+     * @param totalChars 当前缓存的字符数
+     * @param coalesceTimeouts 等待进行中请求超时、改为自己调用模型的次数（计入 misses）
+     */
+    public record CacheStats(long hits, long coalesced, long misses, long evictions, int size, long totalChars,
+                             long coalesceTimeouts) {
+    }
+
+    public synchronized CacheStats stats() {
+        return new CacheStats(hits.sum(), coalesced.sum(), misses.sum(), evictions.sum(), cache.size(), totalChars,
+                coalesceTimeouts.sum());
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+        totalChars = 0;
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        String fingerprint = fingerprintIfCacheable(chatClientRequest);
+        if (fingerprint == null) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+        ChatResponse cached = get(fingerprint);
+        if (cached != null) {
+            recordHit();
+            return cachedResponse(chatClientRequest, cached);
+        }
+
+        CompletableFuture<ChatResponse> ours = new CompletableFuture<>();
+        CompletableFuture<ChatResponse> existing = inFlight.putIfAbsent(fingerprint, ours);
+        if (existing != null) {
+            // 相同请求正在调用模型，等待它的结果；等待超时则自己调用模型
+            ChatResponse joined = awaitInFlight(existing);
+            if (joined != null) {
+                coalesced.increment();
+                coalescedCounter.increment();
+                return cachedResponse(chatClientRequest, joined);
+            }
+            recordMiss();
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+
+        try {
+            // 上一个相同请求可能恰好在 get 和 putIfAbsent 之间完成
+            cached = get(fingerprint);
+            if (cached != null) {
+                recordHit();
+                ours.complete(cached);
+                return cachedResponse(chatClientRequest, cached);
+            }
+            recordMiss();
+            ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+            ChatResponse chatResponse = chatClientResponse.chatResponse();
+            if (isCacheable(chatResponse)) {
+                put(fingerprint, chatResponse);
+            }
+            ours.complete(chatResponse);
+            return chatClientResponse;
+        } catch (RuntimeException e) {
+            ours.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(fingerprint, ours);
+        }
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        String fingerprint = fingerprintIfCacheable(chatClientRequest);
+        if (fingerprint == null) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+        ChatResponse cached = get(fingerprint);
+        if (cached != null) {
+            recordHit();
+            return Flux.just(cachedResponse(chatClientRequest, cached));
+        }
+        // 流式调用不做请求合并，结束后写入缓存供后续请求复用
+        recordMiss();
+        return new ChatClientMessageAggregator().aggregateChatClientResponse(
+                streamAdvisorChain.nextStream(chatClientRequest), response -> {
+                    if (isCacheable(response.chatResponse())) {
+                        put(fingerprint, response.chatResponse());
+                    }
+                });
+    }
+
+    @Override
+    public String getName() {
+        return "提示词缓存的advisor";
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    private void recordHit() {
+        hits.increment();
+        hitCounter.increment();
+    }
+
+    private void recordMiss() {
+        misses.increment();
+        missCounter.increment();
+    }
+
+    /**
+     * 等待进行中的相同请求，最长 coalesceTimeout；超时返回 null，由调用方自己调用模型
+     * 进行中的请求失败时抛出同样的异常
+     */
+    private ChatResponse awaitInFlight(CompletableFuture<ChatResponse> inFlightCall) {
+        try {
+            return inFlightCall.get(coalesceTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            coalesceTimeouts.increment();
+            coalesceTimeoutCounter.increment();
+            log.warn("Identical prompt still in flight after {} ms, calling the model directly",
+                    TimeUnit.NANOSECONDS.toMillis(coalesceTimeoutNanos));
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an identical in-flight prompt", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException
+                    ? runtimeException : new IllegalStateException(e.getCause());
+        }
+    }
+
+    // ---------------------------------------------------------------- 指纹
+
+    /**
+     * 计算请求指纹，不适合缓存的请求返回 null
+     */
+    private static String fingerprintIfCacheable(ChatClientRequest request) {
+        if (Boolean.TRUE.equals(request.context().get(BYPASS))) {
+            return null;
+        }
+        MessageDigest digest = sha256();
+        for (Message message : request.prompt().getInstructions()) {
+            // 带图片等多媒体内容的请求不缓存
+            if (message instanceof UserMessage userMessage && !userMessage.getMedia().isEmpty()) {
+                return null;
+            }
+            update(digest, message.getMessageType().getValue());
+            update(digest, message.getText());
+            if (message instanceof AssistantMessage assistantMessage && assistantMessage.hasToolCalls()) {
+                update(digest, assistantMessage.getToolCalls().toString());
+            }
+        }
+        ChatOptions options = request.prompt().getOptions();
+        update(digest, options == null ? "" : ModelOptionsUtils.toJsonString(options));
+        Object outputFormat = request.context().get(ChatClientAttributes.OUTPUT_FORMAT.getKey());
+        update(digest, outputFormat == null ? "" : outputFormat.toString());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        // 长度前缀避免不同切分方式拼出相同的字节串
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // ---------------------------------------------------------------- 缓存
+
+    private record Entry(ChatResponse response, long expiresAtNanos, int chars) {
+    }
+
+    private synchronized ChatResponse get(String fingerprint) {
+        Entry entry = cache.get(fingerprint);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAtNanos() > 0) {
+            remove(fingerprint);
+            return null;
+        }
+        return entry.response();
+    }
+
+    private synchronized void put(String fingerprint, ChatResponse response) {
+        int chars = response.getResult().getOutput().getText().length();
+        if (chars > maxTotalChars) {
+            return;
+        }
+        Entry previous = cache.put(fingerprint, new Entry(response, System.nanoTime() + ttlNanos, chars));
+        if (previous != null) {
+            totalChars -= previous.chars();
+        }
+        totalChars += chars;
+
+        Iterator<Map.Entry<String, Entry>> eldest = cache.entrySet().iterator();
+        while ((cache.size() > maxEntries || totalChars > maxTotalChars) && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            totalChars -= evicted.chars();
+            evictions.increment();
+        }
+    }
+
+    private void remove(String fingerprint) {
+        Entry removed = cache.remove(fingerprint);
+        if (removed != null) {
+            totalChars -= removed.chars();
+            evictions.increment();
+        }
+    }
+
+    private static boolean isCacheable(ChatResponse chatResponse) {
+        return chatResponse != null
+                && chatResponse.getResult() != null
+                && !chatResponse.hasToolCalls()
+                && StringUtils.hasText(chatResponse.getResult().getOutput().getText());
+    }
+
+    private static ChatClientResponse cachedResponse(ChatClientRequest request, ChatResponse chatResponse) {
+        Map<String, Object> context = new HashMap<>(request.context());
+        context.put(CACHE_HIT, true);
+        return ChatClientResponse.builder()
+                .chatResponse(chatResponse)
+                .context(context)
+                .build();
+    }
+
+    public static final class Builder {
+
+        private Duration ttl = Duration.ofMinutes(10);
+
+        private int maxEntries = 500;
+
+        private long maxTotalChars = 2_000_000;
+
+        private Duration coalesceTimeout = Duration.ofSeconds(60);
+
+        private String app = "default";
+
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private int order = 100;
+
+        private Builder() {
+        }
+
+        /**
+         * 条目写入后的有效期
+         */
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = Math.max(1, maxEntries);
+            return this;
+        }
+
+        /**
+         * 缓存回答的总字符数上限，用于限制内存占用
+         */
+        public Builder maxTotalChars(long maxTotalChars) {
+            this.maxTotalChars = Math.max(1, maxTotalChars);
+            return this;
+        }
+
+        /**
+         * 合并的请求等待进行中请求的最长时间，超时后自己调用模型，默认 60 秒
+         */
+        public Builder coalesceTimeout(Duration coalesceTimeout) {
+            this.coalesceTimeout = coalesceTimeout;
+            return this;
+        }
+
+        /** app 标签，区分不同的应用 */
+        public Builder app(String app) {
+            this.app = app;
+            return this;
+        }
+
+        /**
+         * 指标注册表，默认为全局注册表
+         */
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public PromptCacheAdvisor build() {
+            Assert.notNull(coalesceTimeout, "coalesceTimeout cannot be null");
+            Assert.isTrue(coalesceTimeout.toNanos() > 0, "coalesceTimeout must be positive");
+            Assert.hasText(app, "app cannot be empty");
+            Assert.notNull(meterRegistry, "meterRegistry cannot be null");
+            return new PromptCacheAdvisor(this);
+        }
+    }
+}
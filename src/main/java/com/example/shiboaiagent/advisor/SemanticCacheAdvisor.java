@@ -0,0 +1,425 @@
+package com.example.shiboaiagent.advisor;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClientAttributes;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 语义缓存advisor：按用户消息的向量相似度复用已有回答
+ *
+ * 工作方式：
+ * - 对用户消息做向量化，在同一作用域（渲染后的系统提示词 + 结构化输出格式）内查找相似度最高的缓存回答
+ * - 相似度不低于阈值时直接返回缓存的回答，不再调用模型；流式调用时把缓存回答切成片段以 Flux 回放
+ * - 未命中时调用模型，并把回答写入缓存
+ * - 默认只缓存对话的第一轮（提示词中除系统消息外只有当前用户消息），多轮对话的回答依赖上下文，不适合复用
+ * - 缓存条目数超过上限时按最近访问时间淘汰，超过 TTL 的条目在查找时清除
+ * - 作用域内还没有缓存条目时不在查找阶段向量化，直接调用模型，写入缓存时再计算向量，冷启动阶段不增加首字延迟
+ *
+ * 顺序位于记忆advisor之后（命中时记忆advisor照常保存问答）、检索和日志advisor之前。
+ */
+@Slf4j
+public class SemanticCacheAdvisor implements CallAdvisor, StreamAdvisor {
+
+    /** 请求上下文中设置为 true 时跳过语义缓存 */
+    public static final String BYPASS = "semantic_cache_bypass";
+
+    /** 命中缓存时在响应上下文中设置为 true */
+    public static final String CACHE_HIT = "semantic_cache_hit";
+
+    private final EmbeddingModel embeddingModel;
+
+    private final double similarityThreshold;
+
+    private final int maxEntries;
+
+    private final long ttlNanos;
+
+    private final boolean openingTurnOnly;
+
+    private final int replayChunkSize;
+
+    private final int order;
+
+    /** 作用域 -> 缓存条目；查找时只扫描同一作用域，写少读多用 CopyOnWriteArrayList */
+    private final Map<String, CopyOnWriteArrayList<Entry>> entriesByScope = new ConcurrentHashMap<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private SemanticCacheAdvisor(Builder builder) {
+        this.embeddingModel = builder.embeddingModel;
+        this.similarityThreshold = builder.similarityThreshold;
+        this.maxEntries = builder.maxEntries;
+        this.ttlNanos = builder.ttl.toNanos();
+        this.openingTurnOnly = builder.openingTurnOnly;
+        this.replayChunkSize = builder.replayChunkSize;
+        this.order = builder.order;
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    /**
+     * 缓存统计
+     *
+     * @param hits 命中次数
+     * @param misses 未命中次数
+     * @param evictions 淘汰的条目数
+     * @param size 当前条目数
+     */
+    public record CacheStats(long hits, long misses, long evictions, int size) {
+
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), size.get());
+    }
+
+    /**
+     * 清空缓存（例如更新了系统提示词或知识库之后）
+     */
+    public void clear() {
+        entriesByScope.clear();
+        size.set(0);
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        Lookup lookup = lookup(chatClientRequest);
+        if (lookup == null) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+        if (lookup.hit() != null) {
+            return cachedResponse(chatClientRequest, lookup.hit().response);
+        }
+        ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(chatClientRequest);
+        store(lookup, chatClientResponse);
+        return chatClientResponse;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        Lookup lookup = lookup(chatClientRequest);
+        if (lookup == null) {
+            return streamAdvisorChain.nextStream(chatClientRequest);
+        }
+        if (lookup.hit() != null) {
+            return replay(chatClientRequest, lookup.hit().response);
+        }
+        // 流结束后把聚合的完整回答写入缓存
+        return new ChatClientMessageAggregator().aggregateChatClientResponse(
+                streamAdvisorChain.nextStream(chatClientRequest), response -> store(lookup, response));
+    }
+
+    @Override
+    public String getName() {
+        return "语义缓存的advisor";
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    // ---------------------------------------------------------------- 查找与写入
+
+    /**
+     * 一次查找的结果
+     *
+     * @param scope 作用域
+     * @param text 用户消息
+     * @param embedding 用户消息的向量（已归一化），未命中时用于写入；作用域为空、跳过了向量化时为 null
+     * @param hit 命中的条目，未命中为 null
+     */
+    private record Lookup(String scope, String text, float[] embedding, Entry hit) {
+    }
+
+    private static final class Entry {
+        final String scope;
+        final float[] embedding;
+        final ChatResponse response;
+        final long createdNanos;
+        volatile long lastAccessNanos;
+
+        Entry(String scope, float[] embedding, ChatResponse response) {
+            this.scope = scope;
+            this.embedding = embedding;
+            this.response = response;
+            this.createdNanos = System.nanoTime();
+            this.lastAccessNanos = createdNanos;
+        }
+    }
+
+    /**
+     * 查找缓存，请求不适合使用缓存时返回 null
+     */
+    private Lookup lookup(ChatClientRequest request) {
+        if (Boolean.TRUE.equals(request.context().get(BYPASS))) {
+            return null;
+        }
+        List<Message> instructions = request.prompt().getInstructions();
+        if (openingTurnOnly && instructions.stream()
+                .filter(message -> message.getMessageType() != MessageType.SYSTEM)
+                .count() > 1) {
+            return null;
+        }
+        String userText = request.prompt().getUserMessage().getText();
+        if (!StringUtils.hasText(userText)) {
+            return null;
+        }
+
+        String scope = scopeOf(request);
+        String text = userText.strip();
+        List<Entry> entries = entriesByScope.get(scope);
+        if (entries == null || entries.isEmpty()) {
+            // 没有可比较的条目，不必为查找调用向量模型
+            misses.increment();
+            return new Lookup(scope, text, null, null);
+        }
+        float[] embedding = normalize(embeddingModel.embed(text));
+        Entry best = null;
+        double bestScore = similarityThreshold;
+        long now = System.nanoTime();
+        for (Entry entry : entries) {
+            if (now - entry.createdNanos > ttlNanos) {
+                remove(entry);
+                continue;
+            }
+            double score = dot(embedding, entry.embedding);
+            if (score >= bestScore) {
+                bestScore = score;
+                best = entry;
+            }
+        }
+
+        if (best != null) {
+            best.lastAccessNanos = System.nanoTime();
+            hits.increment();
+            log.debug("Semantic cache hit, similarity {}", bestScore);
+        } else {
+            misses.increment();
+        }
+        return new Lookup(scope, text, embedding, best);
+    }
+
+    private void store(Lookup lookup, ChatClientResponse response) {
+        ChatResponse chatResponse = response.chatResponse();
+        if (chatResponse == null || chatResponse.getResult() == null || chatResponse.hasToolCalls()) {
+            return;
+        }
+        if (!StringUtils.hasText(chatResponse.getResult().getOutput().getText())) {
+            return;
+        }
+        float[] embedding = lookup.embedding();
+        if (embedding == null) {
+            try {
+                embedding = normalize(embeddingModel.embed(lookup.text()));
+            } catch (RuntimeException e) {
+                // 回答已经返回给调用方，向量化失败只是少缓存一条
+                log.warn("Failed to embed question for the semantic cache, answer not cached", e);
+                return;
+            }
+        }
+        entriesByScope.computeIfAbsent(lookup.scope(), key -> new CopyOnWriteArrayList<>())
+                .add(new Entry(lookup.scope(), embedding, chatResponse));
+        if (size.incrementAndGet() > maxEntries) {
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    /**
+     * 淘汰最近最少访问的条目，一次淘汰约 10% 以摊薄排序成本
+     */
+    private synchronized void evictLeastRecentlyUsed() {
+        if (size.get() <= maxEntries) {
+            return;
+        }
+        List<Entry> all = new ArrayList<>(size.get());
+        entriesByScope.values().forEach(all::addAll);
+        all.sort(Comparator.comparingLong(entry -> entry.lastAccessNanos));
+        int toEvict = Math.max(all.size() - maxEntries, Math.max(1, maxEntries / 10));
+        for (int i = 0; i < toEvict && i < all.size(); i++) {
+            remove(all.get(i));
+        }
+    }
+
+    private void remove(Entry entry) {
+        List<Entry> entries = entriesByScope.get(entry.scope);
+        if (entries != null && entries.remove(entry)) {
+            size.decrementAndGet();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * 作用域：渲染后的系统提示词（已包含 occupation 等参数）+ 结构化输出格式
+     */
+    private static String scopeOf(ChatClientRequest request) {
+        StringBuilder scope = new StringBuilder();
+        for (Message message : request.prompt().getInstructions()) {
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                scope.append(message.getText()).append('\u0000');
+            }
+        }
+        Object outputFormat = request.context().get(ChatClientAttributes.OUTPUT_FORMAT.getKey());
+        if (outputFormat != null) {
+            scope.append(outputFormat);
+        }
+        return scope.toString();
+    }
+
+    // ---------------------------------------------------------------- 命中时的响应
+
+    private static ChatClientResponse cachedResponse(ChatClientRequest request, ChatResponse chatResponse) {
+        Map<String, Object> context = new HashMap<>(request.context());
+        context.put(CACHE_HIT, true);
+        return ChatClientResponse.builder()
+                .chatResponse(chatResponse)
+                .context(context)
+                .build();
+    }
+
+    /**
+     * 把缓存的回答切成片段回放，调用方看到的与模型流式输出一致
+     */
+    private Flux<ChatClientResponse> replay(ChatClientRequest request, ChatResponse chatResponse) {
+        String text = chatResponse.getResult().getOutput().getText();
+        List<ChatClientResponse> chunks = new ArrayList<>();
+        for (int start = 0; start < text.length(); start += replayChunkSize) {
+            String piece = text.substring(start, Math.min(text.length(), start + replayChunkSize));
+            ChatResponse chunk = new ChatResponse(List.of(new Generation(new AssistantMessage(piece))));
+            chunks.add(cachedResponse(request, chunk));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    // ---------------------------------------------------------------- 向量运算
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = vector.clone();
+        if (norm > 0) {
+            float inverse = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] *= inverse;
+            }
+        }
+        return normalized;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    public static final class Builder {
+
+        private final EmbeddingModel embeddingModel;
+
+        private double similarityThreshold = 0.95;
+
+        private int maxEntries = 1000;
+
+        private Duration ttl = Duration.ofHours(1);
+
+        private boolean openingTurnOnly = true;
+
+        private int replayChunkSize = 32;
+
+        private int order = -100;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+        }
+
+        /**
+         * 余弦相似度阈值，不低于该值视为同一个问题
+         */
+        public Builder similarityThreshold(double similarityThreshold) {
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = Math.max(1, maxEntries);
+            return this;
+        }
+
+        /**
+         * 条目写入后的有效期
+         */
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        /**
+         * 是否只缓存对话的第一轮
+         */
+        public Builder openingTurnOnly(boolean openingTurnOnly) {
+            this.openingTurnOnly = openingTurnOnly;
+            return this;
+        }
+
+        /**
+         * 流式回放时每个片段的字符数
+         */
+        public Builder replayChunkSize(int replayChunkSize) {
+            this.replayChunkSize = Math.max(1, replayChunkSize);
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public SemanticCacheAdvisor build() {
+            return new SemanticCacheAdvisor(this);
+        }
+    }
+}
@@ -1,35 +1,203 @@
 package com.example.shiboaiagent.advisor;
 
+import com.example.shiboaiagent.sensitive.SensitiveWordMatcher;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
 import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
 import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
 import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.core.Ordered;
+import org.springframework.util.Assert;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 敏感词过滤advisor：屏蔽用户输入和模型输出中的敏感词
+ *
+ * 匹配由 {@link SensitiveWordMatcher}（Aho-Corasick 自动机）完成，每次请求从 matcherSupplier 取当前的匹配器，
+ * 词典热更新后下一个请求即生效；同一个请求（包括整个流）始终使用同一个匹配器。
+ *
+ * - 用户消息在进入记忆和检索之前屏蔽，命中时在请求上下文中设置 {@link #INPUT_MASKED}
+ * - 同步调用屏蔽完整的回答文本
+ * - 流式调用逐片段屏蔽：跨片段的敏感词也能屏蔽，只扣留可能是敏感词开头的少量尾部字符，
+ *   流结束时补发扣留的字符
+ *
+ * 默认顺序排在记忆advisor之前，记忆中保存的是屏蔽后的用户消息。
+ */
+@Slf4j
 public class SensitiveWordFilteringAdvisor implements CallAdvisor, StreamAdvisor {
+
+    /** 用户消息中包含敏感词并已屏蔽时在请求上下文中设置为 true */
+    public static final String INPUT_MASKED = "sensitive_word_input_masked";
+
+    private final Supplier<SensitiveWordMatcher> matcherSupplier;
+
+    private final char maskChar;
+
+    private final int order;
+
+    private SensitiveWordFilteringAdvisor(Builder builder) {
+        this.matcherSupplier = builder.matcherSupplier;
+        this.maskChar = builder.maskChar;
+        this.order = builder.order;
+    }
+
+    public static Builder builder(Supplier<SensitiveWordMatcher> matcherSupplier) {
+        return new Builder(matcherSupplier);
+    }
+
     @Override
     public String getName() {
-        return "";
+        return "敏感词过滤的advisor";
     }
 
     @Override
     public int getOrder() {
-        return 0;
+        return order;
     }
 
     @Override
     public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
-        return null;
+        SensitiveWordMatcher matcher = matcherSupplier.get();
+        ChatClientResponse chatClientResponse = callAdvisorChain.nextCall(beforeCall(chatClientRequest, matcher));
+        ChatResponse chatResponse = chatClientResponse.chatResponse();
+        if (chatResponse == null || matcher.wordCount() == 0) {
+            return chatClientResponse;
+        }
+        List<Generation> generations = new ArrayList<>(chatResponse.getResults().size());
+        boolean changed = false;
+        for (Generation generation : chatResponse.getResults()) {
+            String text = generation.getOutput().getText();
+            // 没有命中时 mask 返回原字符串实例
+            String masked = matcher.mask(text, maskChar);
+            changed |= masked != text;
+            generations.add(masked == text ? generation : withText(generation, masked));
+        }
+        if (!changed) {
+            return chatClientResponse;
+        }
+        log.info("Sensitive words masked in model response");
+        return withChatResponse(chatClientResponse, new ChatResponse(generations, chatResponse.getMetadata()));
     }
 
     @Override
     public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
-        return null;
+        return Flux.defer(() -> {
+            SensitiveWordMatcher matcher = matcherSupplier.get();
+            ChatClientRequest filtered = beforeCall(chatClientRequest, matcher);
+            if (matcher.wordCount() == 0) {
+                return streamAdvisorChain.nextStream(filtered);
+            }
+            // 每个流一个屏蔽器，只处理第一个候选回答
+            SensitiveWordMatcher.StreamMasker masker = matcher.streamMasker(maskChar);
+            AtomicReference<ChatClientResponse> last = new AtomicReference<>();
+            return streamAdvisorChain.nextStream(filtered)
+                    .map(response -> {
+                        last.set(response);
+                        return maskChunk(response, masker);
+                    })
+                    .concatWith(Mono.fromSupplier(() -> {
+                        String tail = masker.finish();
+                        ChatClientResponse lastResponse = last.get();
+                        if (tail.isEmpty() || lastResponse == null) {
+                            return null;
+                        }
+                        ChatResponse chatResponse = new ChatResponse(List.of(new Generation(new AssistantMessage(tail))));
+                        return withChatResponse(lastResponse, chatResponse);
+                    }));
+        });
     }
 
-    public void beforeCall(ChatClientRequest chatClientRequest) {
-        // 实现敏感词过滤逻辑
+    /**
+     * 屏蔽用户消息
+     */
+    private ChatClientRequest beforeCall(ChatClientRequest request, SensitiveWordMatcher matcher) {
+        if (matcher.wordCount() == 0 || request.prompt().getUserMessage() == null) {
+            return request;
+        }
+        String userText = request.prompt().getUserMessage().getText();
+        String masked = matcher.mask(userText, maskChar);
+        if (masked == userText) {
+            return request;
+        }
+        log.info("Sensitive words masked in user message");
+        Map<String, Object> context = new HashMap<>(request.context());
+        context.put(INPUT_MASKED, true);
+        return request.mutate()
+                .prompt(request.prompt().augmentUserMessage(masked))
+                .context(context)
+                .build();
+    }
+
+    private static ChatClientResponse maskChunk(ChatClientResponse response, SensitiveWordMatcher.StreamMasker masker) {
+        ChatResponse chatResponse = response.chatResponse();
+        if (chatResponse == null || chatResponse.getResult() == null) {
+            return response;
+        }
+        Generation generation = chatResponse.getResult();
+        String text = generation.getOutput().getText();
+        if (text == null) {
+            return response;
+        }
+        List<Generation> generations = new ArrayList<>(chatResponse.getResults());
+        generations.set(0, withText(generation, masker.append(text)));
+        return withChatResponse(response, new ChatResponse(generations, chatResponse.getMetadata()));
+    }
+
+    private static Generation withText(Generation generation, String text) {
+        AssistantMessage output = generation.getOutput();
+        return new Generation(new AssistantMessage(text, output.getMetadata(), output.getToolCalls(), output.getMedia()),
+                generation.getMetadata());
+    }
+
+    private static ChatClientResponse withChatResponse(ChatClientResponse response, ChatResponse chatResponse) {
+        return ChatClientResponse.builder()
+                .chatResponse(chatResponse)
+                .context(response.context())
+                .build();
+    }
+
+    public static final class Builder {
+
+        private final Supplier<SensitiveWordMatcher> matcherSupplier;
+
+        private char maskChar = '*';
+
+        /** 在记忆advisor（HIGHEST_PRECEDENCE + 1000）之前 */
+        private int order = Ordered.HIGHEST_PRECEDENCE + 500;
+
+        private Builder(Supplier<SensitiveWordMatcher> matcherSupplier) {
+            this.matcherSupplier = matcherSupplier;
+        }
+
+        /**
+         * 替换敏感词的字符，默认 *
+         */
+        public Builder maskChar(char maskChar) {
+            this.maskChar = maskChar;
+            return this;
+        }
+
+        public Builder order(int order) {
+            this.order = order;
+            return this;
+        }
+
+        public SensitiveWordFilteringAdvisor build() {
+            Assert.notNull(matcherSupplier, "matcherSupplier cannot be null");
+            return new SensitiveWordFilteringAdvisor(this);
+        }
     }
 }
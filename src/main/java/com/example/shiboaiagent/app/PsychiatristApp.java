@@ -1,7 +1,22 @@
 package com.example.shiboaiagent.app;
 
 
+import com.example.shiboaiagent.advisor.ConversationTurnAdvisor;
+import com.example.shiboaiagent.advisor.MetricsAdvisor;
 import com.example.shiboaiagent.advisor.MySimpleLoggerAdvisor;
+import com.example.shiboaiagent.advisor.PromptCacheAdvisor;
+import com.example.shiboaiagent.advisor.SemanticCacheAdvisor;
+import com.example.shiboaiagent.advisor.SensitiveWordFilteringAdvisor;
+import com.example.shiboaiagent.chatmemory.ConversationLockStripes;
+import com.example.shiboaiagent.chatmemory.StripedLockChatMemory;
+import com.example.shiboaiagent.chatmemory.TokenBudgetChatMemory;
+import com.example.shiboaiagent.chatmemoryrepository.MeteredChatMemoryRepository;
+import com.example.shiboaiagent.logging.AdvisorEventLog;
+import com.example.shiboaiagent.rag.MeteredEmbeddingModel;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Tags;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
@@ -9,11 +24,15 @@ import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvi
 import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
 import org.springframework.ai.chat.memory.ChatMemory;
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.springframework.ai.chat.memory.ChatMemory.CONVERSATION_ID;
 import static org.springframework.ai.chat.memory.ChatMemory.DEFAULT_CONVERSATION_ID;
@@ -29,10 +48,13 @@ import static org.springframework.ai.chat.memory.ChatMemory.DEFAULT_CONVERSATION
  * 4. 记录完整的交互日志
  *
  * 技术特点：
- * - 使用 MessageWindowChatMemory 实现滑动窗口记忆
+ * - 使用 TokenBudgetChatMemory 按token预算裁剪历史记忆
+ * - 同一会话的多轮对话按到达顺序串行执行，后一轮总能看到前一轮的回答
  * - 支持多用户会话隔离
  * - 集成自定义日志记录顾问
+ * - 语义缓存：相似的开场问题直接复用已有回答
  * - 支持结构化数据输出
+ * - 支持流式输出，配合SSE接口逐段推送回答
  */
 
 @Slf4j
@@ -45,6 +67,27 @@ public class PsychiatristApp {
     /** 聊天记忆 - 负责维护对话历史和上下文 */
     private ChatMemory chatMemory;
 
+    /** 按token预算裁剪的记忆 - 用于查看节省的token数 */
+    private TokenBudgetChatMemory tokenBudgetChatMemory;
+
+    /** 按对话加锁的记忆 - 用于查看锁竞争情况 */
+    private StripedLockChatMemory stripedLockChatMemory;
+
+    /** 按对话串行执行整轮对话 - 用于查看排队情况 */
+    private ConversationTurnAdvisor conversationTurnAdvisor;
+
+    /** 语义缓存 - 相似问题复用已有回答 */
+    private SemanticCacheAdvisor semanticCacheAdvisor;
+
+    /** 指标中的 app 标签 */
+    private static final String METRICS_APP = "psychiatrist";
+
+    /** 已创建的实例数，用于生成指标中的 instance 标签 */
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    /** 日志顾问 - 开启异步日志时切换为后台写出 */
+    private final MySimpleLoggerAdvisor loggerAdvisor = new MySimpleLoggerAdvisor();
+
     /** 默认系统提示词 - 用于基础对话的AI角色设定 */
     private final String DEFAULT_ADVISOR = "你是一位{occupation}，你会帮助到用户";
 
@@ -53,7 +96,7 @@ public class PsychiatristApp {
         你是一位专业的{occupation}，请根据患者的症状和描述进行分析。
         在每次对话后，都要生成一份诊断报告，格式如下：
         
-        标题：{用户名}的诊断报告
+        标题：[用户名]的诊断报告
         诊断建议：
         1. [具体建议1]
         2. [具体建议2]
@@ -66,31 +109,108 @@ public class PsychiatristApp {
     /**
      * 构造函数 - 初始化心理医生聊天客户端
      * @param dashScopeChatModel DashScope聊天模型，用于AI对话
+     * @param dashScopeEmbeddingModel DashScope向量模型，用于语义缓存的相似度比较
      */
-    public PsychiatristApp(ChatModel dashScopeChatModel) {
+    public PsychiatristApp(ChatModel dashScopeChatModel, EmbeddingModel dashScopeEmbeddingModel) {
 
         // 1. 创建内存聊天记忆仓库 - 负责在内存中存储对话数据
-        ChatMemoryRepository chatMemoryRepository = new InMemoryChatMemoryRepository();
+        //    外层记录记忆加载、保存的耗时
+        ChatMemoryRepository chatMemoryRepository = MeteredChatMemoryRepository.builder(new InMemoryChatMemoryRepository())
+                .app(METRICS_APP)
+                .build();
 
-        // 2. 初始化滑动窗口聊天内存 - 最多保存10条消息，超出后自动删除最旧的消息
-        chatMemory = MessageWindowChatMemory.builder()
+        // 2. 初始化按token预算裁剪的聊天内存 - 每次最多发送约2000 token的历史，系统消息和最近一轮对话始终保留
+        //    外层按对话ID加锁，同一对话的并发请求不会互相覆盖记忆；整轮对话的先后顺序由 ConversationTurnAdvisor 保证
+        tokenBudgetChatMemory = TokenBudgetChatMemory.builder()
                 .chatMemoryRepository(chatMemoryRepository)  // 指定存储仓库
-                .maxMessages(10)                             // 设置最大消息数量
+                .maxTokens(2000)                             // 设置历史token预算
+                .app(METRICS_APP)                            // 每次请求发送、节省的token数记录到指标
                 .build();
+        ConversationLockStripes memoryLocks = new ConversationLockStripes(64);
+        stripedLockChatMemory = new StripedLockChatMemory(tokenBudgetChatMemory, memoryLocks);
+        chatMemory = stripedLockChatMemory;
+        conversationTurnAdvisor = ConversationTurnAdvisor.builder().build();
+        //    锁的获取次数、等待次数、累计等待时长、当前排队线程数以及整轮对话的排队情况发布为指标
+        //    这些指标读取本实例的统计对象，instance 标签区分同一进程内的多个实例，否则后注册的实例会复用先注册的计量器
+        Tags metricTags = Tags.of("app", METRICS_APP, "instance", String.valueOf(INSTANCES.incrementAndGet()));
+        FunctionCounter.builder("ai.memory.lock.acquisitions", memoryLocks, locks -> locks.stats(0).acquisitions())
+                .tags(metricTags)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("ai.memory.lock.contended", memoryLocks, locks -> locks.stats(0).contended())
+                .tags(metricTags)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("ai.memory.lock.wait", memoryLocks,
+                        locks -> locks.stats(0).totalWaitNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+                .baseUnit("seconds")
+                .tags(metricTags)
+                .register(Metrics.globalRegistry);
+        Gauge.builder("ai.memory.lock.queued", memoryLocks, ConversationLockStripes::queuedThreads)
+                .tags(metricTags)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("ai.memory.turn.queued", conversationTurnAdvisor,
+                        advisor -> advisor.stats().queued())
+                .tags(metricTags)
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("ai.memory.turn.wait", conversationTurnAdvisor,
+                        advisor -> advisor.stats().totalWaitNanos() / (double) TimeUnit.SECONDS.toNanos(1))
+                .baseUnit("seconds")
+                .tags(metricTags)
+                .register(Metrics.globalRegistry);
 
-        // 3. 构建聊天客户端
+        // 3. 语义缓存 - 同一系统提示词下相似的开场问题直接返回缓存的回答
+        //    向量模型外层记录向量化耗时
+        semanticCacheAdvisor = SemanticCacheAdvisor.builder(
+                        MeteredEmbeddingModel.builder(dashScopeEmbeddingModel).app(METRICS_APP).build())
+                .build();
+        //    缓存命中、未命中次数发布为指标
+        FunctionCounter.builder("ai.semantic.cache.requests", semanticCacheAdvisor, cache -> cache.stats().hits())
+                .tags(metricTags.and("result", "hit"))
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("ai.semantic.cache.requests", semanticCacheAdvisor, cache -> cache.stats().misses())
+                .tags(metricTags.and("result", "miss"))
+                .register(Metrics.globalRegistry);
+
+        // 4. 构建聊天客户端
         chatClient = ChatClient.builder(dashScopeChatModel)
                 .defaultSystem(DEFAULT_ADVISOR)  // 设置默认系统提示词
                 .defaultAdvisors(
+                        // 轮次顾问 - 同一会话的下一轮等上一轮写完记忆后再开始
+                        conversationTurnAdvisor,
                         // 记忆顾问 - 负责管理对话历史和上下文
                         MessageChatMemoryAdvisor.builder(chatMemory)
                                 .build(),
+                        // 语义缓存顾问 - 命中时不再调用模型
+                        semanticCacheAdvisor,
                         // 日志顾问 - 负责记录请求和响应日志
-                        new MySimpleLoggerAdvisor()
+                        loggerAdvisor,
+                        // 提示词缓存顾问 - 完整提示词相同的请求只调用一次模型
+                        PromptCacheAdvisor.builder().app(METRICS_APP).build(),
+                        // 指标顾问 - 紧挨着模型调用，记录模型耗时、首字延迟和token用量
+                        MetricsAdvisor.builder().app(METRICS_APP).build()
                 )
                 .build();
     }
 
+    /**
+     * 开启敏感词过滤时由容器注入，把敏感词过滤顾问加入聊天客户端的默认顾问
+     * @param sensitiveWordFilteringAdvisor 敏感词过滤顾问，屏蔽用户输入和模型输出中的敏感词
+     */
+    @Autowired(required = false)
+    public void setSensitiveWordFilteringAdvisor(SensitiveWordFilteringAdvisor sensitiveWordFilteringAdvisor) {
+        chatClient = chatClient.mutate()
+                .defaultAdvisors(sensitiveWordFilteringAdvisor)
+                .build();
+    }
+
+    /**
+     * 开启异步日志时由容器注入，日志顾问改为把事件放入队列、由后台线程写出
+     * @param advisorEventLog 日志顾问的异步事件日志
+     */
+    @Autowired(required = false)
+    public void setAdvisorEventLog(AdvisorEventLog advisorEventLog) {
+        loggerAdvisor.setEventLog(advisorEventLog);
+    }
+
     /**
      * 基础聊天方法 - 与AI进行简单对话
      * @param message 用户输入的消息
@@ -98,10 +218,21 @@ public class PsychiatristApp {
      * @return AI的回复内容
      */
     public String doChat(String message, String chatId) {
+        return doChat(message, chatId, false);
+    }
+
+    /**
+     * 基础聊天方法 - 可以跳过回答缓存
+     * @param message 用户输入的消息
+     * @param chatId 对话会话ID，用于区分不同用户/会话的记忆
+     * @param bypassCache 为 true 时跳过语义缓存和提示词缓存，一定调用模型
+     * @return AI的回复内容
+     */
+    public String doChat(String message, String chatId, boolean bypassCache) {
         String content = chatClient.prompt()
                 .system(sp -> sp.param("occupation","医生"))  // 设置AI角色为医生
                 .user(message)                               // 用户消息
-                .advisors(advisorSpec -> advisorSpec.param(CONVERSATION_ID, chatId))  // 指定会话ID
+                .advisors(advisorSpec -> cacheParams(advisorSpec, chatId, bypassCache))  // 指定会话ID和缓存开关
                 .call()     // 同步调用
                 .content(); // 获取响应内容
 
@@ -109,14 +240,74 @@ public class PsychiatristApp {
         return content;
     }
 
+    /**
+     * 流式聊天方法 - 模型每生成一段文本就立即返回，不必等待完整回答
+     * 记忆顾问在流结束后把完整回答写入对话记忆；客户端中途断开时本轮回答不会写入记忆
+     * @param message 用户输入的消息
+     * @param chatId 对话会话ID，用于区分不同用户/会话的记忆
+     * @return AI回复的文本片段流
+     */
+    public Flux<String> doChatByStream(String message, String chatId) {
+        return doChatByStream(message, chatId, false);
+    }
+
+    /**
+     * 流式聊天方法 - 可以跳过回答缓存
+     * @param message 用户输入的消息
+     * @param chatId 对话会话ID，用于区分不同用户/会话的记忆
+     * @param bypassCache 为 true 时跳过语义缓存和提示词缓存，一定调用模型
+     * @return AI回复的文本片段流
+     */
+    public Flux<String> doChatByStream(String message, String chatId, boolean bypassCache) {
+        return chatClient.prompt()
+                .system(sp -> sp.param("occupation","医生"))  // 设置AI角色为医生
+                .user(message)                               // 用户消息
+                .advisors(advisorSpec -> cacheParams(advisorSpec, chatId, bypassCache))  // 指定会话ID和缓存开关
+                .stream()   // 流式调用
+                .content(); // 获取文本片段
+    }
 
+    private static void cacheParams(ChatClient.AdvisorSpec advisorSpec, String chatId, boolean bypassCache) {
+        advisorSpec.param(CONVERSATION_ID, chatId)
+                .param(SemanticCacheAdvisor.BYPASS, bypassCache)
+                .param(PromptCacheAdvisor.BYPASS, bypassCache);
+    }
+
+
+    /**
+     * 记忆裁剪统计，包括每次请求节省的token数
+     */
+    public TokenBudgetChatMemory.TokenBudgetStats chatMemoryTokenStats() {
+        return tokenBudgetChatMemory.stats();
+    }
+
+    /**
+     * 语义缓存的命中统计
+     */
+    public SemanticCacheAdvisor.CacheStats semanticCacheStats() {
+        return semanticCacheAdvisor.stats();
+    }
+
+    /**
+     * 对话记忆的锁竞争统计，包括等待最多的热点对话
+     */
+    public ConversationLockStripes.LockStats memoryLockStats() {
+        return stripedLockChatMemory.lockStats();
+    }
+
+    /**
+     * 同一会话多轮对话的排队统计
+     */
+    public ConversationTurnAdvisor.TurnStats conversationTurnStats() {
+        return conversationTurnAdvisor.stats();
+    }
 
     /**
      * 诊断结果报告数据结构
      * @param title 诊断报告标题
      * @param suggestions 诊断建议列表
      */
-    record DiagnosticResultsReport(String title, List<String> suggestions) {}
+    public record DiagnosticResultsReport(String title, List<String> suggestions) {}
 
     /**
      * 生成诊断报告的聊天方法 - 返回结构化的诊断结果
@@ -1,19 +1,36 @@
 package com.example.shiboaiagent.app;
 
+import com.example.shiboaiagent.advisor.ConversationTurnAdvisor;
+import com.example.shiboaiagent.advisor.HybridSearchAdvisor;
+import com.example.shiboaiagent.advisor.MetricsAdvisor;
 import com.example.shiboaiagent.advisor.MySimpleLoggerAdvisor;
+import com.example.shiboaiagent.advisor.PromptCacheAdvisor;
+import com.example.shiboaiagent.advisor.SensitiveWordFilteringAdvisor;
+import com.example.shiboaiagent.chatmemory.ConversationLockStripes;
+import com.example.shiboaiagent.chatmemory.SummarizingChatMemory;
+import com.example.shiboaiagent.chatmemory.TokenBudgetChatMemory;
+import com.example.shiboaiagent.chatmemoryrepository.CachingChatMemoryRepository;
 import com.example.shiboaiagent.chatmemoryrepository.FileChatMemoryRepository;
-import jakarta.annotation.Resource;
+import com.example.shiboaiagent.chatmemoryrepository.MeteredChatMemoryRepository;
+import com.example.shiboaiagent.logging.AdvisorEventLog;
+import com.example.shiboaiagent.rag.Bm25Index;
+import com.example.shiboaiagent.rag.CachingVectorStore;
+import com.example.shiboaiagent.rag.HybridDocumentRetriever;
+import com.example.shiboaiagent.rag.MeteredVectorStore;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
-import org.springframework.ai.chat.client.advisor.api.Advisor;
-import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.memory.ChatMemoryRepository;
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 
 import java.util.List;
 
@@ -21,18 +38,30 @@ import static org.springframework.ai.chat.memory.ChatMemory.CONVERSATION_ID;
 
 
 @Slf4j
-//@Component  // 暂时注释掉，避免与 PsychiatristApp 冲突
+@Component
 public class PsychiatristApp4PdfDocument {
 
-    //将向量数据库注入到聊天客户端中，以便在对话过程中使用
-    @Resource
-    private VectorStore pagePdfVectorStore;
     /** 聊天客户端 - Spring AI的核心组件，负责与AI模型交互 */
     private ChatClient chatClient;
 
     /** 聊天记忆 - 负责维护对话历史和上下文 */
     private ChatMemory chatMemory;
 
+    /** 滚动摘要记忆 - 应用关闭时需要先结束后台摘要任务 */
+    private final SummarizingChatMemory summarizingChatMemory;
+
+    /** 记忆写回缓存 - 应用关闭时需要把未落盘的对话刷出 */
+    private final CachingChatMemoryRepository chatMemoryCache;
+
+    /** 检索结果缓存 - 相同问题不再重复向量化和检索 */
+    private final CachingVectorStore retrievalCache;
+
+    /** 指标中的 app 标签，查询向量化的指标在 PagePdfVectorStoreConfig 中使用同一个标签 */
+    public static final String METRICS_APP = "pdf-rag";
+
+    /** 日志顾问 - 开启异步日志时切换为后台写出 */
+    private final MySimpleLoggerAdvisor loggerAdvisor = new MySimpleLoggerAdvisor();
+
     /** 默认系统提示词 - 用于基础对话的AI角色设定 */
     private final String DEFAULT_ADVISOR = "你是一位{occupation}，你会帮助到用户";
 
@@ -59,39 +88,133 @@ public class PsychiatristApp4PdfDocument {
         示例：如果患者说失眠，应该给出改善睡眠质量、睡前习惯、作息调整等具体建议。
         """;
 
+    /**
+     * 构造函数 - 初始化心理医生聊天客户端，对话记忆保存在工作目录下的 tmp/chat_memory_rag
+     * @param dashScopeChatModel DashScope聊天模型，用于AI对话
+     * @param pagePdfVectorStore PDF文档向量库，通过构造器注入，构建检索顾问时已经可用
+     * @param pagePdfKeywordIndex PDF文档关键词索引，与向量库包含相同的切片
+     */
+    public PsychiatristApp4PdfDocument(ChatModel dashScopeChatModel, VectorStore pagePdfVectorStore,
+                                       Bm25Index pagePdfKeywordIndex) {
+        this(dashScopeChatModel, pagePdfVectorStore, pagePdfKeywordIndex,
+                System.getProperty("user.dir") + "/tmp/chat_memory_rag");
+    }
+
     /**
      * 构造函数 - 初始化心理医生聊天客户端
      * @param dashScopeChatModel DashScope聊天模型，用于AI对话
+     * @param pagePdfVectorStore PDF文档向量库，通过构造器注入，构建检索顾问时已经可用
+     * @param pagePdfKeywordIndex PDF文档关键词索引，与向量库包含相同的切片
+     * @param fileDir 对话记忆的存储目录，需与 PsychiatristApp4FileChatMemory 使用不同目录，两个写回缓存不会同时写同一份记忆文件
      */
-    public PsychiatristApp4PdfDocument(ChatModel dashScopeChatModel) {
+    @Autowired
+    public PsychiatristApp4PdfDocument(ChatModel dashScopeChatModel, VectorStore pagePdfVectorStore,
+                                       Bm25Index pagePdfKeywordIndex,
+                                       @Value("${chat-memory.file.rag-directory:${user.dir}/tmp/chat_memory_rag}") String fileDir) {
 
-        String fileDir = System.getProperty("user.dir") + "/tmp/chat_memory";
-        // 1. 初始化文件聊天内存仓库 - 存储对话历史和上下文
-        ChatMemoryRepository chatMemoryRepository = new FileChatMemoryRepository(fileDir);
+        // 1. 初始化文件聊天内存仓库 - 存储对话历史和上下文，每轮只追加增量消息
+        //    外层包装写回缓存，热点对话直接从内存读取，写入异步合并刷盘；最外层记录记忆加载、保存的耗时
+        chatMemoryCache = CachingChatMemoryRepository.builder(
+                        new FileChatMemoryRepository(fileDir, FileChatMemoryRepository.StorageMode.APPEND_LOG))
+                .build();
+        ChatMemoryRepository chatMemoryRepository = MeteredChatMemoryRepository.builder(chatMemoryCache)
+                .app(METRICS_APP)
+                .build();
 
-        // 2. 初始化滑动窗口聊天内存 - 最多保存10条消息，超出后自动删除最旧的消息
-        chatMemory = MessageWindowChatMemory.builder()
-                .chatMemoryRepository(chatMemoryRepository)  // 指定存储仓库
-                .maxMessages(10)                             // 设置最大消息数量
+        // 2. 初始化按token预算裁剪的聊天内存 - 每次最多发送约2000 token的历史，系统消息和最近一轮对话始终保留
+        //    外层滚动摘要：超过20条消息后，较早的对话在后台压缩成一条摘要并随记忆持久化，只保留最近10条原文
+        //    摘要记忆按对话ID加锁，同一对话的并发请求不会互相覆盖记忆
+        summarizingChatMemory = SummarizingChatMemory.builder(
+                        TokenBudgetChatMemory.builder()
+                                .chatMemoryRepository(chatMemoryRepository)  // 指定存储仓库
+                                .maxTokens(2000)                             // 设置历史token预算
+                                .app(METRICS_APP)                            // 每次请求发送、节省的token数记录到指标
+                                .build(),
+                        chatMemoryRepository,
+                        dashScopeChatModel)                                  // 生成摘要的模型
+                .locks(new ConversationLockStripes(64))
+                .summarizeAfterMessages(20)
+                .keepRecentMessages(10)
                 .build();
+        chatMemory = summarizingChatMemory;
 
-        // 3. 构建聊天客户端
+        // 3. 初始化检索结果缓存 - 夹在检索顾问和向量库之间，知识库更新（包括目录热更新）后自动失效
+        retrievalCache = CachingVectorStore.builder(pagePdfVectorStore)
+                .maxEntries(1000)
+                .build();
+        //    缓存命中、未命中次数发布为指标
+        FunctionCounter.builder("ai.rag.cache.requests", retrievalCache, cache -> cache.stats().hits())
+                .tags("app", METRICS_APP, "result", "hit")
+                .register(Metrics.globalRegistry);
+        FunctionCounter.builder("ai.rag.cache.requests", retrievalCache, cache -> cache.stats().misses())
+                .tags("app", METRICS_APP, "result", "miss")
+                .register(Metrics.globalRegistry);
+
+        // 4. 构建聊天客户端
         chatClient = ChatClient.builder(dashScopeChatModel)
                 .defaultSystem(DEFAULT_ADVISOR)  // 设置默认系统提示词
                 .defaultAdvisors(
+                        // 轮次顾问 - 同一会话的下一轮等上一轮写完记忆后再开始
+                        ConversationTurnAdvisor.builder().build(),
                         // 记忆顾问 - 负责管理对话历史和上下文
                         MessageChatMemoryAdvisor.builder(chatMemory)
                                 .build(),
                         // 日志顾问 - 负责记录请求和响应日志
-                        new MySimpleLoggerAdvisor(),
+                        loggerAdvisor,
                         //向量数据库存储的是 AI 模型无法感知的数据。当用户问题发送给 AI 模型时，
-                        //QuestionAnswerAdvisor会查询向量数据库，查找与用户问题相关的文档
-                        //来自向量数据库的响应被附加到用户文本中，为 AI 模型生成响应提供上下文
-                        new QuestionAnswerAdvisor(pagePdfVectorStore)
+                        //混合检索顾问同时查询向量数据库和BM25关键词索引，按倒数排名融合两路结果
+                        //检索到的文档被附加到用户文本中，为 AI 模型生成响应提供上下文
+                        HybridSearchAdvisor.builder(
+                                        HybridDocumentRetriever.builder(
+                                                        MeteredVectorStore.builder(retrievalCache).app(METRICS_APP).build(),
+                                                        pagePdfKeywordIndex)
+                                                .topK(4)
+                                                .build())
+                                .build(),
+                        // 提示词缓存顾问 - 检索增强后的完整提示词相同的请求只调用一次模型
+                        PromptCacheAdvisor.builder().app(METRICS_APP).build(),
+                        // 指标顾问 - 紧挨着模型调用，记录模型耗时、首字延迟、token用量和检索到的文档数
+                        MetricsAdvisor.builder().app(METRICS_APP).build()
                 )
                 .build();
     }
 
+    /**
+     * 开启敏感词过滤时由容器注入，把敏感词过滤顾问加入聊天客户端的默认顾问
+     * @param sensitiveWordFilteringAdvisor 敏感词过滤顾问，屏蔽用户输入和模型输出中的敏感词
+     */
+    @Autowired(required = false)
+    public void setSensitiveWordFilteringAdvisor(SensitiveWordFilteringAdvisor sensitiveWordFilteringAdvisor) {
+        chatClient = chatClient.mutate()
+                .defaultAdvisors(sensitiveWordFilteringAdvisor)
+                .build();
+    }
+
+    /**
+     * 开启异步日志时由容器注入，日志顾问改为把事件放入队列、由后台线程写出
+     * @param advisorEventLog 日志顾问的异步事件日志
+     */
+    @Autowired(required = false)
+    public void setAdvisorEventLog(AdvisorEventLog advisorEventLog) {
+        loggerAdvisor.setEventLog(advisorEventLog);
+    }
+
+    /**
+     * 容器关闭时先等待后台摘要任务写完（超时则取消），再停止记忆缓存的后台线程，并把尚未落盘的对话同步写入文件
+     */
+    @PreDestroy
+    public void close() {
+        summarizingChatMemory.close();
+        chatMemoryCache.close();
+    }
+
+    /**
+     * 检索结果缓存的命中统计
+     */
+    public CachingVectorStore.CacheStats retrievalCacheStats() {
+        return retrievalCache.stats();
+    }
+
     /**
      * 诊断结果报告数据结构
      * @param title 诊断报告标题
@@ -118,4 +241,34 @@ public class PsychiatristApp4PdfDocument {
         log.info("诊断报告生成完成: {}", diagnosticResultsReport);
         return diagnosticResultsReport;
     }
+
+    /**
+     * 流式检索增强诊断方法 - 检索PDF知识库后逐段返回诊断建议文本
+     * @param message 用户输入的症状或问题描述
+     * @param chatId 对话会话ID，用于维护对话上下文
+     * @return AI回复的文本片段流
+     */
+    public Flux<String> doChatWithRagByStream(String message, String chatId) {
+        return doChatWithRagByStream(message, chatId, false);
+    }
+
+    /**
+     * 流式检索增强诊断方法 - 可以跳过提示词缓存
+     * @param message 用户输入的症状或问题描述
+     * @param chatId 对话会话ID，用于维护对话上下文
+     * @param bypassCache 为 true 时跳过提示词缓存，一定调用模型
+     * @return AI回复的文本片段流
+     */
+    public Flux<String> doChatWithRagByStream(String message, String chatId, boolean bypassCache) {
+        return chatClient.prompt()
+                .system(sp -> sp
+                        .text(DIAGNOSTIC_SYSTEM_PROMPT)              // 使用诊断专用的系统提示词
+                        .param("occupation", "医生"))                // 设置AI角色
+                .user(message)                                   // 用户症状描述
+                .advisors(advisorSpec -> advisorSpec
+                        .param(CONVERSATION_ID, chatId)              // 指定会话ID
+                        .param(PromptCacheAdvisor.BYPASS, bypassCache))  // 是否跳过提示词缓存
+                .stream()                                        // 流式调用
+                .content();                                      // 获取文本片段
+    }
 }
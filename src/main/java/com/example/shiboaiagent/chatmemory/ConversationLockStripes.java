@@ -0,0 +1,162 @@
+package com.example.shiboaiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 按对话ID分段的锁（lock striping）
+ *
+ * 同一个 conversationId 总是映射到同一把锁，保证同一对话的读-改-写串行执行；
+ * 不同对话大概率落在不同的锁上，可以完全并行。锁的数量固定，不会随对话数量增长。
+ *
+ * 同时统计锁竞争情况：获取次数、发生等待的次数、等待时长、当前排队线程数，
+ * 以及发生等待最多的对话（热点对话）。
+ */
+@Slf4j
+public class ConversationLockStripes {
+
+    /** 最多跟踪的热点对话数量，超过后不再记录新的对话 */
+    private static final int MAX_TRACKED_CONVERSATIONS = 1024;
+
+    /** 等待超过该时长时打印告警日志 */
+    private static final long SLOW_WAIT_NANOS = 100_000_000L;
+
+    private final ReentrantLock[] stripes;
+
+    private final int mask;
+
+    private final LongAdder acquisitions = new LongAdder();
+
+    private final LongAdder contended = new LongAdder();
+
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private final Map<String, LongAdder> contentionByConversation = new ConcurrentHashMap<>();
+
+    /**
+     * 锁竞争统计快照
+     *
+     * @param acquisitions 获取锁的总次数
+     * @param contended 需要等待的次数
+     * @param totalWaitNanos 累计等待时长（纳秒）
+     * @param maxWaitNanos 单次最长等待时长（纳秒）
+     * @param queuedThreads 当前正在排队等待的线程数
+     * @param hotConversations 等待次数最多的对话及其等待次数，按次数降序
+     */
+    public record LockStats(long acquisitions, long contended, long totalWaitNanos, long maxWaitNanos,
+                            int queuedThreads, Map<String, Long> hotConversations) {
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param stripeCount 锁的数量，会向上取整为 2 的幂
+     */
+    public ConversationLockStripes(int stripeCount) {
+        Assert.isTrue(stripeCount > 0, "stripeCount must be positive");
+        int size = Integer.highestOneBit(stripeCount - 1) << 1;
+        size = Math.max(size, 1);
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * 持有对话对应的锁执行操作
+     */
+    public <T> T withLock(String conversationId, Supplier<T> action) {
+        ReentrantLock lock = lockFor(conversationId);
+        acquire(lock, conversationId);
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 持有对话对应的锁执行操作
+     */
+    public void withLock(String conversationId, Runnable action) {
+        withLock(conversationId, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * 当前竞争统计快照
+     *
+     * @param topN 返回的热点对话数量
+     */
+    public LockStats stats(int topN) {
+        int queued = 0;
+        for (ReentrantLock lock : stripes) {
+            queued += lock.getQueueLength();
+        }
+        Map<String, Long> hot = new LinkedHashMap<>();
+        contentionByConversation.entrySet().stream()
+                .map(e -> Map.entry(e.getKey(), e.getValue().sum()))
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(topN)
+                .forEach(e -> hot.put(e.getKey(), e.getValue()));
+        return new LockStats(acquisitions.sum(), contended.sum(), totalWaitNanos.sum(), maxWaitNanos.get(), queued, hot);
+    }
+
+    /**
+     * 当前正在排队等待的线程数
+     */
+    public int queuedThreads() {
+        int queued = 0;
+        for (ReentrantLock lock : stripes) {
+            queued += lock.getQueueLength();
+        }
+        return queued;
+    }
+
+    private ReentrantLock lockFor(String conversationId) {
+        int h = conversationId.hashCode();
+        // 混合高位，避免相似ID集中在少数几把锁上
+        h ^= (h >>> 16);
+        return stripes[h & mask];
+    }
+
+    private void acquire(ReentrantLock lock, String conversationId) {
+        acquisitions.increment();
+        if (lock.tryLock()) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        lock.lock();
+        long waited = System.nanoTime() - start;
+
+        contended.increment();
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        LongAdder counter = contentionByConversation.get(conversationId);
+        if (counter == null && contentionByConversation.size() < MAX_TRACKED_CONVERSATIONS) {
+            counter = contentionByConversation.computeIfAbsent(conversationId, id -> new LongAdder());
+        }
+        if (counter != null) {
+            counter.increment();
+        }
+        if (waited > SLOW_WAIT_NANOS) {
+            log.warn("Conversation {} waited {} ms for its memory lock, {} threads queued",
+                    conversationId, waited / 1_000_000, lock.getQueueLength());
+        }
+    }
+}
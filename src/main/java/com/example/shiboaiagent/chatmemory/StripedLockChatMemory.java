@@ -0,0 +1,65 @@
+package com.example.shiboaiagent.chatmemory;
+
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.util.List;
+
+/**
+ * 按对话加锁的聊天记忆（装饰器）
+ *
+ * MessageWindowChatMemory 的 add 是“读取历史 - 合并新消息 - 整体保存”的读-改-写过程，
+ * 同一对话的两个请求同时到达（重复点击、重试、多个标签页）时，后保存的一方会覆盖前者，导致一轮对话丢失。
+ * 这里用 {@link ConversationLockStripes} 让同一对话的记忆操作串行执行，不同对话之间仍然完全并行。
+ *
+ * 保证范围：锁只覆盖单次 get / add / clear，不覆盖整轮对话（读取历史 - 调用模型 - 写回回答）。
+ * 模型调用耗时数秒，流式响应在其他线程上结束，线程锁无法跨越整轮；整轮的先后顺序由排在记忆advisor之前的
+ * {@link com.example.shiboaiagent.advisor.ConversationTurnAdvisor} 保证，两者配合使用时同一对话的多轮对话按到达顺序执行。
+ * 锁竞争统计通过 {@link #lockStats()} 获取，应用中同时发布为 ai.memory.lock.* 指标。
+ */
+public class StripedLockChatMemory implements ChatMemory {
+
+    /** 被装饰的聊天记忆 */
+    private final ChatMemory delegate;
+
+    /** 按对话分段的锁 */
+    private final ConversationLockStripes locks;
+
+    /**
+     * 构造函数
+     *
+     * @param delegate 被装饰的聊天记忆
+     * @param locks 按对话分段的锁，可以在多个记忆实例之间共享
+     */
+    public StripedLockChatMemory(ChatMemory delegate, ConversationLockStripes locks) {
+        Assert.notNull(delegate, "delegate cannot be null");
+        Assert.notNull(locks, "locks cannot be null");
+        this.delegate = delegate;
+        this.locks = locks;
+    }
+
+    @Override
+    public void add(@NonNull String conversationId, @NonNull List<Message> messages) {
+        locks.withLock(conversationId, () -> delegate.add(conversationId, messages));
+    }
+
+    @Override
+    @NonNull
+    public List<Message> get(@NonNull String conversationId) {
+        return locks.withLock(conversationId, () -> delegate.get(conversationId));
+    }
+
+    @Override
+    public void clear(@NonNull String conversationId) {
+        locks.withLock(conversationId, () -> delegate.clear(conversationId));
+    }
+
+    /**
+     * 锁竞争统计，用于观察热点对话
+     */
+    public ConversationLockStripes.LockStats lockStats() {
+        return locks.stats(10);
+    }
+}
@@ -0,0 +1,453 @@
+package com.example.shiboaiagent.chatmemory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 滚动摘要的聊天记忆（装饰器）
+ *
+ * 对话超过 summarizeAfterMessages 条后，把较早的对话压缩进一条摘要消息，只保留最近 keepRecentMessages 条原文，
+ * 长对话的提示词长度基本保持不变，早先提到的症状、病史等信息也不会随窗口滑动而丢失。
+ *
+ * 摘要在后台线程中增量更新（旧摘要 + 新淘汰的对话 -> 新摘要），请求线程只负责登记任务，不等待模型调用：
+ * 1. 持有对话锁读取待压缩的消息，释放锁后调用模型生成摘要；
+ * 2. 再次持有对话锁，确认这些消息仍在历史开头后，用摘要替换它们并保存；期间历史被清空或改写则放弃本次结果。
+ *
+ * 摘要是一条带 {@link #SUMMARY_METADATA_KEY} 标记的系统消息，通过存储仓库持久化（如 FileChatMemoryRepository），
+ * 重启后仍然可用。所有读写都持有 {@link ConversationLockStripes} 中对应对话的锁，不需要再包装 StripedLockChatMemory。
+ *
+ * 关闭时先等待已登记的摘要任务完成（最长 shutdownTimeout），超时后取消剩余任务，尚未写入的摘要直接放弃；
+ * 存储仓库带写回缓存时，应先关闭本对象再关闭缓存，摘要才能随最后一次刷盘落盘。
+ */
+@Slf4j
+public class SummarizingChatMemory implements ChatMemory, AutoCloseable {
+
+    /** 摘要消息的元数据标记 */
+    public static final String SUMMARY_METADATA_KEY = "chat_memory_summary";
+
+    private static final String SUMMARY_SYSTEM_PROMPT = """
+            你是一位病历整理助手，负责把医患对话整理成简洁的病情摘要。
+            请保留：患者的称呼、主要症状及持续时间、既往病史和用药、医生已经给出的诊断建议、患者的反馈。
+            不要编造对话中没有的信息，不要输出与病情无关的寒暄，直接输出摘要正文。
+            """;
+
+    /** 负责读写的聊天记忆，例如 TokenBudgetChatMemory */
+    private final ChatMemory delegate;
+
+    /** 与 delegate 共用的存储仓库，摘要直接改写其中的历史 */
+    private final ChatMemoryRepository chatMemoryRepository;
+
+    private final ChatClient summaryClient;
+
+    private final ConversationLockStripes locks;
+
+    private final int summarizeAfterMessages;
+
+    private final int keepRecentMessages;
+
+    private final int maxSummaryChars;
+
+    private final Duration shutdownTimeout;
+
+    private final ExecutorService summarizer;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /** 关闭超时后置位，之后生成的摘要不再写入 */
+    private volatile boolean cancelled;
+
+    /** 已登记摘要任务的对话，同一对话同时只有一个任务 */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder summaries = new LongAdder();
+
+    private final LongAdder summarizedMessages = new LongAdder();
+
+    private final LongAdder discarded = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private SummarizingChatMemory(Builder builder) {
+        this.delegate = builder.delegate;
+        this.chatMemoryRepository = builder.chatMemoryRepository;
+        this.summaryClient = ChatClient.builder(builder.chatModel)
+                .defaultSystem(SUMMARY_SYSTEM_PROMPT)
+                .build();
+        this.locks = builder.locks;
+        this.summarizeAfterMessages = builder.summarizeAfterMessages;
+        this.keepRecentMessages = builder.keepRecentMessages;
+        this.maxSummaryChars = builder.maxSummaryChars;
+        this.shutdownTimeout = builder.shutdownTimeout;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.summarizer = Executors.newFixedThreadPool(builder.summaryThreads, runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-summarizer-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param delegate 负责读写的聊天记忆
+     * @param chatMemoryRepository delegate 使用的存储仓库
+     * @param chatModel 生成摘要的模型
+     */
+    public static Builder builder(ChatMemory delegate, ChatMemoryRepository chatMemoryRepository, ChatModel chatModel) {
+        return new Builder(delegate, chatMemoryRepository, chatModel);
+    }
+
+    /**
+     * 摘要统计
+     *
+     * @param summaries 成功写入的摘要次数
+     * @param summarizedMessages 被压缩进摘要的消息数
+     * @param discarded 生成后因历史已变化而放弃的摘要次数
+     * @param failures 生成摘要失败的次数
+     * @param pending 当前等待或正在生成摘要的对话数
+     */
+    public record SummaryStats(long summaries, long summarizedMessages, long discarded, long failures, int pending) {
+    }
+
+    public SummaryStats stats() {
+        return new SummaryStats(summaries.sum(), summarizedMessages.sum(), discarded.sum(), failures.sum(),
+                pending.size());
+    }
+
+    /**
+     * 判断消息是否为滚动摘要
+     */
+    public static boolean isSummary(Message message) {
+        return message instanceof SystemMessage
+                && Boolean.TRUE.equals(message.getMetadata().get(SUMMARY_METADATA_KEY));
+    }
+
+    @Override
+    public void add(@NonNull String conversationId, @NonNull List<Message> messages) {
+        int conversationMessages = locks.withLock(conversationId, () -> {
+            delegate.add(conversationId, messages);
+            return countConversationMessages(chatMemoryRepository.findByConversationId(conversationId));
+        });
+        if (conversationMessages > summarizeAfterMessages) {
+            scheduleSummary(conversationId);
+        }
+    }
+
+    @Override
+    @NonNull
+    public List<Message> get(@NonNull String conversationId) {
+        return locks.withLock(conversationId, () -> delegate.get(conversationId));
+    }
+
+    @Override
+    public void clear(@NonNull String conversationId) {
+        locks.withLock(conversationId, () -> delegate.clear(conversationId));
+    }
+
+    /**
+     * 停止接受新的摘要任务，等待已登记的任务完成；超时或被中断时取消剩余任务
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        summarizer.shutdown();
+        try {
+            if (summarizer.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                return;
+            }
+            log.warn("Summaries still pending after {}, cancelling {} conversations", shutdownTimeout, pending.size());
+            cancel();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void cancel() {
+        cancelled = true;
+        summarizer.shutdownNow();
+        try {
+            // 等待正在写入的摘要结束，关闭返回后不再有任务访问存储仓库
+            summarizer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scheduleSummary(String conversationId) {
+        if (!pending.add(conversationId)) {
+            return;
+        }
+        try {
+            summarizer.execute(() -> {
+                try {
+                    summarize(conversationId);
+                } catch (RuntimeException e) {
+                    failures.increment();
+                    log.warn("Failed to summarize conversation {}, older turns stay in memory", conversationId, e);
+                } finally {
+                    pending.remove(conversationId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pending.remove(conversationId);
+        }
+    }
+
+    /**
+     * 把较早的对话压缩进摘要，模型调用期间不持有对话锁
+     */
+    private void summarize(String conversationId) {
+        // 1. 持锁读取待压缩的消息
+        Snapshot snapshot = locks.withLock(conversationId,
+                () -> snapshot(chatMemoryRepository.findByConversationId(conversationId)));
+        if (snapshot == null) {
+            return;
+        }
+
+        // 2. 不持锁调用模型
+        String summary = summaryClient.prompt()
+                .user(summaryRequest(snapshot))
+                .call()
+                .content();
+        if (!StringUtils.hasText(summary)) {
+            failures.increment();
+            return;
+        }
+        if (summary.length() > maxSummaryChars) {
+            summary = summary.substring(0, maxSummaryChars);
+        }
+        String newSummary = summary.strip();
+
+        // 3. 持锁确认历史开头仍是这些消息，再用摘要替换
+        boolean applied = locks.withLock(conversationId, () -> {
+            List<Message> current = chatMemoryRepository.findByConversationId(conversationId);
+            List<Message> conversation = conversationMessages(current);
+            Message currentSummary = current.stream().filter(SummarizingChatMemory::isSummary).findFirst().orElse(null);
+            if (cancelled
+                    || conversation.size() < snapshot.evicted().size()
+                    || !conversation.subList(0, snapshot.evicted().size()).equals(snapshot.evicted())
+                    || !sameText(currentSummary, snapshot.previousSummary())) {
+                return false;
+            }
+            List<Message> compacted = new ArrayList<>();
+            for (Message message : current) {
+                if (message instanceof SystemMessage && !isSummary(message)) {
+                    compacted.add(message);
+                }
+            }
+            compacted.add(summaryMessage(newSummary));
+            compacted.addAll(conversation.subList(snapshot.evicted().size(), conversation.size()));
+            chatMemoryRepository.saveAll(conversationId, compacted);
+            return true;
+        });
+
+        if (applied) {
+            summaries.increment();
+            summarizedMessages.add(snapshot.evicted().size());
+            log.debug("Summarized {} messages of conversation {}", snapshot.evicted().size(), conversationId);
+        } else {
+            discarded.increment();
+            log.debug("Conversation {} changed while summarizing, summary discarded", conversationId);
+        }
+    }
+
+    /**
+     * 待压缩的消息快照
+     *
+     * @param previousSummary 已有的摘要，没有时为 null
+     * @param evicted 历史开头需要压缩的对话消息
+     */
+    private record Snapshot(Message previousSummary, List<Message> evicted) {
+    }
+
+    private Snapshot snapshot(List<Message> messages) {
+        List<Message> conversation = conversationMessages(messages);
+        if (conversation.size() <= summarizeAfterMessages) {
+            return null;
+        }
+        // 保留的原文从一条用户消息开始，一问一答不会被拆开
+        int cut = conversation.size() - keepRecentMessages;
+        while (cut < conversation.size() && !(conversation.get(cut) instanceof UserMessage)) {
+            cut++;
+        }
+        if (cut >= conversation.size()) {
+            cut = conversation.size() - keepRecentMessages;
+        }
+        if (cut <= 0) {
+            return null;
+        }
+        Message previousSummary = messages.stream().filter(SummarizingChatMemory::isSummary).findFirst().orElse(null);
+        return new Snapshot(previousSummary, List.copyOf(conversation.subList(0, cut)));
+    }
+
+    private static String summaryRequest(Snapshot snapshot) {
+        StringBuilder request = new StringBuilder();
+        if (snapshot.previousSummary() != null) {
+            request.append("已有的病情摘要：\n").append(snapshot.previousSummary().getText()).append("\n\n");
+        }
+        request.append("需要合并进摘要的新对话：\n");
+        for (Message message : snapshot.evicted()) {
+            String role = switch (message.getMessageType()) {
+                case USER -> "患者";
+                case ASSISTANT -> "医生";
+                default -> message.getMessageType().getValue();
+            };
+            request.append(role).append("：").append(message.getText()).append('\n');
+        }
+        request.append("\n请输出合并后的完整病情摘要。");
+        return request.toString();
+    }
+
+    private static Message summaryMessage(String summary) {
+        return SystemMessage.builder()
+                .text("以下是本次对话较早内容的摘要，回答时请参考：\n" + summary)
+                .metadata(Map.of(SUMMARY_METADATA_KEY, true))
+                .build();
+    }
+
+    private static boolean sameText(Message a, Message b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.getText().equals(b.getText());
+    }
+
+    /**
+     * 除系统消息（包括摘要）以外的对话消息
+     */
+    private static List<Message> conversationMessages(List<Message> messages) {
+        List<Message> conversation = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.getMessageType() != MessageType.SYSTEM) {
+                conversation.add(message);
+            }
+        }
+        return conversation;
+    }
+
+    private static int countConversationMessages(List<Message> messages) {
+        int count = 0;
+        for (Message message : messages) {
+            if (message.getMessageType() != MessageType.SYSTEM) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public static final class Builder {
+
+        private final ChatMemory delegate;
+
+        private final ChatMemoryRepository chatMemoryRepository;
+
+        private final ChatModel chatModel;
+
+        private ConversationLockStripes locks;
+
+        private int summarizeAfterMessages = 20;
+
+        private int keepRecentMessages = 10;
+
+        private int maxSummaryChars = 2000;
+
+        private int summaryThreads = 2;
+
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+
+        private Builder(ChatMemory delegate, ChatMemoryRepository chatMemoryRepository, ChatModel chatModel) {
+            Assert.notNull(delegate, "delegate cannot be null");
+            Assert.notNull(chatMemoryRepository, "chatMemoryRepository cannot be null");
+            Assert.notNull(chatModel, "chatModel cannot be null");
+            this.delegate = delegate;
+            this.chatMemoryRepository = chatMemoryRepository;
+            this.chatModel = chatModel;
+        }
+
+        /**
+         * 按对话分段的锁，默认 64 段
+         */
+        public Builder locks(ConversationLockStripes locks) {
+            this.locks = locks;
+            return this;
+        }
+
+        /**
+         * 对话消息超过该条数时触发摘要
+         */
+        public Builder summarizeAfterMessages(int summarizeAfterMessages) {
+            this.summarizeAfterMessages = summarizeAfterMessages;
+            return this;
+        }
+
+        /**
+         * 摘要后保留的最近消息条数
+         */
+        public Builder keepRecentMessages(int keepRecentMessages) {
+            this.keepRecentMessages = keepRecentMessages;
+            return this;
+        }
+
+        /**
+         * 摘要的最大字符数
+         */
+        public Builder maxSummaryChars(int maxSummaryChars) {
+            this.maxSummaryChars = maxSummaryChars;
+            return this;
+        }
+
+        /**
+         * 生成摘要的后台线程数
+         */
+        public Builder summaryThreads(int summaryThreads) {
+            this.summaryThreads = summaryThreads;
+            return this;
+        }
+
+        /**
+         * 关闭时等待摘要任务完成的最长时间，默认 10 秒
+         */
+        public Builder shutdownTimeout(Duration shutdownTimeout) {
+            this.shutdownTimeout = shutdownTimeout;
+            return this;
+        }
+
+        public SummarizingChatMemory build() {
+            Assert.isTrue(keepRecentMessages > 0, "keepRecentMessages must be positive");
+            Assert.isTrue(summarizeAfterMessages > keepRecentMessages,
+                    "summarizeAfterMessages must be greater than keepRecentMessages");
+            Assert.isTrue(maxSummaryChars > 0, "maxSummaryChars must be positive");
+            Assert.isTrue(summaryThreads > 0, "summaryThreads must be positive");
+            Assert.notNull(shutdownTimeout, "shutdownTimeout cannot be null");
+            if (locks == null) {
+                locks = new ConversationLockStripes(64);
+            }
+            return new SummarizingChatMemory(this);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.example.shiboaiagent.chatmemory;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.content.MediaContent;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按 token 预算裁剪历史的聊天记忆
+ *
+ * MessageWindowChatMemory 按消息条数截断：消息很长时发送的上下文过多，消息很短时又保留得太少。
+ * 这里在 {@link #get} 时按估算的 token 数从最新的消息往前保留，直到用完预算：
+ * 系统消息和最近一轮用户消息（最后一条用户消息及其后的回复）始终保留，
+ * 被裁掉的历史不会发送给模型，节省的 token 数计入 {@link #stats()}，
+ * 每次读取发送、节省的 token 数同时记录到 {@value #TOKENS_SENT}、{@value #TOKENS_SAVED} 分布指标（带 app 标签）。
+ *
+ * 存储层仍按 maxStoredMessages 条数兜底截断，避免历史无限增长；预算调整后可以直接使用已存储的更长历史。
+ * token 数由可替换的 {@link TokenCountEstimator} 估算，默认使用 JTokkit。
+ */
+public class TokenBudgetChatMemory implements ChatMemory {
+
+    public static final String TOKENS_SENT = "ai.memory.tokens.sent";
+
+    public static final String TOKENS_SAVED = "ai.memory.tokens.saved";
+
+    /** 每条消息的固定开销（角色标记、分隔符等） */
+    private static final int PER_MESSAGE_OVERHEAD_TOKENS = 4;
+
+    private final ChatMemoryRepository chatMemoryRepository;
+
+    private final TokenCountEstimator tokenCountEstimator;
+
+    private final int maxTokens;
+
+    private final int maxStoredMessages;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder trimmedRequests = new LongAdder();
+
+    private final LongAdder tokensSent = new LongAdder();
+
+    private final LongAdder tokensSaved = new LongAdder();
+
+    /** 每次请求发送给模型的历史 token 数 */
+    private final DistributionSummary tokensSentSummary;
+
+    /** 每次请求被裁剪、没有发送的历史 token 数，未裁剪时记为 0 */
+    private final DistributionSummary tokensSavedSummary;
+
+    private TokenBudgetChatMemory(Builder builder) {
+        this.chatMemoryRepository = builder.chatMemoryRepository;
+        this.tokenCountEstimator = builder.tokenCountEstimator;
+        this.maxTokens = builder.maxTokens;
+        this.maxStoredMessages = builder.maxStoredMessages;
+        this.tokensSentSummary = DistributionSummary.builder(TOKENS_SENT)
+                .description("History tokens sent to the model per request")
+                .baseUnit("tokens")
+                .tag("app", builder.app)
+                .register(builder.meterRegistry);
+        this.tokensSavedSummary = DistributionSummary.builder(TOKENS_SAVED)
+                .description("History tokens trimmed by the token budget per request")
+                .baseUnit("tokens")
+                .tag("app", builder.app)
+                .register(builder.meterRegistry);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * token 预算统计
+     *
+     * @param requests 读取记忆（即发给模型）的次数
+     * @param trimmedRequests 发生裁剪的次数
+     * @param tokensSent 发送给模型的历史 token 数
+     * @param tokensSaved 被裁剪、没有发送的历史 token 数
+     */
+    public record TokenBudgetStats(long requests, long trimmedRequests, long tokensSent, long tokensSaved) {
+
+        /** 平均每次请求节省的 token 数 */
+        public double tokensSavedPerRequest() {
+            return requests == 0 ? 0 : (double) tokensSaved / requests;
+        }
+    }
+
+    public TokenBudgetStats stats() {
+        return new TokenBudgetStats(requests.sum(), trimmedRequests.sum(), tokensSent.sum(), tokensSaved.sum());
+    }
+
+    @Override
+    public void add(@NonNull String conversationId, @NonNull List<Message> messages) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        Assert.notNull(messages, "messages cannot be null");
+        List<Message> memoryMessages = chatMemoryRepository.findByConversationId(conversationId);
+        chatMemoryRepository.saveAll(conversationId, merge(memoryMessages, messages));
+    }
+
+    @Override
+    @NonNull
+    public List<Message> get(@NonNull String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        List<Message> messages = chatMemoryRepository.findByConversationId(conversationId);
+        return trimToBudget(messages);
+    }
+
+    @Override
+    public void clear(@NonNull String conversationId) {
+        Assert.hasText(conversationId, "conversationId cannot be null or empty");
+        chatMemoryRepository.deleteByConversationId(conversationId);
+    }
+
+    /**
+     * 估算单条消息的 token 数
+     */
+    int estimate(Message message) {
+        int tokens = tokenCountEstimator.estimate(message.getText());
+        if (message instanceof MediaContent mediaContent && !mediaContent.getMedia().isEmpty()) {
+            tokens = tokenCountEstimator.estimate(mediaContent);
+        }
+        return tokens + PER_MESSAGE_OVERHEAD_TOKENS;
+    }
+
+    /**
+     * 合并新消息，与 MessageWindowChatMemory 一致：出现新的系统消息时替换旧的系统消息，
+     * 超过 maxStoredMessages 时丢弃最旧的非系统消息
+     */
+    private List<Message> merge(List<Message> memoryMessages, List<Message> newMessages) {
+        Set<Message> memoryMessageSet = new HashSet<>(memoryMessages);
+        boolean hasNewSystemMessage = newMessages.stream()
+                .filter(SystemMessage.class::isInstance)
+                .anyMatch(message -> !memoryMessageSet.contains(message));
+
+        List<Message> merged = new ArrayList<>(memoryMessages.size() + newMessages.size());
+        for (Message message : memoryMessages) {
+            if (!(hasNewSystemMessage && message instanceof SystemMessage)) {
+                merged.add(message);
+            }
+        }
+        merged.addAll(newMessages);
+        if (merged.size() <= maxStoredMessages) {
+            return merged;
+        }
+
+        int toRemove = merged.size() - maxStoredMessages;
+        List<Message> trimmed = new ArrayList<>(maxStoredMessages);
+        for (Message message : merged) {
+            if (message instanceof SystemMessage || toRemove == 0) {
+                trimmed.add(message);
+            } else {
+                toRemove--;
+            }
+        }
+        return trimmed;
+    }
+
+    /**
+     * 按 token 预算从新到旧保留历史
+     */
+    private List<Message> trimToBudget(List<Message> messages) {
+        requests.increment();
+        int[] tokens = new int[messages.size()];
+        long total = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = estimate(messages.get(i));
+            total += tokens[i];
+        }
+        if (total <= maxTokens) {
+            tokensSent.add(total);
+            tokensSentSummary.record(total);
+            tokensSavedSummary.record(0);
+            return messages;
+        }
+
+        // 最后一条用户消息及其之后的消息属于最近一轮，必须保留
+        int latestTurn = messages.size();
+        for (int i = messages.size() - 1; i >= 0; i--) {
+            if (messages.get(i) instanceof UserMessage) {
+                latestTurn = i;
+                break;
+            }
+        }
+        boolean[] keep = new boolean[messages.size()];
+        long used = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            if (i >= latestTurn || messages.get(i) instanceof SystemMessage) {
+                keep[i] = true;
+                used += tokens[i];
+            }
+        }
+
+        // 从最近一轮往前连续保留，放不下时停止，保证保留的历史是连续的
+        int oldestKept = latestTurn;
+        for (int i = latestTurn - 1; i >= 0; i--) {
+            if (keep[i]) {
+                continue;
+            }
+            if (used + tokens[i] > maxTokens) {
+                break;
+            }
+            keep[i] = true;
+            used += tokens[i];
+            oldestKept = i;
+        }
+        // 历史从用户消息开始，不留下缺少提问的回复或工具结果
+        for (int i = oldestKept; i < latestTurn && latestTurn < messages.size()
+                && !(messages.get(i) instanceof UserMessage); i++) {
+            if (keep[i] && !(messages.get(i) instanceof SystemMessage)) {
+                keep[i] = false;
+                used -= tokens[i];
+            }
+        }
+
+        List<Message> kept = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            if (keep[i]) {
+                kept.add(messages.get(i));
+            }
+        }
+        trimmedRequests.increment();
+        tokensSent.add(used);
+        tokensSaved.add(total - used);
+        tokensSentSummary.record(used);
+        tokensSavedSummary.record(total - used);
+        return kept;
+    }
+
+    public static final class Builder {
+
+        private ChatMemoryRepository chatMemoryRepository;
+
+        private TokenCountEstimator tokenCountEstimator;
+
+        private int maxTokens = 2000;
+
+        private int maxStoredMessages = 100;
+
+        private String app = "default";
+
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder() {
+        }
+
+        public Builder chatMemoryRepository(ChatMemoryRepository chatMemoryRepository) {
+            this.chatMemoryRepository = chatMemoryRepository;
+            return this;
+        }
+
+        /**
+         * token 估算器，默认 {@link JTokkitTokenCountEstimator}
+         */
+        public Builder tokenCountEstimator(TokenCountEstimator tokenCountEstimator) {
+            this.tokenCountEstimator = tokenCountEstimator;
+            return this;
+        }
+
+        /**
+         * 每次发送给模型的历史 token 预算
+         */
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        /**
+         * 存储层保留的最大消息数
+         */
+        public Builder maxStoredMessages(int maxStoredMessages) {
+            this.maxStoredMessages = maxStoredMessages;
+            return this;
+        }
+
+        /** app 标签，区分不同的应用 */
+        public Builder app(String app) {
+            this.app = app;
+            return this;
+        }
+
+        /**
+         * 指标注册表，默认为全局注册表
+         */
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public TokenBudgetChatMemory build() {
+            Assert.notNull(chatMemoryRepository, "chatMemoryRepository cannot be null");
+            Assert.isTrue(maxTokens > 0, "maxTokens must be positive");
+            Assert.isTrue(maxStoredMessages > 0, "maxStoredMessages must be positive");
+            Assert.hasText(app, "app cannot be empty");
+            Assert.notNull(meterRegistry, "meterRegistry cannot be null");
+            if (tokenCountEstimator == null) {
+                tokenCountEstimator = new JTokkitTokenCountEstimator();
+            }
+            return new TokenBudgetChatMemory(this);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import com.example.shiboaiagent.chatmemory.ConversationLockStripes;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 带写回缓存的聊天记忆仓库（装饰器）
+ *
+ * 功能特点：
+ * - 热点对话保存在内存中，命中时 findByConversationId 不再读盘和反序列化
+ * - 缓存按条目数量和空闲时间（TTL）双重限制，淘汰前保证脏数据已经落盘
+ * - WRITE_BEHIND 模式下 saveAll 只更新内存，后台线程按批次异步刷盘；
+ *   同一对话在一个刷盘周期内的多次保存会合并为一次写入
+ * - close() 时同步刷出所有脏数据；由持有它的 Spring Bean 在销毁时（@PreDestroy）调用，
+ *   容器关闭时按 Bean 依赖顺序执行，不依赖 JVM 关闭钩子
+ * - 未命中时的加载与删除持有同一把对话锁，删除不会被并发加载的旧数据覆盖
+ *
+ * 典型用法：包装 {@link FileChatMemoryRepository}
+ */
+@Slf4j
+public class CachingChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    /**
+     * 持久化级别
+     */
+    public enum Durability {
+        /** 同步写穿：saveAll 返回前已经写入底层仓库，缓存只用于加速读取 */
+        WRITE_THROUGH,
+        /** 异步写回：saveAll 只更新缓存，最多延迟一个刷盘周期写入底层仓库 */
+        WRITE_BEHIND
+    }
+
+    /** 被装饰的底层仓库 */
+    private final ChatMemoryRepository delegate;
+
+    /** 最多缓存的对话数量 */
+    private final int maxEntries;
+
+    /** 对话空闲超过该时长后从缓存中淘汰 */
+    private final Duration ttl;
+
+    /** 单批次最多刷盘的对话数量 */
+    private final int flushBatchSize;
+
+    /** 持久化级别 */
+    private final Durability durability;
+
+    /** 对话缓存 */
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+    /** 未命中加载与删除按对话ID互斥 */
+    private final ConversationLockStripes keyLocks = new ConversationLockStripes(64);
+
+    /** 同一时间只有一个批量刷盘 */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    /** 待刷盘的对话ID */
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    /** 后台刷盘和淘汰线程 */
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
+    /**
+     * 缓存条目
+     * messages 先于 version 写入，读取到某个 version 时一定能看到不早于它的 messages
+     */
+    private static final class CacheEntry {
+        volatile List<Message> messages;
+        volatile long version;
+        volatile long flushedVersion;
+        volatile long lastAccessNanos;
+        boolean deleted;
+        /** 刷盘与删除互斥；锁内有文件 I/O，用 ReentrantLock 而不是 synchronized，避免固定虚拟线程的载体线程 */
+        final ReentrantLock ioLock = new ReentrantLock();
+
+        CacheEntry(List<Message> messages) {
+            this.messages = messages;
+            this.lastAccessNanos = System.nanoTime();
+        }
+
+        boolean isDirty() {
+            return version != flushedVersion;
+        }
+    }
+
+    private CachingChatMemoryRepository(Builder builder) {
+        this.delegate = builder.delegate;
+        this.maxEntries = builder.maxEntries;
+        this.ttl = builder.ttl;
+        this.flushBatchSize = builder.flushBatchSize;
+        this.durability = builder.durability;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "chat-memory-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = builder.flushInterval.toMillis();
+        this.flusher.scheduleWithFixedDelay(this::maintain, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static Builder builder(ChatMemoryRepository delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    @NonNull
+    public List<String> findConversationIds() {
+        // 底层仓库中的对话 + 尚未落盘的新对话
+        Set<String> ids = new LinkedHashSet<>(delegate.findConversationIds());
+        cache.forEach((id, entry) -> {
+            if (entry.isDirty()) {
+                ids.add(id);
+            }
+        });
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    @NonNull
+    public List<Message> findByConversationId(@NonNull String conversationId) {
+        CacheEntry entry = cache.get(conversationId);
+        if (entry == null) {
+            // 未命中时持有对话锁读盘：删除也持有这把锁，加载到的旧数据不会在删除之后放回缓存
+            entry = keyLocks.withLock(conversationId, () -> load(conversationId));
+            scheduleEvictionIfOversized();
+        }
+        entry.lastAccessNanos = System.nanoTime();
+        return new ArrayList<>(entry.messages);
+    }
+
+    /**
+     * 从底层仓库加载对话放入缓存，调用方持有对话锁
+     */
+    private CacheEntry load(String conversationId) {
+        CacheEntry existing = cache.get(conversationId);
+        if (existing != null) {
+            return existing;
+        }
+        CacheEntry loaded = new CacheEntry(List.copyOf(delegate.findByConversationId(conversationId)));
+        // saveAll 不持有对话锁，期间写入的新条目优先
+        CacheEntry raced = cache.putIfAbsent(conversationId, loaded);
+        return raced != null ? raced : loaded;
+    }
+
+    @Override
+    public void saveAll(@NonNull String conversationId, @NonNull List<Message> messages) {
+        List<Message> snapshot = List.copyOf(messages);
+        CacheEntry entry = cache.compute(conversationId, (id, existing) -> {
+            CacheEntry target = existing != null ? existing : new CacheEntry(snapshot);
+            target.messages = snapshot;
+            target.version = target.version + 1;
+            target.lastAccessNanos = System.nanoTime();
+            return target;
+        });
+
+        if (durability == Durability.WRITE_THROUGH || closed.get()) {
+            flushEntry(conversationId, entry);
+            return;
+        }
+        dirty.add(conversationId);
+        if (dirty.size() >= flushBatchSize) {
+            // 积压达到一个批次时提前刷盘，不必等到下一个周期
+            submit(this::flushDirty);
+        }
+        scheduleEvictionIfOversized();
+    }
+
+    @Override
+    public void deleteByConversationId(@NonNull String conversationId) {
+        // 与未命中加载互斥，避免删除前读到的数据在删除后被放回缓存
+        keyLocks.withLock(conversationId, () -> {
+            dirty.remove(conversationId);
+            CacheEntry entry = cache.remove(conversationId);
+            if (entry != null) {
+                // 与正在进行的刷盘互斥，避免删除后又被刷盘线程写回
+                entry.ioLock.lock();
+                try {
+                    entry.deleted = true;
+                    delegate.deleteByConversationId(conversationId);
+                } finally {
+                    entry.ioLock.unlock();
+                }
+            } else {
+                delegate.deleteByConversationId(conversationId);
+            }
+        });
+    }
+
+    /**
+     * 同步刷出所有脏数据
+     */
+    public void flush() {
+        flushDirty();
+    }
+
+    /**
+     * 停止后台线程并同步刷出所有脏数据，之后的 saveAll 会退化为同步写穿
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushDirty();
+        log.info("Chat memory cache closed, {} conversations cached", cache.size());
+    }
+
+    /**
+     * 周期任务：刷盘 + TTL 淘汰 + 容量淘汰
+     */
+    private void maintain() {
+        try {
+            flushDirty();
+            long now = System.nanoTime();
+            long ttlNanos = ttl.toNanos();
+            for (String id : cache.keySet()) {
+                CacheEntry entry = cache.get(id);
+                if (entry != null && now - entry.lastAccessNanos > ttlNanos) {
+                    evictIfClean(id);
+                }
+            }
+            evictIfOversized();
+        } catch (RuntimeException e) {
+            log.error("Chat memory cache maintenance failed", e);
+        }
+    }
+
+    /**
+     * 按批次刷出脏对话，每个对话只写入最新的快照
+     * 只处理调用时已存在的脏对话，失败重试的对话留给下一个周期
+     */
+    private void flushDirty() {
+        flushLock.lock();
+        try {
+            List<String> pending = new ArrayList<>(dirty);
+            for (int from = 0; from < pending.size(); from += flushBatchSize) {
+                for (String id : pending.subList(from, Math.min(from + flushBatchSize, pending.size()))) {
+                    dirty.remove(id);
+                    CacheEntry entry = cache.get(id);
+                    if (entry != null) {
+                        flushEntry(id, entry);
+                    }
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void flushEntry(String conversationId, CacheEntry entry) {
+        entry.ioLock.lock();
+        try {
+            if (entry.deleted) {
+                return;
+            }
+            long version = entry.version;
+            if (version == entry.flushedVersion) {
+                return;
+            }
+            try {
+                delegate.saveAll(conversationId, entry.messages);
+                entry.flushedVersion = version;
+            } catch (RuntimeException e) {
+                log.error("Failed to flush conversation {}, will retry", conversationId, e);
+                dirty.add(conversationId);
+                return;
+            }
+        } finally {
+            entry.ioLock.unlock();
+        }
+        if (entry.isDirty() && durability == Durability.WRITE_BEHIND) {
+            dirty.add(conversationId);
+        }
+    }
+
+    /**
+     * 容量淘汰可能需要先刷盘，交给后台线程执行，不占用请求线程
+     */
+    private void scheduleEvictionIfOversized() {
+        if (cache.size() > maxEntries) {
+            submit(this::evictIfOversized);
+        }
+    }
+
+    private void submit(Runnable task) {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            flusher.execute(task);
+        } catch (RejectedExecutionException e) {
+            // 已经关闭，由 close() 负责最后一次刷盘
+        }
+    }
+
+    /**
+     * 超出容量时淘汰最久未访问的对话；脏对话先刷盘再淘汰
+     */
+    private void evictIfOversized() {
+        int overflow = cache.size() - maxEntries;
+        if (overflow <= 0) {
+            return;
+        }
+        List<Map.Entry<String, CacheEntry>> entries = new ArrayList<>(cache.entrySet());
+        entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccessNanos));
+        for (int i = 0; i < entries.size() && overflow > 0; i++) {
+            Map.Entry<String, CacheEntry> candidate = entries.get(i);
+            flushEntry(candidate.getKey(), candidate.getValue());
+            if (evictIfClean(candidate.getKey())) {
+                overflow--;
+            }
+        }
+    }
+
+    /**
+     * 只在条目没有未落盘的修改时移除，和 saveAll 的 compute 互斥，不会丢失并发写入
+     */
+    private boolean evictIfClean(String conversationId) {
+        boolean[] evicted = new boolean[1];
+        cache.computeIfPresent(conversationId, (id, entry) -> {
+            if (entry.isDirty()) {
+                return entry;
+            }
+            evicted[0] = true;
+            return null;
+        });
+        return evicted[0];
+    }
+
+    public static final class Builder {
+
+        private final ChatMemoryRepository delegate;
+
+        private int maxEntries = 1000;
+
+        private Duration ttl = Duration.ofMinutes(30);
+
+        private Duration flushInterval = Duration.ofSeconds(1);
+
+        private int flushBatchSize = 64;
+
+        private Durability durability = Durability.WRITE_BEHIND;
+
+        private Builder(ChatMemoryRepository delegate) {
+            Assert.notNull(delegate, "delegate cannot be null");
+            this.delegate = delegate;
+        }
+
+        /** 最多缓存的对话数量，默认 1000 */
+        public Builder maxEntries(int maxEntries) {
+            Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /** 对话空闲淘汰时间，默认 30 分钟 */
+        public Builder ttl(Duration ttl) {
+            this.ttl = ttl;
+            return this;
+        }
+
+        /** 后台刷盘周期，默认 1 秒；也是 WRITE_BEHIND 模式下最多丢失的写入窗口 */
+        public Builder flushInterval(Duration flushInterval) {
+            Assert.isTrue(!flushInterval.isNegative() && !flushInterval.isZero(), "flushInterval must be positive");
+            this.flushInterval = flushInterval;
+            return this;
+        }
+
+        /** 单批次刷盘的对话数量，积压达到该数量时会提前触发刷盘，默认 64 */
+        public Builder flushBatchSize(int flushBatchSize) {
+            Assert.isTrue(flushBatchSize > 0, "flushBatchSize must be positive");
+            this.flushBatchSize = flushBatchSize;
+            return this;
+        }
+
+        /** 持久化级别，默认 WRITE_BEHIND */
+        public Builder durability(Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        public CachingChatMemoryRepository build() {
+            return new CachingChatMemoryRepository(this);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.lang.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * 单个对话的追加式日志文件（APPEND_LOG 存储模式使用）
+ *
+ * 记录格式：[int 负载长度][int CRC32][byte 记录类型][负载]
+ * - APPEND：负载为一条 Kryo 序列化的 Message
+ * - TRIM：负载为一个 int，表示从当前消息列表头部丢弃的消息数量
+ *
+ * 每轮对话只追加新增的消息（以及滑动窗口淘汰产生的 TRIM 记录），
+ * 写入量与本轮增量成正比，而不是与整个历史长度成正比。
+ * 读取时逐条校验长度和 CRC，遇到写了一半的尾部记录（进程崩溃）时只回放到最后一条完整记录，
+ * 由调用方在持有该对话的锁时通过 {@link #truncateTornTail} 截断。
+ *
+ * 本类不做同步，同一个文件的读写必须由调用方串行化。
+ */
+final class ConversationSegmentLog {
+
+    /** 追加一条消息 */
+    static final byte APPEND = 1;
+
+    /** 从头部丢弃若干条消息 */
+    static final byte TRIM = 2;
+
+    /** 单条记录负载的上限，超过视为损坏数据 */
+    private static final int MAX_RECORD_BYTES = 64 * 1024 * 1024;
+
+    /** 记录头长度：负载长度 + CRC + 类型 */
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + 1;
+
+    private ConversationSegmentLog() {
+    }
+
+    /**
+     * 日志回放结果
+     *
+     * @param messages 回放后的有效消息列表
+     * @param totalRecords 日志中完整记录的总数
+     * @param validLength 最后一条完整记录结束处的字节偏移
+     */
+    record LogState(List<Message> messages, int totalRecords, long validLength) {
+
+        /** 已经失效（被 TRIM 掉或本身就是 TRIM）的记录数量 */
+        int deadRecords() {
+            return totalRecords - messages.size();
+        }
+    }
+
+    /**
+     * 回放日志文件，得到当前的消息列表
+     * 尾部不完整或校验失败的记录会被忽略，文件本身不做修改
+     *
+     * @param file 日志文件
+     * @param kryo 反序列化使用的 Kryo 实例
+     * @return 回放结果，文件不存在时返回空状态
+     */
+    @NonNull
+    static LogState read(@NonNull File file, @NonNull Kryo kryo) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        if (!file.exists()) {
+            return new LogState(messages, 0, 0);
+        }
+
+        int totalRecords = 0;
+        long validLength = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                int checksum;
+                byte type;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    type = in.readByte();
+                    if (length < 0 || length > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    // 正常结束或尾部记录写了一半
+                    break;
+                }
+
+                crc.reset();
+                crc.update(type);
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+
+                if (type == APPEND) {
+                    // CRC 校验通过说明记录完整，反序列化失败属于格式不兼容，直接抛出而不是截断
+                    try (Input input = new Input(payload)) {
+                        messages.add((Message) kryo.readClassAndObject(input));
+                    }
+                } else if (type == TRIM) {
+                    int count = Math.min(toInt(payload), messages.size());
+                    messages.subList(0, count).clear();
+                } else {
+                    break;
+                }
+                totalRecords++;
+                validLength += HEADER_BYTES + length;
+            }
+        }
+
+        return new LogState(messages, totalRecords, validLength);
+    }
+
+    /**
+     * 把损坏的尾部截断到最后一条完整记录，保证后续追加从完整记录之后开始
+     * 调用方必须持有该对话的锁，否则可能把其他线程正在追加的记录当成损坏尾部截掉
+     *
+     * @param file 日志文件
+     * @param state 刚刚回放得到的结果
+     */
+    static void truncateTornTail(@NonNull File file, @NonNull LogState state) throws IOException {
+        if (file.length() > state.validLength()) {
+            System.err.println("Truncating torn tail of conversation log: " + file.getAbsolutePath()
+                    + " (" + file.length() + " -> " + state.validLength() + " bytes)");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(state.validLength());
+            }
+        }
+    }
+
+    /**
+     * 计算持久化列表与新列表的差异：新列表 = 持久化列表丢弃头部 drop 条后，再追加若干条
+     *
+     * @return 需要从头部丢弃的消息数量；总能找到解（最坏情况下丢弃全部）
+     */
+    static int headDropCount(@NonNull List<Message> persisted, @NonNull List<Message> messages) {
+        for (int drop = 0; drop < persisted.size(); drop++) {
+            int kept = persisted.size() - drop;
+            if (kept > messages.size()) {
+                continue;
+            }
+            if (samePrefix(persisted, drop, messages, kept)) {
+                return drop;
+            }
+        }
+        return persisted.size();
+    }
+
+    /**
+     * 追加一批记录：先写可选的 TRIM，再写新增消息
+     *
+     * @param file 日志文件
+     * @param kryo 序列化使用的 Kryo 实例
+     * @param drop 需要从头部丢弃的消息数量，0 表示不写 TRIM 记录
+     * @param appended 需要追加的新消息
+     */
+    static void append(@NonNull File file, @NonNull Kryo kryo, int drop, @NonNull List<Message> appended) throws IOException {
+        if (drop == 0 && appended.isEmpty()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            writeRecords(out, kryo, drop, appended);
+        }
+    }
+
+    /**
+     * 压缩日志：把有效消息重写到临时文件，再原子替换原文件
+     * 替换过程中崩溃时原文件保持完整
+     *
+     * @param file 日志文件
+     * @param kryo 序列化使用的 Kryo 实例
+     * @param messages 当前有效的消息列表
+     */
+    static void compact(@NonNull File file, @NonNull Kryo kryo, @NonNull List<Message> messages) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".compact");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            writeRecords(out, kryo, 0, messages);
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeRecords(DataOutputStream out, Kryo kryo, int drop, List<Message> appended) throws IOException {
+        CRC32 crc = new CRC32();
+        if (drop > 0) {
+            writeRecord(out, crc, TRIM, toBytes(drop));
+        }
+        try (Output output = new Output(1024, -1)) {
+            for (Message message : appended) {
+                output.reset();
+                kryo.writeClassAndObject(output, message);
+                writeRecord(out, crc, APPEND, output.toBytes());
+            }
+        }
+    }
+
+    private static void writeRecord(DataOutputStream out, CRC32 crc, byte type, byte[] payload) throws IOException {
+        crc.reset();
+        crc.update(type);
+        crc.update(payload);
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.writeByte(type);
+        out.write(payload);
+    }
+
+    private static boolean samePrefix(List<Message> persisted, int from, List<Message> messages, int count) {
+        for (int i = 0; i < count; i++) {
+            Message a = persisted.get(from + i);
+            Message b = messages.get(i);
+            if (a.getMessageType() != b.getMessageType()
+                    || !Objects.equals(a.getText(), b.getText())
+                    || !Objects.equals(a.getMetadata(), b.getMetadata())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] toBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static int toInt(byte[] bytes) {
+        if (bytes.length != Integer.BYTES) {
+            return 0;
+        }
+        return ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+    }
+}
@@ -1,60 +1,166 @@
 package com.example.shiboaiagent.chatmemoryrepository;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
-import org.objenesis.strategy.StdInstantiatorStrategy;
+import com.example.shiboaiagent.chatmemory.ConversationLockStripes;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * 基于文件系统的聊天记忆仓库实现
  *
  * 功能特点：
- * - 使用 Kryo 序列化框架进行高效的对象序列化/反序列化
+ * - 使用 Kryo 序列化框架进行高效的对象序列化/反序列化，通过 {@link MessageKryoPool} 支持并发读写
  * - 每个对话会话(conversationId)对应一个独立的 .kryo 文件
  * - 支持持久化存储，应用重启后数据不丢失
  * - 自动创建存储目录，管理文件生命周期
+ * - 同一对话的读写按对话ID加锁串行执行，不同对话互不阻塞
+ * - 磁盘读写耗时记录到全局指标注册表：ai.memory.file.load / ai.memory.file.save，标签 mode 为存储模式
  *
- * 文件命名规则：{conversationId}.kryo
- * 存储格式：Kryo 二进制序列化格式
+ * 存储模式：
+ * - SNAPSHOT（默认）：每轮对话把完整消息列表重写到 {conversationId}.kryo
+ * - APPEND_LOG：每轮只把新增消息追加到 {conversationId}.log，
+ *   定期压缩，读取时自动修复崩溃造成的不完整尾部记录（见 {@link ConversationSegmentLog}）。
+ *   日志只在对话第一次被访问（或文件被外部修改）时回放一次，之后在内存中保留已持久化的消息列表和文件长度，
+ *   每轮保存只做差异计算和追加，不再重新读取整个日志；回放次数记录到 ai.memory.file.replay。
+ *   内存中最多保留 maxCachedStates 个最近访问的对话，超出时淘汰最久未访问的对话，被淘汰的对话下次访问时重新回放
+ *   目录中只有旧的 {conversationId}.kryo 快照时，第一次访问会把快照迁移为日志并删除快照
  *
  * @author AI Assistant
  * @since 1.0
  */
 public class FileChatMemoryRepository implements ChatMemoryRepository {
 
+    /**
+     * 存储模式
+     */
+    public enum StorageMode {
+        /** 整体快照：每次保存重写完整的消息列表 */
+        SNAPSHOT,
+        /** 追加日志：每次保存只追加增量记录 */
+        APPEND_LOG
+    }
+
+    /** 追加日志模式下，失效记录达到该数量（且不少于有效消息数）时触发压缩 */
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 64;
+
+    /** 追加日志模式下默认最多在内存中保留状态的对话数 */
+    private static final int DEFAULT_MAX_CACHED_STATES = 1024;
+
+    /** 对话锁的分段数量 */
+    private static final int LOCK_STRIPES = 64;
+
     /** 基础存储目录路径 */
     private final String BASE_DIR;
 
-    /** Kryo 序列化实例 - 用于高效的对象序列化和反序列化 */
-    private static final Kryo kryo = new Kryo();
+    /** 存储模式 */
+    private final StorageMode storageMode;
+
+    /** 触发日志压缩的失效记录数量阈值 */
+    private final int compactionThreshold;
+
+    /** 从磁盘加载一个对话的耗时 */
+    private final Timer loadTimer;
+
+    /** 把一个对话写入磁盘的耗时 */
+    private final Timer saveTimer;
+
+    /** 追加日志模式下从磁盘回放日志的次数 */
+    private final Counter replayCounter;
+
+    /** 同一对话的读写、尾部修复、压缩和删除都在对话锁内执行 */
+    private final ConversationLockStripes locks = new ConversationLockStripes(LOCK_STRIPES);
 
     /**
-     * 静态初始化块 - 配置 Kryo 序列化器
+     * 追加日志模式下最近访问的对话已持久化的状态（消息列表、记录数、文件长度），按访问顺序淘汰
+     * 同一对话的状态只在对话锁内读写；不同对话共用一个 LinkedHashMap，由 synchronizedMap 保护
      */
-    static {
-        // 允许序列化未注册的类，提高灵活性
-        kryo.setRegistrationRequired(false);
-        // 设置实例化策略，支持无参构造函数的类
-        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+    private final Map<String, ConversationSegmentLog.LogState> logStates;
+
+    /** Kryo 实例池 - Kryo 不是线程安全的，每次读写借出独立的实例 */
+    private static final MessageKryoPool kryoPool =
+            new MessageKryoPool(Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * 构造函数 - 初始化文件存储仓库（整体快照模式）
+     *
+     * @param dir 存储目录路径，如果目录不存在会自动创建
+     */
+    public FileChatMemoryRepository(String dir) {
+        this(dir, StorageMode.SNAPSHOT);
     }
 
     /**
      * 构造函数 - 初始化文件存储仓库
      *
      * @param dir 存储目录路径，如果目录不存在会自动创建
+     * @param storageMode 存储模式
      */
-    public FileChatMemoryRepository(String dir) {
+    public FileChatMemoryRepository(String dir, StorageMode storageMode) {
+        this(dir, storageMode, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * 构造函数 - 初始化文件存储仓库
+     *
+     * @param dir 存储目录路径，如果目录不存在会自动创建
+     * @param storageMode 存储模式
+     * @param compactionThreshold 追加日志模式下触发压缩的失效记录数量
+     */
+    public FileChatMemoryRepository(String dir, StorageMode storageMode, int compactionThreshold) {
+        this(dir, storageMode, compactionThreshold, DEFAULT_MAX_CACHED_STATES);
+    }
+
+    /**
+     * 构造函数 - 初始化文件存储仓库
+     *
+     * @param dir 存储目录路径，如果目录不存在会自动创建
+     * @param storageMode 存储模式
+     * @param compactionThreshold 追加日志模式下触发压缩的失效记录数量
+     * @param maxCachedStates 追加日志模式下最多在内存中保留状态的对话数
+     */
+    public FileChatMemoryRepository(String dir, StorageMode storageMode, int compactionThreshold, int maxCachedStates) {
+        Assert.isTrue(maxCachedStates > 0, "maxCachedStates must be positive");
         this.BASE_DIR = dir;
+        this.storageMode = storageMode;
+        this.compactionThreshold = compactionThreshold;
+        this.logStates = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ConversationSegmentLog.LogState> eldest) {
+                return size() > maxCachedStates;
+            }
+        });
+        this.loadTimer = Timer.builder("ai.memory.file.load")
+                .description("File chat memory load latency")
+                .tag("mode", storageMode.name())
+                .register(Metrics.globalRegistry);
+        this.saveTimer = Timer.builder("ai.memory.file.save")
+                .description("File chat memory save latency")
+                .tag("mode", storageMode.name())
+                .register(Metrics.globalRegistry);
+        this.replayCounter = Counter.builder("ai.memory.file.replay")
+                .description("Number of append-only conversation logs replayed from disk")
+                .tag("mode", storageMode.name())
+                .register(Metrics.globalRegistry);
         File baseDir = new File(dir);
         // 自动创建存储目录
         if (!baseDir.exists()) {
@@ -64,7 +170,7 @@ public class FileChatMemoryRepository implements ChatMemoryRepository {
 
     /**
      * 保存消息列表到指定对话会话
-     * 采用追加模式：新消息会添加到现有消息列表的末尾
+     * 传入的是完整的最新消息列表；追加日志模式下只把与已持久化列表的差异写入磁盘
      *
      * @param conversationId 对话会话标识符
      * @param messages 要保存的消息列表
@@ -73,7 +179,17 @@ public class FileChatMemoryRepository implements ChatMemoryRepository {
     public void saveAll(@NonNull String conversationId, @NonNull List<Message> messages) {
         // 直接保存传入的消息列表（替换式保存，而非累积式）
         // Spring AI 的 ChatMemory 层已经处理了消息的累积逻辑
-        saveConversation(conversationId, new ArrayList<>(messages));
+        Timer.Sample sample = Timer.start();
+        List<Message> copy = new ArrayList<>(messages);
+        try {
+            if (storageMode == StorageMode.APPEND_LOG) {
+                locks.withLock(conversationId, () -> appendConversation(conversationId, copy));
+            } else {
+                locks.withLock(conversationId, () -> saveConversation(conversationId, copy));
+            }
+        } finally {
+            sample.stop(saveTimer);
+        }
     }
 
     /**
@@ -85,49 +201,71 @@ public class FileChatMemoryRepository implements ChatMemoryRepository {
     @Override
     @NonNull
     public List<Message> findByConversationId(@NonNull String conversationId) {
-        return getOrCreateConversation(conversationId);
+        Timer.Sample sample = Timer.start();
+        try {
+            if (storageMode == StorageMode.APPEND_LOG) {
+                return locks.withLock(conversationId, () -> readConversationLog(conversationId));
+            }
+            return locks.withLock(conversationId, () -> getOrCreateConversation(conversationId));
+        } finally {
+            sample.stop(loadTimer);
+        }
     }
 
     /**
      * 删除指定对话会话的所有数据
-     * 物理删除对应的文件
+     * 物理删除对应的快照文件和日志文件
      *
      * @param conversationId 要删除的对话会话标识符
      */
     @Override
     public void deleteByConversationId(@NonNull String conversationId) {
-        File file = getConversationFile(conversationId);
-        if (file.exists()) {
-            file.delete();
-        }
+        locks.withLock(conversationId, () -> {
+            File file = getConversationFile(conversationId);
+            if (file.exists()) {
+                file.delete();
+            }
+            File logFile = getConversationLogFile(conversationId);
+            if (logFile.exists()) {
+                logFile.delete();
+            }
+            logStates.remove(conversationId);
+        });
     }
 
     /**
      * 获取所有存在的对话会话ID列表
-     * 通过扫描存储目录中的 .kryo 文件来获取
+     * 通过扫描存储目录中的 .kryo 文件来获取；追加日志模式下还包括 .log 文件（尚未迁移的快照也算在内）
      *
      * @return 所有对话会话ID的列表
      */
     @Override
     @NonNull
     public List<String> findConversationIds() {
-        List<String> conversationIds = new ArrayList<>();
-        File baseDir = new File(BASE_DIR);
+        Set<String> conversationIds = new LinkedHashSet<>();
+        if (storageMode == StorageMode.APPEND_LOG) {
+            collectConversationIds(".log", conversationIds);
+        }
+        collectConversationIds(".kryo", conversationIds);
+        return new ArrayList<>(conversationIds);
+    }
 
+    /**
+     * 扫描存储目录中指定扩展名的文件，收集对应的对话ID（私有辅助方法）
+     */
+    private void collectConversationIds(String extension, Set<String> conversationIds) {
+        File baseDir = new File(BASE_DIR);
         if (baseDir.exists() && baseDir.isDirectory()) {
-            // 过滤出所有 .kryo 文件
-            File[] files = baseDir.listFiles((dir, name) -> name.endsWith(".kryo"));
+            // 过滤出所有对应扩展名的文件
+            File[] files = baseDir.listFiles((dir, name) -> name.endsWith(extension));
             if (files != null) {
                 for (File file : files) {
-                    // 从文件名中提取 conversationId（移除 .kryo 扩展名）
+                    // 从文件名中提取 conversationId（移除扩展名）
                     String fileName = file.getName();
-                    String conversationId = fileName.substring(0, fileName.lastIndexOf(".kryo"));
-                    conversationIds.add(conversationId);
+                    conversationIds.add(fileName.substring(0, fileName.lastIndexOf(extension)));
                 }
             }
         }
-
-        return conversationIds;
     }
 
     /**
@@ -143,19 +281,31 @@ public class FileChatMemoryRepository implements ChatMemoryRepository {
         List<Message> messages = new ArrayList<>();
 
         if (file.exists()) {
-            try (Input input = new Input(new FileInputStream(file))) {
-                // 使用 Kryo 反序列化消息列表
-                @SuppressWarnings("unchecked")
-                List<Message> loadedMessages = (List<Message>) kryo.readObject(input, ArrayList.class);
-                messages = loadedMessages;
-            } catch (IOException e) {
+            Kryo kryo = kryoPool.obtain();
+            try {
+                messages = readSnapshot(file, kryo);
+            } catch (IOException | KryoException e) {
                 System.err.println("Error reading conversation file: " + file.getAbsolutePath());
                 e.printStackTrace();
+            } finally {
+                kryoPool.free(kryo);
             }
         }
         return messages;
     }
 
+    /**
+     * 使用 Kryo 反序列化快照文件中的消息列表（私有辅助方法）
+     */
+    @NonNull
+    private static List<Message> readSnapshot(@NonNull File file, @NonNull Kryo kryo) throws IOException {
+        try (Input input = new Input(new FileInputStream(file))) {
+            @SuppressWarnings("unchecked")
+            List<Message> loadedMessages = (List<Message>) kryo.readObject(input, ArrayList.class);
+            return loadedMessages;
+        }
+    }
+
     /**
      * 将消息列表保存到文件（私有辅助方法）
      * 使用 Kryo 序列化框架进行高效的二进制序列化
@@ -165,15 +315,136 @@ public class FileChatMemoryRepository implements ChatMemoryRepository {
      */
     private void saveConversation(@NonNull String conversationId, @NonNull List<Message> messages) {
         File file = getConversationFile(conversationId);
+        Kryo kryo = kryoPool.obtain();
         try (Output output = new Output(new FileOutputStream(file))) {
             // 使用 Kryo 序列化消息列表到文件
             kryo.writeObject(output, messages);
-        } catch (IOException e) {
+        } catch (IOException | KryoException e) {
             System.err.println("Error saving conversation file: " + file.getAbsolutePath());
             e.printStackTrace();
+        } finally {
+            kryoPool.free(kryo);
         }
     }
 
+    /**
+     * 读取追加日志得到消息列表（私有辅助方法，调用方持有对话锁）
+     *
+     * @param conversationId 对话会话标识符
+     * @return 对话消息列表，如果日志不存在或读取失败则返回空列表
+     */
+    @NonNull
+    private List<Message> readConversationLog(@NonNull String conversationId) {
+        File file = getConversationLogFile(conversationId);
+        Kryo kryo = kryoPool.obtain();
+        try {
+            return new ArrayList<>(persistedState(conversationId, kryo).messages());
+        } catch (IOException | KryoException e) {
+            System.err.println("Error reading conversation log: " + file.getAbsolutePath());
+            e.printStackTrace();
+            return new ArrayList<>();
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    /**
+     * 把消息列表与已持久化列表的差异追加到日志（私有辅助方法，调用方持有对话锁）
+     * 失效记录过多时压缩日志
+     *
+     * @param conversationId 对话会话标识符
+     * @param messages 完整的最新消息列表
+     */
+    private void appendConversation(@NonNull String conversationId, @NonNull List<Message> messages) {
+        File file = getConversationLogFile(conversationId);
+        Kryo kryo = kryoPool.obtain();
+        try {
+            ConversationSegmentLog.LogState state = persistedState(conversationId, kryo);
+            List<Message> persisted = state.messages();
+            int drop = ConversationSegmentLog.headDropCount(persisted, messages);
+            int kept = persisted.size() - drop;
+            List<Message> appended = messages.subList(kept, messages.size());
+
+            // 本次写入后的失效记录数：原有失效记录 + 被丢弃的消息 + TRIM 记录本身
+            int deadRecords = state.deadRecords() + drop + (drop > 0 ? 1 : 0);
+            int totalRecords;
+            if (deadRecords >= compactionThreshold && deadRecords >= messages.size()) {
+                ConversationSegmentLog.compact(file, kryo, messages);
+                totalRecords = messages.size();
+            } else {
+                ConversationSegmentLog.append(file, kryo, drop, appended);
+                totalRecords = state.totalRecords() + (drop > 0 ? 1 : 0) + appended.size();
+            }
+            logStates.put(conversationId,
+                    new ConversationSegmentLog.LogState(List.copyOf(messages), totalRecords, file.length()));
+        } catch (IOException | KryoException e) {
+            // 写入失败时文件内容不确定，下次访问重新回放
+            logStates.remove(conversationId);
+            System.err.println("Error appending conversation log: " + file.getAbsolutePath());
+            e.printStackTrace();
+        } finally {
+            kryoPool.free(kryo);
+        }
+    }
+
+    /**
+     * 获取对话已持久化的状态（私有辅助方法，调用方持有对话锁）
+     * 内存中的状态与文件长度一致时直接使用；否则回放日志并修复损坏的尾部。
+     * 日志不存在但有旧的快照文件时，把快照迁移为日志
+     *
+     * @param conversationId 对话会话标识符
+     * @param kryo 读写使用的 Kryo 实例
+     * @return 已持久化的状态
+     */
+    @NonNull
+    private ConversationSegmentLog.LogState persistedState(@NonNull String conversationId, @NonNull Kryo kryo)
+            throws IOException {
+        File file = getConversationLogFile(conversationId);
+        ConversationSegmentLog.LogState state = logStates.get(conversationId);
+        // 文件长度变化说明被外部修改（例如进程外删除或崩溃残留），以磁盘为准
+        if (state != null && state.validLength() == file.length()) {
+            return state;
+        }
+
+        File snapshot = getConversationFile(conversationId);
+        if (!file.exists() && snapshot.exists()) {
+            state = migrateSnapshot(snapshot, file, kryo);
+        } else {
+            replayCounter.increment();
+            state = ConversationSegmentLog.read(file, kryo);
+            ConversationSegmentLog.truncateTornTail(file, state);
+        }
+        logStates.put(conversationId, state);
+        return state;
+    }
+
+    /**
+     * 把整体快照迁移为追加日志（私有辅助方法，调用方持有对话锁）
+     * 日志写入成功后才删除快照，迁移中途失败时快照保持不变，下次访问重试
+     */
+    @NonNull
+    private ConversationSegmentLog.LogState migrateSnapshot(@NonNull File snapshot, @NonNull File file,
+                                                            @NonNull Kryo kryo) throws IOException {
+        List<Message> messages = readSnapshot(snapshot, kryo);
+        ConversationSegmentLog.compact(file, kryo, messages);
+        if (!snapshot.delete()) {
+            System.err.println("Failed to delete migrated conversation snapshot: " + snapshot.getAbsolutePath());
+        }
+        return new ConversationSegmentLog.LogState(List.copyOf(messages), messages.size(), file.length());
+    }
+
+    /**
+     * 根据对话ID生成对应的日志文件对象（私有辅助方法）
+     * 文件命名规则：{conversationId}.log
+     *
+     * @param conversationId 对话会话标识符
+     * @return 对应的日志文件对象
+     */
+    @NonNull
+    private File getConversationLogFile(@NonNull String conversationId) {
+        return new File(BASE_DIR, conversationId + ".log");
+    }
+
     /**
      * 根据对话ID生成对应的文件对象（私有辅助方法）
      * 文件命名规则：{conversationId}.kryo
@@ -0,0 +1,622 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.Output;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的聊天记忆仓库
+ *
+ * 与 {@link FileChatMemoryRepository} 每个对话一个文件不同，这里所有对话写入少量固定大小的段文件（segment-N.dat），
+ * 避免海量会话耗尽 inode、频繁打开关闭文件。
+ *
+ * 功能特点：
+ * - 段文件通过 MappedByteBuffer 映射，读取时直接在映射内存上反序列化，不经过 FileInputStream 拷贝
+ * - 堆外开放寻址哈希索引：conversationId 的 64 位哈希 -> 记录位置，查找 O(1)，哈希冲突时比对记录中的原始ID
+ * - 日志结构写入：每次保存在当前段末尾追加一条新记录，删除追加墓碑记录；启动时按段顺序回放重建索引
+ * - 失效数据超过有效数据时自动压缩：把有效记录复制到新段，通过 manifest 文件原子切换，再删除旧段
+ * - 支持分页列出对话ID
+ *
+ * 记录格式：[int 记录总长][int CRC32][byte 类型][int ID长度][ID UTF-8][Kryo 负载]
+ * 记录总长最后写入，启动扫描遇到总长为 0 或校验失败即认为该段到此结束。
+ */
+@Slf4j
+public class MappedChatMemoryRepository implements ChatMemoryRepository, AutoCloseable {
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    /** 记录头长度：总长 + CRC + 类型 + ID长度 */
+    private static final int HEADER_BYTES = Integer.BYTES + Integer.BYTES + 1 + Integer.BYTES;
+
+    /** 索引槽位：64 位哈希 + 64 位位置 */
+    private static final int SLOT_BYTES = Long.BYTES * 2;
+
+    /** 空槽位的哈希值 */
+    private static final long EMPTY = 0L;
+
+    /** 已删除槽位的位置值，保留哈希以维持探测链 */
+    private static final long TOMBSTONE = -1L;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.dat");
+
+    private static final String MANIFEST = "manifest";
+
+    private static final MessageKryoPool kryoPool =
+            new MessageKryoPool(Runtime.getRuntime().availableProcessors() * 2);
+
+    private final Path baseDir;
+
+    private final int segmentSize;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** 段编号 -> 段 */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+
+    /** 当前写入的段 */
+    private Segment active;
+
+    /** 堆外哈希索引 */
+    private ByteBuffer index;
+
+    private int indexCapacity;
+
+    /** 有效条目数 */
+    private int liveCount;
+
+    /** 已使用的槽位数（有效 + 墓碑） */
+    private int usedSlots;
+
+    private long liveBytes;
+
+    private long deadBytes;
+
+    /**
+     * 映射的段文件
+     */
+    private static final class Segment {
+        final int number;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePosition;
+
+        Segment(int number, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * 构造函数 - 使用默认段大小（64MB）
+     *
+     * @param dir 存储目录，不存在会自动创建
+     */
+    public MappedChatMemoryRepository(String dir) {
+        this(dir, 64 * 1024 * 1024);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param dir 存储目录，不存在会自动创建
+     * @param segmentSize 单个段文件的大小（字节）
+     */
+    public MappedChatMemoryRepository(String dir, int segmentSize) {
+        Assert.isTrue(segmentSize > HEADER_BYTES, "segmentSize is too small");
+        this.baseDir = Path.of(dir);
+        this.segmentSize = segmentSize;
+        this.indexCapacity = 1024;
+        this.index = ByteBuffer.allocateDirect(indexCapacity * SLOT_BYTES);
+        try {
+            Files.createDirectories(baseDir);
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open mapped chat memory store: " + dir, e);
+        }
+    }
+
+    @Override
+    @NonNull
+    public List<String> findConversationIds() {
+        return findConversationIds(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 分页列出对话ID，顺序为索引槽位顺序，在两次写入之间保持稳定
+     *
+     * @param page 页码，从 0 开始
+     * @param pageSize 每页数量
+     */
+    @NonNull
+    public List<String> findConversationIds(int page, int pageSize) {
+        Assert.isTrue(page >= 0 && pageSize > 0, "invalid page");
+        lock.readLock().lock();
+        try {
+            long skip = (long) page * pageSize;
+            List<String> ids = new ArrayList<>(Math.min(pageSize, liveCount));
+            for (int slot = 0; slot < indexCapacity && ids.size() < pageSize; slot++) {
+                long location = slotLocation(slot);
+                if (slotHash(slot) == EMPTY || location == TOMBSTONE) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                ids.add(readId(location));
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前保存的对话数量
+     */
+    public int conversationCount() {
+        lock.readLock().lock();
+        try {
+            return liveCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    @NonNull
+    public List<Message> findByConversationId(@NonNull String conversationId) {
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(conversationId, hash(conversationId));
+            if (slot < 0) {
+                return new ArrayList<>();
+            }
+            long location = slotLocation(slot);
+            ByteBuffer record = recordBuffer(location);
+            int idLength = record.getInt(record.position() + Integer.BYTES * 2 + 1);
+            // 直接在映射内存的切片上反序列化
+            ByteBuffer payload = record.position(record.position() + HEADER_BYTES + idLength).slice();
+            Kryo kryo = kryoPool.obtain();
+            try {
+                @SuppressWarnings("unchecked")
+                List<Message> messages = (List<Message>) kryo.readObject(new ByteBufferInput(payload), ArrayList.class);
+                return messages;
+            } finally {
+                kryoPool.free(kryo);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void saveAll(@NonNull String conversationId, @NonNull List<Message> messages) {
+        byte[] payload;
+        Kryo kryo = kryoPool.obtain();
+        try (Output output = new Output(4096, -1)) {
+            kryo.writeObject(output, new ArrayList<>(messages));
+            payload = output.toBytes();
+        } finally {
+            kryoPool.free(kryo);
+        }
+
+        lock.writeLock().lock();
+        try {
+            long location = appendRecord(PUT, conversationId, payload);
+            putIndex(conversationId, location);
+            maybeCompact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to save conversation " + conversationId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteByConversationId(@NonNull String conversationId) {
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(conversationId, hash(conversationId));
+            if (slot < 0) {
+                return;
+            }
+            long location = appendRecord(DELETE, conversationId, new byte[0]);
+            deadBytes += recordLength(location);
+            removeSlot(slot);
+            maybeCompact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete conversation " + conversationId, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 压缩：把所有有效记录复制到新段，切换 manifest 后删除旧段
+     * 旧段在 manifest 切换前保持不变，任何时刻崩溃都能恢复到一致状态
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            doCompact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to compact mapped chat memory store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+                segment.channel.close();
+            }
+            segments.clear();
+        } catch (IOException e) {
+            log.error("Failed to close mapped chat memory store", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ------------------------------------------------------------------ 启动回放
+
+    private void open() throws IOException {
+        int firstLive = readManifest();
+        List<Integer> numbers = new ArrayList<>();
+        try (var stream = Files.list(baseDir)) {
+            stream.forEach(path -> {
+                Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    numbers.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        }
+        numbers.sort(Integer::compare);
+
+        for (int number : numbers) {
+            Path path = segmentPath(number);
+            if (number < firstLive) {
+                // 上次压缩后未能删除的旧段
+                Files.deleteIfExists(path);
+                continue;
+            }
+            Segment segment = mapSegment(number, (int) Files.size(path));
+            segments.put(number, segment);
+            replay(segment);
+        }
+        if (segments.isEmpty()) {
+            active = createSegment(Math.max(firstLive, 0), segmentSize);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        log.info("Opened mapped chat memory store {} with {} conversations in {} segments",
+                baseDir, liveCount, segments.size());
+    }
+
+    private void replay(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        int limit = buffer.capacity();
+        CRC32 crc = new CRC32();
+        while (position + HEADER_BYTES <= limit) {
+            int total = buffer.getInt(position);
+            if (total < HEADER_BYTES || position + total > limit) {
+                break;
+            }
+            int checksum = buffer.getInt(position + Integer.BYTES);
+            crc.reset();
+            crc.update(buffer.duplicate().position(position + Integer.BYTES * 2).limit(position + total));
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte type = buffer.get(position + Integer.BYTES * 2);
+            long location = location(segment.number, position);
+            String id = readId(location);
+            if (type == PUT) {
+                putIndex(id, location);
+            } else if (type == DELETE) {
+                deadBytes += total;
+                int slot = findSlot(id, hash(id));
+                if (slot >= 0) {
+                    removeSlot(slot);
+                }
+            }
+            position += total;
+        }
+        segment.writePosition = position;
+    }
+
+    // ------------------------------------------------------------------ 段文件
+
+    private long appendRecord(byte type, String id, byte[] payload) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int total = HEADER_BYTES + idBytes.length + payload.length;
+        if (active.writePosition + total > active.buffer.capacity()) {
+            // 超大记录单独使用一个足够大的段
+            active = createSegment(active.number + 1, Math.max(segmentSize, total));
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(toBytes(idBytes.length));
+        crc.update(idBytes);
+        crc.update(payload);
+
+        int position = active.writePosition;
+        ByteBuffer buffer = active.buffer.duplicate();
+        buffer.position(position + Integer.BYTES);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(type);
+        buffer.putInt(idBytes.length);
+        buffer.put(idBytes);
+        buffer.put(payload);
+        // 总长最后写入，崩溃时半条记录在回放时不可见
+        active.buffer.putInt(position, total);
+        active.writePosition = position + total;
+        return location(active.number, position);
+    }
+
+    private Segment createSegment(int number, int size) throws IOException {
+        Segment segment = mapSegment(number, size);
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private Segment mapSegment(int number, int size) throws IOException {
+        Path path = segmentPath(number);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        return new Segment(number, path, channel, buffer);
+    }
+
+    private Path segmentPath(int number) {
+        return baseDir.resolve(String.format("segment-%08d.dat", number));
+    }
+
+    private ByteBuffer recordBuffer(long location) {
+        Segment segment = segments.get(segmentNumber(location));
+        int offset = segmentOffset(location);
+        int total = segment.buffer.getInt(offset);
+        return segment.buffer.duplicate().position(offset).limit(offset + total);
+    }
+
+    private int recordLength(long location) {
+        return segments.get(segmentNumber(location)).buffer.getInt(segmentOffset(location));
+    }
+
+    private String readId(long location) {
+        ByteBuffer record = recordBuffer(location);
+        int start = record.position();
+        int idLength = record.getInt(start + Integer.BYTES * 2 + 1);
+        byte[] idBytes = new byte[idLength];
+        record.position(start + HEADER_BYTES).get(idBytes);
+        return new String(idBytes, StandardCharsets.UTF_8);
+    }
+
+    private static long location(int segmentNumber, int offset) {
+        return ((long) segmentNumber << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentNumber(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int segmentOffset(long location) {
+        return (int) location;
+    }
+
+    // ------------------------------------------------------------------ 压缩
+
+    private void maybeCompact() throws IOException {
+        if (deadBytes > segmentSize && deadBytes > liveBytes) {
+            doCompact();
+        }
+    }
+
+    private void doCompact() throws IOException {
+        long start = System.nanoTime();
+        List<Segment> oldSegments = new ArrayList<>(segments.values());
+        int firstNew = active.number + 1;
+        active = createSegment(firstNew, segmentSize);
+
+        // 逐条复制有效记录到新段，并更新索引位置
+        for (int slot = 0; slot < indexCapacity; slot++) {
+            long location = slotLocation(slot);
+            if (slotHash(slot) == EMPTY || location == TOMBSTONE) {
+                continue;
+            }
+            ByteBuffer record = recordBuffer(location);
+            int total = record.remaining();
+            if (active.writePosition + total > active.buffer.capacity()) {
+                active = createSegment(active.number + 1, Math.max(segmentSize, total));
+            }
+            int position = active.writePosition;
+            ByteBuffer target = active.buffer.duplicate();
+            target.position(position + Integer.BYTES);
+            target.put(record.position(record.position() + Integer.BYTES));
+            active.buffer.putInt(position, total);
+            active.writePosition = position + total;
+            index.putLong(slot * SLOT_BYTES + Long.BYTES, location(active.number, position));
+        }
+        for (Segment segment : segments.tailMap(firstNew).values()) {
+            segment.buffer.force();
+        }
+
+        // manifest 切换后旧段不再参与回放
+        writeManifest(firstNew);
+        for (Segment segment : oldSegments) {
+            segments.remove(segment.number);
+            segment.channel.close();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                // 部分平台在映射释放前无法删除文件，下次启动时会按 manifest 清理
+                log.warn("Failed to delete compacted segment {}", segment.path, e);
+            }
+        }
+        deadBytes = 0;
+        log.info("Compacted mapped chat memory store in {} ms, {} conversations, {} live bytes",
+                (System.nanoTime() - start) / 1_000_000, liveCount, liveBytes);
+    }
+
+    private int readManifest() throws IOException {
+        Path manifest = baseDir.resolve(MANIFEST);
+        if (!Files.exists(manifest)) {
+            return 0;
+        }
+        return Integer.parseInt(Files.readString(manifest).trim());
+    }
+
+    private void writeManifest(int firstLiveSegment) throws IOException {
+        Path tmp = baseDir.resolve(MANIFEST + ".tmp");
+        Files.writeString(tmp, Integer.toString(firstLiveSegment));
+        Files.move(tmp, baseDir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // ------------------------------------------------------------------ 堆外哈希索引
+
+    private void putIndex(String id, long location) {
+        long hash = hash(id);
+        int slot = findSlot(id, hash);
+        int total = recordLength(location);
+        liveBytes += total;
+        if (slot >= 0) {
+            int previous = recordLength(slotLocation(slot));
+            liveBytes -= previous;
+            deadBytes += previous;
+            index.putLong(slot * SLOT_BYTES + Long.BYTES, location);
+            return;
+        }
+
+        if ((usedSlots + 1) * 10L > indexCapacity * 7L) {
+            resize(liveCount + 1 > indexCapacity / 2 ? indexCapacity * 2 : indexCapacity);
+        }
+        int free = findFreeSlot(hash);
+        if (slotHash(free) == EMPTY) {
+            usedSlots++;
+        }
+        index.putLong(free * SLOT_BYTES, hash);
+        index.putLong(free * SLOT_BYTES + Long.BYTES, location);
+        liveCount++;
+    }
+
+    private void removeSlot(int slot) {
+        int total = recordLength(slotLocation(slot));
+        liveBytes -= total;
+        deadBytes += total;
+        index.putLong(slot * SLOT_BYTES + Long.BYTES, TOMBSTONE);
+        liveCount--;
+    }
+
+    /**
+     * 查找ID所在槽位，哈希相同时比对记录中的原始ID
+     *
+     * @return 槽位下标，不存在返回 -1
+     */
+    private int findSlot(String id, long hash) {
+        int mask = indexCapacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        for (int probes = 0; probes < indexCapacity; probes++) {
+            long slotHash = slotHash(slot);
+            if (slotHash == EMPTY) {
+                return -1;
+            }
+            long location = slotLocation(slot);
+            if (slotHash == hash && location != TOMBSTONE && readId(location).equals(id)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findFreeSlot(long hash) {
+        int mask = indexCapacity - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (slotHash(slot) != EMPTY && slotLocation(slot) != TOMBSTONE) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * 重建索引：丢弃墓碑，必要时扩容
+     */
+    private void resize(int newCapacity) {
+        ByteBuffer old = index;
+        int oldCapacity = indexCapacity;
+        indexCapacity = newCapacity;
+        index = ByteBuffer.allocateDirect(newCapacity * SLOT_BYTES);
+        usedSlots = 0;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long hash = old.getLong(slot * SLOT_BYTES);
+            long location = old.getLong(slot * SLOT_BYTES + Long.BYTES);
+            if (hash == EMPTY || location == TOMBSTONE) {
+                continue;
+            }
+            int free = findFreeSlot(hash);
+            index.putLong(free * SLOT_BYTES, hash);
+            index.putLong(free * SLOT_BYTES + Long.BYTES, location);
+            usedSlots++;
+        }
+    }
+
+    private long slotHash(int slot) {
+        return index.getLong(slot * SLOT_BYTES);
+    }
+
+    private long slotLocation(int slot) {
+        return index.getLong(slot * SLOT_BYTES + Long.BYTES);
+    }
+
+    /**
+     * 64 位 FNV-1a 哈希，0 保留给空槽位
+     */
+    private static long hash(String id) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < id.length(); i++) {
+            h ^= id.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= (h >>> 29);
+        return h == EMPTY ? 1 : h;
+    }
+
+    private static byte[] toBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+}
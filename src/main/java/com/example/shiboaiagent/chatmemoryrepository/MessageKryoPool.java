@@ -0,0 +1,139 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.DefaultSerializers;
+import com.esotericsoftware.kryo.serializers.ImmutableCollectionsSerializers;
+import com.esotericsoftware.kryo.util.Pool;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.content.Media;
+import org.springframework.util.MimeType;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * 线程安全的 Kryo 实例池
+ *
+ * Kryo 实例本身不是线程安全的，这里用有界池为每次序列化借出独立的实例。
+ * 池中的实例预先注册了 Spring AI 消息类型、媒体附件和常用集合类型，
+ * 这些类型序列化时只写入注册 ID 而不是完整类名，数据更小、读写更快。
+ *
+ * 不开启 registrationRequired：消息元数据里可能出现模型提供方的任意值类型（例如 DashScope 的枚举），
+ * 未注册的类型退回写入完整类名、用默认的 FieldSerializer 序列化，而不是抛出异常导致整段对话无法保存。
+ * 这也保证了旧版本（未注册任何类型）写入的文件仍然可以读取：按类名写入的记录在读取时按类名解析。
+ *
+ * 注意：注册 ID 是持久化格式的一部分，只能追加新的注册，不能修改已有的 ID。
+ */
+public final class MessageKryoPool {
+
+    /** 自定义注册 ID 的起始值，避开 Kryo 内置类型占用的 ID */
+    private static final int FIRST_REGISTRATION_ID = 100;
+
+    private final Pool<Kryo> pool;
+
+    /**
+     * 构造函数
+     *
+     * @param maximumCapacity 池中最多保留的空闲实例数量
+     */
+    public MessageKryoPool(int maximumCapacity) {
+        this.pool = new Pool<>(true, false, maximumCapacity) {
+            @Override
+            protected Kryo create() {
+                return createKryo();
+            }
+        };
+    }
+
+    /**
+     * 借出一个 Kryo 实例，使用完毕后必须调用 {@link #free(Kryo)} 归还
+     */
+    public Kryo obtain() {
+        return pool.obtain();
+    }
+
+    /**
+     * 归还 Kryo 实例
+     */
+    public void free(Kryo kryo) {
+        pool.free(kryo);
+    }
+
+    /**
+     * 创建并配置一个新的 Kryo 实例
+     */
+    static Kryo createKryo() {
+        Kryo kryo = new Kryo();
+        // 已注册的类只写入注册 ID，未注册的类写入类名，见类注释
+        kryo.setRegistrationRequired(false);
+        // 设置实例化策略，支持无参构造函数的类
+        kryo.setInstantiatorStrategy(new StdInstantiatorStrategy());
+
+        int id = FIRST_REGISTRATION_ID;
+        // 集合与元数据
+        kryo.register(ArrayList.class, id++);
+        kryo.register(HashMap.class, id++);
+        kryo.register(LinkedHashMap.class, id++);
+        kryo.register(Collections.emptyList().getClass(), id++);
+        kryo.register(Collections.emptyMap().getClass(), id++);
+        kryo.register(Collections.singletonList(null).getClass(), id++);
+        kryo.register(Collections.singletonMap(null, null).getClass(), id++);
+        kryo.register(byte[].class, id++);
+        // Spring AI 消息类型
+        kryo.register(MessageType.class, id++);
+        kryo.register(UserMessage.class, id++);
+        kryo.register(AssistantMessage.class, id++);
+        kryo.register(AssistantMessage.ToolCall.class, id++);
+        kryo.register(SystemMessage.class, id++);
+        kryo.register(ToolResponseMessage.class, id++);
+        kryo.register(ToolResponseMessage.ToolResponse.class, id++);
+        // List.of()/Map.of() 等 JDK 不可变集合，消息内部默认使用这些类型
+        ImmutableCollectionsSerializers.registerSerializers(kryo);
+        // 媒体附件与用量元数据（在已有注册之后追加）
+        kryo.addDefaultSerializer(MimeType.class, new MimeTypeSerializer());
+        kryo.register(Media.class, id++);
+        kryo.register(MimeType.class, id++);
+        kryo.register(URI.class, new DefaultSerializers.URISerializer(), id++);
+        kryo.register(URL.class, new DefaultSerializers.URLSerializer(), id++);
+        kryo.register(DefaultUsage.class, id++);
+        return kryo;
+    }
+
+    /**
+     * MimeType（及其子类 MediaType）按字符串形式序列化
+     * 参数表内部是大小写不敏感的 Map，逐字段序列化后无法正确还原
+     */
+    private static final class MimeTypeSerializer extends Serializer<MimeType> {
+
+        MimeTypeSerializer() {
+            setImmutable(true);
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, MimeType mimeType) {
+            output.writeString(mimeType.toString());
+        }
+
+        @Override
+        public MimeType read(Kryo kryo, Input input, Class<? extends MimeType> type) {
+            MimeType mimeType = MimeType.valueOf(input.readString());
+            if (type == org.springframework.http.MediaType.class) {
+                return new org.springframework.http.MediaType(mimeType);
+            }
+            return mimeType;
+        }
+    }
+}
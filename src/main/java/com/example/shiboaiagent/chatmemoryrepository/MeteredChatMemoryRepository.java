@@ -0,0 +1,104 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.util.List;
+
+/**
+ * 记录读写耗时的聊天记忆仓库（装饰器）
+ *
+ * 放在 ChatMemory 和实际仓库之间，统计的是请求线程上看到的记忆加载、保存耗时（包括写回缓存命中的情况）：
+ * - ai.memory.load：findByConversationId
+ * - ai.memory.save：saveAll
+ * 两个 Timer 都带 app 标签；文件仓库自身的磁盘读写耗时见 {@link FileChatMemoryRepository}。
+ */
+public class MeteredChatMemoryRepository implements ChatMemoryRepository {
+
+    public static final String LOAD_TIMER = "ai.memory.load";
+
+    public static final String SAVE_TIMER = "ai.memory.save";
+
+    private final ChatMemoryRepository delegate;
+
+    private final Timer loadTimer;
+
+    private final Timer saveTimer;
+
+    private MeteredChatMemoryRepository(Builder builder) {
+        this.delegate = builder.delegate;
+        this.loadTimer = Timer.builder(LOAD_TIMER)
+                .description("Chat memory load latency")
+                .tag("app", builder.app)
+                .publishPercentileHistogram()
+                .register(builder.meterRegistry);
+        this.saveTimer = Timer.builder(SAVE_TIMER)
+                .description("Chat memory save latency")
+                .tag("app", builder.app)
+                .publishPercentileHistogram()
+                .register(builder.meterRegistry);
+    }
+
+    public static Builder builder(ChatMemoryRepository delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    @NonNull
+    public List<String> findConversationIds() {
+        return delegate.findConversationIds();
+    }
+
+    @Override
+    @NonNull
+    public List<Message> findByConversationId(@NonNull String conversationId) {
+        return loadTimer.record(() -> delegate.findByConversationId(conversationId));
+    }
+
+    @Override
+    public void saveAll(@NonNull String conversationId, @NonNull List<Message> messages) {
+        saveTimer.record(() -> delegate.saveAll(conversationId, messages));
+    }
+
+    @Override
+    public void deleteByConversationId(@NonNull String conversationId) {
+        delegate.deleteByConversationId(conversationId);
+    }
+
+    public static final class Builder {
+
+        private final ChatMemoryRepository delegate;
+
+        private String app = "default";
+
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder(ChatMemoryRepository delegate) {
+            Assert.notNull(delegate, "delegate cannot be null");
+            this.delegate = delegate;
+        }
+
+        /** app 标签，区分不同的应用 */
+        public Builder app(String app) {
+            this.app = app;
+            return this;
+        }
+
+        /** 指标注册表，默认为全局注册表 */
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public MeteredChatMemoryRepository build() {
+            Assert.hasText(app, "app cannot be empty");
+            Assert.notNull(meterRegistry, "meterRegistry cannot be null");
+            return new MeteredChatMemoryRepository(this);
+        }
+    }
+}
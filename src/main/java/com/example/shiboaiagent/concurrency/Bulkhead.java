@@ -0,0 +1,130 @@
+package com.example.shiboaiagent.concurrency;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 限制对某个上游服务的并发调用数（舱壁隔离）
+ *
+ * 请求线程改为虚拟线程后，线程池大小不再限制并发，同时打到上游（DashScope 对话/向量接口）的请求数
+ * 必须单独控制，否则会触发上游限流。这里用公平信号量限制同时在途的调用数：
+ * 等待许可的虚拟线程只是挂起，不占用平台线程；等待超过 acquireTimeout 时抛出 {@link BulkheadFullException}。
+ */
+@Slf4j
+public class Bulkhead {
+
+    private final String name;
+
+    private final int maxConcurrentCalls;
+
+    private final long acquireTimeoutNanos;
+
+    private final Semaphore permits;
+
+    private final AtomicInteger peakConcurrentCalls = new AtomicInteger();
+
+    private final LongAdder calls = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder totalWaitNanos = new LongAdder();
+
+    /**
+     * 舱壁统计快照
+     *
+     * @param name 上游名称
+     * @param maxConcurrentCalls 并发上限
+     * @param activeCalls 当前在途的调用数
+     * @param waitingCalls 当前等待许可的调用数
+     * @param peakConcurrentCalls 观察到的最大在途调用数
+     * @param calls 获得许可的调用总数
+     * @param rejected 等待超时被拒绝的调用数
+     * @param totalWaitNanos 累计等待许可的时长（纳秒）
+     */
+    public record BulkheadStats(String name, int maxConcurrentCalls, int activeCalls, int waitingCalls,
+                                int peakConcurrentCalls, long calls, long rejected, long totalWaitNanos) {
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param name 上游名称，用于日志和统计
+     * @param maxConcurrentCalls 同时在途的最大调用数
+     * @param acquireTimeout 等待许可的最长时间
+     */
+    public Bulkhead(String name, int maxConcurrentCalls, Duration acquireTimeout) {
+        Assert.hasText(name, "name cannot be empty");
+        Assert.isTrue(maxConcurrentCalls > 0, "maxConcurrentCalls must be positive");
+        Assert.notNull(acquireTimeout, "acquireTimeout cannot be null");
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.acquireTimeoutNanos = acquireTimeout.toNanos();
+        this.permits = new Semaphore(maxConcurrentCalls, true);
+    }
+
+    /**
+     * 持有许可执行调用
+     */
+    public <T> T execute(Supplier<T> call) {
+        acquire();
+        try {
+            return call.get();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * 获取一个许可，超时或被中断时抛出 {@link BulkheadFullException}
+     */
+    public void acquire() {
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.increment();
+            throw new BulkheadFullException(name, "interrupted while waiting for a permit");
+        }
+        totalWaitNanos.add(System.nanoTime() - start);
+        if (!acquired) {
+            rejected.increment();
+            log.warn("Bulkhead {} rejected a call after waiting {} ms, {} calls waiting",
+                    name, TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos), permits.getQueueLength());
+            throw new BulkheadFullException(name, maxConcurrentCalls + " calls already in flight");
+        }
+        calls.increment();
+        peakConcurrentCalls.accumulateAndGet(maxConcurrentCalls - permits.availablePermits(), Math::max);
+    }
+
+    /**
+     * 归还许可，必须与成功的 {@link #acquire()} 一一对应
+     */
+    public void release() {
+        permits.release();
+    }
+
+    public BulkheadStats stats() {
+        return new BulkheadStats(name, maxConcurrentCalls, maxConcurrentCalls - permits.availablePermits(),
+                permits.getQueueLength(), peakConcurrentCalls.get(), calls.sum(), rejected.sum(),
+                totalWaitNanos.sum());
+    }
+
+    /**
+     * 等待许可超时
+     */
+    public static class BulkheadFullException extends IllegalStateException {
+
+        public BulkheadFullException(String name, String reason) {
+            super("Upstream " + name + " is busy: " + reason);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.shiboaiagent.concurrency;
+
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.lang.NonNull;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 限制并发调用数的 ChatModel（装饰器）
+ *
+ * 同步调用在整个 call 期间持有许可；流式调用在订阅时获取许可，流结束、出错或被取消时归还。
+ */
+public class BulkheadChatModel implements ChatModel {
+
+    /** 被装饰的聊天模型 */
+    private final ChatModel delegate;
+
+    private final Bulkhead bulkhead;
+
+    public BulkheadChatModel(ChatModel delegate, Bulkhead bulkhead) {
+        this.delegate = delegate;
+        this.bulkhead = bulkhead;
+    }
+
+    public Bulkhead bulkhead() {
+        return bulkhead;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return bulkhead.execute(() -> delegate.call(prompt));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        return Flux.defer(() -> {
+            bulkhead.acquire();
+            // doFinally 在完成、出错、取消时都会执行，这里保证只归还一次
+            AtomicBoolean released = new AtomicBoolean();
+            return delegate.stream(prompt)
+                    .doFinally(signal -> {
+                        if (released.compareAndSet(false, true)) {
+                            bulkhead.release();
+                        }
+                    });
+        });
+    }
+
+    @Override
+    @NonNull
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.shiboaiagent.concurrency;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.lang.NonNull;
+
+/**
+ * 限制并发调用数的 EmbeddingModel（装饰器）
+ *
+ * 入库时的批量向量化和查询时的单条向量化共用同一个舱壁，总并发不超过上游允许的请求数。
+ */
+public class BulkheadEmbeddingModel implements EmbeddingModel {
+
+    /** 被装饰的向量模型 */
+    private final EmbeddingModel delegate;
+
+    private final Bulkhead bulkhead;
+
+    public BulkheadEmbeddingModel(EmbeddingModel delegate, Bulkhead bulkhead) {
+        this.delegate = delegate;
+        this.bulkhead = bulkhead;
+    }
+
+    public Bulkhead bulkhead() {
+        return bulkhead;
+    }
+
+    @Override
+    @NonNull
+    public EmbeddingResponse call(@NonNull EmbeddingRequest request) {
+        return bulkhead.execute(() -> delegate.call(request));
+    }
+
+    @Override
+    @NonNull
+    public float[] embed(@NonNull Document document) {
+        return bulkhead.execute(() -> delegate.embed(document));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
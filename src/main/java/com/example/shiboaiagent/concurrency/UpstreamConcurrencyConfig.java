@@ -0,0 +1,56 @@
+package com.example.shiboaiagent.concurrency;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.time.Duration;
+
+/**
+ * 上游并发限制配置
+ *
+ * 开启 spring.threads.virtual.enabled 后，Tomcat 的请求处理和所有阻塞的模型调用、记忆读写、向量检索都运行在虚拟线程上，
+ * 并发请求数不再受 200 个平台线程的限制。对上游的并发改由这里的信号量舱壁控制：
+ * 容器中的 ChatModel 和 EmbeddingModel 在初始化后被包装为 {@link BulkheadChatModel} / {@link BulkheadEmbeddingModel}，
+ * 所有应用共用同一个舱壁。
+ */
+@Configuration
+@Slf4j
+public class UpstreamConcurrencyConfig {
+
+    /**
+     * BeanPostProcessor 需要在其他 Bean 之前创建，声明为 static，配置直接从 Environment 读取
+     */
+    @Bean
+    static BeanPostProcessor upstreamBulkheadPostProcessor(Environment environment) {
+        boolean enabled = environment.getProperty("upstream.bulkhead.enabled", Boolean.class, true);
+        Duration acquireTimeout = Duration.ofMillis(
+                environment.getProperty("upstream.bulkhead.acquire-timeout-ms", Long.class, 30_000L));
+        int chatModelPermits = environment.getProperty("upstream.chat-model.max-concurrent-calls", Integer.class, 64);
+        int embeddingModelPermits = environment.getProperty(
+                "upstream.embedding-model.max-concurrent-calls", Integer.class, 8);
+
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!enabled) {
+                    return bean;
+                }
+                if (bean instanceof ChatModel chatModel && !(bean instanceof BulkheadChatModel)) {
+                    log.info("Limiting {} to {} concurrent calls", beanName, chatModelPermits);
+                    return new BulkheadChatModel(chatModel, new Bulkhead(beanName, chatModelPermits, acquireTimeout));
+                }
+                if (bean instanceof EmbeddingModel embeddingModel && !(bean instanceof BulkheadEmbeddingModel)) {
+                    log.info("Limiting {} to {} concurrent calls", beanName, embeddingModelPermits);
+                    return new BulkheadEmbeddingModel(embeddingModel,
+                            new Bulkhead(beanName, embeddingModelPermits, acquireTimeout));
+                }
+                return bean;
+            }
+        };
+    }
+}
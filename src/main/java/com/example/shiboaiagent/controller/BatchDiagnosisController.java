@@ -0,0 +1,66 @@
+package com.example.shiboaiagent.controller;
+
+import com.example.shiboaiagent.service.BatchDiagnosisService;
+import com.example.shiboaiagent.service.BatchDiagnosisService.BatchJobStatus;
+import com.example.shiboaiagent.service.BatchDiagnosisService.DiagnosisRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+/**
+ * 批量诊断接口
+ *
+ * 提交后立即返回任务ID（202），通过状态接口轮询进度和已完成的诊断报告。
+ */
+@RestController
+@RequestMapping("/diagnosis/batch")
+public class BatchDiagnosisController {
+
+    private final BatchDiagnosisService batchDiagnosisService;
+
+    /**
+     * 构造器注入
+     */
+    public BatchDiagnosisController(BatchDiagnosisService batchDiagnosisService) {
+        this.batchDiagnosisService = batchDiagnosisService;
+    }
+
+    /**
+     * 批量诊断请求体
+     *
+     * @param items 每位患者的会话ID和症状描述
+     * @param parallelism 可选，本任务同时执行的条目数，不能超过服务端配置的上限
+     */
+    public record BatchDiagnosisRequest(List<DiagnosisRequest> items, Integer parallelism) {
+    }
+
+    /**
+     * 提交结果
+     *
+     * @param jobId 任务ID
+     * @param total 条目总数
+     */
+    public record BatchSubmitted(String jobId, int total) {
+    }
+
+    @PostMapping
+    public ResponseEntity<?> submit(@RequestBody BatchDiagnosisRequest request) {
+        try {
+            String jobId = batchDiagnosisService.submit(request.items(), request.parallelism());
+            return ResponseEntity.accepted().body(new BatchSubmitted(jobId, request.items().size()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/{jobId}")
+    public ResponseEntity<BatchJobStatus> status(@PathVariable String jobId) {
+        return ResponseEntity.of(batchDiagnosisService.status(jobId));
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.shiboaiagent.controller;
+
+import com.example.shiboaiagent.app.PsychiatristApp;
+import com.example.shiboaiagent.app.PsychiatristApp4FileChatMemory;
+import com.example.shiboaiagent.app.PsychiatristApp4PdfDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 心理医生聊天接口
+ *
+ * 流式接口通过 Server-Sent Events 逐段推送模型输出：首个片段生成后立即发送给客户端，
+ * 不必等待完整回答。控制器返回 Flux 后 Spring MVC 以异步请求处理，生成期间不占用 Servlet 线程。
+ * 对话记忆由各应用的记忆顾问在流结束后写入。
+ *
+ * 请求头 X-Cache-Bypass: true 让本次请求跳过回答缓存（语义缓存、提示词缓存），一定调用模型，
+ * 用于用户要求重新回答或排查缓存命中结果的场景。
+ */
+@Slf4j
+@RestController
+@RequestMapping("/psychiatrist")
+public class PsychiatristController {
+
+    /** 模型调用失败时推送的事件名 */
+    static final String ERROR_EVENT = "error";
+
+    /**
+     * 流式接口的响应类型，显式声明 UTF-8：SSE 规范要求 UTF-8，但不带 charset 时
+     * Servlet 容器按 ISO-8859-1 写出事件数据，中文会变成问号，也不能假定客户端默认按 UTF-8 解码
+     */
+    static final MediaType TEXT_EVENT_STREAM_UTF8 = new MediaType(MediaType.TEXT_EVENT_STREAM, StandardCharsets.UTF_8);
+
+    /** 跳过回答缓存的请求头 */
+    public static final String CACHE_BYPASS_HEADER = "X-Cache-Bypass";
+
+    private final PsychiatristApp psychiatristApp;
+
+    private final PsychiatristApp4FileChatMemory psychiatristApp4FileChatMemory;
+
+    private final PsychiatristApp4PdfDocument psychiatristApp4PdfDocument;
+
+    /**
+     * 构造器注入
+     */
+    public PsychiatristController(PsychiatristApp psychiatristApp,
+                                  PsychiatristApp4FileChatMemory psychiatristApp4FileChatMemory,
+                                  PsychiatristApp4PdfDocument psychiatristApp4PdfDocument) {
+        this.psychiatristApp = psychiatristApp;
+        this.psychiatristApp4FileChatMemory = psychiatristApp4FileChatMemory;
+        this.psychiatristApp4PdfDocument = psychiatristApp4PdfDocument;
+    }
+
+    /**
+     * 同步聊天，等待完整回答后一次返回
+     */
+    @GetMapping("/chat")
+    public String chat(@RequestParam String message, @RequestParam String chatId,
+                       @RequestHeader(name = CACHE_BYPASS_HEADER, defaultValue = "false") boolean bypassCache) {
+        return psychiatristApp.doChat(message, chatId, bypassCache);
+    }
+
+    /**
+     * 流式聊天（内存记忆）
+     */
+    @GetMapping(value = "/chat/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<String>>> chatBySse(@RequestParam String message,
+                                                                @RequestParam String chatId,
+                                                                @RequestHeader(name = CACHE_BYPASS_HEADER, defaultValue = "false") boolean bypassCache) {
+        return toServerSentEvents(psychiatristApp.doChatByStream(message, chatId, bypassCache), chatId);
+    }
+
+    /**
+     * 流式诊断（文件记忆）
+     */
+    @GetMapping(value = "/file-memory/chat/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<String>>> fileMemoryChatBySse(@RequestParam String message,
+                                                                @RequestParam String chatId) {
+        return toServerSentEvents(psychiatristApp4FileChatMemory.doChatByStream(message, chatId), chatId);
+    }
+
+    /**
+     * 流式诊断（PDF知识库检索增强 + 文件记忆），该应用只有提示词缓存
+     */
+    @GetMapping(value = "/rag/chat/sse", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<Flux<ServerSentEvent<String>>> ragChatBySse(@RequestParam String message,
+                                                                @RequestParam String chatId,
+                                                                @RequestHeader(name = CACHE_BYPASS_HEADER, defaultValue = "false") boolean bypassCache) {
+        return toServerSentEvents(psychiatristApp4PdfDocument.doChatWithRagByStream(message, chatId, bypassCache),
+                chatId);
+    }
+
+    /**
+     * 把文本片段包装成 SSE 事件；模型调用失败时推送一个 error 事件后正常结束，
+     * 避免响应已经开始写出后再由容器返回错误页
+     */
+    private static ResponseEntity<Flux<ServerSentEvent<String>>> toServerSentEvents(Flux<String> content,
+                                                                                    String chatId) {
+        Flux<ServerSentEvent<String>> events = content
+                .map(chunk -> ServerSentEvent.builder(chunk).build())
+                .onErrorResume(e -> {
+                    log.warn("Streaming chat failed, chatId: {}", chatId, e);
+                    return Flux.just(ServerSentEvent.<String>builder()
+                            .event(ERROR_EVENT)
+                            .data("服务繁忙，请稍后重试")
+                            .build());
+                });
+        return ResponseEntity.ok().contentType(TEXT_EVENT_STREAM_UTF8).body(events);
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.shiboaiagent.logging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.event.Level;
+import org.springframework.util.Assert;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * 日志advisor的异步事件日志
+ *
+ * 请求线程只做三件事：按级别抽样、截断文本、把事件放进无锁环形队列（{@link LogEventRingBuffer}），
+ * 不格式化字符串也不经过 logback 的 appender；后台写线程批量取出事件，格式化为 key=value 形式写入日志。
+ * 队列满时直接丢弃事件并计数，请求线程永远不会因为日志而阻塞。
+ * 队列为空时写线程休眠，生产者只在写线程休眠时唤醒它，空闲时不会每毫秒空转一次。
+ *
+ * 抽样按级别设置比例：默认 ERROR、WARN、INFO 全部记录，DEBUG、TRACE 不记录；
+ * 写入日志时，级别在 logback 中被关闭的事件同样不记录。
+ */
+@Slf4j
+public class AdvisorEventLog implements AutoCloseable {
+
+    private final LogEventRingBuffer<AdvisorLogEvent> buffer;
+
+    /** 按 Level.ordinal() 索引的抽样比例 */
+    private final double[] sampleRates;
+
+    private final int maxContentChars;
+
+    private final long slowCallMillis;
+
+    private final long idleParkNanos;
+
+    private final Consumer<AdvisorLogEvent> sink;
+
+    /** 使用默认的日志写出方式时，同时按 logback 的级别过滤 */
+    private final boolean loggerLevelFiltered;
+
+    private final Thread writer;
+
+    private volatile boolean running;
+
+    /** 写线程准备休眠或正在休眠，生产者据此决定是否唤醒 */
+    private volatile boolean writerParked;
+
+    private final LongAdder recorded = new LongAdder();
+
+    private final LongAdder sampledOut = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder written = new LongAdder();
+
+    private AdvisorEventLog(Builder builder) {
+        this.buffer = new LogEventRingBuffer<>(builder.capacity);
+        this.sampleRates = builder.sampleRates.clone();
+        this.maxContentChars = builder.maxContentChars;
+        this.slowCallMillis = builder.slowCallThreshold.toMillis();
+        this.idleParkNanos = builder.idleInterval.toNanos();
+        this.sink = builder.sink != null ? builder.sink : AdvisorEventLog::write;
+        this.loggerLevelFiltered = builder.sink == null;
+        this.writer = new Thread(this::drainLoop, "advisor-log-writer");
+        this.writer.setDaemon(true);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 事件统计
+     *
+     * @param recorded 放入队列的事件数
+     * @param sampledOut 被抽样丢弃的事件数
+     * @param dropped 队列满被丢弃的事件数
+     * @param written 已写出的事件数
+     * @param queued 当前排队的事件数（近似值）
+     */
+    public record Stats(long recorded, long sampledOut, long dropped, long written, int queued) {
+    }
+
+    public Stats stats() {
+        return new Stats(recorded.sum(), sampledOut.sum(), dropped.sum(), written.sum(), buffer.size());
+    }
+
+    /** 请求、回答文本保留的最大字符数 */
+    public int maxContentChars() {
+        return maxContentChars;
+    }
+
+    /**
+     * 启动后台写线程
+     */
+    public void start() {
+        running = true;
+        writer.start();
+    }
+
+    /**
+     * 停止写线程，队列中剩余的事件写完后返回
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!writer.isAlive()) {
+            drain();
+        }
+    }
+
+    /**
+     * 记录一次模型调用，在请求线程上调用
+     *
+     * @param mode call 或 stream
+     * @param conversationId 对话ID，可以为 null
+     * @param startNanos 调用开始时的 System.nanoTime()
+     * @param request 用户消息
+     * @param response 模型回答，可以是已经截断的文本
+     * @param responseLength 模型回答的原始长度
+     * @param outcome 调用结果
+     * @param error 失败原因，可以为 null
+     * @return 事件是否放入了队列
+     */
+    public boolean record(String mode, String conversationId, long startNanos, String request, CharSequence response,
+                          int responseLength, AdvisorLogEvent.Outcome outcome, Throwable error) {
+        long durationMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        Level level = outcome == AdvisorLogEvent.Outcome.ERROR ? Level.ERROR
+                : durationMillis >= slowCallMillis ? Level.WARN
+                : Level.INFO;
+        if (!isSampled(level)) {
+            sampledOut.increment();
+            return false;
+        }
+        AdvisorLogEvent event = new AdvisorLogEvent(System.currentTimeMillis(), level, mode, outcome, conversationId,
+                durationMillis, cap(request), request == null ? 0 : request.length(), cap(response), responseLength,
+                error == null ? null : cap(error.toString()));
+        if (!buffer.offer(event)) {
+            dropped.increment();
+            return false;
+        }
+        recorded.increment();
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * 该级别的事件本次是否需要记录
+     */
+    public boolean isSampled(Level level) {
+        double rate = sampleRates[level.ordinal()];
+        if (rate <= 0 || (loggerLevelFiltered && !log.isEnabledForLevel(level))) {
+            return false;
+        }
+        return rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    private String cap(CharSequence text) {
+        if (text == null) {
+            return "";
+        }
+        if (text.length() <= maxContentChars) {
+            return text.toString();
+        }
+        return text.subSequence(0, maxContentChars) + "...";
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (drain() == 0) {
+                // 先登记休眠再复查队列：登记之后放入的事件，生产者一定看得到登记并唤醒写线程；
+                // 登记之前放入的事件，复查时一定看得到。休眠时长只是兜底
+                writerParked = true;
+                if (buffer.size() == 0 && running) {
+                    LockSupport.parkNanos(idleParkNanos);
+                }
+                writerParked = false;
+            }
+        }
+    }
+
+    /**
+     * 写出队列中的全部事件
+     *
+     * @return 写出的事件数
+     */
+    private int drain() {
+        int count = 0;
+        AdvisorLogEvent event;
+        while ((event = buffer.poll()) != null) {
+            try {
+                sink.accept(event);
+            } catch (RuntimeException e) {
+                log.warn("Error writing advisor log event", e);
+            }
+            count++;
+        }
+        written.add(count);
+        return count;
+    }
+
+    private static void write(AdvisorLogEvent event) {
+        log.atLevel(event.level()).log(
+                "AI调用 mode={} outcome={} conversationId={} durationMs={} requestChars={} responseChars={} request=\"{}\" response=\"{}\"{}",
+                event.mode(), event.outcome(), event.conversationId(), event.durationMillis(),
+                event.requestLength(), event.responseLength(), event.request(), event.response(),
+                event.error() == null ? "" : " error=\"" + event.error() + "\"");
+    }
+
+    public static final class Builder {
+
+        private int capacity = 8192;
+
+        private final double[] sampleRates = new double[Level.values().length];
+
+        private int maxContentChars = 500;
+
+        private Duration slowCallThreshold = Duration.ofSeconds(30);
+
+        private Duration idleInterval = Duration.ofSeconds(1);
+
+        private Consumer<AdvisorLogEvent> sink;
+
+        private Builder() {
+            sampleRates[Level.ERROR.ordinal()] = 1;
+            sampleRates[Level.WARN.ordinal()] = 1;
+            sampleRates[Level.INFO.ordinal()] = 1;
+        }
+
+        /** 队列容量，向上取整到 2 的幂，默认 8192 */
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /** 某个级别的抽样比例，0 表示不记录，1 表示全部记录 */
+        public Builder sampleRate(Level level, double rate) {
+            this.sampleRates[level.ordinal()] = rate;
+            return this;
+        }
+
+        /** 请求、回答文本保留的最大字符数，默认 500 */
+        public Builder maxContentChars(int maxContentChars) {
+            this.maxContentChars = maxContentChars;
+            return this;
+        }
+
+        /** 耗时达到该值的调用记为 WARN，默认 30 秒 */
+        public Builder slowCallThreshold(Duration slowCallThreshold) {
+            this.slowCallThreshold = slowCallThreshold;
+            return this;
+        }
+
+        /** 队列为空时写线程的最长休眠时间，新事件会提前唤醒写线程，默认 1 秒 */
+        public Builder idleInterval(Duration idleInterval) {
+            this.idleInterval = idleInterval;
+            return this;
+        }
+
+        /** 事件的写出方式，默认写入日志 */
+        public Builder sink(Consumer<AdvisorLogEvent> sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        public AdvisorEventLog build() {
+            Assert.isTrue(capacity > 0, "capacity must be positive");
+            Assert.isTrue(maxContentChars > 0, "maxContentChars must be positive");
+            for (double rate : sampleRates) {
+                Assert.isTrue(rate >= 0 && rate <= 1, "sample rate must be between 0 and 1");
+            }
+            Assert.notNull(slowCallThreshold, "slowCallThreshold cannot be null");
+            Assert.isTrue(idleInterval != null && !idleInterval.isNegative() && !idleInterval.isZero(),
+                    "idleInterval must be positive");
+            return new AdvisorEventLog(this);
+        }
+    }
+}
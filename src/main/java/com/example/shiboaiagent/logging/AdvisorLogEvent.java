@@ -0,0 +1,30 @@
+package com.example.shiboaiagent.logging;
+
+import org.slf4j.event.Level;
+
+/**
+ * 一次模型调用的结构化日志事件，请求和响应合并为一条，文本已按上限截断
+ *
+ * @param timestampMillis 调用结束的时间
+ * @param level 日志级别：失败为 ERROR，慢调用为 WARN，其余为 INFO
+ * @param mode call 或 stream
+ * @param outcome 调用结果
+ * @param conversationId 对话ID，没有时为 null
+ * @param durationMillis 调用耗时（流式调用为整个流的耗时）
+ * @param request 用户消息（截断后）
+ * @param requestLength 用户消息的原始长度
+ * @param response 模型回答（截断后）
+ * @param responseLength 模型回答的原始长度
+ * @param error 失败原因，没有时为 null
+ */
+public record AdvisorLogEvent(long timestampMillis, Level level, String mode, Outcome outcome, String conversationId,
+                              long durationMillis, String request, int requestLength, String response,
+                              int responseLength, String error) {
+
+    /**
+     * 调用结果
+     */
+    public enum Outcome {
+        OK, ERROR, CANCELLED
+    }
+}
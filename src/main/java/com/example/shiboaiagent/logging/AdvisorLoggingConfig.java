@@ -0,0 +1,54 @@
+package com.example.shiboaiagent.logging;
+
+import com.example.shiboaiagent.advisor.MySimpleLoggerAdvisor;
+import org.slf4j.event.Level;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * 日志advisor的异步模式配置
+ *
+ * advisor.logging.mode=async 时注册 {@link AdvisorEventLog}，各个应用在初始化时把它交给
+ * {@link MySimpleLoggerAdvisor}；其他取值保持同步写日志。
+ */
+@Configuration
+@ConditionalOnProperty(name = "advisor.logging.mode", havingValue = "async")
+public class AdvisorLoggingConfig {
+
+    /** 事件队列容量，队列满时丢弃新事件 */
+    @Value("${advisor.logging.capacity:8192}")
+    private int capacity;
+
+    /** 请求、回答文本保留的最大字符数 */
+    @Value("${advisor.logging.max-content-chars:500}")
+    private int maxContentChars;
+
+    /** 耗时达到该值的调用记为 WARN */
+    @Value("${advisor.logging.slow-call-ms:30000}")
+    private long slowCallMillis;
+
+    @Value("${advisor.logging.sample-rate.error:1.0}")
+    private double errorSampleRate;
+
+    @Value("${advisor.logging.sample-rate.warn:1.0}")
+    private double warnSampleRate;
+
+    @Value("${advisor.logging.sample-rate.info:1.0}")
+    private double infoSampleRate;
+
+    @Bean(initMethod = "start", destroyMethod = "close")
+    AdvisorEventLog advisorEventLog() {
+        return AdvisorEventLog.builder()
+                .capacity(capacity)
+                .maxContentChars(maxContentChars)
+                .slowCallThreshold(Duration.ofMillis(slowCallMillis))
+                .sampleRate(Level.ERROR, errorSampleRate)
+                .sampleRate(Level.WARN, warnSampleRate)
+                .sampleRate(Level.INFO, infoSampleRate)
+                .build();
+    }
+}
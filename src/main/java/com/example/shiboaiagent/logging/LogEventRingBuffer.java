@@ -0,0 +1,87 @@
+package com.example.shiboaiagent.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有界无锁环形队列：多个生产者，单个消费者
+ *
+ * 每个槽位带一个序号（Vyukov 有界队列）：生产者用 CAS 抢占写入位置，写入元素后发布序号；
+ * 消费者看到序号后取走元素，再把序号推进一圈把槽位还给生产者。队列满时 offer 立即返回 false，不阻塞、不扩容。
+ */
+final class LogEventRingBuffer<E> {
+
+    private final Object[] slots;
+
+    /** 槽位序号：等于写入位置时可写，等于写入位置 + 1 时可读 */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    /** 下一个写入位置，生产者之间竞争 */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** 下一个读取位置，只有消费者线程访问 */
+    private long head;
+
+    LogEventRingBuffer(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.slots = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /** 实际容量（向上取整到 2 的幂） */
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * 写入一个元素，队列满时返回 false
+     */
+    boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = element;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // 槽位还没被消费者释放，队列已满
+                return false;
+            } else {
+                // 其他生产者已经占用了这个位置
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 取出一个元素，队列为空时返回 null；只能由消费者线程调用
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        E element = (E) slots[index];
+        slots[index] = null;
+        sequences.set(index, head + slots.length);
+        head++;
+        return element;
+    }
+
+    /** 当前元素数量的近似值 */
+    int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+}
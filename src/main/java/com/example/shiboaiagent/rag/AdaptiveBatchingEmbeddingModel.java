@@ -0,0 +1,446 @@
+package com.example.shiboaiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.lang.NonNull;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应批量的 EmbeddingModel（装饰器）
+ *
+ * 把一次向量化请求中的文本按 token 预算和条数上限打包成若干子请求：
+ * - 打包：按顺序装入文本，直到估算 token 数超过预算或条数达到当前批量大小
+ * - 自适应：子请求耗时低于目标延迟时批量大小 +1，高于目标延迟或失败时减半（AIMD）
+ * - 失败隔离：只处理请求过大（413、超出条数上限）和限流/暂时性错误（429、5xx、网络超时），
+ *   子请求失败时拆成两半分别重试，单条文本的暂时性错误按退避重试，只有单条文本重试用尽才整体失败；
+ *   其他错误（鉴权失败、参数错误等）拆分重试也不会成功，直接抛出
+ * - 并发：concurrency > 1 时多个子请求同时发出
+ *
+ * 返回的向量顺序与输入文本一致。
+ */
+@Slf4j
+public class AdaptiveBatchingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+
+    private final EmbeddingModel delegate;
+
+    private final int maxTokensPerRequest;
+
+    private final int minBatchSize;
+
+    private final int maxBatchSize;
+
+    private final long targetLatencyNanos;
+
+    private final int maxRetries;
+
+    private final Duration retryBackoff;
+
+    private final int concurrency;
+
+    /** concurrency > 1 时使用的线程池 */
+    private final ExecutorService executor;
+
+    /** 当前批量大小，随观测到的延迟调整 */
+    private final AtomicInteger batchSize;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong failures = new AtomicLong();
+
+    private final AtomicLong splits = new AtomicLong();
+
+    private final AtomicLong embeddedTexts = new AtomicLong();
+
+    /**
+     * 子请求失败的类型
+     */
+    enum FailureKind {
+        /** 请求过大，拆小后可以成功 */
+        TOO_LARGE,
+        /** 限流或暂时性错误，拆小或稍后重试可以成功 */
+        TRANSIENT,
+        /** 其他错误，重试不会成功 */
+        FATAL
+    }
+
+    private AdaptiveBatchingEmbeddingModel(Builder builder) {
+        this.delegate = builder.delegate;
+        this.maxTokensPerRequest = builder.maxTokensPerRequest;
+        this.minBatchSize = builder.minBatchSize;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.targetLatencyNanos = builder.targetLatency.toNanos();
+        this.maxRetries = builder.maxRetries;
+        this.retryBackoff = builder.retryBackoff;
+        this.concurrency = builder.concurrency;
+        this.batchSize = new AtomicInteger(
+                Math.max(builder.minBatchSize, Math.min(builder.initialBatchSize, builder.maxBatchSize)));
+        if (concurrency > 1) {
+            AtomicInteger threadIndex = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+                Thread thread = new Thread(runnable, "embedding-batch-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.executor = null;
+        }
+    }
+
+    public static Builder builder(EmbeddingModel delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * 批量统计
+     *
+     * @param requests 发往被装饰模型的请求数
+     * @param failures 失败的请求数
+     * @param splits 失败后拆分的次数
+     * @param embeddedTexts 向量化的文本数
+     * @param batchSize 当前批量大小
+     */
+    public record BatchingStats(long requests, long failures, long splits, long embeddedTexts, int batchSize) {
+    }
+
+    public BatchingStats stats() {
+        return new BatchingStats(requests.get(), failures.get(), splits.get(), embeddedTexts.get(), batchSize.get());
+    }
+
+    @Override
+    @NonNull
+    public EmbeddingResponse call(@NonNull EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        EmbeddingOptions options = request.getOptions();
+        float[][] results = new float[texts.size()][];
+        BatchCursor cursor = new BatchCursor(texts);
+
+        if (executor == null) {
+            drain(cursor, options, results);
+        } else {
+            List<CompletableFuture<Void>> workers = new ArrayList<>(concurrency);
+            for (int i = 0; i < concurrency; i++) {
+                workers.add(CompletableFuture.runAsync(() -> drain(cursor, options, results), executor));
+            }
+            try {
+                CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new)).join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            embeddings.add(new Embedding(results[i], i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    @NonNull
+    public float[] embed(@NonNull Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 估算文本的 token 数：中日韩文字约每字 1 个 token，其他字符约每 4 个 1 个 token
+     */
+    static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 1;
+        }
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isIdeographic(c) || (c >= 0x3000 && c <= 0x30FF) || (c >= 0xAC00 && c <= 0xD7AF)) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return Math.max(1, cjk + (other + 3) / 4);
+    }
+
+    // ---------------------------------------------------------------- 批量执行
+
+    private void drain(BatchCursor cursor, EmbeddingOptions options, float[][] results) {
+        try {
+            int[] range;
+            while ((range = cursor.next(batchSize.get())) != null) {
+                embedRange(cursor.texts, range[0], range[1], options, results, 0);
+            }
+        } catch (RuntimeException e) {
+            // 其他并发线程不再领取新批次
+            cursor.abort();
+            throw e;
+        }
+    }
+
+    /**
+     * 向量化 [from, to) 区间的文本，失败时拆分或重试
+     */
+    private void embedRange(List<String> texts, int from, int to, EmbeddingOptions options,
+                            float[][] results, int attempt) {
+        List<String> batch = texts.subList(from, to);
+        long start = System.nanoTime();
+        try {
+            requests.incrementAndGet();
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(batch, options));
+            List<Embedding> embeddings = response.getResults();
+            if (embeddings.size() != batch.size()) {
+                throw new IllegalStateException("Expected " + batch.size() + " embeddings but got " + embeddings.size());
+            }
+            for (int i = 0; i < embeddings.size(); i++) {
+                results[from + i] = embeddings.get(i).getOutput();
+            }
+            embeddedTexts.addAndGet(batch.size());
+            onSuccess(System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            FailureKind kind = classify(e);
+            if (kind == FailureKind.FATAL) {
+                throw e;
+            }
+            shrink();
+            if (batch.size() > 1) {
+                // 拆成两半分别处理，一条有问题的文本不会拖累整批
+                splits.incrementAndGet();
+                int middle = (from + to) >>> 1;
+                log.debug("Embedding batch of {} failed, splitting: {}", batch.size(), e.getMessage());
+                embedRange(texts, from, middle, options, results, 0);
+                embedRange(texts, middle, to, options, results, 0);
+                return;
+            }
+            if (kind == FailureKind.TOO_LARGE || attempt >= maxRetries) {
+                throw e;
+            }
+            log.warn("Embedding request failed, retrying ({}/{}): {}", attempt + 1, maxRetries, e.getMessage());
+            sleep(retryBackoff.toMillis() << attempt);
+            embedRange(texts, from, to, options, results, attempt + 1);
+        }
+    }
+
+    /**
+     * 判断失败类型：按 HTTP 状态码（RestClient 异常或 Spring AI 重试模块的 "状态码 - 响应体" 消息）、
+     * Spring AI 的暂时性异常和网络异常分类，沿异常链查找
+     */
+    static FailureKind classify(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            int status = statusOf(e);
+            if (status == 413) {
+                return FailureKind.TOO_LARGE;
+            }
+            if (status == 408 || status == 429 || status >= 500) {
+                return FailureKind.TRANSIENT;
+            }
+            // DashScope 超出单次条数上限时返回 400 InvalidParameter
+            if (e.getMessage() != null && e.getMessage().contains("batch size is invalid")) {
+                return FailureKind.TOO_LARGE;
+            }
+            if (e instanceof TransientAiException || e instanceof ResourceAccessException) {
+                return FailureKind.TRANSIENT;
+            }
+        }
+        return FailureKind.FATAL;
+    }
+
+    /**
+     * 异常对应的 HTTP 状态码，无法确定时返回 -1
+     */
+    private static int statusOf(Throwable e) {
+        if (e instanceof RestClientResponseException responseException) {
+            return responseException.getStatusCode().value();
+        }
+        if ((e instanceof TransientAiException || e instanceof NonTransientAiException) && e.getMessage() != null) {
+            // Spring AI 的默认错误处理器把响应转成 "429 - {...}" 形式的消息
+            String message = e.getMessage();
+            if (message.length() >= 3 && message.chars().limit(3).allMatch(Character::isDigit)
+                    && (message.length() == 3 || !Character.isDigit(message.charAt(3)))) {
+                return Integer.parseInt(message.substring(0, 3));
+            }
+        }
+        return -1;
+    }
+
+    private void onSuccess(long latencyNanos) {
+        if (latencyNanos > targetLatencyNanos) {
+            shrink();
+        } else {
+            batchSize.updateAndGet(size -> Math.min(maxBatchSize, size + 1));
+        }
+    }
+
+    private void shrink() {
+        batchSize.updateAndGet(size -> Math.max(minBatchSize, size / 2));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to retry embedding request", e);
+        }
+    }
+
+    /**
+     * 按 token 预算和批量大小顺序切分文本，多个并发线程共享
+     */
+    private final class BatchCursor {
+
+        private final List<String> texts;
+
+        private final int[] tokens;
+
+        private int position;
+
+        private boolean aborted;
+
+        BatchCursor(List<String> texts) {
+            this.texts = texts;
+            this.tokens = new int[texts.size()];
+            Arrays.setAll(tokens, i -> estimateTokens(texts.get(i)));
+        }
+
+        /**
+         * 取下一批的 [from, to)，没有剩余文本时返回 null
+         */
+        synchronized int[] next(int limit) {
+            if (aborted || position >= texts.size()) {
+                return null;
+            }
+            int from = position;
+            int budget = tokens[from];
+            int to = from + 1;
+            // 单条文本超出预算时单独成批，由服务端决定是否截断
+            while (to < texts.size() && to - from < limit && budget + tokens[to] <= maxTokensPerRequest) {
+                budget += tokens[to];
+                to++;
+            }
+            position = to;
+            return new int[]{from, to};
+        }
+
+        synchronized void abort() {
+            aborted = true;
+        }
+    }
+
+    public static final class Builder {
+
+        private final EmbeddingModel delegate;
+
+        private int maxTokensPerRequest = 8192;
+
+        private int initialBatchSize = 10;
+
+        private int minBatchSize = 1;
+
+        private int maxBatchSize = 10;
+
+        private Duration targetLatency = Duration.ofSeconds(2);
+
+        private int maxRetries = 3;
+
+        private Duration retryBackoff = Duration.ofMillis(200);
+
+        private int concurrency = 1;
+
+        private Builder(EmbeddingModel delegate) {
+            this.delegate = delegate;
+        }
+
+        /**
+         * 单次请求的 token 预算
+         */
+        public Builder maxTokensPerRequest(int maxTokensPerRequest) {
+            this.maxTokensPerRequest = Math.max(1, maxTokensPerRequest);
+            return this;
+        }
+
+        public Builder initialBatchSize(int initialBatchSize) {
+            this.initialBatchSize = Math.max(1, initialBatchSize);
+            return this;
+        }
+
+        public Builder minBatchSize(int minBatchSize) {
+            this.minBatchSize = Math.max(1, minBatchSize);
+            return this;
+        }
+
+        /**
+         * 单次请求的条数上限（DashScope 文本向量接口为 10）
+         */
+        public Builder maxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+            return this;
+        }
+
+        /**
+         * 目标延迟：子请求耗时超过它时减小批量
+         */
+        public Builder targetLatency(Duration targetLatency) {
+            this.targetLatency = targetLatency;
+            return this;
+        }
+
+        /**
+         * 单条文本失败后的最大重试次数
+         */
+        public Builder maxRetries(int maxRetries) {
+            this.maxRetries = Math.max(0, maxRetries);
+            return this;
+        }
+
+        public Builder retryBackoff(Duration retryBackoff) {
+            this.retryBackoff = retryBackoff;
+            return this;
+        }
+
+        /**
+         * 同时发出的子请求数，默认 1（串行）
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = Math.max(1, concurrency);
+            return this;
+        }
+
+        public AdaptiveBatchingEmbeddingModel build() {
+            if (minBatchSize > maxBatchSize) {
+                throw new IllegalArgumentException("minBatchSize must not exceed maxBatchSize");
+            }
+            return new AdaptiveBatchingEmbeddingModel(this);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.example.shiboaiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 进程内的 BM25 关键词倒排索引
+ *
+ * 向量检索对药名、证型（如肾阳虚、肾阴虚）这类专有词不敏感，字面完全匹配却经常排不到前面。
+ * 这里按中文字符二元组（bigram）分词建立倒排索引：连续的汉字切成相邻两字一组，孤立的单个汉字保留为单字，
+ * 英文和数字按整词小写。查询用 BM25 打分，结果与向量检索做融合（见 {@link HybridDocumentRetriever}）。
+ *
+ * 支持增量添加和删除，相同ID的文档再次添加视为更新；读写由读写锁保护，查询可以并发执行。
+ * 删除只打标记，已删除的位置超过全部位置的 compactionThreshold 时，在同一次写操作中压缩倒排列表并重新编号，
+ * 不需要重新分词。
+ */
+public class Bm25Index {
+
+    /** 词频饱和参数 */
+    private static final float K1 = 1.2f;
+
+    /** 文档长度归一化参数 */
+    private static final float B = 0.75f;
+
+    private static final double DEFAULT_COMPACTION_THRESHOLD = 0.3;
+
+    private final double compactionThreshold;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** 词项 -> 倒排列表 */
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    /** 文档ID -> 内部编号 */
+    private final Map<String, Integer> slotsById = new HashMap<>();
+
+    /** 内部编号 -> 文档，已删除的位置为 null */
+    private final List<Document> documents = new ArrayList<>();
+
+    /** 内部编号 -> 文档包含的不重复词项，删除时用于更新文档频率 */
+    private final List<String[]> termsByDocument = new ArrayList<>();
+
+    private int[] documentLengths = new int[64];
+
+    private int liveDocuments;
+
+    private long totalLength;
+
+    public Bm25Index() {
+        this(DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param compactionThreshold 已删除位置占全部位置的比例超过该值时压缩索引，默认 0.3
+     */
+    public Bm25Index(double compactionThreshold) {
+        Assert.isTrue(compactionThreshold > 0 && compactionThreshold < 1,
+                "compactionThreshold must be between 0 and 1");
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * 某个词项的倒排列表：文档编号和词频，按文档编号递增
+     */
+    private static final class Postings {
+
+        int[] documents = new int[4];
+
+        int[] frequencies = new int[4];
+
+        int size;
+
+        /** 未删除的文档数 */
+        int documentFrequency;
+
+        void add(int document, int frequency) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            documents[size] = document;
+            frequencies[size] = frequency;
+            size++;
+            documentFrequency++;
+        }
+    }
+
+    public void add(List<Document> newDocuments) {
+        lock.writeLock().lock();
+        try {
+            for (Document document : newDocuments) {
+                Assert.hasText(document.getId(), "document id cannot be empty");
+                Integer existing = slotsById.get(document.getId());
+                if (existing != null) {
+                    remove(existing);
+                }
+                index(document);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void delete(List<String> ids) {
+        lock.writeLock().lock();
+        try {
+            for (String id : ids) {
+                Integer slot = slotsById.get(id);
+                if (slot != null) {
+                    remove(slot);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 当前（未删除的）文档数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveDocuments;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 已删除、尚未回收的位置数
+     */
+    public int deletedSize() {
+        lock.readLock().lock();
+        try {
+            return documents.size() - liveDocuments;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 检索
+     *
+     * @param query 查询文本
+     * @param topK 返回的最大文档数
+     * @return 按 BM25 分数降序的文档，分数写入 {@link Document#getScore()}
+     */
+    public List<Document> search(String query, int topK) {
+        Map<String, Integer> queryTerms = termFrequencies(tokenize(query));
+        if (queryTerms.isEmpty() || topK <= 0) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            if (liveDocuments == 0) {
+                return List.of();
+            }
+            float averageLength = (float) totalLength / liveDocuments;
+            float[] scores = new float[documents.size()];
+            int[] touched = new int[16];
+            int touchedCount = 0;
+
+            for (Map.Entry<String, Integer> term : queryTerms.entrySet()) {
+                Postings list = postings.get(term.getKey());
+                if (list == null || list.documentFrequency == 0) {
+                    continue;
+                }
+                float idf = (float) Math.log(1 + (liveDocuments - list.documentFrequency + 0.5)
+                        / (list.documentFrequency + 0.5));
+                float weight = idf * term.getValue();
+                for (int i = 0; i < list.size; i++) {
+                    int document = list.documents[i];
+                    if (documents.get(document) == null) {
+                        continue;
+                    }
+                    int tf = list.frequencies[i];
+                    float norm = K1 * (1 - B + B * documentLengths[document] / averageLength);
+                    if (scores[document] == 0) {
+                        if (touchedCount == touched.length) {
+                            touched = Arrays.copyOf(touched, touchedCount * 2);
+                        }
+                        touched[touchedCount++] = document;
+                    }
+                    scores[document] += weight * tf * (K1 + 1) / (tf + norm);
+                }
+            }
+
+            // 小顶堆保留分数最高的 topK 个文档
+            PriorityQueue<Integer> heap = new PriorityQueue<>(topK + 1,
+                    (a, b) -> Float.compare(scores[a], scores[b]));
+            for (int i = 0; i < touchedCount; i++) {
+                heap.offer(touched[i]);
+                if (heap.size() > topK) {
+                    heap.poll();
+                }
+            }
+            Document[] results = new Document[heap.size()];
+            for (int i = results.length - 1; i >= 0; i--) {
+                int document = heap.poll();
+                Document source = documents.get(document);
+                results[i] = Document.builder()
+                        .id(source.getId())
+                        .text(source.getText())
+                        .metadata(new HashMap<>(source.getMetadata()))
+                        .score((double) scores[document])
+                        .build();
+            }
+            return List.of(results);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 分词：连续汉字切成二元组（单个汉字保留为单字），字母和数字按整词小写
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                // PDF 提取的文本在行尾换行，汉字之间的空白不切断词语
+                StringBuilder run = new StringBuilder();
+                while (i < length) {
+                    char current = text.charAt(i);
+                    if (isCjk(current)) {
+                        run.append(current);
+                        i++;
+                    } else if (Character.isWhitespace(current) && nextNonWhitespaceIsCjk(text, i)) {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (run.length() == 1) {
+                    tokens.add(run.toString());
+                } else {
+                    for (int j = 0; j + 1 < run.length(); j++) {
+                        tokens.add(run.substring(j, j + 2));
+                    }
+                }
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length && Character.isLetterOrDigit(text.charAt(i)) && !isCjk(text.charAt(i))) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i).toLowerCase());
+            } else {
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isCjk(char c) {
+        return Character.isIdeographic(c);
+    }
+
+    private static boolean nextNonWhitespaceIsCjk(String text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return isCjk(c);
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, Integer> termFrequencies(List<String> tokens) {
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        for (String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+        return frequencies;
+    }
+
+    private void index(Document document) {
+        List<String> tokens = tokenize(document.getText());
+        Map<String, Integer> frequencies = termFrequencies(tokens);
+        int slot = documents.size();
+        documents.add(document);
+        termsByDocument.add(frequencies.keySet().toArray(new String[0]));
+        if (slot == documentLengths.length) {
+            documentLengths = Arrays.copyOf(documentLengths, slot * 2);
+        }
+        documentLengths[slot] = tokens.size();
+        for (Map.Entry<String, Integer> term : frequencies.entrySet()) {
+            postings.computeIfAbsent(term.getKey(), key -> new Postings()).add(slot, term.getValue());
+        }
+        slotsById.put(document.getId(), slot);
+        liveDocuments++;
+        totalLength += tokens.size();
+    }
+
+    /**
+     * 标记删除：倒排列表中的条目保留，查询时跳过，只更新文档频率和长度统计
+     */
+    private void remove(int slot) {
+        Document document = documents.get(slot);
+        if (document == null) {
+            return;
+        }
+        for (String term : termsByDocument.get(slot)) {
+            Postings list = postings.get(term);
+            if (list != null) {
+                list.documentFrequency--;
+            }
+        }
+        documents.set(slot, null);
+        termsByDocument.set(slot, new String[0]);
+        slotsById.remove(document.getId());
+        liveDocuments--;
+        totalLength -= documentLengths[slot];
+    }
+
+    /**
+     * 已删除的位置超过阈值时，去掉倒排列表中已删除文档的条目并按原顺序重新编号；持有写锁时调用
+     */
+    private void compactIfNeeded() {
+        int deleted = documents.size() - liveDocuments;
+        if (deleted == 0 || deleted <= documents.size() * compactionThreshold) {
+            return;
+        }
+        // 旧编号 -> 新编号，已删除的为 -1；映射单调递增，倒排列表压缩后仍按编号递增
+        int[] remapped = new int[documents.size()];
+        int next = 0;
+        for (int slot = 0; slot < documents.size(); slot++) {
+            Document document = documents.get(slot);
+            if (document == null) {
+                remapped[slot] = -1;
+                continue;
+            }
+            remapped[slot] = next;
+            documents.set(next, document);
+            termsByDocument.set(next, termsByDocument.get(slot));
+            documentLengths[next] = documentLengths[slot];
+            slotsById.put(document.getId(), next);
+            next++;
+        }
+        documents.subList(next, documents.size()).clear();
+        termsByDocument.subList(next, termsByDocument.size()).clear();
+
+        postings.values().removeIf(list -> {
+            int size = 0;
+            for (int i = 0; i < list.size; i++) {
+                int slot = remapped[list.documents[i]];
+                if (slot >= 0) {
+                    list.documents[size] = slot;
+                    list.frequencies[size] = list.frequencies[i];
+                    size++;
+                }
+            }
+            list.size = size;
+            return size == 0;
+        });
+    }
+}
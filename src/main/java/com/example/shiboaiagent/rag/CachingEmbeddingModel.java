@@ -0,0 +1,149 @@
+package com.example.shiboaiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存查询向量的 EmbeddingModel（装饰器）
+ *
+ * 向量库检索时通过 embed(String) 计算查询向量，相同的查询（按 {@link CachingVectorStore#normalize} 归一化）
+ * 只请求一次向量模型；缓存未命中时对归一化后的文本计算向量，保证缓存值只取决于缓存键。
+ * 查询向量与知识库内容无关，知识库更新后检索结果缓存失效，查询向量仍然可以复用。
+ * 缓存键包含向量模型名，多个模型共用缓存或换了模型时不会取到其他模型的向量。
+ *
+ * 文档向量化（embed(Document)、批量 call）直接交给被装饰的模型，不进入缓存。
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    /** 被装饰的向量模型 */
+    private final EmbeddingModel delegate;
+
+    /** 最多缓存的查询数量 */
+    private final int maxEntries;
+
+    /** 向量模型名，作为缓存键的前缀 */
+    private final String modelName;
+
+    /** 模型名 + 归一化查询文本 -> 向量，按访问顺序排列，由 this 保护 */
+    private final LinkedHashMap<String, float[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private CachingEmbeddingModel(Builder builder) {
+        this.delegate = builder.delegate;
+        this.maxEntries = builder.maxEntries;
+        this.modelName = builder.modelName;
+    }
+
+    public static Builder builder(EmbeddingModel delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * 缓存统计
+     *
+     * @param hits 命中次数
+     * @param misses 未命中次数
+     * @param size 当前条目数
+     */
+    public record CacheStats(long hits, long misses, int size) {
+
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    public synchronized CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), cache.size());
+    }
+
+    @Override
+    @NonNull
+    public float[] embed(@NonNull String text) {
+        String normalized = CachingVectorStore.normalize(text);
+        String key = modelName + '\u0000' + normalized;
+        float[] embedding;
+        synchronized (this) {
+            embedding = cache.get(key);
+        }
+        if (embedding != null) {
+            hits.increment();
+            return embedding.clone();
+        }
+        // 未命中时在锁外请求向量模型，相同查询并发未命中时各自计算，结果相同
+        misses.increment();
+        embedding = delegate.embed(normalized);
+        put(key, embedding.clone());
+        return embedding;
+    }
+
+    @Override
+    @NonNull
+    public EmbeddingResponse call(@NonNull EmbeddingRequest request) {
+        return delegate.call(request);
+    }
+
+    @Override
+    @NonNull
+    public float[] embed(@NonNull Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private synchronized void put(String key, float[] embedding) {
+        cache.put(key, embedding);
+        Iterator<Map.Entry<String, float[]>> iterator = cache.entrySet().iterator();
+        while (cache.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public static final class Builder {
+
+        private final EmbeddingModel delegate;
+
+        private int maxEntries = 2000;
+
+        private String modelName = "default";
+
+        private Builder(EmbeddingModel delegate) {
+            Assert.notNull(delegate, "delegate cannot be null");
+            this.delegate = delegate;
+        }
+
+        /** 最多缓存的查询数量，默认 2000（1536 维约 12MB） */
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /** 向量模型名，计入缓存键 */
+        public Builder modelName(String modelName) {
+            this.modelName = modelName;
+            return this;
+        }
+
+        public CachingEmbeddingModel build() {
+            Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+            Assert.hasText(modelName, "modelName cannot be empty");
+            return new CachingEmbeddingModel(this);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.example.shiboaiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 带检索结果缓存的向量库（装饰器）
+ *
+ * 放在检索advisor和向量库之间：相同的查询（归一化后的查询文本 + topK + 相似度阈值 + 过滤表达式）
+ * 直接返回上一次的 top-k 结果，不再调用向量模型和执行相似度检索。
+ *
+ * 缓存按条目数量限制，超出时淘汰最久未访问的条目。每个条目记录写入时向量库的版本号，
+ * 通过本装饰器 add/delete 会使版本号加一；对于运行中会被直接替换段的 {@link SegmentedVectorStore}，
+ * 版本号同时包含它的快照版本。版本号变化后旧条目不再命中，因此缓存不会返回知识库更新之前的结果。
+ *
+ * 查询向量本身由 {@link CachingEmbeddingModel} 缓存，与向量库内容无关，不随知识库更新失效。
+ */
+public class CachingVectorStore implements VectorStore {
+
+    /** 被装饰的向量库 */
+    private final VectorStore delegate;
+
+    /** 最多缓存的查询数量 */
+    private final int maxEntries;
+
+    /** 被装饰向量库自身的版本号，绕过本装饰器的写入通过它感知 */
+    private final LongSupplier storeVersion;
+
+    /** 通过本装饰器写入的次数 */
+    private final AtomicLong localVersion = new AtomicLong();
+
+    /** 查询 -> 检索结果，按访问顺序排列，由 this 保护 */
+    private final LinkedHashMap<Key, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final LongAdder invalidations = new LongAdder();
+
+    private CachingVectorStore(Builder builder) {
+        this.delegate = builder.delegate;
+        this.maxEntries = builder.maxEntries;
+        this.storeVersion = builder.storeVersion;
+    }
+
+    public static Builder builder(VectorStore delegate) {
+        return new Builder(delegate);
+    }
+
+    /**
+     * 缓存键
+     *
+     * @param query 归一化后的查询文本
+     * @param filter 过滤表达式的文本形式，没有过滤条件时为空串
+     */
+    private record Key(String query, int topK, double similarityThreshold, String filter) {
+    }
+
+    /**
+     * 缓存条目
+     *
+     * @param version 写入时向量库的版本号
+     */
+    private record Entry(long version, List<Document> documents) {
+    }
+
+    /**
+     * 缓存统计
+     *
+     * @param hits 命中次数
+     * @param misses 未命中次数
+     * @param evictions 淘汰的条目数
+     * @param invalidations 向量库变化导致缓存失效的次数
+     * @param size 当前条目数
+     */
+    public record CacheStats(long hits, long misses, long evictions, long invalidations, int size) {
+
+        public double hitRatio() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    public synchronized CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), invalidations.sum(), cache.size());
+    }
+
+    /**
+     * 清空缓存，之后的查询都会重新检索
+     */
+    public void invalidate() {
+        localVersion.incrementAndGet();
+        invalidations.increment();
+        synchronized (this) {
+            cache.clear();
+        }
+    }
+
+    @Override
+    public void add(@NonNull List<Document> documents) {
+        try {
+            delegate.add(documents);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public void delete(@NonNull List<String> idList) {
+        try {
+            delegate.delete(idList);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public void delete(@NonNull Filter.Expression filterExpression) {
+        try {
+            delegate.delete(filterExpression);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    @NonNull
+    public List<Document> similaritySearch(@NonNull SearchRequest request) {
+        Key key = new Key(normalize(request.getQuery()), request.getTopK(), request.getSimilarityThreshold(),
+                request.hasFilterExpression() ? String.valueOf(request.getFilterExpression()) : "");
+        // 先读版本号再检索：检索期间向量库发生变化时，写入的条目版本号偏旧，下一次查询不会命中
+        long version = currentVersion();
+        Entry entry;
+        synchronized (this) {
+            entry = cache.get(key);
+        }
+        if (entry != null && entry.version() == version) {
+            hits.increment();
+            return copyOf(entry.documents());
+        }
+
+        misses.increment();
+        List<Document> documents = delegate.similaritySearch(request);
+        put(key, new Entry(version, copyOf(documents)));
+        return documents;
+    }
+
+    private long currentVersion() {
+        return localVersion.get() + storeVersion.getAsLong();
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        cache.put(key, entry);
+        Iterator<Map.Entry<Key, Entry>> iterator = cache.entrySet().iterator();
+        while (cache.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+
+    /**
+     * 复制文档和元数据，调用方修改返回结果不会影响缓存
+     */
+    private static List<Document> copyOf(List<Document> documents) {
+        List<Document> copies = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            copies.add(Document.builder()
+                    .id(document.getId())
+                    .text(document.getText())
+                    .metadata(new HashMap<>(document.getMetadata()))
+                    .score(document.getScore())
+                    .build());
+        }
+        return copies;
+    }
+
+    /**
+     * 查询文本归一化：兼容字符（全角字母数字、全角标点）转为半角，合并空白，英文转小写
+     */
+    static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        String normalized = Normalizer.normalize(query, Normalizer.Form.NFKC);
+        return normalized.strip().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    public static final class Builder {
+
+        private final VectorStore delegate;
+
+        private int maxEntries = 1000;
+
+        private LongSupplier storeVersion;
+
+        private Builder(VectorStore delegate) {
+            Assert.notNull(delegate, "delegate cannot be null");
+            this.delegate = delegate;
+            this.storeVersion = delegate instanceof SegmentedVectorStore segmentedVectorStore
+                    ? segmentedVectorStore::version
+                    : () -> 0L;
+        }
+
+        /** 最多缓存的查询数量，默认 1000 */
+        public Builder maxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * 被装饰向量库的版本号，向量库被绕过本装饰器修改时版本号必须递增；
+         * 默认对 {@link SegmentedVectorStore} 使用其快照版本，其他向量库只感知通过本装饰器的写入
+         */
+        public Builder storeVersion(LongSupplier storeVersion) {
+            this.storeVersion = storeVersion;
+            return this;
+        }
+
+        public CachingVectorStore build() {
+            Assert.isTrue(maxEntries > 0, "maxEntries must be positive");
+            Assert.notNull(storeVersion, "storeVersion cannot be null");
+            return new CachingVectorStore(this);
+        }
+    }
+}
@@ -0,0 +1,531 @@
+package com.example.shiboaiagent.rag;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/**
+ * HNSW（Hierarchical Navigable Small World）近似最近邻索引
+ *
+ * 向量以归一化后的 float[] 保存，相似度为内积（即余弦相似度）；节点用 int 编号，
+ * 每层的邻居表是 int[]（下标0存放邻居数量），检索过程中不产生装箱对象。
+ * 删除只打标记，被删除的节点仍参与图的导航但不会出现在结果中。
+ *
+ * 本类不做同步：写操作（add/markDeleted）需要调用方保证互斥，且不能与检索并发；
+ * 没有写操作时多个线程可以同时检索。
+ */
+public class HnswIndex {
+
+    /** 每个节点在非0层的最大邻居数 */
+    private final int m;
+
+    /** 第0层的最大邻居数 */
+    private final int maxM0;
+
+    /** 构建时的候选集大小 */
+    private final int efConstruction;
+
+    /** 层级生成因子 1/ln(M) */
+    private final double levelMultiplier;
+
+    private final int dimensions;
+
+    private final SplittableRandom random;
+
+    /** 节点向量（已归一化） */
+    private float[][] vectors;
+
+    /** 节点的每层邻居表：links[node][level][0] 为邻居数量 */
+    private int[][][] links;
+
+    private boolean[] deleted;
+
+    private int size;
+
+    private int deletedCount;
+
+    private int entryPoint = -1;
+
+    private int maxLevel = -1;
+
+    /** 每个检索线程复用的访问标记，避免每次检索分配 visited 集合 */
+    private final ThreadLocal<VisitedMarks> visitedMarks = ThreadLocal.withInitial(VisitedMarks::new);
+
+    /**
+     * 构造函数
+     *
+     * @param dimensions 向量维度
+     * @param m 每层最大邻居数，第0层为 2*M
+     * @param efConstruction 构建时的候选集大小
+     * @param seed 层级随机数种子
+     */
+    public HnswIndex(int dimensions, int m, int efConstruction, long seed) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("dimensions must be positive");
+        }
+        if (m < 2) {
+            throw new IllegalArgumentException("m must be at least 2");
+        }
+        this.dimensions = dimensions;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.levelMultiplier = 1 / Math.log(m);
+        this.random = new SplittableRandom(seed);
+        this.vectors = new float[16][];
+        this.links = new int[16][][];
+        this.deleted = new boolean[16];
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /** 节点总数（含已删除） */
+    public int size() {
+        return size;
+    }
+
+    /** 未删除的节点数 */
+    public int liveSize() {
+        return size - deletedCount;
+    }
+
+    public boolean isDeleted(int node) {
+        return deleted[node];
+    }
+
+    /**
+     * 节点的向量（已归一化），供重建索引时复用，调用方不能修改
+     */
+    float[] vector(int node) {
+        return vectors[node];
+    }
+
+    /**
+     * 标记删除节点
+     */
+    public void markDeleted(int node) {
+        if (!deleted[node]) {
+            deleted[node] = true;
+            deletedCount++;
+        }
+    }
+
+    /**
+     * 插入一个向量
+     *
+     * @param vector 向量，内部会复制并归一化
+     * @return 新节点编号
+     */
+    public int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "Expected vector of " + dimensions + " dimensions but got " + vector.length);
+        }
+        int node = size;
+        ensureCapacity(node + 1);
+        float[] normalized = normalize(vector);
+        int level = randomLevel();
+        int[][] nodeLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            nodeLinks[l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+        vectors[node] = normalized;
+        links[node] = nodeLinks;
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(normalized, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            NodeHeap candidates = searchLayer(normalized, current, efConstruction, l, null);
+            int maxConnections = l == 0 ? maxM0 : m;
+            current = candidates.best();
+            int[] selected = selectNeighbors(candidates, m);
+            for (int neighbor : selected) {
+                appendLink(node, l, neighbor);
+                connect(neighbor, node, l, maxConnections);
+            }
+        }
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    /**
+     * 检索与 query 最相似的 k 个节点
+     *
+     * @param query 查询向量
+     * @param k 返回数量
+     * @param ef 检索候选集大小，越大召回率越高、速度越慢
+     * @param accept 结果过滤条件，为 null 时只排除已删除节点
+     * @return 按相似度从高到低排序的结果
+     */
+    public SearchResult search(float[] query, int k, int ef, IntPredicate accept) {
+        if (entryPoint < 0 || k <= 0) {
+            return new SearchResult(new int[0], new float[0]);
+        }
+        float[] normalized = normalize(query);
+        IntPredicate filter = accept == null ? node -> !deleted[node] : node -> !deleted[node] && accept.test(node);
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(normalized, current, l);
+        }
+        NodeHeap results = searchLayer(normalized, current, Math.max(ef, k), 0, filter);
+        while (results.size() > k) {
+            results.popWorst();
+        }
+        int count = results.size();
+        int[] nodes = new int[count];
+        float[] scores = new float[count];
+        for (int i = count - 1; i >= 0; i--) {
+            scores[i] = results.worstScore();
+            nodes[i] = results.popWorst();
+        }
+        return new SearchResult(nodes, scores);
+    }
+
+    /**
+     * 暴力检索，用作召回率基准
+     */
+    public SearchResult exactSearch(float[] query, int k, IntPredicate accept) {
+        float[] normalized = normalize(query);
+        NodeHeap results = new NodeHeap(k + 1);
+        for (int node = 0; node < size; node++) {
+            if (deleted[node] || (accept != null && !accept.test(node))) {
+                continue;
+            }
+            results.push(node, dot(normalized, vectors[node]));
+            if (results.size() > k) {
+                results.popWorst();
+            }
+        }
+        int count = results.size();
+        int[] nodes = new int[count];
+        float[] scores = new float[count];
+        for (int i = count - 1; i >= 0; i--) {
+            scores[i] = results.worstScore();
+            nodes[i] = results.popWorst();
+        }
+        return new SearchResult(nodes, scores);
+    }
+
+    /**
+     * 检索结果，按相似度从高到低排序
+     */
+    public record SearchResult(int[] nodes, float[] scores) {
+
+        public int size() {
+            return nodes.length;
+        }
+    }
+
+    // ---------------------------------------------------------------- 图构建
+
+    private int randomLevel() {
+        double u = 1.0 - random.nextDouble();
+        return (int) (-Math.log(u) * levelMultiplier);
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float currentScore = dot(query, vectors[current]);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbors = links[current][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int candidate = neighbors[i];
+                float score = dot(query, vectors[candidate]);
+                if (score > currentScore) {
+                    currentScore = score;
+                    current = candidate;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 单层的 best-first 检索；filter 不为 null 时只有满足条件的节点进入结果集，
+     * 但所有节点都会参与导航，保证过滤条件较严格时图仍然连通
+     */
+    private NodeHeap searchLayer(float[] query, int start, int ef, int level, IntPredicate filter) {
+        VisitedMarks visited = visitedMarks.get();
+        visited.reset(size);
+        NodeHeap candidates = new NodeHeap(ef * 2);
+        NodeHeap results = new NodeHeap(ef + 1);
+
+        float startScore = dot(query, vectors[start]);
+        visited.mark(start);
+        candidates.push(start, startScore);
+        if (filter == null || filter.test(start)) {
+            results.push(start, startScore);
+        }
+
+        while (candidates.size() > 0) {
+            float candidateScore = candidates.bestScore();
+            if (results.size() >= ef && candidateScore < results.worstScore()) {
+                break;
+            }
+            int candidate = candidates.popBest();
+            int[] neighbors = links[candidate][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (!visited.mark(neighbor)) {
+                    continue;
+                }
+                float score = dot(query, vectors[neighbor]);
+                if (results.size() < ef || score > results.worstScore()) {
+                    candidates.push(neighbor, score);
+                    if (filter == null || filter.test(neighbor)) {
+                        results.push(neighbor, score);
+                        if (results.size() > ef) {
+                            results.popWorst();
+                        }
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式邻居选择：候选按相似度从高到低考察，只有当它与查询点比与任何已选邻居更近时才保留，
+     * 这样邻居会分布在不同方向上，图的导航性比简单取 top-M 更好
+     */
+    private int[] selectNeighbors(NodeHeap candidates, int maxCount) {
+        int count = candidates.size();
+        int[] ordered = new int[count];
+        float[] orderedScores = new float[count];
+        for (int i = count - 1; i >= 0; i--) {
+            orderedScores[i] = candidates.worstScore();
+            ordered[i] = candidates.popWorst();
+        }
+        return selectNeighbors(ordered, orderedScores, count, maxCount);
+    }
+
+    private int[] selectNeighbors(int[] ordered, float[] orderedScores, int count, int maxCount) {
+        int[] selected = new int[Math.min(maxCount, count)];
+        int selectedCount = 0;
+        for (int i = 0; i < count && selectedCount < selected.length; i++) {
+            int candidate = ordered[i];
+            float scoreToBase = orderedScores[i];
+            boolean keep = true;
+            for (int j = 0; j < selectedCount; j++) {
+                if (dot(vectors[candidate], vectors[selected[j]]) > scoreToBase) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[selectedCount++] = candidate;
+            }
+        }
+        return selectedCount == selected.length ? selected : Arrays.copyOf(selected, selectedCount);
+    }
+
+    private void appendLink(int node, int level, int neighbor) {
+        int[] nodeLinks = links[node][level];
+        nodeLinks[++nodeLinks[0]] = neighbor;
+    }
+
+    /**
+     * 在 node 的邻居表中加入 neighbor，超出容量时用启发式重新挑选
+     */
+    private void connect(int node, int neighbor, int level, int maxConnections) {
+        int[] nodeLinks = links[node][level];
+        int count = nodeLinks[0];
+        if (count < maxConnections) {
+            nodeLinks[++nodeLinks[0]] = neighbor;
+            return;
+        }
+        float[] base = vectors[node];
+        int[] ordered = new int[count + 1];
+        float[] orderedScores = new float[count + 1];
+        for (int i = 0; i < count; i++) {
+            ordered[i] = nodeLinks[i + 1];
+            orderedScores[i] = dot(base, vectors[ordered[i]]);
+        }
+        ordered[count] = neighbor;
+        orderedScores[count] = dot(base, vectors[neighbor]);
+        sortByScoreDescending(ordered, orderedScores, count + 1);
+
+        int[] selected = selectNeighbors(ordered, orderedScores, count + 1, maxConnections);
+        nodeLinks[0] = selected.length;
+        System.arraycopy(selected, 0, nodeLinks, 1, selected.length);
+    }
+
+    private static void sortByScoreDescending(int[] nodes, float[] scores, int count) {
+        // 邻居表最多 2*M 项，插入排序即可
+        for (int i = 1; i < count; i++) {
+            int node = nodes[i];
+            float score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                nodes[j + 1] = nodes[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            scores[j + 1] = score;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= vectors.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, vectors.length * 2);
+        vectors = Arrays.copyOf(vectors, newCapacity);
+        links = Arrays.copyOf(links, newCapacity);
+        deleted = Arrays.copyOf(deleted, newCapacity);
+    }
+
+    // ---------------------------------------------------------------- 向量运算
+
+    private float[] normalize(float[] vector) {
+        float[] normalized = Arrays.copyOf(vector, vector.length);
+        double norm = 0;
+        for (float v : normalized) {
+            norm += v * v;
+        }
+        if (norm > 0) {
+            float inverse = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] *= inverse;
+            }
+        }
+        return normalized;
+    }
+
+    static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    // ---------------------------------------------------------------- 辅助结构
+
+    /**
+     * 以代数（generation）区分的访问标记，reset 时只需递增代数
+     */
+    private static final class VisitedMarks {
+
+        private int[] marks = new int[0];
+
+        private int generation;
+
+        void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        /** 标记节点，返回 false 表示此前已访问过 */
+        boolean mark(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+
+    /**
+     * 按相似度有序的节点队列，可同时取最好和最差的节点
+     *
+     * 规模为 ef 量级（几十到几百），有序数组的插入成本可以接受，且 best/worst 都是 O(1)
+     */
+    static final class NodeHeap {
+
+        /** 按相似度升序排列：[head] 为最差，[head+size-1] 为最好 */
+        private int[] nodes;
+
+        private float[] scores;
+
+        /** 弹出最差节点只移动 head，不搬移数组 */
+        private int head;
+
+        private int size;
+
+        NodeHeap(int initialCapacity) {
+            nodes = new int[Math.max(initialCapacity, 4)];
+            scores = new float[nodes.length];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void push(int node, float score) {
+            if (head + size == nodes.length) {
+                if (head > 0) {
+                    System.arraycopy(nodes, head, nodes, 0, size);
+                    System.arraycopy(scores, head, scores, 0, size);
+                    head = 0;
+                } else {
+                    nodes = Arrays.copyOf(nodes, size * 2);
+                    scores = Arrays.copyOf(scores, size * 2);
+                }
+            }
+            int low = head;
+            int high = head + size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (scores[mid] < score) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int tail = head + size;
+            System.arraycopy(nodes, low, nodes, low + 1, tail - low);
+            System.arraycopy(scores, low, scores, low + 1, tail - low);
+            nodes[low] = node;
+            scores[low] = score;
+            size++;
+        }
+
+        int best() {
+            return nodes[head + size - 1];
+        }
+
+        float bestScore() {
+            return scores[head + size - 1];
+        }
+
+        int popBest() {
+            size--;
+            return nodes[head + size];
+        }
+
+        float worstScore() {
+            return scores[head];
+        }
+
+        int popWorst() {
+            size--;
+            return nodes[head++];
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package com.example.shiboaiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 基于 HNSW 索引的进程内向量库，可直接替换 SimpleVectorStore
+ *
+ * SimpleVectorStore 每次检索都要和全部向量逐一比较；这里用 {@link HnswIndex} 做近似最近邻检索，
+ * 检索成本随文档数近似对数增长。过滤表达式与 SimpleVectorStore 一致（转换为 SpEL 后对 metadata 求值），
+ * 返回的 Document 同样带有 score 和 distance 元数据，QuestionAnswerAdvisor 无需任何改动。
+ *
+ * 写操作持有写锁，检索持有读锁；向量化请求在锁外完成，与 SimpleVectorStore 一样按 {@link BatchingStrategy}
+ * 分批请求向量模型，而不是每个切片单独请求一次。
+ *
+ * 删除和更新只给旧节点打删除标记，被删除的节点仍占用内存并参与图的导航。删除标记占全部节点的比例超过
+ * compactionThreshold 时，在同一次写操作中用未删除节点的向量重建索引（不重新请求向量模型），回收这部分内存。
+ */
+@Slf4j
+public class HnswVectorStore implements VectorStore {
+
+    private final EmbeddingModel embeddingModel;
+
+    private final BatchingStrategy batchingStrategy;
+
+    private final int m;
+
+    private final int efConstruction;
+
+    private final int efSearch;
+
+    private final long seed;
+
+    private final double compactionThreshold;
+
+    /** 第一次写入时按向量维度创建，避免为探测维度额外请求一次向量模型 */
+    private HnswIndex index;
+
+    /** 节点编号 -> 文档，已删除的节点置为 null */
+    private final List<StoredDocument> documents = new ArrayList<>();
+
+    /** 文档ID -> 节点编号 */
+    private final Map<String, Integer> nodeById = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final FilterExpressionConverter filterExpressionConverter = new SimpleVectorStoreFilterExpressionConverter();
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+    private HnswVectorStore(Builder builder) {
+        this.embeddingModel = builder.embeddingModel;
+        this.batchingStrategy = builder.batchingStrategy;
+        this.m = builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.efSearch = builder.efSearch;
+        this.seed = builder.seed;
+        this.compactionThreshold = builder.compactionThreshold;
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    @Override
+    public void add(@NonNull List<Document> documentList) {
+        if (documentList.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = embeddingModel.embed(documentList, EmbeddingOptionsBuilder.builder().build(),
+                batchingStrategy);
+
+        lock.writeLock().lock();
+        try {
+            if (index == null) {
+                index = new HnswIndex(embeddings.get(0).length, m, efConstruction, seed);
+            }
+            for (int i = 0; i < documentList.size(); i++) {
+                Document document = documentList.get(i);
+                // 相同ID的文档视为更新：旧节点打删除标记
+                Integer previous = nodeById.remove(document.getId());
+                if (previous != null) {
+                    removeNode(previous);
+                }
+                int node = index.add(embeddings.get(i));
+                documents.add(new StoredDocument(document.getId(), document.getText(), document.getMetadata()));
+                nodeById.put(document.getId(), node);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Added {} documents to HNSW vector store", documentList.size());
+    }
+
+    @Override
+    public void delete(@NonNull List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idList) {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    removeNode(node);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(@NonNull Filter.Expression filterExpression) {
+        Expression expression = parseFilter(filterExpression);
+        lock.writeLock().lock();
+        try {
+            for (int node = 0; node < documents.size(); node++) {
+                StoredDocument document = documents.get(node);
+                if (document != null && matches(expression, document)) {
+                    nodeById.remove(document.id());
+                    removeNode(node);
+                }
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    @NonNull
+    public List<Document> similaritySearch(@NonNull SearchRequest request) {
+        if (size() == 0) {
+            return List.of();
+        }
+        float[] query = embeddingModel.embed(request.getQuery());
+        Expression expression = request.hasFilterExpression() ? parseFilter(request.getFilterExpression()) : null;
+
+        lock.readLock().lock();
+        try {
+            IntPredicate accept = expression == null ? null : node -> matches(expression, documents.get(node));
+            HnswIndex.SearchResult result = index.search(query, request.getTopK(),
+                    Math.max(efSearch, request.getTopK()), accept);
+            List<Document> hits = new ArrayList<>(result.size());
+            for (int i = 0; i < result.size(); i++) {
+                float score = result.scores()[i];
+                if (score < request.getSimilarityThreshold()) {
+                    break;
+                }
+                hits.add(documents.get(result.nodes()[i]).toDocument(score));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前未删除的文档数量
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return index == null ? 0 : index.liveSize();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 打了删除标记、尚未回收的节点数
+     */
+    public int deletedSize() {
+        lock.readLock().lock();
+        try {
+            return index == null ? 0 : index.size() - index.liveSize();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void removeNode(int node) {
+        index.markDeleted(node);
+        documents.set(node, null);
+    }
+
+    /**
+     * 删除标记的比例超过阈值时，用未删除节点的向量重建索引，节点按原顺序重新编号；持有写锁时调用
+     */
+    private void compactIfNeeded() {
+        if (index == null) {
+            return;
+        }
+        int deleted = index.size() - index.liveSize();
+        if (deleted == 0 || deleted <= index.size() * compactionThreshold) {
+            return;
+        }
+        long start = System.nanoTime();
+        int previousSize = index.size();
+        HnswIndex compacted = new HnswIndex(index.dimensions(), m, efConstruction, seed);
+        List<StoredDocument> liveDocuments = new ArrayList<>(index.liveSize());
+        nodeById.clear();
+        for (int node = 0; node < previousSize; node++) {
+            StoredDocument document = documents.get(node);
+            if (document != null) {
+                nodeById.put(document.id(), compacted.add(index.vector(node)));
+                liveDocuments.add(document);
+            }
+        }
+        index = compacted;
+        documents.clear();
+        documents.addAll(liveDocuments);
+        log.debug("Compacted HNSW vector store: {} nodes -> {} in {} ms", previousSize, compacted.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private Expression parseFilter(Filter.Expression filterExpression) {
+        return expressionParser.parseExpression(filterExpressionConverter.convertExpression(filterExpression));
+    }
+
+    private static boolean matches(Expression expression, StoredDocument document) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("metadata", document.metadata());
+        return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+    }
+
+    /**
+     * 向量库中保存的文档内容，向量本身只保存在 HNSW 索引中
+     */
+    private record StoredDocument(String id, String text, Map<String, Object> metadata) {
+
+        Document toDocument(float score) {
+            Map<String, Object> resultMetadata = new HashMap<>(metadata);
+            resultMetadata.put(DocumentMetadata.DISTANCE.value(), 1 - score);
+            return Document.builder()
+                    .id(id)
+                    .text(text)
+                    .metadata(resultMetadata)
+                    .score((double) score)
+                    .build();
+        }
+    }
+
+    public static final class Builder {
+
+        private final EmbeddingModel embeddingModel;
+
+        private BatchingStrategy batchingStrategy = new TokenCountBatchingStrategy();
+
+        private int m = 16;
+
+        private int efConstruction = 100;
+
+        private int efSearch = 64;
+
+        private long seed = 42L;
+
+        private double compactionThreshold = 0.3;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+        }
+
+        /**
+         * 写入时把切片打包成向量化请求的策略，默认与 SimpleVectorStore 相同，按 token 数分批
+         */
+        public Builder batchingStrategy(BatchingStrategy batchingStrategy) {
+            this.batchingStrategy = batchingStrategy;
+            return this;
+        }
+
+        /**
+         * 每层最大邻居数，越大召回率越高、内存占用越大
+         */
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * 构建时的候选集大小，越大图质量越好、构建越慢
+         */
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        /**
+         * 检索时的候选集大小，实际取 max(efSearch, topK)
+         */
+        public Builder efSearch(int efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * 层级随机数种子，固定种子使索引结构可复现
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * 删除标记占全部节点的比例超过该值时重建索引，默认 0.3
+         */
+        public Builder compactionThreshold(double compactionThreshold) {
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        public HnswVectorStore build() {
+            Assert.isTrue(compactionThreshold > 0 && compactionThreshold < 1,
+                    "compactionThreshold must be between 0 and 1");
+            return new HnswVectorStore(this);
+        }
+    }
+}
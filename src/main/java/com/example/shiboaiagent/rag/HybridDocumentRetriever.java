@@ -0,0 +1,187 @@
+package com.example.shiboaiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 混合检索：向量检索 + BM25 关键词检索，按倒数排名融合（Reciprocal Rank Fusion）
+ *
+ * 两路检索各取 candidates 个候选，文档的融合分数为 Σ 1 / (rrfK + rank)，rank 从 1 开始。
+ * RRF 只依赖排名，不需要把余弦相似度和 BM25 分数归一化到同一尺度；两路都排在前面的文档得分最高，
+ * 只被一路召回的文档（例如只有字面匹配的药名）也有机会进入结果。
+ *
+ * 返回文档的 score 为融合分数，元数据中记录两路各自的排名（未召回则没有该字段），便于排查检索效果。
+ */
+public class HybridDocumentRetriever {
+
+    /** 元数据：向量检索中的排名 */
+    public static final String DENSE_RANK = "dense_rank";
+
+    /** 元数据：关键词检索中的排名 */
+    public static final String KEYWORD_RANK = "keyword_rank";
+
+    private final VectorStore vectorStore;
+
+    private final Bm25Index keywordIndex;
+
+    private final int topK;
+
+    private final int candidates;
+
+    private final int rrfK;
+
+    private final double similarityThreshold;
+
+    private HybridDocumentRetriever(Builder builder) {
+        this.vectorStore = builder.vectorStore;
+        this.keywordIndex = builder.keywordIndex;
+        this.topK = builder.topK;
+        this.candidates = builder.candidates;
+        this.rrfK = builder.rrfK;
+        this.similarityThreshold = builder.similarityThreshold;
+    }
+
+    public static Builder builder(VectorStore vectorStore, Bm25Index keywordIndex) {
+        return new Builder(vectorStore, keywordIndex);
+    }
+
+    /**
+     * 检索与查询相关的文档
+     *
+     * @param query 查询文本
+     * @return 按融合分数降序的最多 topK 个文档
+     */
+    public List<Document> retrieve(String query) {
+        if (!StringUtils.hasText(query)) {
+            return List.of();
+        }
+        List<Document> dense = vectorStore.similaritySearch(SearchRequest.builder()
+                .query(query)
+                .topK(candidates)
+                .similarityThreshold(similarityThreshold)
+                .build());
+        List<Document> keyword = keywordIndex.search(query, candidates);
+        return fuse(dense, keyword);
+    }
+
+    /**
+     * 倒数排名融合
+     */
+    List<Document> fuse(List<Document> dense, List<Document> keyword) {
+        Map<String, Fused> fusedById = new LinkedHashMap<>();
+        accumulate(fusedById, dense, DENSE_RANK);
+        accumulate(fusedById, keyword, KEYWORD_RANK);
+
+        List<Fused> ranked = new ArrayList<>(fusedById.values());
+        ranked.sort((a, b) -> Double.compare(b.score, a.score));
+        List<Document> results = new ArrayList<>(Math.min(topK, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < topK; i++) {
+            Fused fused = ranked.get(i);
+            Map<String, Object> metadata = new HashMap<>(fused.document.getMetadata());
+            metadata.putAll(fused.ranks);
+            results.add(Document.builder()
+                    .id(fused.document.getId())
+                    .text(fused.document.getText())
+                    .metadata(metadata)
+                    .score(fused.score)
+                    .build());
+        }
+        return results;
+    }
+
+    private void accumulate(Map<String, Fused> fusedById, List<Document> documents, String rankKey) {
+        if (documents == null) {
+            return;
+        }
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            Fused fused = fusedById.computeIfAbsent(document.getId(), id -> new Fused(document));
+            int rank = i + 1;
+            fused.score += 1.0 / (rrfK + rank);
+            fused.ranks.put(rankKey, rank);
+        }
+    }
+
+    private static final class Fused {
+
+        final Document document;
+
+        final Map<String, Object> ranks = new HashMap<>(2);
+
+        double score;
+
+        Fused(Document document) {
+            this.document = document;
+        }
+    }
+
+    public static final class Builder {
+
+        private final VectorStore vectorStore;
+
+        private final Bm25Index keywordIndex;
+
+        private int topK = 4;
+
+        private int candidates = 20;
+
+        private int rrfK = 60;
+
+        private double similarityThreshold = SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL;
+
+        private Builder(VectorStore vectorStore, Bm25Index keywordIndex) {
+            this.vectorStore = vectorStore;
+            this.keywordIndex = keywordIndex;
+        }
+
+        /**
+         * 融合后返回的文档数，默认与 QuestionAnswerAdvisor 一致为 4
+         */
+        public Builder topK(int topK) {
+            this.topK = topK;
+            return this;
+        }
+
+        /**
+         * 每一路检索取的候选数
+         */
+        public Builder candidates(int candidates) {
+            this.candidates = candidates;
+            return this;
+        }
+
+        /**
+         * RRF 平滑常数，越大排名靠后的候选权重越接近排名靠前的
+         */
+        public Builder rrfK(int rrfK) {
+            this.rrfK = rrfK;
+            return this;
+        }
+
+        /**
+         * 向量检索的相似度下限
+         */
+        public Builder similarityThreshold(double similarityThreshold) {
+            this.similarityThreshold = similarityThreshold;
+            return this;
+        }
+
+        public HybridDocumentRetriever build() {
+            Assert.notNull(vectorStore, "vectorStore cannot be null");
+            Assert.notNull(keywordIndex, "keywordIndex cannot be null");
+            Assert.isTrue(topK > 0, "topK must be positive");
+            Assert.isTrue(candidates >= topK, "candidates must not be less than topK");
+            Assert.isTrue(rrfK > 0, "rrfK must be positive");
+            return new HybridDocumentRetriever(this);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.shiboaiagent.rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+/**
+ * 记录向量化耗时的 EmbeddingModel（装饰器）
+ *
+ * Timer ai.rag.embedding 带 app 标签和 operation 标签：query 为查询文本 embed(String)，
+ * batch 为批量请求 call，document 为单个文档 embed(Document)。
+ * 放在 {@link CachingEmbeddingModel} 外层时，统计的是检索时实际等待查询向量的耗时（包括缓存命中）。
+ */
+public class MeteredEmbeddingModel implements EmbeddingModel {
+
+    public static final String EMBEDDING_TIMER = "ai.rag.embedding";
+
+    private final EmbeddingModel delegate;
+
+    private final Timer queryTimer;
+
+    private final Timer batchTimer;
+
+    private final Timer documentTimer;
+
+    private MeteredEmbeddingModel(Builder builder) {
+        this.delegate = builder.delegate;
+        this.queryTimer = timer(builder, "query");
+        this.batchTimer = timer(builder, "batch");
+        this.documentTimer = timer(builder, "document");
+    }
+
+    public static Builder builder(EmbeddingModel delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    @NonNull
+    public float[] embed(@NonNull String text) {
+        return queryTimer.record(() -> delegate.embed(text));
+    }
+
+    @Override
+    @NonNull
+    public EmbeddingResponse call(@NonNull EmbeddingRequest request) {
+        return batchTimer.record(() -> delegate.call(request));
+    }
+
+    @Override
+    @NonNull
+    public float[] embed(@NonNull Document document) {
+        return documentTimer.record(() -> delegate.embed(document));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private static Timer timer(Builder builder, String operation) {
+        return Timer.builder(EMBEDDING_TIMER)
+                .description("Embedding latency")
+                .tags("app", builder.app, "operation", operation)
+                .publishPercentileHistogram()
+                .register(builder.meterRegistry);
+    }
+
+    public static final class Builder {
+
+        private final EmbeddingModel delegate;
+
+        private String app = "default";
+
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder(EmbeddingModel delegate) {
+            Assert.notNull(delegate, "delegate cannot be null");
+            this.delegate = delegate;
+        }
+
+        /** app 标签，区分不同的应用 */
+        public Builder app(String app) {
+            this.app = app;
+            return this;
+        }
+
+        /** 指标注册表，默认为全局注册表 */
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public MeteredEmbeddingModel build() {
+            Assert.hasText(app, "app cannot be empty");
+            Assert.notNull(meterRegistry, "meterRegistry cannot be null");
+            return new MeteredEmbeddingModel(this);
+        }
+    }
+}
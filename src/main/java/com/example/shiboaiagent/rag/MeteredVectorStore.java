@@ -0,0 +1,94 @@
+package com.example.shiboaiagent.rag;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.util.List;
+
+/**
+ * 记录检索耗时的向量库（装饰器）
+ *
+ * 统计检索advisor看到的相似度检索耗时 ai.rag.search（带 app 标签），放在 {@link CachingVectorStore} 外层时
+ * 包括缓存命中的请求；查询向量的计算耗时由 {@link MeteredEmbeddingModel} 单独统计。写入操作直接交给被装饰的向量库。
+ */
+public class MeteredVectorStore implements VectorStore {
+
+    public static final String SEARCH_TIMER = "ai.rag.search";
+
+    private final VectorStore delegate;
+
+    private final Timer searchTimer;
+
+    private MeteredVectorStore(Builder builder) {
+        this.delegate = builder.delegate;
+        this.searchTimer = Timer.builder(SEARCH_TIMER)
+                .description("Vector store similarity search latency")
+                .tag("app", builder.app)
+                .publishPercentileHistogram()
+                .register(builder.meterRegistry);
+    }
+
+    public static Builder builder(VectorStore delegate) {
+        return new Builder(delegate);
+    }
+
+    @Override
+    public void add(@NonNull List<Document> documents) {
+        delegate.add(documents);
+    }
+
+    @Override
+    public void delete(@NonNull List<String> idList) {
+        delegate.delete(idList);
+    }
+
+    @Override
+    public void delete(@NonNull Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+    }
+
+    @Override
+    @NonNull
+    public List<Document> similaritySearch(@NonNull SearchRequest request) {
+        return searchTimer.record(() -> delegate.similaritySearch(request));
+    }
+
+    public static final class Builder {
+
+        private final VectorStore delegate;
+
+        private String app = "default";
+
+        private MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+        private Builder(VectorStore delegate) {
+            Assert.notNull(delegate, "delegate cannot be null");
+            this.delegate = delegate;
+        }
+
+        /** app 标签，区分不同的应用 */
+        public Builder app(String app) {
+            this.app = app;
+            return this;
+        }
+
+        /** 指标注册表，默认为全局注册表 */
+        public Builder meterRegistry(MeterRegistry meterRegistry) {
+            this.meterRegistry = meterRegistry;
+            return this;
+        }
+
+        public MeteredVectorStore build() {
+            Assert.hasText(app, "app cannot be empty");
+            Assert.notNull(meterRegistry, "meterRegistry cannot be null");
+            return new MeteredVectorStore(this);
+        }
+    }
+}
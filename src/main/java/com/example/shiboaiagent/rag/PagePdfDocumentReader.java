@@ -21,6 +21,8 @@ import java.util.List;
 @Slf4j
 public class PagePdfDocumentReader {
 
+    /** PDF 文档所在位置 */
+    static final String PDF_LOCATION_PATTERN = "classpath*:document/*.pdf";
 
     private final ResourcePatternResolver resourcePatternResolver;
 
@@ -30,31 +32,47 @@ public class PagePdfDocumentReader {
 
     List<Document> loadPdfDocument() {
         List<Document> documents = new ArrayList<>();
+        //循环遍历每一个文件，将所有获得文件都传入documents中
+        for (Resource resource : loadPdfResources()) {
+            documents.addAll(readPdf(resource));
+        }
+        log.info("Total documents extracted: {}", documents.size());
+        return documents;
+    }
 
+    /**
+     * 获取所有的pdf文件
+     */
+    Resource[] loadPdfResources() {
         try {
-            //获取所有的pdf文件
-            Resource[] resources = resourcePatternResolver.getResources("classpath*:document/*.pdf");
-            log.info("Found {} PDF files in classpath*:document/*.pdf", resources.length);
-            //循环遍历每一个文件
-            for (Resource resource : resources) {
-                log.info("Processing file: {}", resource.getFilename());
-                PdfDocumentReaderConfig config = PdfDocumentReaderConfig.builder()
-                        .withPageTopMargin(0)
-                        .withPageExtractedTextFormatter(ExtractedTextFormatter.builder()
-                                .withNumberOfTopTextLinesToDelete(0)
-                                .build())
-                        .withPagesPerDocument(1)
-                        .build();
-                ParagraphPdfDocumentReader pdfReader = new ParagraphPdfDocumentReader(resource, config);
-                //将所有获得文件都传入documents中
-                List<Document> docs = pdfReader.read();
-                log.info("Extracted {} pages from {}", docs.size(), resource.getFilename());
-                documents.addAll(docs);
-            }
+            Resource[] resources = resourcePatternResolver.getResources(PDF_LOCATION_PATTERN);
+            log.info("Found {} PDF files in {}", resources.length, PDF_LOCATION_PATTERN);
+            return resources;
         } catch (IOException e) {
             log.error("Error reading PDF document", e);
+            return new Resource[0];
         }
-        log.info("Total documents extracted: {}", documents.size());
-        return documents;
     }
-}
\ No newline at end of file
+
+    /**
+     * 读取单个pdf文件
+     */
+    List<Document> readPdf(Resource resource) {
+        log.info("Processing file: {}", resource.getFilename());
+        PdfDocumentReaderConfig config = PdfDocumentReaderConfig.builder()
+                .withPageTopMargin(0)
+                .withPageExtractedTextFormatter(ExtractedTextFormatter.builder()
+                        .withNumberOfTopTextLinesToDelete(0)
+                        .build())
+                .withPagesPerDocument(1)
+                .build();
+        List<Document> docs = new ParagraphPdfDocumentReader(resource, config).read();
+        if (docs.isEmpty()) {
+            // 按目录段落切分没有得到任何文本（目录位置与正文坐标对不上时会这样），退回按页读取
+            log.info("No paragraph text extracted from {}, falling back to page reader", resource.getFilename());
+            docs = new org.springframework.ai.reader.pdf.PagePdfDocumentReader(resource, config).read();
+        }
+        log.info("Extracted {} pages from {}", docs.size(), resource.getFilename());
+        return docs;
+    }
+}
@@ -2,19 +2,33 @@ package com.example.shiboaiagent.rag;
 
 
 
+import com.example.shiboaiagent.app.PsychiatristApp4PdfDocument;
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.Assert;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 将读取到的document添加到vectorStore(向量数据库中，SpringAI内置的则是SimpleVectorStore)中
+ * 向量化结果持久化在本地索引文件中，重启时只有新增或变化的PDF才会重新调用向量模型
+ * 默认使用 HNSW 近似最近邻向量库，rag.vector-store.type=simple 时退回 SimpleVectorStore 暴力检索，
+ * rag.vector-store.type=quantized 时内存中只保存量化向量，全精度向量放在磁盘上用于重排序
+ * rag.vector-store.type=segmented 时每个 PDF 一个只读段，支持运行中整段替换，配合 {@link PdfDirectoryWatcher} 热更新
+ * 同一批切片同时写入 BM25 关键词索引，供混合检索使用
  */
 @Configuration
 @Slf4j
@@ -23,11 +37,143 @@ public class PagePdfVectorStoreConfig {
     @Resource
     private PagePdfDocumentReader pagePdfDocumentReader;
 
+    /** 向量库类型：hnsw、simple、quantized 或 segmented */
+    @Value("${rag.vector-store.type:hnsw}")
+    private String vectorStoreType;
+
+    @Value("${rag.vector-store.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${rag.vector-store.hnsw.ef-construction:100}")
+    private int hnswEfConstruction;
+
+    @Value("${rag.vector-store.hnsw.ef-search:64}")
+    private int hnswEfSearch;
+
+    /** 量化方式：int8 或 binary */
+    @Value("${rag.vector-store.quantized.encoding:int8}")
+    private String quantizedEncoding;
+
+    /** 重排序候选倍数，0 表示使用量化方式的默认值 */
+    @Value("${rag.vector-store.quantized.oversampling:0}")
+    private int quantizedOversampling;
+
+    /** 监听的 PDF 目录，默认为工作目录下的 document，可用 RAG_DOCUMENT_DIR 指定 */
+    @Value("${rag.document.watch.directory:${RAG_DOCUMENT_DIR:${user.dir}/document}}")
+    private String watchDirectory;
+
+    /** 文件最后一次变化后等待的时间，避免复制到一半的文件被解析 */
+    @Value("${rag.document.watch.quiet-period-ms:2000}")
+    private long watchQuietPeriodMillis;
+
+    /** 向量模型名，与 DashScope 自动配置的默认值一致；计入向量索引文件头和查询向量缓存键 */
+    @Value("${spring.ai.dashscope.embedding.options.model:text-embedding-v1}")
+    private String embeddingModelName;
+
+    /** 缓存的查询向量数量 */
+    @Value("${rag.query-cache.embedding-max-entries:2000}")
+    private int queryEmbeddingCacheMaxEntries;
+
+    /** 单次向量化请求的条数上限 */
+    @Value("${rag.embedding.max-batch-size:10}")
+    private int embeddingMaxBatchSize;
+
+    /** 同时发出的向量化请求数 */
+    @Value("${rag.embedding.concurrency:2}")
+    private int embeddingConcurrency;
+
+    /** 向量化请求的目标延迟，超过时减小批量 */
+    @Value("${rag.embedding.target-latency-ms:2000}")
+    private long embeddingTargetLatencyMillis;
+
+    /**
+     * PDF 切片的关键词索引，由 pagePdfVectorStore 在加载切片时一并填充
+     */
+    @Bean
+    Bm25Index pagePdfKeywordIndex() {
+        return new Bm25Index();
+    }
+
     @Bean
-    VectorStore pagePdfVectorStore(EmbeddingModel dashScopeEmbeddingModel) {
-        SimpleVectorStore vectorStore = SimpleVectorStore.builder(dashScopeEmbeddingModel).build();
-        List<Document> documents = pagePdfDocumentReader.loadPdfDocument();
-        vectorStore.add(documents);
+    VectorStore pagePdfVectorStore(EmbeddingModel dashScopeEmbeddingModel, Bm25Index pagePdfKeywordIndex) {
+        Path indexFile = Path.of(System.getProperty("user.dir"), "tmp", "vector_store", "pdf-embeddings.bin");
+        Map<String, List<EmbeddedChunk>> chunksBySource;
+        try (AdaptiveBatchingEmbeddingModel batchingEmbeddingModel = AdaptiveBatchingEmbeddingModel
+                .builder(dashScopeEmbeddingModel)
+                .maxBatchSize(embeddingMaxBatchSize)
+                .concurrency(embeddingConcurrency)
+                .targetLatency(Duration.ofMillis(embeddingTargetLatencyMillis))
+                .build()) {
+            // 流水线每次交给向量化的切片足够多，由 AdaptiveBatchingEmbeddingModel 负责打包和并发
+            PdfIngestionPipeline ingestionPipeline = PdfIngestionPipeline.builder(pagePdfDocumentReader)
+                    .embedBatchSize(embeddingMaxBatchSize * embeddingConcurrency * 4)
+                    .build();
+            chunksBySource = new PdfEmbeddingCache(pagePdfDocumentReader, indexFile, ingestionPipeline, embeddingModelName)
+                    .loadOrEmbedBySource(batchingEmbeddingModel);
+            log.info("Embedding batching stats: {}", batchingEmbeddingModel.stats());
+        }
+
+        // 向量库 add 时直接使用已有向量，查询时仍使用 DashScope 向量模型，相同查询的向量只计算一次
+        // 查询向量化的耗时（包括缓存命中）记录为 PDF 应用的指标
+        PrecomputedEmbeddingModel embeddingModel = new PrecomputedEmbeddingModel(
+                MeteredEmbeddingModel.builder(
+                                CachingEmbeddingModel.builder(dashScopeEmbeddingModel)
+                                        .maxEntries(queryEmbeddingCacheMaxEntries)
+                                        .modelName(embeddingModelName)
+                                        .build())
+                        .app(PsychiatristApp4PdfDocument.METRICS_APP)
+                        .build());
+        List<Document> documents = new ArrayList<>();
+        for (List<EmbeddedChunk> chunks : chunksBySource.values()) {
+            for (EmbeddedChunk chunk : chunks) {
+                embeddingModel.register(chunk.id(), chunk.embedding());
+                documents.add(chunk.toDocument());
+            }
+        }
+
+        VectorStore vectorStore = switch (vectorStoreType.toLowerCase()) {
+            case "simple" -> SimpleVectorStore.builder(embeddingModel).build();
+            case "quantized" -> QuantizedVectorStore.builder(embeddingModel)
+                    .encoding(QuantizedVectorStore.Encoding.valueOf(quantizedEncoding.toUpperCase()))
+                    .oversampling(quantizedOversampling)
+                    .vectorFile(indexFile.resolveSibling("pdf-vectors.f32"))
+                    .build();
+            case "segmented" -> SegmentedVectorStore.builder(embeddingModel)
+                    .m(hnswM)
+                    .efConstruction(hnswEfConstruction)
+                    .efSearch(hnswEfSearch)
+                    .build();
+            default -> HnswVectorStore.builder(embeddingModel)
+                    .m(hnswM)
+                    .efConstruction(hnswEfConstruction)
+                    .efSearch(hnswEfSearch)
+                    .build();
+        };
+        log.info("Using {} vector store", vectorStore.getClass().getSimpleName());
+        if (vectorStore instanceof SegmentedVectorStore segmentedVectorStore) {
+            // 每个 PDF 一个段，文件监听器之后可以按文件名整段替换
+            chunksBySource.forEach(segmentedVectorStore::replaceSource);
+        } else if (!documents.isEmpty()) {
+            vectorStore.add(documents);
+        }
+        pagePdfKeywordIndex.add(documents);
+        embeddingModel.clear();
         return vectorStore;
     }
+
+    /**
+     * 监听 PDF 目录，新增或修改的 PDF 在后台向量化后整段替换，删除的 PDF 从向量库中移除
+     */
+    @Bean(initMethod = "start")
+    @ConditionalOnProperty(name = "rag.document.watch.enabled", havingValue = "true")
+    PdfDirectoryWatcher pdfDirectoryWatcher(VectorStore pagePdfVectorStore, Bm25Index pagePdfKeywordIndex,
+                                            EmbeddingModel dashScopeEmbeddingModel) {
+        Assert.isInstanceOf(SegmentedVectorStore.class, pagePdfVectorStore,
+                "rag.document.watch.enabled requires rag.vector-store.type=segmented");
+        return PdfDirectoryWatcher.builder(Path.of(watchDirectory), (SegmentedVectorStore) pagePdfVectorStore,
+                        PdfIngestionPipeline.builder(pagePdfDocumentReader).build(), dashScopeEmbeddingModel)
+                .keywordIndex(pagePdfKeywordIndex)
+                .quietPeriod(Duration.ofMillis(watchQuietPeriodMillis))
+                .build();
+    }
 }
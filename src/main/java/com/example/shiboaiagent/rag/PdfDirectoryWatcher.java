@@ -0,0 +1,348 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 监听 PDF 目录，在后台把新增或修改的 PDF 入库并替换到 {@link SegmentedVectorStore} 中
+ *
+ * 监听线程只负责接收文件事件；同一个文件在静默期内的多次事件合并为一次入库（复制大文件时会连续触发修改事件）。
+ * 入库在单独的线程中串行执行：计算内容哈希，内容没有变化时跳过；否则经 {@link PdfIngestionPipeline} 解析、
+ * 切分和向量化，完成后整段替换该文件对应的段。检索在整个过程中使用旧段，替换是一次快照发布，不会阻塞检索。
+ * 删除的文件从向量库中移除。配置了关键词索引时同步更新。
+ *
+ * 启动时扫描一遍目录，向量库中还没有的 PDF 会被入库；已经在启动时加载过的 PDF 在下一次修改时才会重新入库。
+ */
+@Slf4j
+public class PdfDirectoryWatcher implements AutoCloseable {
+
+    private final Path directory;
+
+    private final SegmentedVectorStore vectorStore;
+
+    private final PdfIngestionPipeline ingestionPipeline;
+
+    private final EmbeddingModel embeddingModel;
+
+    private final Bm25Index keywordIndex;
+
+    private final long quietPeriodMillis;
+
+    private final ScheduledExecutorService ingestionExecutor;
+
+    /** 文件名 -> 等待静默期结束的入库任务 */
+    private final Map<String, ScheduledFuture<?>> pending = new ConcurrentHashMap<>();
+
+    /** 文件名 -> 最近一次入库的内容哈希，只在入库线程中访问 */
+    private final Map<String, String> contentHashes = new HashMap<>();
+
+    private final LongAdder ingestedFiles = new LongAdder();
+
+    private final LongAdder removedFiles = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private WatchService watchService;
+
+    private Thread watchThread;
+
+    private PdfDirectoryWatcher(Builder builder) {
+        this.directory = builder.directory.toAbsolutePath();
+        this.vectorStore = builder.vectorStore;
+        this.ingestionPipeline = builder.ingestionPipeline;
+        this.embeddingModel = builder.embeddingModel;
+        this.keywordIndex = builder.keywordIndex;
+        this.quietPeriodMillis = builder.quietPeriod.toMillis();
+        this.ingestionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pdf-directory-ingestion");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Builder builder(Path directory, SegmentedVectorStore vectorStore,
+                                  PdfIngestionPipeline ingestionPipeline, EmbeddingModel embeddingModel) {
+        return new Builder(directory, vectorStore, ingestionPipeline, embeddingModel);
+    }
+
+    /**
+     * 监听统计
+     *
+     * @param ingestedFiles 入库（新增或替换）的文件次数
+     * @param removedFiles 移除的文件次数
+     * @param failures 入库失败的次数
+     * @param pending 等待入库的文件数
+     */
+    public record WatchStats(long ingestedFiles, long removedFiles, long failures, int pending) {
+    }
+
+    public WatchStats stats() {
+        return new WatchStats(ingestedFiles.sum(), removedFiles.sum(), failures.sum(), pending.size());
+    }
+
+    /**
+     * 开始监听，并把目录中向量库还没有的 PDF 加入入库队列
+     */
+    public synchronized void start() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        if (!Files.isDirectory(directory)) {
+            log.warn("PDF directory {} does not exist, creating an empty one; set rag.document.watch.directory "
+                    + "or RAG_DOCUMENT_DIR to the directory holding the knowledge base", directory);
+            Files.createDirectories(directory);
+        }
+        watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        for (Path file : listPdfs()) {
+            if (!vectorStore.hasSource(file.getFileName().toString())) {
+                schedule(file);
+            }
+        }
+        watchThread = new Thread(this::watchLoop, "pdf-directory-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+        log.info("Watching {} for PDF changes", directory);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("Failed to close watch service for {}", directory, e);
+        }
+        ingestionExecutor.shutdownNow();
+        watchService = null;
+    }
+
+    private void watchLoop() {
+        WatchService service = watchService;
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // 事件丢失时重新检查目录中的全部文件，未变化的文件会按内容哈希跳过
+                        log.warn("Watch events overflowed for {}, rescanning", directory);
+                        listPdfs().forEach(this::schedule);
+                        rescheduleMissingSources();
+                        continue;
+                    }
+                    Path file = directory.resolve((Path) event.context());
+                    if (isPdf(file)) {
+                        schedule(file);
+                    }
+                }
+                if (!key.reset()) {
+                    log.warn("Directory {} is no longer accessible, stop watching", directory);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // 正常关闭
+        }
+    }
+
+    /**
+     * 静默期结束后入库；静默期内同一文件的新事件会取消之前的任务重新计时
+     *
+     * 取消旧任务和登记新任务在 compute 中原子完成，任务开始时只移除自己：
+     * 监听线程和入库线程同时为同一文件调度时，不会留下未取消的旧任务或误删新任务。
+     */
+    private void schedule(Path file) {
+        String source = file.getFileName().toString();
+        pending.compute(source, (key, previous) -> {
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            // 任务中的 remove 会等 compute 返回后才执行，此时 self 已经赋值
+            AtomicReference<ScheduledFuture<?>> self = new AtomicReference<>();
+            try {
+                self.set(ingestionExecutor.schedule(() -> {
+                    pending.remove(source, self.get());
+                    sync(file);
+                }, quietPeriodMillis, TimeUnit.MILLISECONDS));
+            } catch (RejectedExecutionException e) {
+                // 已经关闭
+            }
+            return self.get();
+        });
+    }
+
+    /**
+     * 目录中已经不存在、但向量库中由本监听器入库过的文件
+     */
+    private void rescheduleMissingSources() {
+        ingestionExecutor.execute(() -> {
+            for (String source : new ArrayList<>(contentHashes.keySet())) {
+                schedule(directory.resolve(source));
+            }
+        });
+    }
+
+    /**
+     * 把文件的当前状态同步到向量库，只在入库线程中执行
+     */
+    private void sync(Path file) {
+        String source = file.getFileName().toString();
+        if (!Files.exists(file)) {
+            remove(source);
+            return;
+        }
+        String contentHash;
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            contentHash = PersistentEmbeddingIndex.contentHash(inputStream);
+        } catch (IOException e) {
+            log.error("Error hashing PDF document {}", file, e);
+            failures.increment();
+            return;
+        }
+        if (contentHash.equals(contentHashes.get(source))) {
+            log.debug("PDF {} is unchanged, skip", source);
+            return;
+        }
+
+        long start = System.nanoTime();
+        // 只有向量化线程会写入，run 返回后在当前线程读取
+        List<EmbeddedChunk> chunks = new ArrayList<>();
+        PdfIngestionPipeline.IngestionReport report;
+        try {
+            report = ingestionPipeline.run(List.of(new FileSystemResource(file)), embeddingModel,
+                    (chunkSource, chunk) -> chunks.add(chunk));
+        } catch (RuntimeException e) {
+            log.error("Error ingesting PDF document {}", file, e);
+            failures.increment();
+            return;
+        }
+        if (report.failedSources().contains(source)) {
+            // 解析失败（例如文件还没写完）时保留旧段，下一次修改事件会重试
+            failures.increment();
+            return;
+        }
+
+        List<String> previousIds = vectorStore.replaceSource(source, chunks);
+        if (keywordIndex != null) {
+            List<Document> documents = chunks.stream().map(EmbeddedChunk::toDocument).toList();
+            keywordIndex.add(documents);
+            Set<String> currentIds = new HashSet<>();
+            documents.forEach(document -> currentIds.add(document.getId()));
+            keywordIndex.delete(previousIds.stream().filter(id -> !currentIds.contains(id)).toList());
+        }
+        contentHashes.put(source, contentHash);
+        ingestedFiles.increment();
+        log.info("PDF {} ingested: {} chunks replaced {} in {} ms", source, chunks.size(), previousIds.size(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private void remove(String source) {
+        if (!vectorStore.hasSource(source)) {
+            return;
+        }
+        List<String> removedIds = vectorStore.removeSource(source);
+        if (keywordIndex != null) {
+            keywordIndex.delete(removedIds);
+        }
+        contentHashes.remove(source);
+        removedFiles.increment();
+        log.info("PDF {} removed: {} chunks", source, removedIds.size());
+    }
+
+    private List<Path> listPdfs() {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{pdf,PDF}")) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            log.error("Error listing PDF documents in {}", directory, e);
+        }
+        return files;
+    }
+
+    private static boolean isPdf(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".pdf");
+    }
+
+    public static final class Builder {
+
+        private final Path directory;
+
+        private final SegmentedVectorStore vectorStore;
+
+        private final PdfIngestionPipeline ingestionPipeline;
+
+        private final EmbeddingModel embeddingModel;
+
+        private Bm25Index keywordIndex;
+
+        private Duration quietPeriod = Duration.ofSeconds(2);
+
+        private Builder(Path directory, SegmentedVectorStore vectorStore,
+                        PdfIngestionPipeline ingestionPipeline, EmbeddingModel embeddingModel) {
+            this.directory = directory;
+            this.vectorStore = vectorStore;
+            this.ingestionPipeline = ingestionPipeline;
+            this.embeddingModel = embeddingModel;
+        }
+
+        /**
+         * 同步更新的关键词索引，可选
+         */
+        public Builder keywordIndex(Bm25Index keywordIndex) {
+            this.keywordIndex = keywordIndex;
+            return this;
+        }
+
+        /**
+         * 文件最后一次变化后等待多久再入库
+         */
+        public Builder quietPeriod(Duration quietPeriod) {
+            this.quietPeriod = quietPeriod;
+            return this;
+        }
+
+        public PdfDirectoryWatcher build() {
+            Assert.notNull(directory, "directory cannot be null");
+            Assert.notNull(vectorStore, "vectorStore cannot be null");
+            Assert.notNull(ingestionPipeline, "ingestionPipeline cannot be null");
+            Assert.notNull(embeddingModel, "embeddingModel cannot be null");
+            Assert.isTrue(!quietPeriod.isNegative(), "quietPeriod must not be negative");
+            return new PdfDirectoryWatcher(this);
+        }
+    }
+}
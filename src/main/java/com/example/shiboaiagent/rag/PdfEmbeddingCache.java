@@ -0,0 +1,159 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * PDF 向量化结果的磁盘缓存
+ *
+ * 启动时逐个计算 PDF 的内容哈希：哈希与索引文件一致的直接复用已保存的文档和向量；
+ * 新增或内容变化的 PDF 交给 {@link PdfIngestionPipeline} 并行解析、切分和向量化，最后把索引写回磁盘。
+ * 向量模型名或流水线的切分参数与索引文件不一致时，索引作废，全部 PDF 重新向量化。
+ */
+@Slf4j
+public class PdfEmbeddingCache {
+
+    private final PagePdfDocumentReader pagePdfDocumentReader;
+
+    private final Path indexFile;
+
+    private final PdfIngestionPipeline ingestionPipeline;
+
+    private final String embeddingModelName;
+
+    /**
+     * 构造函数，使用默认配置的入库流水线
+     *
+     * @param pagePdfDocumentReader PDF 读取器
+     * @param indexFile 索引文件路径
+     */
+    public PdfEmbeddingCache(PagePdfDocumentReader pagePdfDocumentReader, Path indexFile) {
+        this(pagePdfDocumentReader, indexFile, PdfIngestionPipeline.builder(pagePdfDocumentReader).build());
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param pagePdfDocumentReader PDF 读取器
+     * @param indexFile 索引文件路径
+     * @param ingestionPipeline 新增或变化的 PDF 使用的入库流水线
+     */
+    public PdfEmbeddingCache(PagePdfDocumentReader pagePdfDocumentReader, Path indexFile,
+                             PdfIngestionPipeline ingestionPipeline) {
+        this(pagePdfDocumentReader, indexFile, ingestionPipeline, "default");
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param pagePdfDocumentReader PDF 读取器
+     * @param indexFile 索引文件路径
+     * @param ingestionPipeline 新增或变化的 PDF 使用的入库流水线
+     * @param embeddingModelName 向量模型名，与切分参数一起记入索引文件头
+     */
+    public PdfEmbeddingCache(PagePdfDocumentReader pagePdfDocumentReader, Path indexFile,
+                             PdfIngestionPipeline ingestionPipeline, String embeddingModelName) {
+        this.pagePdfDocumentReader = pagePdfDocumentReader;
+        this.indexFile = indexFile;
+        this.ingestionPipeline = ingestionPipeline;
+        this.embeddingModelName = embeddingModelName;
+    }
+
+    /**
+     * 索引文件头中的标识：向量模型名和切分参数
+     */
+    String fingerprint() {
+        return "model=" + embeddingModelName + ";splitter=" + ingestionPipeline.splitterKey();
+    }
+
+    /**
+     * 加载所有 PDF 的向量化结果，只对新增或变化的 PDF 调用向量模型
+     *
+     * @param embeddingModel 向量模型
+     * @return 所有 PDF 的文档及其向量，按 PDF 顺序排列
+     */
+    public List<EmbeddedChunk> loadOrEmbed(EmbeddingModel embeddingModel) {
+        List<EmbeddedChunk> chunks = new ArrayList<>();
+        loadOrEmbedBySource(embeddingModel).values().forEach(chunks::addAll);
+        return chunks;
+    }
+
+    /**
+     * 与 {@link #loadOrEmbed} 相同，按来源 PDF 的文件名分组返回
+     *
+     * @param embeddingModel 向量模型
+     * @return 文件名 -> 该 PDF 的文档及其向量，按 PDF 顺序排列
+     */
+    public Map<String, List<EmbeddedChunk>> loadOrEmbedBySource(EmbeddingModel embeddingModel) {
+        PersistentEmbeddingIndex index = PersistentEmbeddingIndex.load(indexFile, fingerprint());
+        List<String> sources = new ArrayList<>();
+        Map<String, String> contentHashes = new HashMap<>();
+        List<Resource> changed = new ArrayList<>();
+        // 哈希失败的文件也保留其索引条目
+        Set<String> liveSources = new HashSet<>();
+
+        for (Resource resource : pagePdfDocumentReader.loadPdfResources()) {
+            String source = resource.getFilename();
+            liveSources.add(source);
+            String contentHash;
+            try (InputStream inputStream = resource.getInputStream()) {
+                contentHash = PersistentEmbeddingIndex.contentHash(inputStream);
+            } catch (IOException e) {
+                log.error("Error hashing PDF document {}", source, e);
+                continue;
+            }
+            sources.add(source);
+            contentHashes.put(source, contentHash);
+            if (index.get(source, contentHash) == null) {
+                changed.add(resource);
+            }
+        }
+
+        // 只有向量化线程会写入，run 返回后在当前线程读取
+        Map<String, List<EmbeddedChunk>> fresh = new HashMap<>();
+        if (!changed.isEmpty()) {
+            PdfIngestionPipeline.IngestionReport report = ingestionPipeline.run(changed, embeddingModel,
+                    (source, chunk) -> fresh.computeIfAbsent(source, key -> new ArrayList<>()).add(chunk));
+            for (Resource resource : changed) {
+                String source = resource.getFilename();
+                // 解析失败的文件不写入索引，下次启动时重试
+                if (!report.failedSources().contains(source)) {
+                    index.put(source, contentHashes.get(source), fresh.getOrDefault(source, List.of()));
+                }
+            }
+        }
+
+        Map<String, List<EmbeddedChunk>> chunksBySource = new LinkedHashMap<>();
+        int chunkCount = 0;
+        for (String source : sources) {
+            List<EmbeddedChunk> sourceChunks = index.get(source, contentHashes.get(source));
+            if (sourceChunks != null) {
+                chunksBySource.put(source, sourceChunks);
+                chunkCount += sourceChunks.size();
+            }
+        }
+
+        index.retainSources(liveSources);
+        try {
+            index.save();
+        } catch (IOException e) {
+            log.error("Error saving embedding index {}", indexFile, e);
+        }
+        log.info("PDF embeddings ready: {} files reused from {}, {} files embedded, {} chunks in total",
+                sources.size() - changed.size(), indexFile, changed.size(), chunkCount);
+        return chunksBySource;
+    }
+}
@@ -0,0 +1,446 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.transformer.splitter.TextSplitter;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.core.io.Resource;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 流水线式的 PDF 入库：解析 -> 切分 -> 向量化
+ *
+ * 三个阶段并行执行，阶段之间用有界阻塞队列连接：下游处理不过来时上游会阻塞（背压），
+ * 因此无论语料有多大，在途的页和切片数量都不超过队列容量，解析、切分和向量化可以互相重叠。
+ * - 解析：固定大小的线程池，每个线程处理一个 PDF 文件，逐页放入页队列
+ * - 切分：单线程，用 TextSplitter 把页切成切片放入切片队列（单线程保证同一文件内切片有序）
+ * - 向量化：单线程，按批取出切片调用向量模型，结果交给 {@link ChunkSink}
+ *
+ * 单个文件解析失败只跳过该文件；向量化失败会中止整个流水线并抛出异常。
+ */
+@Slf4j
+public class PdfIngestionPipeline {
+
+    /** 默认切分参数，与 TokenTextSplitter 的默认值相同，写在这里以便记入 {@link #splitterKey()} */
+    private static final int DEFAULT_CHUNK_SIZE = 800;
+    private static final int DEFAULT_MIN_CHUNK_SIZE_CHARS = 350;
+    private static final int DEFAULT_MIN_CHUNK_LENGTH_TO_EMBED = 5;
+    private static final int DEFAULT_MAX_NUM_CHUNKS = 10000;
+    private static final boolean DEFAULT_KEEP_SEPARATOR = true;
+
+    /** 队列结束标记 */
+    private static final SourcedDocument END = new SourcedDocument(null, null);
+
+    private final PagePdfDocumentReader pagePdfDocumentReader;
+
+    private final int parseThreads;
+
+    private final int queueCapacity;
+
+    private final int embedBatchSize;
+
+    private final TextSplitter textSplitter;
+
+    private final String splitterKey;
+
+    private PdfIngestionPipeline(Builder builder) {
+        this.pagePdfDocumentReader = builder.pagePdfDocumentReader;
+        this.parseThreads = builder.parseThreads;
+        this.queueCapacity = builder.queueCapacity;
+        this.embedBatchSize = builder.embedBatchSize;
+        this.textSplitter = builder.textSplitter;
+        this.splitterKey = builder.splitterKey;
+    }
+
+    public static Builder builder(PagePdfDocumentReader pagePdfDocumentReader) {
+        return new Builder(pagePdfDocumentReader);
+    }
+
+    /**
+     * 切分器及其参数的标识，切分结果相同时标识相同；向量索引文件据此判断已保存的切片是否还能复用
+     */
+    public String splitterKey() {
+        return splitterKey;
+    }
+
+    /**
+     * 接收向量化完成的切片，只会在向量化线程中被调用
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+
+        void accept(String source, EmbeddedChunk chunk);
+    }
+
+    /**
+     * 单个阶段的统计
+     *
+     * @param stage 阶段名
+     * @param items 输出的条目数（页、切片或向量）
+     * @param busyNanos 处理耗时（多线程阶段为各线程之和）
+     * @param blockedNanos 等待上游或被下游阻塞的耗时
+     */
+    public record StageStats(String stage, long items, long busyNanos, long blockedNanos) {
+
+        public double throughputPerSecond(long wallNanos) {
+            return wallNanos == 0 ? 0 : items * 1e9 / wallNanos;
+        }
+    }
+
+    /**
+     * 一次入库的结果
+     *
+     * @param files 成功解析的文件数
+     * @param failedSources 解析失败的文件
+     * @param wallNanos 总耗时
+     * @param stages 各阶段统计
+     */
+    public record IngestionReport(int files, Set<String> failedSources, long wallNanos, List<StageStats> stages) {
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("ingested %d files in %d ms", files, TimeUnit.NANOSECONDS.toMillis(wallNanos)));
+            for (StageStats stats : stages) {
+                sb.append(String.format("; %s: %d items, %.1f/s, busy %d ms, blocked %d ms",
+                        stats.stage(), stats.items(), stats.throughputPerSecond(wallNanos),
+                        TimeUnit.NANOSECONDS.toMillis(stats.busyNanos()),
+                        TimeUnit.NANOSECONDS.toMillis(stats.blockedNanos())));
+            }
+            if (!failedSources.isEmpty()) {
+                sb.append("; failed: ").append(failedSources);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 对给定的 PDF 执行完整的入库流水线，阻塞直到全部完成
+     *
+     * @param resources 需要入库的 PDF
+     * @param embeddingModel 向量模型
+     * @param sink 向量化结果的接收者
+     * @return 各阶段统计
+     */
+    public IngestionReport run(List<Resource> resources, EmbeddingModel embeddingModel, ChunkSink sink) {
+        long start = System.nanoTime();
+        Run run = new Run();
+        if (resources.isEmpty()) {
+            return run.report(0, System.nanoTime() - start);
+        }
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        ExecutorService parsePool = Executors.newFixedThreadPool(Math.min(parseThreads, resources.size()), runnable -> {
+            Thread thread = new Thread(runnable, "pdf-parse-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ExecutorService stagePool = Executors.newFixedThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "pdf-ingest-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<CompletableFuture<Void>> parseTasks = new ArrayList<>(resources.size());
+            for (Resource resource : resources) {
+                parseTasks.add(CompletableFuture.runAsync(() -> run.parse(resource), parsePool));
+            }
+            // 所有文件解析完后向切分阶段发送结束标记
+            CompletableFuture<Void> parsed = CompletableFuture.allOf(parseTasks.toArray(CompletableFuture[]::new))
+                    .whenComplete((ignored, error) -> run.putQuietly(run.pages, END));
+            CompletableFuture<Void> chunked = CompletableFuture.runAsync(run::chunk, stagePool);
+            CompletableFuture<Void> embedded = CompletableFuture.runAsync(
+                    () -> run.embed(embeddingModel, sink), stagePool);
+            // 任一阶段失败立即中止，避免其他阶段阻塞在已无人消费的队列上
+            for (CompletableFuture<Void> stage : List.of(parsed, chunked, embedded)) {
+                stage.whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        run.abort(error);
+                    }
+                });
+            }
+
+            CompletableFuture.allOf(parsed, chunked, embedded).join();
+        } catch (CompletionException e) {
+            run.abort(e.getCause());
+        } finally {
+            parsePool.shutdownNow();
+            stagePool.shutdownNow();
+        }
+
+        Throwable failure = run.failure.get();
+        if (failure != null) {
+            throw failure instanceof RuntimeException runtimeException
+                    ? runtimeException
+                    : new IllegalStateException("PDF ingestion failed", failure);
+        }
+        IngestionReport report = run.report(resources.size(), System.nanoTime() - start);
+        log.info("PDF ingestion pipeline: {}", report);
+        return report;
+    }
+
+    /**
+     * 一次流水线执行的队列和统计
+     */
+    private final class Run {
+
+        private final BlockingQueue<SourcedDocument> pages = new ArrayBlockingQueue<>(queueCapacity);
+
+        private final BlockingQueue<SourcedDocument> chunks = new ArrayBlockingQueue<>(queueCapacity);
+
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private final Set<String> failedSources = Collections.synchronizedSet(new HashSet<>());
+
+        private final LongAdder parsedPages = new LongAdder();
+        private final LongAdder parseBusyNanos = new LongAdder();
+        private final LongAdder parseBlockedNanos = new LongAdder();
+
+        private long chunkCount;
+        private long chunkBusyNanos;
+        private long chunkBlockedNanos;
+
+        private long embeddedCount;
+        private long embedBusyNanos;
+        private long embedBlockedNanos;
+
+        void parse(Resource resource) {
+            if (failure.get() != null) {
+                return;
+            }
+            String source = resource.getFilename();
+            long start = System.nanoTime();
+            List<Document> documents;
+            try {
+                documents = pagePdfDocumentReader.readPdf(resource);
+            } catch (RuntimeException e) {
+                log.error("Error parsing PDF document {}", source, e);
+                failedSources.add(source);
+                return;
+            } finally {
+                parseBusyNanos.add(System.nanoTime() - start);
+            }
+            for (Document document : documents) {
+                long blockedStart = System.nanoTime();
+                put(pages, new SourcedDocument(source, document));
+                parseBlockedNanos.add(System.nanoTime() - blockedStart);
+                parsedPages.increment();
+            }
+        }
+
+        void chunk() {
+            try {
+                while (true) {
+                    long blockedStart = System.nanoTime();
+                    SourcedDocument page = take(pages);
+                    chunkBlockedNanos += System.nanoTime() - blockedStart;
+                    if (page == END) {
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    List<Document> split = textSplitter.apply(List.of(page.document()));
+                    chunkBusyNanos += System.nanoTime() - start;
+                    for (Document chunk : split) {
+                        blockedStart = System.nanoTime();
+                        put(chunks, new SourcedDocument(page.source(), chunk));
+                        chunkBlockedNanos += System.nanoTime() - blockedStart;
+                        chunkCount++;
+                    }
+                }
+            } finally {
+                putQuietly(chunks, END);
+            }
+        }
+
+        void embed(EmbeddingModel embeddingModel, ChunkSink sink) {
+            List<SourcedDocument> batch = new ArrayList<>(embedBatchSize);
+            boolean finished = false;
+            while (!finished) {
+                long blockedStart = System.nanoTime();
+                SourcedDocument first = take(chunks);
+                if (first == END) {
+                    break;
+                }
+                batch.add(first);
+                // 已在队列中的切片直接凑成一批，不等待凑满
+                while (batch.size() < embedBatchSize) {
+                    SourcedDocument next = chunks.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    if (next == END) {
+                        finished = true;
+                        break;
+                    }
+                    batch.add(next);
+                }
+                embedBlockedNanos += System.nanoTime() - blockedStart;
+
+                long start = System.nanoTime();
+                List<String> texts = batch.stream()
+                        .map(item -> item.document().getFormattedContent(MetadataMode.EMBED))
+                        .toList();
+                List<float[]> embeddings = embeddingModel.embed(texts);
+                for (int i = 0; i < batch.size(); i++) {
+                    SourcedDocument item = batch.get(i);
+                    sink.accept(item.source(), EmbeddedChunk.of(item.document(), embeddings.get(i)));
+                }
+                embedBusyNanos += System.nanoTime() - start;
+                embeddedCount += batch.size();
+                batch.clear();
+            }
+        }
+
+        /**
+         * 某个阶段失败时记录原因，其余阶段在下次读写队列时退出
+         */
+        void abort(Throwable cause) {
+            Throwable error = cause instanceof CompletionException && cause.getCause() != null
+                    ? cause.getCause()
+                    : cause;
+            failure.compareAndSet(null, error);
+        }
+
+        private void put(BlockingQueue<SourcedDocument> queue, SourcedDocument item) {
+            try {
+                while (!queue.offer(item, 50, TimeUnit.MILLISECONDS)) {
+                    checkNotAborted();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("PDF ingestion interrupted");
+            }
+        }
+
+        private SourcedDocument take(BlockingQueue<SourcedDocument> queue) {
+            try {
+                SourcedDocument item;
+                while ((item = queue.poll(50, TimeUnit.MILLISECONDS)) == null) {
+                    checkNotAborted();
+                }
+                return item;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("PDF ingestion interrupted");
+            }
+        }
+
+        /**
+         * 发送结束标记；流水线已中止时下游不再消费，放弃发送
+         */
+        private void putQuietly(BlockingQueue<SourcedDocument> queue, SourcedDocument item) {
+            try {
+                put(queue, item);
+            } catch (CancellationException ignored) {
+                // 流水线已中止
+            }
+        }
+
+        private void checkNotAborted() {
+            if (failure.get() != null) {
+                throw new CancellationException("PDF ingestion aborted");
+            }
+        }
+
+        IngestionReport report(int files, long wallNanos) {
+            List<StageStats> stages = List.of(
+                    new StageStats("parse", parsedPages.sum(), parseBusyNanos.sum(), parseBlockedNanos.sum()),
+                    new StageStats("chunk", chunkCount, chunkBusyNanos, chunkBlockedNanos),
+                    new StageStats("embed", embeddedCount, embedBusyNanos, embedBlockedNanos));
+            return new IngestionReport(files - failedSources.size(), Set.copyOf(failedSources), wallNanos, stages);
+        }
+    }
+
+    private record SourcedDocument(String source, Document document) {
+    }
+
+    public static final class Builder {
+
+        private final PagePdfDocumentReader pagePdfDocumentReader;
+
+        private int parseThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+        private int queueCapacity = 64;
+
+        private int embedBatchSize = 10;
+
+        private TextSplitter textSplitter = new TokenTextSplitter(DEFAULT_CHUNK_SIZE, DEFAULT_MIN_CHUNK_SIZE_CHARS,
+                DEFAULT_MIN_CHUNK_LENGTH_TO_EMBED, DEFAULT_MAX_NUM_CHUNKS, DEFAULT_KEEP_SEPARATOR);
+
+        private String splitterKey = "TokenTextSplitter(chunkSize=" + DEFAULT_CHUNK_SIZE
+                + ",minChunkSizeChars=" + DEFAULT_MIN_CHUNK_SIZE_CHARS
+                + ",minChunkLengthToEmbed=" + DEFAULT_MIN_CHUNK_LENGTH_TO_EMBED
+                + ",maxNumChunks=" + DEFAULT_MAX_NUM_CHUNKS
+                + ",keepSeparator=" + DEFAULT_KEEP_SEPARATOR + ")";
+
+        private Builder(PagePdfDocumentReader pagePdfDocumentReader) {
+            this.pagePdfDocumentReader = pagePdfDocumentReader;
+        }
+
+        /**
+         * 并行解析 PDF 的线程数
+         */
+        public Builder parseThreads(int parseThreads) {
+            this.parseThreads = Math.max(1, parseThreads);
+            return this;
+        }
+
+        /**
+         * 页队列和切片队列的容量，决定在途数据的上限
+         */
+        public Builder queueCapacity(int queueCapacity) {
+            this.queueCapacity = Math.max(1, queueCapacity);
+            return this;
+        }
+
+        /**
+         * 单次向量化请求的最大切片数
+         */
+        public Builder embedBatchSize(int embedBatchSize) {
+            this.embedBatchSize = Math.max(1, embedBatchSize);
+            return this;
+        }
+
+        /**
+         * 切分器，标识为切分器的类名；参数不同的同类切分器请使用 {@link #textSplitter(TextSplitter, String)}
+         */
+        public Builder textSplitter(TextSplitter textSplitter) {
+            return textSplitter(textSplitter, textSplitter.getClass().getName());
+        }
+
+        /**
+         * 切分器及其标识，标识应包含影响切分结果的全部参数，修改参数时标识随之变化
+         */
+        public Builder textSplitter(TextSplitter textSplitter, String splitterKey) {
+            this.textSplitter = textSplitter;
+            this.splitterKey = splitterKey;
+            return this;
+        }
+
+        public PdfIngestionPipeline build() {
+            Assert.notNull(textSplitter, "textSplitter cannot be null");
+            Assert.hasText(splitterKey, "splitterKey cannot be empty");
+            return new PdfIngestionPipeline(this);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.shiboaiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.lang.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 持久化的向量索引文件
+ *
+ * 以 PDF 文件内容的哈希为键，保存该文件切分出的所有文档（ID、文本、元数据）及其向量。
+ * 启动时内容哈希未变的 PDF 直接从磁盘加载，不再解析和调用向量模型。
+ *
+ * 同一个 PDF 换了向量模型或切分参数后，保存的切片和向量就不能再用了：文件头记录生成索引时的
+ * 向量模型和切分参数（fingerprint），加载时与当前配置不一致则整个索引作废，全部重新向量化。
+ *
+ * 文件格式（大端二进制）：
+ * [int 魔数][int 版本][字符串 fingerprint][int 来源数量]
+ *   来源：[字符串 来源名][字符串 内容哈希][int 文档数量]
+ *     文档：[字符串 ID][字符串 文本][int 元数据数量][元数据...][int 维度][float...]
+ * 字符串统一为 [int 字节数][UTF-8 字节]
+ */
+@Slf4j
+public class PersistentEmbeddingIndex {
+
+    private static final int MAGIC = 0x53424549;
+
+    private static final int VERSION = 2;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+
+    private final Path file;
+
+    /** 向量模型和切分参数的标识 */
+    private final String fingerprint;
+
+    /** 来源名 -> 该来源的内容哈希和向量化结果 */
+    private final Map<String, SourceEntry> sources = new LinkedHashMap<>();
+
+    /**
+     * 已向量化的文档
+     *
+     * @param id 文档ID
+     * @param text 文档文本
+     * @param metadata 文档元数据
+     * @param embedding 文档向量
+     */
+    public record EmbeddedChunk(String id, String text, Map<String, Object> metadata, float[] embedding) {
+
+        public static EmbeddedChunk of(Document document, float[] embedding) {
+            return new EmbeddedChunk(document.getId(), document.getText(), document.getMetadata(), embedding);
+        }
+
+        public Document toDocument() {
+            return Document.builder().id(id).text(text).metadata(new HashMap<>(metadata)).build();
+        }
+    }
+
+    private record SourceEntry(String contentHash, List<EmbeddedChunk> chunks) {
+    }
+
+    private PersistentEmbeddingIndex(Path file, String fingerprint) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * 加载索引文件；文件不存在、损坏或 fingerprint 不一致时返回空索引
+     *
+     * @param file 索引文件
+     * @param fingerprint 当前的向量模型和切分参数标识，例如 "model=text-embedding-v1;splitter=..."
+     */
+    public static PersistentEmbeddingIndex load(Path file, String fingerprint) {
+        PersistentEmbeddingIndex index = new PersistentEmbeddingIndex(file, fingerprint);
+        if (!Files.exists(file)) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Ignoring embedding index {} with unknown format", file);
+                return index;
+            }
+            String savedFingerprint = readString(in);
+            if (!savedFingerprint.equals(fingerprint)) {
+                log.warn("Ignoring embedding index {} built with [{}], current configuration is [{}]",
+                        file, savedFingerprint, fingerprint);
+                return index;
+            }
+            int sourceCount = in.readInt();
+            for (int s = 0; s < sourceCount; s++) {
+                String source = readString(in);
+                String contentHash = readString(in);
+                int chunkCount = in.readInt();
+                List<EmbeddedChunk> chunks = new ArrayList<>(chunkCount);
+                for (int c = 0; c < chunkCount; c++) {
+                    chunks.add(readChunk(in));
+                }
+                index.sources.put(source, new SourceEntry(contentHash, chunks));
+            }
+            log.info("Loaded embedding index {} with {} sources", file, index.sources.size());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to load embedding index {}, rebuilding from scratch", file, e);
+            index.sources.clear();
+        }
+        return index;
+    }
+
+    /**
+     * 查找来源的向量化结果，内容哈希不一致时视为未命中
+     *
+     * @return 命中时返回已向量化的文档，未命中返回 null
+     */
+    @Nullable
+    public List<EmbeddedChunk> get(String source, String contentHash) {
+        SourceEntry entry = sources.get(source);
+        if (entry == null || !entry.contentHash().equals(contentHash)) {
+            return null;
+        }
+        return entry.chunks();
+    }
+
+    public void put(String source, String contentHash, List<EmbeddedChunk> chunks) {
+        sources.put(source, new SourceEntry(contentHash, List.copyOf(chunks)));
+    }
+
+    /**
+     * 移除不在给定集合中的来源（对应的 PDF 已被删除）
+     */
+    public void retainSources(Set<String> liveSources) {
+        sources.keySet().retainAll(liveSources);
+    }
+
+    /**
+     * 写入临时文件后原子替换，写入过程中崩溃不会破坏已有索引
+     */
+    public void save() throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, fingerprint);
+            out.writeInt(sources.size());
+            for (Map.Entry<String, SourceEntry> entry : sources.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue().contentHash());
+                out.writeInt(entry.getValue().chunks().size());
+                for (EmbeddedChunk chunk : entry.getValue().chunks()) {
+                    writeChunk(out, chunk);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 计算内容的 SHA-256 哈希
+     */
+    public static String contentHash(InputStream inputStream) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static EmbeddedChunk readChunk(DataInputStream in) throws IOException {
+        String id = readString(in);
+        String text = readString(in);
+        int metadataCount = in.readInt();
+        Map<String, Object> metadata = new HashMap<>(metadataCount * 2);
+        for (int m = 0; m < metadataCount; m++) {
+            String key = readString(in);
+            byte type = in.readByte();
+            Object value = switch (type) {
+                case TYPE_INT -> in.readInt();
+                case TYPE_LONG -> in.readLong();
+                case TYPE_DOUBLE -> in.readDouble();
+                case TYPE_FLOAT -> in.readFloat();
+                case TYPE_BOOLEAN -> in.readBoolean();
+                default -> readString(in);
+            };
+            metadata.put(key, value);
+        }
+        int dimensions = in.readInt();
+        float[] embedding = new float[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            embedding[d] = in.readFloat();
+        }
+        return new EmbeddedChunk(id, text, metadata, embedding);
+    }
+
+    private static void writeChunk(DataOutputStream out, EmbeddedChunk chunk) throws IOException {
+        writeString(out, chunk.id());
+        writeString(out, chunk.text());
+        out.writeInt(chunk.metadata().size());
+        for (Map.Entry<String, Object> entry : chunk.metadata().entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Integer i) {
+                out.writeByte(TYPE_INT);
+                out.writeInt(i);
+            } else if (value instanceof Long l) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong(l);
+            } else if (value instanceof Double d) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(d);
+            } else if (value instanceof Float f) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat(f);
+            } else if (value instanceof Boolean b) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean(b);
+            } else {
+                // 其他类型按字符串保存
+                out.writeByte(TYPE_STRING);
+                writeString(out, String.valueOf(value));
+            }
+        }
+        out.writeInt(chunk.embedding().length);
+        for (float v : chunk.embedding()) {
+            out.writeFloat(v);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
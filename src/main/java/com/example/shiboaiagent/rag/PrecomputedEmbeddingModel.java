@@ -0,0 +1,96 @@
+package com.example.shiboaiagent.rag;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.lang.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 带预计算向量的 EmbeddingModel（装饰器）
+ *
+ * 向量库在 add 文档时会调用 EmbeddingModel 计算向量；对于已经从持久化索引中加载了向量的文档，
+ * 这里按文档ID直接返回已有向量，不再请求向量模型。查询文本等其他请求仍交给被装饰的模型处理。
+ */
+public class PrecomputedEmbeddingModel implements EmbeddingModel {
+
+    /** 被装饰的向量模型 */
+    private final EmbeddingModel delegate;
+
+    /** 文档ID -> 预计算的向量 */
+    private final Map<String, float[]> embeddingsByDocumentId = new ConcurrentHashMap<>();
+
+    public PrecomputedEmbeddingModel(EmbeddingModel delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 登记文档的预计算向量
+     */
+    public void register(String documentId, float[] embedding) {
+        embeddingsByDocumentId.put(documentId, embedding);
+    }
+
+    /**
+     * 清除已登记的向量，文档加入向量库后即可释放
+     */
+    public void clear() {
+        embeddingsByDocumentId.clear();
+    }
+
+    @Override
+    @NonNull
+    public EmbeddingResponse call(@NonNull EmbeddingRequest request) {
+        return delegate.call(request);
+    }
+
+    @Override
+    @NonNull
+    public float[] embed(@NonNull String text) {
+        // 查询文本直接交给被装饰的模型，使其 embed(String) 上的缓存生效
+        return delegate.embed(text);
+    }
+
+    @Override
+    @NonNull
+    public float[] embed(@NonNull Document document) {
+        float[] embedding = embeddingsByDocumentId.get(document.getId());
+        return embedding != null ? embedding : delegate.embed(document);
+    }
+
+    @Override
+    @NonNull
+    public List<float[]> embed(@NonNull List<Document> documents, @NonNull EmbeddingOptions options,
+                               @NonNull BatchingStrategy batchingStrategy) {
+        // 只把没有预计算向量的文档交给被装饰的模型，结果按原顺序合并
+        List<Document> missing = new ArrayList<>();
+        for (Document document : documents) {
+            if (!embeddingsByDocumentId.containsKey(document.getId())) {
+                missing.add(document);
+            }
+        }
+        List<float[]> computed = missing.isEmpty()
+                ? List.of()
+                : delegate.embed(missing, options, batchingStrategy);
+
+        List<float[]> embeddings = new ArrayList<>(documents.size());
+        int next = 0;
+        for (Document document : documents) {
+            float[] embedding = embeddingsByDocumentId.get(document.getId());
+            embeddings.add(embedding != null ? embedding : computed.get(next++));
+        }
+        return embeddings;
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
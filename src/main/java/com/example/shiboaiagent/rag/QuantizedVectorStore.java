@@ -0,0 +1,649 @@
+package com.example.shiboaiagent.rag;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 量化向量库：内存中只保存 int8 或二值量化后的向量，全精度向量保存在磁盘文件中
+ *
+ * SimpleVectorStore 为每个切片在堆上保存完整的 float 向量，语料增长后向量占据了大部分堆内存。
+ * 这里把归一化后的向量量化后连续存放在一个基本类型数组中：
+ * - INT8：每维 1 字节，按第一批向量 99.9 分位的绝对值确定全局缩放系数，内存为 float 的 1/4
+ * - BINARY：每维 1 比特（相对第一批向量的均值取符号），内存为 float 的 1/32
+ *
+ * 检索分两步：先用量化向量（int8 点积或汉明距离）扫描全部向量，取 topK × oversampling 个候选；
+ * 再从磁盘读取候选的全精度向量精确计算余弦相似度重新排序，返回的分数与 SimpleVectorStore 一致。
+ * 过滤表达式与 SimpleVectorStore 相同（转换为 SpEL 后对 metadata 求值）。
+ *
+ * 量化参数只在第一次写入时校准，之后写入的向量超出范围的分量会被截断，依靠重排序弥补精度。
+ * 相同ID再次写入视为更新，旧向量在磁盘文件中的位置不会回收，重建向量库时才会释放。
+ */
+@Slf4j
+public class QuantizedVectorStore implements VectorStore, AutoCloseable {
+
+    /**
+     * 量化方式
+     */
+    public enum Encoding {
+        /** 标量量化，每维 1 字节 */
+        INT8,
+        /** 二值量化，每维 1 比特 */
+        BINARY
+    }
+
+    /** INT8 校准时使用的分位数，忽略少量离群分量以提高其余分量的精度 */
+    private static final double CALIBRATION_QUANTILE = 0.999;
+
+    private final EmbeddingModel embeddingModel;
+
+    private final Encoding encoding;
+
+    private final int oversampling;
+
+    private final Path vectorFile;
+
+    private final boolean deleteOnClose;
+
+    private final FileChannel channel;
+
+    /** 第一次写入时按向量维度确定 */
+    private int dimensions = -1;
+
+    /** INT8：量化值 = round(分量 × scale) */
+    private float int8Scale;
+
+    private byte[] int8Codes = new byte[0];
+
+    /** BINARY：每个向量占用的 long 个数 */
+    private int words;
+
+    /** BINARY：取符号前减去的中心向量 */
+    private float[] center;
+
+    private long[] binaryCodes = new long[0];
+
+    /** 已分配的节点数（包括已删除的） */
+    private int nodes;
+
+    private int liveSize;
+
+    /** 节点编号 -> 文档，已删除的节点置为 null */
+    private final List<StoredDocument> documents = new ArrayList<>();
+
+    /** 文档ID -> 节点编号 */
+    private final Map<String, Integer> nodeById = new HashMap<>();
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final FilterExpressionConverter filterExpressionConverter = new SimpleVectorStoreFilterExpressionConverter();
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+    private QuantizedVectorStore(Builder builder, FileChannel channel) {
+        this.embeddingModel = builder.embeddingModel;
+        this.encoding = builder.encoding;
+        this.oversampling = builder.oversampling;
+        this.vectorFile = builder.vectorFile;
+        this.deleteOnClose = builder.deleteOnClose;
+        this.channel = channel;
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    /**
+     * 内存占用统计
+     *
+     * @param vectors 已分配的向量数（包括已删除的）
+     * @param quantizedBytes 内存中量化向量占用的字节数
+     * @param fullPrecisionBytes 同样的向量以 float 保存需要的字节数
+     */
+    public record MemoryStats(int vectors, long quantizedBytes, long fullPrecisionBytes) {
+
+        /** 相对全精度向量的压缩倍数 */
+        public double compressionRatio() {
+            return quantizedBytes == 0 ? 0 : (double) fullPrecisionBytes / quantizedBytes;
+        }
+    }
+
+    public MemoryStats memoryStats() {
+        lock.readLock().lock();
+        try {
+            if (dimensions < 0) {
+                return new MemoryStats(0, 0, 0);
+            }
+            long bytesPerVector = encoding == Encoding.INT8 ? dimensions : (long) words * Long.BYTES;
+            return new MemoryStats(nodes, bytesPerVector * nodes, (long) dimensions * Float.BYTES * nodes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(@NonNull List<Document> documentList) {
+        if (documentList.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = new ArrayList<>(documentList.size());
+        for (Document document : documentList) {
+            embeddings.add(normalize(embeddingModel.embed(document)));
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (dimensions < 0) {
+                calibrate(embeddings);
+            }
+            ensureCapacity(nodes + documentList.size());
+            for (int i = 0; i < documentList.size(); i++) {
+                Document document = documentList.get(i);
+                float[] vector = embeddings.get(i);
+                Assert.isTrue(vector.length == dimensions,
+                        "Expected " + dimensions + " dimensions but got " + vector.length);
+                // 相同ID的文档视为更新：旧节点打删除标记
+                Integer previous = nodeById.remove(document.getId());
+                if (previous != null) {
+                    removeNode(previous);
+                }
+                int node = nodes++;
+                encode(node, vector);
+                writeVector(node, vector);
+                documents.add(new StoredDocument(document.getId(), document.getText(), document.getMetadata()));
+                nodeById.put(document.getId(), node);
+                liveSize++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.debug("Added {} documents to {} quantized vector store", documentList.size(), encoding);
+    }
+
+    @Override
+    public void delete(@NonNull List<String> idList) {
+        lock.writeLock().lock();
+        try {
+            for (String id : idList) {
+                Integer node = nodeById.remove(id);
+                if (node != null) {
+                    removeNode(node);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(@NonNull Filter.Expression filterExpression) {
+        Expression expression = parseFilter(filterExpression);
+        lock.writeLock().lock();
+        try {
+            for (int node = 0; node < documents.size(); node++) {
+                StoredDocument document = documents.get(node);
+                if (document != null && matches(expression, document)) {
+                    nodeById.remove(document.id());
+                    removeNode(node);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    @NonNull
+    public List<Document> similaritySearch(@NonNull SearchRequest request) {
+        if (size() == 0) {
+            return List.of();
+        }
+        float[] query = normalize(embeddingModel.embed(request.getQuery()));
+        Expression expression = request.hasFilterExpression() ? parseFilter(request.getFilterExpression()) : null;
+
+        lock.readLock().lock();
+        try {
+            Assert.isTrue(query.length == dimensions,
+                    "Expected " + dimensions + " dimensions but got " + query.length);
+            int topK = request.getTopK();
+            CandidateHeap candidates = scan(query, Math.min(liveSize, topK * oversampling), expression);
+
+            // 用磁盘上的全精度向量重新打分
+            int[] candidateNodes = candidates.nodes();
+            float[] exactScores = new float[candidateNodes.length];
+            ByteBuffer buffer = ByteBuffer.allocate(dimensions * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < candidateNodes.length; i++) {
+                exactScores[i] = dot(query, readVector(candidateNodes[i], buffer));
+            }
+            Integer[] order = new Integer[candidateNodes.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(exactScores[b], exactScores[a]));
+
+            List<Document> hits = new ArrayList<>(Math.min(topK, order.length));
+            for (int i = 0; i < order.length && hits.size() < topK; i++) {
+                float score = exactScores[order[i]];
+                if (score < request.getSimilarityThreshold()) {
+                    break;
+                }
+                hits.add(documents.get(candidateNodes[order[i]]).toDocument(score));
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 当前未删除的文档数量
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return liveSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 全精度向量文件的位置
+     */
+    Path vectorFile() {
+        return vectorFile;
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            channel.close();
+            if (deleteOnClose) {
+                Files.deleteIfExists(vectorFile);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close vector file {}", vectorFile, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ---------------------------------------------------------------- 量化
+
+    /**
+     * 用第一批向量确定量化参数
+     */
+    private void calibrate(List<float[]> embeddings) {
+        dimensions = embeddings.get(0).length;
+        if (encoding == Encoding.INT8) {
+            float[] magnitudes = new float[embeddings.size() * dimensions];
+            int i = 0;
+            for (float[] vector : embeddings) {
+                for (int d = 0; d < dimensions && d < vector.length; d++) {
+                    magnitudes[i++] = Math.abs(vector[d]);
+                }
+            }
+            Arrays.sort(magnitudes, 0, i);
+            float bound = i == 0 ? 1f : magnitudes[(int) Math.min(i - 1, Math.round((i - 1) * CALIBRATION_QUANTILE))];
+            int8Scale = 127f / Math.max(bound, 1e-6f);
+        } else {
+            words = (dimensions + Long.SIZE - 1) / Long.SIZE;
+            center = new float[dimensions];
+            for (float[] vector : embeddings) {
+                for (int d = 0; d < dimensions && d < vector.length; d++) {
+                    center[d] += vector[d] / embeddings.size();
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        int capacity = encoding == Encoding.INT8 ? int8Codes.length / dimensions : binaryCodes.length / words;
+        if (required <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(required, Math.max(16, capacity * 2));
+        if (encoding == Encoding.INT8) {
+            int8Codes = Arrays.copyOf(int8Codes, newCapacity * dimensions);
+        } else {
+            binaryCodes = Arrays.copyOf(binaryCodes, newCapacity * words);
+        }
+    }
+
+    private void encode(int node, float[] vector) {
+        if (encoding == Encoding.INT8) {
+            quantizeInt8(vector, int8Codes, node * dimensions);
+        } else {
+            quantizeBinary(vector, binaryCodes, node * words);
+        }
+    }
+
+    private void quantizeInt8(float[] vector, byte[] target, int offset) {
+        for (int d = 0; d < dimensions; d++) {
+            int code = Math.round(vector[d] * int8Scale);
+            target[offset + d] = (byte) Math.max(-127, Math.min(127, code));
+        }
+    }
+
+    private void quantizeBinary(float[] vector, long[] target, int offset) {
+        for (int d = 0; d < dimensions; d++) {
+            if (vector[d] > center[d]) {
+                target[offset + (d >>> 6)] |= 1L << (d & 63);
+            }
+        }
+    }
+
+    /**
+     * 用量化向量扫描全部节点，保留近似分数最高的 limit 个候选
+     */
+    private CandidateHeap scan(float[] query, int limit, Expression expression) {
+        CandidateHeap heap = new CandidateHeap(Math.max(limit, 1));
+        if (encoding == Encoding.INT8) {
+            byte[] queryCodes = new byte[dimensions];
+            quantizeInt8(query, queryCodes, 0);
+            for (int node = 0; node < nodes; node++) {
+                if (documents.get(node) == null) {
+                    continue;
+                }
+                int base = node * dimensions;
+                int sum = 0;
+                for (int d = 0; d < dimensions; d++) {
+                    sum += queryCodes[d] * int8Codes[base + d];
+                }
+                offer(heap, node, sum, expression);
+            }
+        } else {
+            long[] queryCodes = new long[words];
+            quantizeBinary(query, queryCodes, 0);
+            for (int node = 0; node < nodes; node++) {
+                if (documents.get(node) == null) {
+                    continue;
+                }
+                int base = node * words;
+                int hamming = 0;
+                for (int w = 0; w < words; w++) {
+                    hamming += Long.bitCount(queryCodes[w] ^ binaryCodes[base + w]);
+                }
+                offer(heap, node, -hamming, expression);
+            }
+        }
+        return heap;
+    }
+
+    /**
+     * 只有能进入候选集的节点才计算过滤表达式，SpEL 求值比量化点积昂贵得多
+     */
+    private void offer(CandidateHeap heap, int node, float score, Expression expression) {
+        if (!heap.accepts(score)) {
+            return;
+        }
+        if (expression != null && !matches(expression, documents.get(node))) {
+            return;
+        }
+        heap.offer(node, score);
+    }
+
+    // ---------------------------------------------------------------- 全精度向量文件
+
+    private void writeVector(int node, float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(dimensions * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        long position = (long) node * dimensions * Float.BYTES;
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write vector file " + vectorFile, e);
+        }
+    }
+
+    private float[] readVector(int node, ByteBuffer buffer) {
+        buffer.clear();
+        long position = (long) node * dimensions * Float.BYTES;
+        try {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of vector file");
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read vector file " + vectorFile, e);
+        }
+        buffer.flip();
+        float[] vector = new float[dimensions];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    // ---------------------------------------------------------------- 工具方法
+
+    private void removeNode(int node) {
+        documents.set(node, null);
+        liveSize--;
+    }
+
+    private Expression parseFilter(Filter.Expression filterExpression) {
+        return expressionParser.parseExpression(filterExpressionConverter.convertExpression(filterExpression));
+    }
+
+    private static boolean matches(Expression expression, StoredDocument document) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("metadata", document.metadata());
+        return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+    }
+
+    /**
+     * 归一化后的副本，点积即余弦相似度
+     */
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = Arrays.copyOf(vector, vector.length);
+        if (norm == 0) {
+            return normalized;
+        }
+        float inverse = (float) (1 / Math.sqrt(norm));
+        for (int d = 0; d < normalized.length; d++) {
+            normalized[d] *= inverse;
+        }
+        return normalized;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int d = 0; d < a.length; d++) {
+            sum += a[d] * b[d];
+        }
+        return sum;
+    }
+
+    /**
+     * 固定容量的小顶堆，保留分数最高的节点
+     */
+    private static final class CandidateHeap {
+
+        private final int[] heapNodes;
+
+        private final float[] heapScores;
+
+        private int size;
+
+        CandidateHeap(int capacity) {
+            this.heapNodes = new int[capacity];
+            this.heapScores = new float[capacity];
+        }
+
+        boolean accepts(float score) {
+            return size < heapNodes.length || score > heapScores[0];
+        }
+
+        void offer(int node, float score) {
+            if (size < heapNodes.length) {
+                heapNodes[size] = node;
+                heapScores[size] = score;
+                siftUp(size++);
+            } else {
+                heapNodes[0] = node;
+                heapScores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        int[] nodes() {
+            return Arrays.copyOf(heapNodes, size);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapScores[parent] <= heapScores[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && heapScores[left] < heapScores[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && heapScores[right] < heapScores[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int node = heapNodes[a];
+            heapNodes[a] = heapNodes[b];
+            heapNodes[b] = node;
+            float score = heapScores[a];
+            heapScores[a] = heapScores[b];
+            heapScores[b] = score;
+        }
+    }
+
+    /**
+     * 向量库中保存的文档内容，向量本身以量化形式保存在数组中
+     */
+    private record StoredDocument(String id, String text, Map<String, Object> metadata) {
+
+        Document toDocument(float score) {
+            Map<String, Object> resultMetadata = new HashMap<>(metadata);
+            resultMetadata.put(DocumentMetadata.DISTANCE.value(), 1 - score);
+            return Document.builder()
+                    .id(id)
+                    .text(text)
+                    .metadata(resultMetadata)
+                    .score((double) score)
+                    .build();
+        }
+    }
+
+    public static final class Builder {
+
+        private final EmbeddingModel embeddingModel;
+
+        private Encoding encoding = Encoding.INT8;
+
+        private int oversampling;
+
+        private Path vectorFile;
+
+        private boolean deleteOnClose;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+        }
+
+        /**
+         * 量化方式，默认 INT8
+         */
+        public Builder encoding(Encoding encoding) {
+            this.encoding = encoding;
+            return this;
+        }
+
+        /**
+         * 重排序的候选倍数：取 topK × oversampling 个候选用全精度向量重新打分。
+         * 默认 INT8 为 4，BINARY 为 10
+         */
+        public Builder oversampling(int oversampling) {
+            this.oversampling = oversampling;
+            return this;
+        }
+
+        /**
+         * 全精度向量文件，打开时清空；不指定时使用临时文件并在关闭时删除
+         */
+        public Builder vectorFile(Path vectorFile) {
+            this.vectorFile = vectorFile;
+            return this;
+        }
+
+        public QuantizedVectorStore build() {
+            Assert.notNull(embeddingModel, "embeddingModel cannot be null");
+            Assert.notNull(encoding, "encoding cannot be null");
+            Assert.isTrue(oversampling >= 0, "oversampling must not be negative");
+            if (oversampling == 0) {
+                oversampling = encoding == Encoding.INT8 ? 4 : 10;
+            }
+            try {
+                if (vectorFile == null) {
+                    vectorFile = Files.createTempFile("quantized-vectors", ".f32");
+                    deleteOnClose = true;
+                } else if (vectorFile.getParent() != null) {
+                    Files.createDirectories(vectorFile.getParent());
+                }
+                FileChannel channel = FileChannel.open(vectorFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                return new QuantizedVectorStore(this, channel);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open vector file " + vectorFile, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.DocumentMetadata;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionConverter;
+import org.springframework.ai.vectorstore.filter.converter.SimpleVectorStoreFilterExpressionConverter;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.lang.NonNull;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+
+/**
+ * 分段的写时复制向量库：支持在检索的同时增量添加、替换和删除文档
+ *
+ * 每个段是一个构建完成后不再修改的 HNSW 索引（通常一个 PDF 一个段）。所有段和删除标记组成一个不可变快照，
+ * 检索只读取当前快照的引用，不加任何锁；写操作先在锁外完成向量化和建索引，再复制快照、替换段或更新删除标记，
+ * 最后一次性发布新快照。正在执行的检索继续使用旧快照，不会看到写了一半的状态，也不会被写操作阻塞。
+ *
+ * 写操作之间用互斥锁串行化，只在复制和发布快照时持有。相同ID的文档再次写入视为更新，
+ * 旧段中的文档打删除标记；删除标记过多的段在整段替换时释放。
+ */
+@Slf4j
+public class SegmentedVectorStore implements VectorStore {
+
+    private final EmbeddingModel embeddingModel;
+
+    private final int m;
+
+    private final int efConstruction;
+
+    private final int efSearch;
+
+    private final long seed;
+
+    private final FilterExpressionConverter filterExpressionConverter = new SimpleVectorStoreFilterExpressionConverter();
+
+    private final ExpressionParser expressionParser = new SpelExpressionParser();
+
+    /** 串行化写操作，检索不需要获取 */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /** 通过 add 写入的文档没有来源名，各自成段 */
+    private final AtomicLong anonymousSegments = new AtomicLong();
+
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), 0);
+
+    private SegmentedVectorStore(Builder builder) {
+        this.embeddingModel = builder.embeddingModel;
+        this.m = builder.m;
+        this.efConstruction = builder.efConstruction;
+        this.efSearch = builder.efSearch;
+        this.seed = builder.seed;
+    }
+
+    public static Builder builder(EmbeddingModel embeddingModel) {
+        return new Builder(embeddingModel);
+    }
+
+    /**
+     * 只读的段，构建完成后索引和文档都不再修改
+     *
+     * @param name 段名（来源 PDF 的文件名）
+     * @param index HNSW 索引
+     * @param documents 节点编号 -> 文档
+     * @param positions 文档ID -> 节点编号
+     * @param deleted 已删除的节点，更新时复制一份新的
+     */
+    private record Segment(String name, HnswIndex index, StoredDocument[] documents,
+                           Map<String, Integer> positions, BitSet deleted) {
+
+        int liveSize() {
+            return documents.length - deleted.cardinality();
+        }
+
+        List<String> liveIds() {
+            List<String> ids = new ArrayList<>(liveSize());
+            for (int node = 0; node < documents.length; node++) {
+                if (!deleted.get(node)) {
+                    ids.add(documents[node].id());
+                }
+            }
+            return ids;
+        }
+
+        Segment withDeleted(BitSet newDeleted) {
+            return new Segment(name, index, documents, positions, newDeleted);
+        }
+    }
+
+    /**
+     * 某一时刻的全部段，发布后不再修改；每次发布 version 加一
+     */
+    private record Snapshot(Map<String, Segment> segments, long version) {
+    }
+
+    /**
+     * 用已经计算好的向量替换某个来源的全部文档；来源不存在时新增一个段
+     *
+     * @param source 来源名（PDF 文件名）
+     * @param chunks 该来源的全部切片及其向量，为空时等同于删除该来源
+     * @return 被替换掉的旧段中仍然有效的文档ID
+     */
+    public List<String> replaceSource(String source, List<EmbeddedChunk> chunks) {
+        Assert.hasText(source, "source cannot be empty");
+        List<float[]> embeddings = new ArrayList<>(chunks.size());
+        List<Document> documents = new ArrayList<>(chunks.size());
+        for (EmbeddedChunk chunk : chunks) {
+            embeddings.add(chunk.embedding());
+            documents.add(chunk.toDocument());
+        }
+        return publish(source, buildSegment(source, documents, embeddings));
+    }
+
+    /**
+     * 删除某个来源的全部文档
+     *
+     * @return 被删除的文档ID
+     */
+    public List<String> removeSource(String source) {
+        return publish(source, null);
+    }
+
+    /**
+     * 当前是否包含某个来源
+     */
+    public boolean hasSource(String source) {
+        return snapshot.segments().containsKey(source);
+    }
+
+    @Override
+    public void add(@NonNull List<Document> documentList) {
+        if (documentList.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = new ArrayList<>(documentList.size());
+        for (Document document : documentList) {
+            embeddings.add(embeddingModel.embed(document));
+        }
+        String name = "segment-" + anonymousSegments.incrementAndGet();
+        publish(name, buildSegment(name, documentList, embeddings));
+    }
+
+    @Override
+    public void delete(@NonNull List<String> idList) {
+        if (idList.isEmpty()) {
+            return;
+        }
+        writeLock.lock();
+        try {
+            Map<String, Segment> segments = new LinkedHashMap<>(snapshot.segments());
+            segments.replaceAll((name, segment) -> markDeleted(segment, idList));
+            snapshot = new Snapshot(Collections.unmodifiableMap(segments), snapshot.version() + 1);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(@NonNull Filter.Expression filterExpression) {
+        Expression expression = parseFilter(filterExpression);
+        writeLock.lock();
+        try {
+            Map<String, Segment> segments = new LinkedHashMap<>(snapshot.segments());
+            segments.replaceAll((name, segment) -> {
+                BitSet deleted = (BitSet) segment.deleted().clone();
+                for (int node = 0; node < segment.documents().length; node++) {
+                    if (!deleted.get(node) && matches(expression, segment.documents()[node])) {
+                        deleted.set(node);
+                    }
+                }
+                return deleted.equals(segment.deleted()) ? segment : segment.withDeleted(deleted);
+            });
+            snapshot = new Snapshot(Collections.unmodifiableMap(segments), snapshot.version() + 1);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    @NonNull
+    public List<Document> similaritySearch(@NonNull SearchRequest request) {
+        Snapshot current = snapshot;
+        if (current.segments().isEmpty()) {
+            return List.of();
+        }
+        float[] query = embeddingModel.embed(request.getQuery());
+        Expression expression = request.hasFilterExpression() ? parseFilter(request.getFilterExpression()) : null;
+        int topK = request.getTopK();
+
+        List<Document> hits = new ArrayList<>();
+        for (Segment segment : current.segments().values()) {
+            BitSet deleted = segment.deleted();
+            IntPredicate accept = expression == null
+                    ? node -> !deleted.get(node)
+                    : node -> !deleted.get(node) && matches(expression, segment.documents()[node]);
+            HnswIndex.SearchResult result = segment.index().search(query, topK, Math.max(efSearch, topK), accept);
+            for (int i = 0; i < result.size(); i++) {
+                float score = result.scores()[i];
+                if (score < request.getSimilarityThreshold()) {
+                    break;
+                }
+                hits.add(segment.documents()[result.nodes()[i]].toDocument(score));
+            }
+        }
+        // 合并各段的结果
+        hits.sort(Comparator.comparingDouble(Document::getScore).reversed());
+        return hits.size() > topK ? new ArrayList<>(hits.subList(0, topK)) : hits;
+    }
+
+    /**
+     * 当前未删除的文档数量
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : snapshot.segments().values()) {
+            size += segment.liveSize();
+        }
+        return size;
+    }
+
+    /**
+     * 当前快照的版本号，任何写操作发布新快照后递增
+     *
+     * 版本号与快照一起发布：读到某个版本时，检索看到的快照不会早于它，可用于判断缓存的检索结果是否过期
+     */
+    public long version() {
+        return snapshot.version();
+    }
+
+    /**
+     * 当前的段数
+     */
+    public int segmentCount() {
+        return snapshot.segments().size();
+    }
+
+    /**
+     * 在锁外建好一个段
+     */
+    private Segment buildSegment(String name, List<Document> documents, List<float[]> embeddings) {
+        Map<String, Integer> positions = new HashMap<>();
+        List<StoredDocument> stored = new ArrayList<>(documents.size());
+        List<float[]> vectors = new ArrayList<>(documents.size());
+        // 同一批中重复的ID以最后一条为准
+        for (int i = 0; i < documents.size(); i++) {
+            Document document = documents.get(i);
+            Integer existing = positions.get(document.getId());
+            StoredDocument storedDocument = new StoredDocument(document.getId(), document.getText(), document.getMetadata());
+            if (existing != null) {
+                stored.set(existing, storedDocument);
+                vectors.set(existing, embeddings.get(i));
+            } else {
+                positions.put(document.getId(), stored.size());
+                stored.add(storedDocument);
+                vectors.add(embeddings.get(i));
+            }
+        }
+        if (vectors.isEmpty()) {
+            return null;
+        }
+        HnswIndex index = new HnswIndex(vectors.get(0).length, m, efConstruction, seed);
+        for (float[] vector : vectors) {
+            index.add(vector);
+        }
+        return new Segment(name, index, stored.toArray(new StoredDocument[0]), Map.copyOf(positions), new BitSet());
+    }
+
+    /**
+     * 发布新快照：替换（segment 为 null 时删除）同名段，并在其他段中删除与新段ID相同的文档
+     *
+     * @return 被替换的旧段中仍然有效的文档ID
+     */
+    private List<String> publish(String name, Segment segment) {
+        writeLock.lock();
+        try {
+            Map<String, Segment> segments = new LinkedHashMap<>(snapshot.segments());
+            Segment previous = segment == null ? segments.remove(name) : segments.put(name, segment);
+            if (segment != null) {
+                List<String> ids = List.copyOf(segment.positions().keySet());
+                segments.replaceAll((segmentName, existing) ->
+                        segmentName.equals(name) ? existing : markDeleted(existing, ids));
+            }
+            snapshot = new Snapshot(Collections.unmodifiableMap(segments), snapshot.version() + 1);
+            log.debug("Published segment {} ({} documents), {} segments in total",
+                    name, segment == null ? 0 : segment.documents().length, segments.size());
+            return previous == null ? List.of() : previous.liveIds();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static Segment markDeleted(Segment segment, List<String> ids) {
+        BitSet deleted = null;
+        for (String id : ids) {
+            Integer node = segment.positions().get(id);
+            if (node != null && !segment.deleted().get(node)) {
+                if (deleted == null) {
+                    deleted = (BitSet) segment.deleted().clone();
+                }
+                deleted.set(node);
+            }
+        }
+        return deleted == null ? segment : segment.withDeleted(deleted);
+    }
+
+    private Expression parseFilter(Filter.Expression filterExpression) {
+        return expressionParser.parseExpression(filterExpressionConverter.convertExpression(filterExpression));
+    }
+
+    private static boolean matches(Expression expression, StoredDocument document) {
+        StandardEvaluationContext context = new StandardEvaluationContext();
+        context.setVariable("metadata", document.metadata());
+        return Boolean.TRUE.equals(expression.getValue(context, Boolean.class));
+    }
+
+    /**
+     * 段中保存的文档内容，向量本身只保存在 HNSW 索引中
+     */
+    private record StoredDocument(String id, String text, Map<String, Object> metadata) {
+
+        Document toDocument(float score) {
+            Map<String, Object> resultMetadata = new HashMap<>(metadata);
+            resultMetadata.put(DocumentMetadata.DISTANCE.value(), 1 - score);
+            return Document.builder()
+                    .id(id)
+                    .text(text)
+                    .metadata(resultMetadata)
+                    .score((double) score)
+                    .build();
+        }
+    }
+
+    public static final class Builder {
+
+        private final EmbeddingModel embeddingModel;
+
+        private int m = 16;
+
+        private int efConstruction = 100;
+
+        private int efSearch = 64;
+
+        private long seed = 42L;
+
+        private Builder(EmbeddingModel embeddingModel) {
+            this.embeddingModel = embeddingModel;
+        }
+
+        /**
+         * 每个段的 HNSW 每层最大邻居数
+         */
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * 建段时的候选集大小
+         */
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        /**
+         * 每个段检索时的候选集大小，实际取 max(efSearch, topK)
+         */
+        public Builder efSearch(int efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public SegmentedVectorStore build() {
+            Assert.notNull(embeddingModel, "embeddingModel cannot be null");
+            return new SegmentedVectorStore(this);
+        }
+    }
+}
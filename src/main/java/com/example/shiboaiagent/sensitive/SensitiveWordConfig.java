@@ -0,0 +1,47 @@
+package com.example.shiboaiagent.sensitive;
+
+import com.example.shiboaiagent.advisor.SensitiveWordFilteringAdvisor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * 敏感词过滤配置
+ *
+ * sensitive-word.enabled=true 时加载词典文件并注册 {@link SensitiveWordFilteringAdvisor}，
+ * 各个应用在初始化时把它加入聊天客户端的默认advisor；词典文件修改后自动重新加载。
+ */
+@Configuration
+@ConditionalOnProperty(name = "sensitive-word.enabled", havingValue = "true")
+public class SensitiveWordConfig {
+
+    /** 词典文件，每行一个词，相对路径相对于工作目录 */
+    @Value("${sensitive-word.dictionary:config/sensitive-words.txt}")
+    private String dictionary;
+
+    /** 检查词典文件变化的间隔 */
+    @Value("${sensitive-word.refresh-interval-ms:10000}")
+    private long refreshIntervalMillis;
+
+    /** 替换敏感词的字符 */
+    @Value("${sensitive-word.mask-char:*}")
+    private char maskChar;
+
+    @Bean(initMethod = "start", destroyMethod = "close")
+    SensitiveWordDictionary sensitiveWordDictionary() {
+        return SensitiveWordDictionary.builder(Path.of(dictionary))
+                .refreshInterval(Duration.ofMillis(refreshIntervalMillis))
+                .build();
+    }
+
+    @Bean
+    SensitiveWordFilteringAdvisor sensitiveWordFilteringAdvisor(SensitiveWordDictionary sensitiveWordDictionary) {
+        return SensitiveWordFilteringAdvisor.builder(sensitiveWordDictionary::current)
+                .maskChar(maskChar)
+                .build();
+    }
+}
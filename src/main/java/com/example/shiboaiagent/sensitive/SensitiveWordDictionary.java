@@ -0,0 +1,158 @@
+package com.example.shiboaiagent.sensitive;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.Assert;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 可热更新的敏感词词典
+ *
+ * 词典文件为 UTF-8 文本，每行一个词，空行和以 # 开头的行被忽略。
+ * 后台线程定期检查文件的修改时间和大小，变化时在后台构建新的 {@link SensitiveWordMatcher}，
+ * 构建完成后一次性替换（volatile 引用），正在进行的匹配继续使用旧的匹配器，不需要加锁。
+ * 文件不存在或读取失败时保留当前的匹配器；启动时文件不存在则使用空词典，文件创建后自动加载。
+ */
+@Slf4j
+public class SensitiveWordDictionary implements AutoCloseable {
+
+    private final Path file;
+
+    private final long refreshIntervalMillis;
+
+    private final ScheduledExecutorService reloader;
+
+    private volatile SensitiveWordMatcher matcher = SensitiveWordMatcher.empty();
+
+    /** 最近一次加载的文件修改时间和大小，只在 reload 中访问 */
+    private long loadedModifiedMillis = Long.MIN_VALUE;
+
+    private long loadedSize = -1;
+
+    private boolean missingLogged;
+
+    private SensitiveWordDictionary(Builder builder) {
+        this.file = builder.file;
+        this.refreshIntervalMillis = builder.refreshInterval.toMillis();
+        this.reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sensitive-word-reloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static Builder builder(Path file) {
+        return new Builder(file);
+    }
+
+    /**
+     * 当前的匹配器
+     */
+    public SensitiveWordMatcher current() {
+        return matcher;
+    }
+
+    /**
+     * 加载词典并开始定期检查文件变化
+     */
+    public void start() {
+        reloadIfChanged();
+        reloader.scheduleWithFixedDelay(this::reloadIfChanged,
+                refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        reloader.shutdownNow();
+    }
+
+    /**
+     * 文件修改时间或大小变化时重新加载
+     *
+     * @return 是否加载了新的词典
+     */
+    public synchronized boolean reloadIfChanged() {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            if (!missingLogged) {
+                log.warn("Sensitive word dictionary {} not found, keep the current {} words", file, matcher.wordCount());
+                missingLogged = true;
+            }
+            return false;
+        } catch (IOException e) {
+            log.error("Error reading sensitive word dictionary attributes {}", file, e);
+            return false;
+        }
+        missingLogged = false;
+        long modifiedMillis = attributes.lastModifiedTime().toMillis();
+        if (modifiedMillis == loadedModifiedMillis && attributes.size() == loadedSize) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        List<String> words;
+        try {
+            words = readWords(file);
+        } catch (IOException | RuntimeException e) {
+            log.error("Error loading sensitive word dictionary {}, keep the previous one", file, e);
+            return false;
+        }
+        SensitiveWordMatcher loaded = SensitiveWordMatcher.of(words);
+        matcher = loaded;
+        loadedModifiedMillis = modifiedMillis;
+        loadedSize = attributes.size();
+        log.info("Sensitive word dictionary {} loaded: {} words in {} ms", file, loaded.wordCount(),
+                (System.nanoTime() - start) / 1_000_000);
+        return true;
+    }
+
+    private static List<String> readWords(Path file) throws IOException {
+        List<String> words = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            // 去掉文件开头可能存在的 BOM
+            String word = line.replace("\uFEFF", "").strip();
+            if (!word.isEmpty() && !word.startsWith("#")) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    public static final class Builder {
+
+        private final Path file;
+
+        private Duration refreshInterval = Duration.ofSeconds(10);
+
+        private Builder(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * 检查文件变化的间隔，默认 10 秒
+         */
+        public Builder refreshInterval(Duration refreshInterval) {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        public SensitiveWordDictionary build() {
+            Assert.notNull(file, "file cannot be null");
+            Assert.isTrue(!refreshInterval.isNegative() && !refreshInterval.isZero(), "refreshInterval must be positive");
+            return new SensitiveWordDictionary(this);
+        }
+    }
+}
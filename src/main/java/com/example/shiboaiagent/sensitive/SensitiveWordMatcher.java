@@ -0,0 +1,404 @@
+package com.example.shiboaiagent.sensitive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于 Aho-Corasick 自动机的敏感词匹配器，构建后不可变，可被多个线程同时使用
+ *
+ * 对文本只扫描一遍即可找出所有敏感词（包括相互重叠、互为前后缀的词），耗时与文本长度成正比，与词典大小无关。
+ * 状态转移保存在开放寻址的 long/int 数组中，匹配过程中每个字符只做数组访问，不创建对象。
+ *
+ * 匹配前对字符做简单归一化：全角 ASCII 转半角、英文转小写，"ＡＢＣ"、"abc"、"ABC" 视为同一个词。
+ * 归一化只用于匹配，屏蔽时保留原文中未命中的字符。
+ */
+public final class SensitiveWordMatcher {
+
+    private static final SensitiveWordMatcher EMPTY = of(List.of());
+
+    private static final long EMPTY_KEY = -1L;
+
+    /** 转移表：(状态 << 16 | 字符) -> 目标状态 */
+    private final long[] transitionKeys;
+
+    private final int[] transitionTargets;
+
+    private final int transitionMask;
+
+    /** 失败指针 */
+    private final int[] fail;
+
+    /** 状态对应的前缀长度 */
+    private final int[] depth;
+
+    /** 以该状态结尾的最长敏感词长度（沿失败指针），0 表示没有 */
+    private final int[] longestWord;
+
+    /** 该状态本身是否是一个敏感词的结尾 */
+    private final boolean[] terminal;
+
+    /** 沿失败指针找到的下一个敏感词结尾状态，-1 表示没有 */
+    private final int[] outputLink;
+
+    /** 流式屏蔽时需要扣留的字符数：沿失败指针找到的第一个还能继续匹配的前缀长度 */
+    private final int[] holdback;
+
+    private final int wordCount;
+
+    private final int maxWordLength;
+
+    private SensitiveWordMatcher(long[] transitionKeys, int[] transitionTargets, int[] fail, int[] depth,
+                                 int[] longestWord, boolean[] terminal, int[] outputLink, int[] holdback,
+                                 int wordCount) {
+        this.transitionKeys = transitionKeys;
+        this.transitionTargets = transitionTargets;
+        this.transitionMask = transitionKeys.length - 1;
+        this.fail = fail;
+        this.depth = depth;
+        this.longestWord = longestWord;
+        this.terminal = terminal;
+        this.outputLink = outputLink;
+        this.holdback = holdback;
+        this.wordCount = wordCount;
+        int max = 0;
+        for (int length : longestWord) {
+            max = Math.max(max, length);
+        }
+        this.maxWordLength = max;
+    }
+
+    /**
+     * 不包含任何敏感词的匹配器
+     */
+    public static SensitiveWordMatcher empty() {
+        return EMPTY;
+    }
+
+    /**
+     * 构建匹配器，空白词和重复词被忽略
+     */
+    public static SensitiveWordMatcher of(Collection<String> words) {
+        // 构建期使用普通集合，构建完成后压缩到数组
+        Map<Long, Integer> edges = new HashMap<>();
+        List<Integer> parents = new ArrayList<>();
+        List<Character> labels = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        List<Boolean> terminals = new ArrayList<>();
+        parents.add(-1);
+        labels.add('\0');
+        depths.add(0);
+        terminals.add(false);
+        int wordCount = 0;
+        for (String word : words) {
+            if (word == null || word.isBlank()) {
+                continue;
+            }
+            String trimmed = word.strip();
+            int state = 0;
+            for (int i = 0; i < trimmed.length(); i++) {
+                char c = fold(trimmed.charAt(i));
+                long key = key(state, c);
+                Integer next = edges.get(key);
+                if (next == null) {
+                    next = parents.size();
+                    edges.put(key, next);
+                    parents.add(state);
+                    labels.add(c);
+                    depths.add(depths.get(state) + 1);
+                    terminals.add(false);
+                }
+                state = next;
+            }
+            if (!terminals.get(state)) {
+                terminals.set(state, true);
+                wordCount++;
+            }
+        }
+
+        int stateCount = parents.size();
+        int capacity = Integer.highestOneBit(Math.max(2, edges.size() * 2 - 1)) << 1;
+        long[] keys = new long[capacity];
+        int[] targets = new int[capacity];
+        Arrays.fill(keys, EMPTY_KEY);
+        int mask = capacity - 1;
+        for (Map.Entry<Long, Integer> edge : edges.entrySet()) {
+            int index = slot(edge.getKey(), mask);
+            while (keys[index] != EMPTY_KEY) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = edge.getKey();
+            targets[index] = edge.getValue();
+        }
+
+        int[] depth = new int[stateCount];
+        boolean[] terminal = new boolean[stateCount];
+        boolean[] hasChildren = new boolean[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            depth[state] = depths.get(state);
+            terminal[state] = terminals.get(state);
+            if (state > 0) {
+                hasChildren[parents.get(state)] = true;
+            }
+        }
+        // 按深度排序后依次计算失败指针，父状态总是先于子状态处理
+        Integer[] byDepth = new Integer[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            byDepth[state] = state;
+        }
+        Arrays.sort(byDepth, (a, b) -> Integer.compare(depth[a], depth[b]));
+
+        int[] fail = new int[stateCount];
+        int[] longestWord = new int[stateCount];
+        int[] outputLink = new int[stateCount];
+        int[] holdback = new int[stateCount];
+        outputLink[0] = -1;
+        for (int i = 1; i < stateCount; i++) {
+            int state = byDepth[i];
+            int parent = parents.get(state);
+            char c = labels.get(state);
+            int target = 0;
+            if (parent != 0) {
+                int f = fail[parent];
+                while (true) {
+                    int next = lookup(keys, targets, mask, f, c);
+                    if (next >= 0) {
+                        target = next;
+                        break;
+                    }
+                    if (f == 0) {
+                        break;
+                    }
+                    f = fail[f];
+                }
+            }
+            fail[state] = target;
+            longestWord[state] = terminal[state] ? depth[state] : longestWord[target];
+            outputLink[state] = terminal[target] ? target : outputLink[target];
+            holdback[state] = hasChildren[state] ? depth[state] : holdback[target];
+        }
+        return new SensitiveWordMatcher(keys, targets, fail, depth, longestWord, terminal, outputLink, holdback,
+                wordCount);
+    }
+
+    /**
+     * 匹配回调
+     */
+    @FunctionalInterface
+    public interface MatchHandler {
+
+        /**
+         * @param start 命中词在原文中的起始位置
+         * @param end 命中词在原文中的结束位置（不含）
+         * @return false 时停止扫描
+         */
+        boolean onMatch(int start, int end);
+    }
+
+    /** 敏感词数量 */
+    public int wordCount() {
+        return wordCount;
+    }
+
+    /** 最长敏感词的长度 */
+    public int maxWordLength() {
+        return maxWordLength;
+    }
+
+    /**
+     * 扫描文本，按结束位置顺序回调每一次命中（同一位置结束的多个词从长到短回调）
+     */
+    public void scan(CharSequence text, MatchHandler handler) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, fold(text.charAt(i)));
+            int output = terminal[state] ? state : outputLink[state];
+            while (output > 0) {
+                if (!handler.onMatch(i + 1 - depth[output], i + 1)) {
+                    return;
+                }
+                output = outputLink[output];
+            }
+        }
+    }
+
+    /**
+     * 文本中是否包含敏感词，找到第一个即返回
+     */
+    public boolean containsAny(CharSequence text) {
+        if (wordCount == 0) {
+            return false;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, fold(text.charAt(i)));
+            if (longestWord[state] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 找出文本中的全部命中词（原文），按出现顺序，可能重复
+     */
+    public List<String> findAll(CharSequence text) {
+        List<String> words = new ArrayList<>();
+        scan(text, (start, end) -> {
+            words.add(text.subSequence(start, end).toString());
+            return true;
+        });
+        return words;
+    }
+
+    /**
+     * 用 * 屏蔽文本中的敏感词
+     */
+    public String mask(String text) {
+        return mask(text, '*');
+    }
+
+    /**
+     * 用指定字符屏蔽文本中的敏感词，没有命中时返回原字符串
+     */
+    public String mask(String text, char maskChar) {
+        if (text == null || wordCount == 0) {
+            return text;
+        }
+        char[] masked = null;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            state = next(state, fold(text.charAt(i)));
+            int length = longestWord[state];
+            if (length > 0) {
+                if (masked == null) {
+                    masked = text.toCharArray();
+                }
+                Arrays.fill(masked, i + 1 - length, i + 1, maskChar);
+            }
+        }
+        return masked == null ? text : new String(masked);
+    }
+
+    /**
+     * 创建流式屏蔽器，用于逐片段屏蔽流式输出
+     */
+    public StreamMasker streamMasker(char maskChar) {
+        return new StreamMasker(maskChar);
+    }
+
+    /**
+     * 流式屏蔽器：跨片段保持自动机状态，敏感词被拆在两个片段中也能屏蔽
+     *
+     * 只扣留之后还可能匹配成敏感词的尾部字符（沿失败指针第一个还有后续转移的前缀，短于最长敏感词），
+     * 其余字符立即输出；没有前缀匹配时不扣留任何字符。非线程安全，每个流使用一个实例。
+     */
+    public final class StreamMasker {
+
+        private final char maskChar;
+
+        /** 尚未输出的字符，已经完成屏蔽 */
+        private final StringBuilder pending = new StringBuilder();
+
+        private int state;
+
+        private StreamMasker(char maskChar) {
+            this.maskChar = maskChar;
+        }
+
+        /**
+         * 追加一个片段
+         *
+         * @return 可以输出的文本，可能为空串
+         */
+        public String append(CharSequence chunk) {
+            for (int i = 0; i < chunk.length(); i++) {
+                char c = chunk.charAt(i);
+                state = next(state, fold(c));
+                pending.append(c);
+                int length = longestWord[state];
+                for (int k = pending.length() - length; k < pending.length(); k++) {
+                    pending.setCharAt(k, maskChar);
+                }
+            }
+            // 之后的命中只可能从还能继续匹配的前缀开始，之前的字符已经确定
+            int ready = pending.length() - holdback[state];
+            if (ready <= 0) {
+                return "";
+            }
+            String output = pending.substring(0, ready);
+            pending.delete(0, ready);
+            return output;
+        }
+
+        /**
+         * 流结束，输出全部扣留的字符
+         */
+        public String finish() {
+            String output = pending.toString();
+            pending.setLength(0);
+            state = 0;
+            return output;
+        }
+
+        /** 当前扣留的字符数 */
+        public int pendingLength() {
+            return pending.length();
+        }
+    }
+
+    private int next(int state, char c) {
+        while (true) {
+            int target = lookup(transitionKeys, transitionTargets, transitionMask, state, c);
+            if (target >= 0) {
+                return target;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = fail[state];
+        }
+    }
+
+    private static int lookup(long[] keys, int[] targets, int mask, int state, char c) {
+        long key = key(state, c);
+        int index = slot(key, mask);
+        while (true) {
+            long candidate = keys[index];
+            if (candidate == key) {
+                return targets[index];
+            }
+            if (candidate == EMPTY_KEY) {
+                return -1;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private static long key(int state, char c) {
+        return ((long) state << 16) | c;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    /**
+     * 匹配用的字符归一化：全角 ASCII 转半角，全角空格转空格，英文转小写
+     */
+    static char fold(char c) {
+        if (c >= '！' && c <= '～') {
+            c = (char) (c - 0xFEE0);
+        } else if (c == '　') {
+            return ' ';
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + 32);
+        }
+        return c;
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.shiboaiagent.service;
+
+import com.example.shiboaiagent.app.PsychiatristApp;
+import com.example.shiboaiagent.app.PsychiatristApp.DiagnosticResultsReport;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 批量诊断服务 - 一次提交多位患者的症状描述，异步并发生成诊断报告
+ *
+ * 每个批量任务内的条目在虚拟线程上并发执行，同时执行的条目数不超过 parallelism；
+ * 单个条目超过 itemTimeout 时标记为超时并中断执行线程，不影响其他条目。
+ * 任务状态随时可以查询，已完成的条目立即可见（部分结果），任务完成后保留 retention 时长。
+ */
+@Slf4j
+@Service
+public class BatchDiagnosisService {
+
+    /** 已完成任务的保留时长 */
+    private static final Duration RETENTION = Duration.ofHours(1);
+
+    private final PsychiatristApp psychiatristApp;
+
+    /** 单个任务默认的并发条目数，也是请求可以指定的上限 */
+    private final int parallelism;
+
+    /** 单个条目的超时时间 */
+    private final Duration itemTimeout;
+
+    /** 单个任务的最大条目数 */
+    private final int maxItems;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final ScheduledExecutorService timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "batch-diagnosis-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数
+     *
+     * @param psychiatristApp 生成诊断报告的应用
+     * @param parallelism 单个任务同时执行的条目数上限
+     * @param itemTimeout 单个条目的超时时间
+     * @param maxItems 单个任务的最大条目数
+     */
+    public BatchDiagnosisService(PsychiatristApp psychiatristApp,
+                                 @Value("${batch.diagnosis.parallelism:16}") int parallelism,
+                                 @Value("${batch.diagnosis.item-timeout:60s}") Duration itemTimeout,
+                                 @Value("${batch.diagnosis.max-items:1000}") int maxItems) {
+        Assert.isTrue(parallelism > 0, "parallelism must be positive");
+        Assert.isTrue(maxItems > 0, "maxItems must be positive");
+        this.psychiatristApp = psychiatristApp;
+        this.parallelism = parallelism;
+        this.itemTimeout = itemTimeout;
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * 一位患者的诊断请求
+     *
+     * @param chatId 对话会话ID
+     * @param message 症状描述
+     */
+    public record DiagnosisRequest(String chatId, String message) {
+    }
+
+    /** 条目状态 */
+    public enum ItemStatus {
+        PENDING, SUCCEEDED, FAILED, TIMED_OUT
+    }
+
+    /**
+     * 单个条目的结果
+     *
+     * @param chatId 对话会话ID
+     * @param status 条目状态
+     * @param report 诊断报告，仅成功时有值
+     * @param error 失败原因
+     * @param elapsedMillis 执行耗时，未完成时为 0
+     */
+    public record ItemResult(String chatId, ItemStatus status, DiagnosticResultsReport report, String error,
+                             long elapsedMillis) {
+
+        static ItemResult pending(String chatId) {
+            return new ItemResult(chatId, ItemStatus.PENDING, null, null, 0);
+        }
+    }
+
+    /** 任务状态 */
+    public enum JobState {
+        RUNNING, COMPLETED
+    }
+
+    /**
+     * 批量任务状态快照
+     *
+     * @param jobId 任务ID
+     * @param state 任务状态
+     * @param total 条目总数
+     * @param succeeded 成功数
+     * @param failed 失败数
+     * @param timedOut 超时数
+     * @param pending 未完成数
+     * @param submittedAt 提交时间
+     * @param completedAt 完成时间，未完成时为 null
+     * @param results 各条目结果，顺序与提交顺序一致
+     */
+    public record BatchJobStatus(String jobId, JobState state, int total, int succeeded, int failed, int timedOut,
+                                 int pending, Instant submittedAt, Instant completedAt, List<ItemResult> results) {
+    }
+
+    /**
+     * 提交批量诊断任务，立即返回任务ID
+     *
+     * @param requests 诊断请求
+     * @param requestedParallelism 本任务的并发条目数，null 或超过上限时使用配置的上限
+     * @return 任务ID
+     */
+    public String submit(List<DiagnosisRequest> requests, Integer requestedParallelism) {
+        Assert.notEmpty(requests, "requests cannot be empty");
+        Assert.isTrue(requests.size() <= maxItems, "at most " + maxItems + " items per batch");
+        for (DiagnosisRequest request : requests) {
+            Assert.isTrue(request != null && StringUtils.hasText(request.chatId()) && StringUtils.hasText(request.message()),
+                    "every item needs a chatId and a message");
+        }
+        purgeExpiredJobs();
+
+        int jobParallelism = requestedParallelism == null || requestedParallelism <= 0
+                ? parallelism
+                : Math.min(requestedParallelism, parallelism);
+        Job job = new Job(UUID.randomUUID().toString(), List.copyOf(requests), jobParallelism);
+        jobs.put(job.id, job);
+        log.info("Batch diagnosis job {} submitted: {} items, parallelism {}", job.id, requests.size(), jobParallelism);
+        for (int i = 0; i < job.requests.size(); i++) {
+            int index = i;
+            executor.execute(() -> runItem(job, index));
+        }
+        return job.id;
+    }
+
+    /**
+     * 查询任务状态，任务不存在或已过期时返回空
+     */
+    public Optional<BatchJobStatus> status(String jobId) {
+        Job job = jobs.get(jobId);
+        return job == null ? Optional.empty() : Optional.of(job.snapshot());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        timeoutScheduler.shutdownNow();
+    }
+
+    private void runItem(Job job, int index) {
+        DiagnosisRequest request = job.requests.get(index);
+        try {
+            job.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.finish(index, new ItemResult(request.chatId(), ItemStatus.FAILED, null, "interrupted", 0));
+            return;
+        }
+        long start = System.nanoTime();
+        Thread worker = Thread.currentThread();
+        // 超时后标记结果并中断执行线程；许可在执行线程真正退出时才归还，保证并发数不超过上限
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+            if (job.finish(index, new ItemResult(request.chatId(), ItemStatus.TIMED_OUT, null,
+                    "timed out after " + itemTimeout.toMillis() + " ms", elapsedMillis(start)))) {
+                worker.interrupt();
+            }
+        }, itemTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        try {
+            DiagnosticResultsReport report = psychiatristApp.doChatWithOutPut(request.message(), request.chatId());
+            job.finish(index, new ItemResult(request.chatId(), ItemStatus.SUCCEEDED, report, null, elapsedMillis(start)));
+        } catch (RuntimeException e) {
+            log.warn("Batch diagnosis item failed, job {}, chatId {}", job.id, request.chatId(), e);
+            job.finish(index, new ItemResult(request.chatId(), ItemStatus.FAILED, null,
+                    e.getClass().getSimpleName() + ": " + e.getMessage(), elapsedMillis(start)));
+        } finally {
+            timeout.cancel(false);
+            job.permits.release();
+            // 清除超时留下的中断标记
+            Thread.interrupted();
+        }
+    }
+
+    private void purgeExpiredJobs() {
+        Instant expiredBefore = Instant.now().minus(RETENTION);
+        jobs.values().removeIf(job -> job.completedAt != null && job.completedAt.isBefore(expiredBefore));
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * 一个批量任务，条目结果只会从 PENDING 变为最终状态一次
+     */
+    private static final class Job {
+
+        final String id;
+
+        final List<DiagnosisRequest> requests;
+
+        final Semaphore permits;
+
+        final AtomicReferenceArray<ItemResult> results;
+
+        final AtomicInteger remaining;
+
+        final Instant submittedAt = Instant.now();
+
+        volatile Instant completedAt;
+
+        Job(String id, List<DiagnosisRequest> requests, int parallelism) {
+            this.id = id;
+            this.requests = requests;
+            this.permits = new Semaphore(parallelism);
+            this.results = new AtomicReferenceArray<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                results.set(i, ItemResult.pending(requests.get(i).chatId()));
+            }
+            this.remaining = new AtomicInteger(requests.size());
+        }
+
+        /**
+         * 记录条目的最终结果，已经有最终结果时返回 false
+         */
+        boolean finish(int index, ItemResult result) {
+            ItemResult current = results.get(index);
+            if (current.status() != ItemStatus.PENDING || !results.compareAndSet(index, current, result)) {
+                return false;
+            }
+            if (remaining.decrementAndGet() == 0) {
+                completedAt = Instant.now();
+                BatchJobStatus status = snapshot();
+                log.info("Batch diagnosis job {} completed in {} ms: {} succeeded, {} failed, {} timed out", id,
+                        Duration.between(submittedAt, completedAt).toMillis(),
+                        status.succeeded(), status.failed(), status.timedOut());
+            }
+            return true;
+        }
+
+        BatchJobStatus snapshot() {
+            List<ItemResult> items = new ArrayList<>(results.length());
+            int succeeded = 0;
+            int failed = 0;
+            int timedOut = 0;
+            int pending = 0;
+            for (int i = 0; i < results.length(); i++) {
+                ItemResult item = results.get(i);
+                items.add(item);
+                switch (item.status()) {
+                    case SUCCEEDED -> succeeded++;
+                    case FAILED -> failed++;
+                    case TIMED_OUT -> timedOut++;
+                    case PENDING -> pending++;
+                }
+            }
+            Instant completed = completedAt;
+            return new BatchJobStatus(id, completed == null ? JobState.RUNNING : JobState.COMPLETED, items.size(),
+                    succeeded, failed, timedOut, pending, submittedAt, completed, items);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.shiboaiagent.advisor;
+
+import com.example.shiboaiagent.support.StubChatModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversationTurnAdvisorTest {
+
+    private final StubChatModel chatModel = new StubChatModel();
+
+    private final ChatMemory chatMemory = MessageWindowChatMemory.builder()
+            .chatMemoryRepository(new InMemoryChatMemoryRepository())
+            .maxMessages(100)
+            .build();
+
+    private ChatClient chatClient(ConversationTurnAdvisor turnAdvisor) {
+        return ChatClient.builder(chatModel)
+                .defaultAdvisors(turnAdvisor, MessageChatMemoryAdvisor.builder(chatMemory).build())
+                .build();
+    }
+
+    private static List<String> concurrently(int requests, IntFunction<String> request) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                int index = i;
+                results.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return request.apply(index);
+                }, executor));
+            }
+            start.countDown();
+            List<String> answers = new ArrayList<>();
+            for (CompletableFuture<String> result : results) {
+                answers.add(result.get(30, TimeUnit.SECONDS));
+            }
+            return answers;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 每一轮的用户消息后面紧跟着它的回答
+     */
+    private static void assertTurnsNotInterleaved(List<Message> messages, int turns) {
+        assertEquals(turns * 2, messages.size());
+        for (int i = 0; i < messages.size(); i += 2) {
+            assertEquals(MessageType.USER, messages.get(i).getMessageType(), messages.toString());
+            assertEquals(MessageType.ASSISTANT, messages.get(i + 1).getMessageType(), messages.toString());
+        }
+    }
+
+    @Test
+    void turnsOfOneConversationRunOneAtATime() throws Exception {
+        chatModel.withLatency(100);
+        ConversationTurnAdvisor turnAdvisor = ConversationTurnAdvisor.builder().build();
+        ChatClient chatClient = chatClient(turnAdvisor);
+
+        concurrently(4, i -> chatClient.prompt().user("问题" + i)
+                .advisors(spec -> spec.param(ChatMemory.CONVERSATION_ID, "same-chat"))
+                .call().content());
+
+        assertEquals(1, chatModel.maxConcurrentCalls());
+        assertTurnsNotInterleaved(chatMemory.get("same-chat"), 4);
+        // 最后一轮的提示词包含前三轮的问答
+        assertEquals(7, chatModel.lastPrompt().getInstructions().size());
+        assertEquals(3, turnAdvisor.stats().queued());
+        assertEquals(0, turnAdvisor.stats().activeConversations());
+    }
+
+    @Test
+    void differentConversationsRunInParallel() throws Exception {
+        chatModel.withLatency(200);
+        ConversationTurnAdvisor turnAdvisor = ConversationTurnAdvisor.builder().build();
+        ChatClient chatClient = chatClient(turnAdvisor);
+
+        concurrently(4, i -> chatClient.prompt().user("问题" + i)
+                .advisors(spec -> spec.param(ChatMemory.CONVERSATION_ID, "chat-" + i))
+                .call().content());
+
+        assertTrue(chatModel.maxConcurrentCalls() > 1, "max concurrent calls: " + chatModel.maxConcurrentCalls());
+        assertEquals(0, turnAdvisor.stats().queued());
+    }
+
+    @Test
+    void streamedTurnsWaitForThePreviousStreamToComplete() {
+        chatModel.withLatency(200);
+        ConversationTurnAdvisor turnAdvisor = ConversationTurnAdvisor.builder().build();
+        ChatClient chatClient = chatClient(turnAdvisor);
+
+        List<Flux<String>> streams = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            streams.add(chatClient.prompt().user("问题" + i)
+                    .advisors(spec -> spec.param(ChatMemory.CONVERSATION_ID, "same-chat"))
+                    .stream().content());
+        }
+        // 三个流同时订阅，记忆advisor在流结束后才写入回答
+        Flux.merge(streams).blockLast(Duration.ofSeconds(30));
+
+        assertTurnsNotInterleaved(chatMemory.get("same-chat"), 3);
+        assertEquals(2, turnAdvisor.stats().queued());
+        assertEquals(0, turnAdvisor.stats().activeConversations());
+    }
+
+    @Test
+    void waitingTurnProceedsAfterMaxWait() throws Exception {
+        chatModel.withLatency(1_000);
+        ConversationTurnAdvisor turnAdvisor = ConversationTurnAdvisor.builder()
+                .maxWait(Duration.ofMillis(100))
+                .build();
+        ChatClient chatClient = chatClient(turnAdvisor);
+
+        concurrently(2, i -> chatClient.prompt().user("问题" + i)
+                .advisors(spec -> spec.param(ChatMemory.CONVERSATION_ID, "same-chat"))
+                .call().content());
+
+        assertEquals(2, chatModel.maxConcurrentCalls());
+        assertEquals(1, turnAdvisor.stats().timedOut());
+        assertEquals(0, turnAdvisor.stats().activeConversations());
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.shiboaiagent.advisor;
+
+import com.example.shiboaiagent.support.StubChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
+import org.springframework.ai.document.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MetricsAdvisorTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final StubChatModel chatModel = new StubChatModel()
+            .withUsage(12, 34)
+            .withStreamChunkSize(3);
+
+    private final MetricsAdvisor metricsAdvisor = MetricsAdvisor.builder()
+            .app("test")
+            .meterRegistry(registry)
+            .build();
+
+    @Test
+    void callRecordsLatencyAndTokens() {
+        ChatClient.builder(chatModel).defaultAdvisors(metricsAdvisor).build()
+                .prompt().user("失眠").call().content();
+
+        assertEquals(1, registry.get(MetricsAdvisor.MODEL_TIMER)
+                .tags("app", "test", "mode", "call", "outcome", "success").timer().count());
+        assertEquals(12, registry.get(MetricsAdvisor.TOKEN_COUNTER).tags("type", "prompt").counter().count());
+        assertEquals(34, registry.get(MetricsAdvisor.TOKEN_COUNTER).tags("type", "completion").counter().count());
+        assertEquals(0, registry.get(MetricsAdvisor.TTFT_TIMER).timer().count());
+    }
+
+    @Test
+    void streamRecordsTimeToFirstTokenOnce() {
+        ChatClient.builder(chatModel).defaultAdvisors(metricsAdvisor).build()
+                .prompt().user("头痛").stream().content().collectList().block();
+
+        assertEquals(1, registry.get(MetricsAdvisor.TTFT_TIMER).timer().count());
+        assertEquals(1, registry.get(MetricsAdvisor.MODEL_TIMER)
+                .tags("mode", "stream", "outcome", "success").timer().count());
+        // 用量只在最后一个片段上，只计一次
+        assertEquals(34, registry.get(MetricsAdvisor.TOKEN_COUNTER).tags("type", "completion").counter().count());
+    }
+
+    @Test
+    void failedCallIsTaggedAsError() {
+        chatModel.withResponder(prompt -> {
+            throw new IllegalStateException("模型不可用");
+        });
+
+        assertThrows(IllegalStateException.class, () -> ChatClient.builder(chatModel)
+                .defaultAdvisors(metricsAdvisor).build()
+                .prompt().user("失眠").call().content());
+
+        assertEquals(1, registry.get(MetricsAdvisor.MODEL_TIMER)
+                .tags("mode", "call", "outcome", "error").timer().count());
+        assertEquals(0, registry.get(MetricsAdvisor.TOKEN_COUNTER).tags("type", "prompt").counter().count());
+    }
+
+    @Test
+    void retrievedDocumentCountIsRecorded() {
+        ChatClient.builder(chatModel)
+                .defaultAdvisors(new RetrievalStub(3), metricsAdvisor)
+                .build()
+                .prompt().user("感冒").call().content();
+
+        assertEquals(1, registry.get(MetricsAdvisor.RETRIEVED_DOCUMENTS).summary().count());
+        assertEquals(3, registry.get(MetricsAdvisor.RETRIEVED_DOCUMENTS).summary().totalAmount());
+    }
+
+    /**
+     * 模拟检索advisor：把若干文档放入请求上下文
+     */
+    private record RetrievalStub(int documents) implements CallAdvisor {
+
+        @Override
+        public ChatClientResponse adviseCall(ChatClientRequest request, CallAdvisorChain chain) {
+            Map<String, Object> context = new HashMap<>(request.context());
+            context.put(QuestionAnswerAdvisor.RETRIEVED_DOCUMENTS,
+                    IntStream.range(0, documents).mapToObj(i -> new Document("文档" + i)).toList());
+            return chain.nextCall(request.mutate().context(context).build());
+        }
+
+        @Override
+        public String getName() {
+            return "retrieval-stub";
+        }
+
+        @Override
+        public int getOrder() {
+            return 0;
+        }
+    }
+}
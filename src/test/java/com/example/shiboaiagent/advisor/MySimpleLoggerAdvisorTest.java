@@ -0,0 +1,88 @@
+package com.example.shiboaiagent.advisor;
+
+import com.example.shiboaiagent.logging.AdvisorEventLog;
+import com.example.shiboaiagent.logging.AdvisorLogEvent;
+import com.example.shiboaiagent.support.StubChatModel;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.event.Level;
+import org.springframework.ai.chat.client.ChatClient;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.ai.chat.memory.ChatMemory.CONVERSATION_ID;
+
+class MySimpleLoggerAdvisorTest {
+
+    private final List<AdvisorLogEvent> written = new CopyOnWriteArrayList<>();
+
+    private final AdvisorEventLog eventLog = AdvisorEventLog.builder()
+            .maxContentChars(10)
+            .sink(written::add)
+            .build();
+
+    private final StubChatModel chatModel = new StubChatModel()
+            .withResponder(prompt -> "针对「" + prompt.getUserMessage().getText() + "」的建议：规律作息，清淡饮食。")
+            .withStreamChunkSize(3);
+
+    private ChatClient chatClient() {
+        return ChatClient.builder(chatModel)
+                .defaultAdvisors(new MySimpleLoggerAdvisor(eventLog))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        eventLog.close();
+    }
+
+    @Test
+    void callProducesOneCappedEvent() {
+        String content = chatClient().prompt()
+                .user("失眠")
+                .advisors(spec -> spec.param(CONVERSATION_ID, "c1"))
+                .call()
+                .content();
+        eventLog.close();
+
+        assertEquals(1, written.size());
+        AdvisorLogEvent event = written.get(0);
+        assertEquals("call", event.mode());
+        assertEquals(AdvisorLogEvent.Outcome.OK, event.outcome());
+        assertEquals("c1", event.conversationId());
+        assertEquals("失眠", event.request());
+        assertEquals(content.substring(0, 10) + "...", event.response());
+        assertEquals(content.length(), event.responseLength());
+    }
+
+    @Test
+    void streamRecordsHeadAndFullLength() {
+        List<String> chunks = chatClient().prompt().user("头痛").stream().content().collectList().block();
+        eventLog.close();
+
+        String content = String.join("", chunks);
+        assertEquals(1, written.size());
+        AdvisorLogEvent event = written.get(0);
+        assertEquals("stream", event.mode());
+        assertEquals(AdvisorLogEvent.Outcome.OK, event.outcome());
+        assertEquals(content.substring(0, 10) + "...", event.response());
+        assertEquals(content.length(), event.responseLength());
+    }
+
+    @Test
+    void failedCallIsRecordedAsError() {
+        chatModel.withResponder(prompt -> {
+            throw new IllegalStateException("模型不可用");
+        });
+
+        assertThrows(IllegalStateException.class, () -> chatClient().prompt().user("失眠").call().content());
+        eventLog.close();
+
+        assertEquals(1, written.size());
+        assertEquals(Level.ERROR, written.get(0).level());
+        assertEquals(AdvisorLogEvent.Outcome.ERROR, written.get(0).outcome());
+    }
+}
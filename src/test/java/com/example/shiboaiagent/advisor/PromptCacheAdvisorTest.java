@@ -0,0 +1,172 @@
+package com.example.shiboaiagent.advisor;
+
+import com.example.shiboaiagent.support.StubChatModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.prompt.ChatOptions;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PromptCacheAdvisorTest {
+
+    private final StubChatModel chatModel = new StubChatModel();
+
+    private ChatClient chatClient(PromptCacheAdvisor promptCacheAdvisor) {
+        return ChatClient.builder(chatModel)
+                .defaultSystem("你是一位医生，你会帮助到用户")
+                .defaultAdvisors(promptCacheAdvisor)
+                .build();
+    }
+
+    @Test
+    void identicalPromptsCallTheModelOnce() {
+        PromptCacheAdvisor cache = PromptCacheAdvisor.builder().build();
+        ChatClient chatClient = chatClient(cache);
+
+        String first = chatClient.prompt().user("我失眠怎么办").call().content();
+        String second = chatClient.prompt().user("我失眠怎么办").call().content();
+
+        assertEquals(first, second);
+        assertEquals(1, chatModel.callCount());
+        assertEquals(1, cache.stats().hits());
+    }
+
+    @Test
+    void optionsAndBypassAreRespected() {
+        PromptCacheAdvisor cache = PromptCacheAdvisor.builder().build();
+        ChatClient chatClient = chatClient(cache);
+
+        chatClient.prompt().user("我失眠怎么办").call().content();
+        // 模型参数不同，指纹不同
+        chatClient.prompt().user("我失眠怎么办")
+                .options(ChatOptions.builder().temperature(0.1).build())
+                .call().content();
+        // 显式跳过缓存
+        chatClient.prompt().user("我失眠怎么办")
+                .advisors(spec -> spec.param(PromptCacheAdvisor.BYPASS, true))
+                .call().content();
+
+        assertEquals(3, chatModel.callCount());
+        assertEquals(0, cache.stats().hits());
+    }
+
+    @Test
+    void concurrentIdenticalRequestsAreCoalesced() throws Exception {
+        chatModel.withLatency(300);
+        PromptCacheAdvisor cache = PromptCacheAdvisor.builder().build();
+        ChatClient chatClient = chatClient(cache);
+
+        int requests = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<CompletableFuture<String>> results = new ArrayList<>();
+            for (int i = 0; i < requests; i++) {
+                results.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return chatClient.prompt().user("胃胀气吃什么药").call().content();
+                }, executor));
+            }
+            start.countDown();
+            String expected = results.get(0).get();
+            for (CompletableFuture<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, chatModel.callCount());
+        PromptCacheAdvisor.CacheStats stats = cache.stats();
+        assertEquals(requests - 1, stats.hits() + stats.coalesced());
+    }
+
+    @Test
+    void boundedByCharsAndTtl() throws InterruptedException {
+        chatModel.withResponder(prompt -> "x".repeat(100));
+        PromptCacheAdvisor cache = PromptCacheAdvisor.builder()
+                .maxTotalChars(250)
+                .ttl(Duration.ofMillis(200))
+                .build();
+        ChatClient chatClient = chatClient(cache);
+
+        chatClient.prompt().user("问题一").call().content();
+        chatClient.prompt().user("问题二").call().content();
+        chatClient.prompt().user("问题三").call().content();
+        assertEquals(2, cache.stats().size());
+        assertEquals(200, cache.stats().totalChars());
+
+        Thread.sleep(300);
+        chatClient.prompt().user("问题三").call().content();
+        assertEquals(4, chatModel.callCount());
+    }
+
+    @Test
+    void requestResultsArePublishedAsMeters() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PromptCacheAdvisor cache = PromptCacheAdvisor.builder().app("test").meterRegistry(registry).build();
+        ChatClient chatClient = chatClient(cache);
+
+        chatClient.prompt().user("我失眠怎么办").call().content();
+        chatClient.prompt().user("我失眠怎么办").call().content();
+        chatClient.prompt().user("我失眠怎么办").call().content();
+
+        assertEquals(2, registry.get(PromptCacheAdvisor.REQUESTS_COUNTER)
+                .tags("app", "test", "result", "hit").counter().count());
+        assertEquals(1, registry.get(PromptCacheAdvisor.REQUESTS_COUNTER)
+                .tags("app", "test", "result", "miss").counter().count());
+        assertEquals(0, registry.get(PromptCacheAdvisor.REQUESTS_COUNTER)
+                .tags("app", "test", "result", "coalesced").counter().count());
+    }
+
+    @Test
+    void coalescedRequestStopsWaitingAfterTimeout() throws Exception {
+        chatModel.withLatency(1_000);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        PromptCacheAdvisor cache = PromptCacheAdvisor.builder()
+                .coalesceTimeout(Duration.ofMillis(100))
+                .meterRegistry(registry)
+                .build();
+        ChatClient chatClient = chatClient(cache);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<String> first = CompletableFuture.supplyAsync(
+                    () -> chatClient.prompt().user("胃胀气吃什么药").call().content(), executor);
+            // 等第一个请求开始调用模型
+            while (chatModel.inFlightCalls() == 0) {
+                Thread.sleep(10);
+            }
+            long start = System.nanoTime();
+            String second = chatClient.prompt().user("胃胀气吃什么药").call().content();
+
+            assertEquals(first.get(30, TimeUnit.SECONDS), second);
+            // 等待超时后自己调用模型，与第一个请求并发执行
+            assertEquals(2, chatModel.callCount());
+            assertEquals(2, chatModel.maxConcurrentCalls());
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1_900));
+        } finally {
+            executor.shutdownNow();
+        }
+        PromptCacheAdvisor.CacheStats stats = cache.stats();
+        assertEquals(1, stats.coalesceTimeouts());
+        assertEquals(0, stats.coalesced());
+        assertEquals(2, stats.misses());
+        assertEquals(1, registry.get(PromptCacheAdvisor.COALESCE_TIMEOUT_COUNTER).counter().count());
+    }
+}
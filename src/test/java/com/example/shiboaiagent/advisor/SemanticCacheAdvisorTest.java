@@ -0,0 +1,144 @@
+package com.example.shiboaiagent.advisor;
+
+import com.example.shiboaiagent.support.StubChatModel;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.ai.chat.memory.ChatMemory.CONVERSATION_ID;
+
+class SemanticCacheAdvisorTest {
+
+    private final StubChatModel chatModel = new StubChatModel();
+
+    private ChatClient chatClient(SemanticCacheAdvisor semanticCacheAdvisor) {
+        MessageWindowChatMemory chatMemory = MessageWindowChatMemory.builder()
+                .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                .maxMessages(10)
+                .build();
+        return ChatClient.builder(chatModel)
+                .defaultSystem("你是一位{occupation}，你会帮助到用户")
+                .defaultAdvisors(MessageChatMemoryAdvisor.builder(chatMemory).build(), semanticCacheAdvisor)
+                .build();
+    }
+
+    private static String ask(ChatClient chatClient, String occupation, String message, String chatId) {
+        return chatClient.prompt()
+                .system(sp -> sp.param("occupation", occupation))
+                .user(message)
+                .advisors(spec -> spec.param(CONVERSATION_ID, chatId))
+                .call()
+                .content();
+    }
+
+    @Test
+    void similarOpeningQuestionsAreServedFromCache() {
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(new StubEmbeddingModel(256))
+                .similarityThreshold(0.7)
+                .build();
+        ChatClient chatClient = chatClient(cache);
+
+        String first = ask(chatClient, "医生", "我失眠怎么办", "user-1");
+        String second = ask(chatClient, "医生", "我失眠怎么办？", "user-2");
+
+        assertEquals(1, chatModel.callCount());
+        assertEquals(first, second);
+        assertEquals(1, cache.stats().hits());
+        assertEquals(1, cache.stats().misses());
+        assertEquals(0.5, cache.stats().hitRatio());
+    }
+
+    @Test
+    void emptyScopeSkipsTheQueryEmbedding() {
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(256);
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(embeddingModel).build();
+        ChatClient chatClient = chatClient(cache);
+
+        // 缓存为空：查找阶段不向量化，回答写入缓存时向量化一次
+        ask(chatClient, "医生", "我失眠怎么办", "user-1");
+        assertEquals(1, embeddingModel.callCount());
+
+        // 作用域内已有条目：查找时向量化，命中后不再写入
+        ask(chatClient, "医生", "我失眠怎么办", "user-2");
+        assertEquals(2, embeddingModel.callCount());
+        assertEquals(1, cache.stats().hits());
+
+        // 另一个作用域仍为空
+        ask(chatClient, "心理咨询师", "我失眠怎么办", "user-3");
+        assertEquals(3, embeddingModel.callCount());
+        assertEquals(2, cache.stats().misses());
+        assertEquals(2, chatModel.callCount());
+    }
+
+    @Test
+    void differentSystemPromptOrFollowUpTurnMisses() {
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(new StubEmbeddingModel(256)).build();
+        ChatClient chatClient = chatClient(cache);
+
+        ask(chatClient, "医生", "我失眠怎么办", "user-1");
+        // occupation 不同，系统提示词不同
+        ask(chatClient, "心理咨询师", "我失眠怎么办", "user-2");
+        // 同一对话的第二轮依赖上下文，不走缓存
+        ask(chatClient, "医生", "我失眠怎么办", "user-1");
+
+        assertEquals(3, chatModel.callCount());
+        assertEquals(0, cache.stats().hits());
+    }
+
+    @Test
+    void streamHitReplaysCachedAnswer() {
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(new StubEmbeddingModel(256))
+                .replayChunkSize(4)
+                .build();
+        ChatClient chatClient = chatClient(cache);
+
+        String streamed = String.join("", chatClient.prompt()
+                .system(sp -> sp.param("occupation", "医生"))
+                .user("我失眠怎么办")
+                .advisors(spec -> spec.param(CONVERSATION_ID, "user-1"))
+                .stream()
+                .content()
+                .collectList()
+                .block());
+
+        List<String> replayed = chatClient.prompt()
+                .system(sp -> sp.param("occupation", "医生"))
+                .user("我失眠怎么办")
+                .advisors(spec -> spec.param(CONVERSATION_ID, "user-2"))
+                .stream()
+                .content()
+                .collectList()
+                .block();
+
+        assertEquals(1, chatModel.streamCount());
+        assertTrue(replayed.size() > 1);
+        assertEquals(streamed, String.join("", replayed));
+    }
+
+    @Test
+    void entriesAreEvictedBySizeAndTtl() throws InterruptedException {
+        SemanticCacheAdvisor cache = SemanticCacheAdvisor.builder(new StubEmbeddingModel(256))
+                .maxEntries(2)
+                .ttl(Duration.ofMillis(200))
+                .build();
+        ChatClient chatClient = chatClient(cache);
+
+        ask(chatClient, "医生", "我失眠怎么办", "a");
+        ask(chatClient, "医生", "胃胀气吃什么药", "b");
+        ask(chatClient, "医生", "腰膝酸软是肾虚吗", "c");
+        assertTrue(cache.stats().size() <= 2);
+        assertTrue(cache.stats().evictions() >= 1);
+
+        Thread.sleep(300);
+        ask(chatClient, "医生", "腰膝酸软是肾虚吗", "d");
+        assertEquals(4, chatModel.callCount());
+    }
+}
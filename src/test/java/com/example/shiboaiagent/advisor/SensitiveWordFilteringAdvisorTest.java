@@ -0,0 +1,51 @@
+package com.example.shiboaiagent.advisor;
+
+import com.example.shiboaiagent.sensitive.SensitiveWordMatcher;
+import com.example.shiboaiagent.support.StubChatModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SensitiveWordFilteringAdvisorTest {
+
+    private final AtomicReference<SensitiveWordMatcher> matcher =
+            new AtomicReference<>(SensitiveWordMatcher.of(List.of("安眠药", "自残")));
+
+    private final StubChatModel chatModel = new StubChatModel()
+            .withResponder(prompt -> "不建议自行服用安眠药，" + prompt.getUserMessage().getText())
+            .withStreamChunkSize(3);
+
+    private ChatClient chatClient() {
+        return ChatClient.builder(chatModel)
+                .defaultAdvisors(SensitiveWordFilteringAdvisor.builder(matcher::get).build())
+                .build();
+    }
+
+    @Test
+    void userInputAndModelOutputAreMasked() {
+        String content = chatClient().prompt().user("我想自残").call().content();
+
+        assertEquals("我想**", chatModel.lastPrompt().getUserMessage().getText());
+        assertEquals("不建议自行服用***，我想**", content);
+    }
+
+    @Test
+    void streamedOutputIsMaskedAcrossChunkBoundaries() {
+        // 片段为 3 个字符，"安眠药"被拆在两个片段中
+        List<String> chunks = chatClient().prompt().user("失眠怎么办").stream().content().collectList().block();
+
+        assertEquals("不建议自行服用***，失眠怎么办", String.join("", chunks));
+    }
+
+    @Test
+    void reloadedDictionaryAppliesToTheNextRequest() {
+        ChatClient chatClient = chatClient();
+        matcher.set(SensitiveWordMatcher.of(List.of("失眠")));
+
+        assertEquals("不建议自行服用安眠药，**怎么办", chatClient.prompt().user("失眠怎么办").call().content());
+    }
+}
@@ -1,8 +1,10 @@
 package com.example.shiboaiagent.app;
 
+import com.example.shiboaiagent.rag.Bm25Index;
 import jakarta.annotation.Resource;
 import org.junit.jupiter.api.Test;
 import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -15,13 +17,19 @@ class PsychiatristApp4PdfDocumentTest {
     @Resource
     private ChatModel dashScopeChatModel;
 
+    @Resource
+    private VectorStore pagePdfVectorStore;
+
+    @Resource
+    private Bm25Index pagePdfKeywordIndex;
+
     @Resource
     private PsychiatristApp4PdfDocument psychiatristApp4PdfDocument;
     @Test
     void doChatWithRag() {
 
         // 手动创建实例，避免与其他Component冲突
-        psychiatristApp4PdfDocument = new PsychiatristApp4PdfDocument(dashScopeChatModel);
+        psychiatristApp4PdfDocument = new PsychiatristApp4PdfDocument(dashScopeChatModel, pagePdfVectorStore, pagePdfKeywordIndex);
 
         psychiatristApp4PdfDocument.doChatWithRag("我最近有点感冒，但我不知道该怎么做", "123");
     }
@@ -0,0 +1,67 @@
+package com.example.shiboaiagent.app;
+
+import com.example.shiboaiagent.support.StubChatModel;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * PsychiatristApp 发布到全局注册表的函数型指标，使用离线模型替身
+ */
+class PsychiatristAppMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private final StubChatModel chatModel = new StubChatModel();
+
+    @BeforeEach
+    void setUp() {
+        Metrics.addRegistry(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Metrics.removeRegistry(registry);
+    }
+
+    private double requests(String instance, String result) {
+        return registry.get("ai.semantic.cache.requests")
+                .tags("app", "psychiatrist", "instance", instance, "result", result)
+                .functionCounter().count();
+    }
+
+    @Test
+    void semanticCacheRequestsArePublishedPerInstance() {
+        PsychiatristApp first = new PsychiatristApp(chatModel, new StubEmbeddingModel(64));
+        PsychiatristApp second = new PsychiatristApp(chatModel, new StubEmbeddingModel(64));
+
+        first.doChat("我失眠怎么办", "a");
+        first.doChat("我失眠怎么办", "b");
+        second.doChat("胃胀气吃什么药", "c");
+
+        // 每个实例注册自己的计量器；同一进程中先前创建的实例编号更小，取最后两个
+        List<String> instances = registry.get("ai.semantic.cache.requests").tag("result", "hit")
+                .functionCounters().stream()
+                .map(counter -> counter.getId().getTag("instance"))
+                .sorted(Comparator.comparingInt(Integer::parseInt))
+                .toList();
+        assertTrue(instances.size() >= 2, instances.toString());
+        String firstInstance = instances.get(instances.size() - 2);
+        String secondInstance = instances.get(instances.size() - 1);
+
+        assertEquals(1, requests(firstInstance, "hit"));
+        assertEquals(1, requests(firstInstance, "miss"));
+        assertEquals(0, requests(secondInstance, "hit"));
+        assertEquals(1, requests(secondInstance, "miss"));
+        assertEquals(2, chatModel.callCount());
+    }
+}
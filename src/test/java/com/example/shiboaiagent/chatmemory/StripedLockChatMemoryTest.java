@@ -0,0 +1,56 @@
+package com.example.shiboaiagent.chatmemory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StripedLockChatMemoryTest {
+
+    @Test
+    void concurrentTurnsOnSameConversationAreNotLost() throws Exception {
+        StripedLockChatMemory chatMemory = new StripedLockChatMemory(
+                MessageWindowChatMemory.builder()
+                        .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                        .maxMessages(10_000)
+                        .build(),
+                new ConversationLockStripes(16));
+
+        int threads = 32;
+        int turnsPerThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int turn = 0; turn < turnsPerThread; turn++) {
+                        chatMemory.add("same-chat", new UserMessage(thread + "-" + turn));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * turnsPerThread, chatMemory.get("same-chat").size());
+        assertEquals(threads * turnsPerThread + 1, chatMemory.lockStats().acquisitions());
+    }
+}
@@ -0,0 +1,194 @@
+package com.example.shiboaiagent.chatmemory;
+
+import com.example.shiboaiagent.chatmemoryrepository.CachingChatMemoryRepository;
+import com.example.shiboaiagent.chatmemoryrepository.FileChatMemoryRepository;
+import com.example.shiboaiagent.support.StubChatModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SummarizingChatMemoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final StubChatModel chatModel = new StubChatModel()
+            .withResponder(prompt -> "患者失眠两周，已建议规律作息。");
+
+    private SummarizingChatMemory memory(ChatMemoryRepository repository) {
+        return builder(repository).build();
+    }
+
+    private SummarizingChatMemory.Builder builder(ChatMemoryRepository repository) {
+        return SummarizingChatMemory.builder(
+                        MessageWindowChatMemory.builder()
+                                .chatMemoryRepository(repository)
+                                .maxMessages(1000)
+                                .build(),
+                        repository,
+                        chatModel)
+                .summarizeAfterMessages(6)
+                .keepRecentMessages(4);
+    }
+
+    private static void turn(SummarizingChatMemory memory, String chatId, int turn) {
+        memory.add(chatId, List.of(new UserMessage("问题" + turn), new AssistantMessage("回答" + turn)));
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean(), "condition not met in time");
+    }
+
+    @Test
+    void olderTurnsAreCompactedIntoASummary() throws InterruptedException {
+        try (SummarizingChatMemory memory = memory(new InMemoryChatMemoryRepository())) {
+            for (int i = 0; i < 4; i++) {
+                turn(memory, "chat", i);
+            }
+            await(() -> memory.stats().summaries() == 1 && memory.stats().pending() == 0);
+
+            List<Message> messages = memory.get("chat");
+            assertEquals(5, messages.size());
+            assertTrue(SummarizingChatMemory.isSummary(messages.get(0)));
+            assertTrue(messages.get(0).getText().contains("患者失眠两周"));
+            assertEquals("问题2", messages.get(1).getText());
+            assertEquals("回答3", messages.get(4).getText());
+            assertEquals(4, memory.stats().summarizedMessages());
+
+            // 摘要请求里带上了被压缩的原文
+            String request = chatModel.lastPrompt().getUserMessage().getText();
+            assertTrue(request.contains("患者：问题0") && request.contains("医生：回答1"), request);
+        }
+    }
+
+    @Test
+    void nextSummaryIncludesThePreviousOne() throws InterruptedException {
+        try (SummarizingChatMemory memory = memory(new InMemoryChatMemoryRepository())) {
+            for (int i = 0; i < 4; i++) {
+                turn(memory, "chat", i);
+            }
+            await(() -> memory.stats().summaries() == 1 && memory.stats().pending() == 0);
+            for (int i = 4; i < 6; i++) {
+                turn(memory, "chat", i);
+            }
+            await(() -> memory.stats().summaries() == 2 && memory.stats().pending() == 0);
+
+            String request = chatModel.lastPrompt().getUserMessage().getText();
+            assertTrue(request.contains("已有的病情摘要"), request);
+            assertFalse(request.contains("问题0"), request);
+            assertEquals(5, memory.get("chat").size());
+        }
+    }
+
+    @Test
+    void requestPathDoesNotWaitForTheModel() {
+        chatModel.withLatency(2_000);
+        try (SummarizingChatMemory memory = memory(new InMemoryChatMemoryRepository())) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                turn(memory, "chat", i);
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertTrue(elapsedMillis < 1_000, "add should not block on summarization: " + elapsedMillis + " ms");
+            assertEquals(20, memory.get("chat").size());
+        }
+    }
+
+    @Test
+    void clearedConversationDiscardsTheStaleSummary() throws InterruptedException {
+        chatModel.withLatency(300);
+        try (SummarizingChatMemory memory = memory(new InMemoryChatMemoryRepository())) {
+            for (int i = 0; i < 4; i++) {
+                turn(memory, "chat", i);
+            }
+            // 等摘要任务读完历史、开始调用模型后再清空对话
+            await(() -> chatModel.inFlightCalls() == 1);
+            memory.clear("chat");
+            await(() -> memory.stats().pending() == 0 && memory.stats().discarded() == 1);
+
+            assertTrue(memory.get("chat").isEmpty());
+        }
+    }
+
+    @Test
+    void summaryIsPersistedThroughTheFileRepository() throws InterruptedException {
+        try (SummarizingChatMemory memory = memory(new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG))) {
+            for (int i = 0; i < 4; i++) {
+                turn(memory, "chat", i);
+            }
+            await(() -> memory.stats().summaries() == 1 && memory.stats().pending() == 0);
+        }
+
+        // 模拟重启：新的仓库实例从文件中读取
+        List<Message> reloaded = new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG).findByConversationId("chat");
+        assertEquals(5, reloaded.size());
+        assertTrue(SummarizingChatMemory.isSummary(reloaded.get(0)));
+        assertEquals("问题2", reloaded.get(1).getText());
+    }
+
+    @Test
+    void closeWaitsForThePendingSummaryBeforeTheCacheFlushes() throws InterruptedException {
+        chatModel.withLatency(300);
+        CachingChatMemoryRepository cache = CachingChatMemoryRepository.builder(new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG)).build();
+        SummarizingChatMemory memory = memory(cache);
+        for (int i = 0; i < 4; i++) {
+            turn(memory, "chat", i);
+        }
+        await(() -> chatModel.inFlightCalls() == 1);
+
+        // 与应用关闭的顺序相同：先结束摘要任务，再关闭写回缓存
+        memory.close();
+        cache.close();
+
+        assertEquals(1, memory.stats().summaries());
+        List<Message> reloaded = new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG).findByConversationId("chat");
+        assertEquals(5, reloaded.size());
+        assertTrue(SummarizingChatMemory.isSummary(reloaded.get(0)));
+    }
+
+    @Test
+    void closeCancelsSummariesThatOutliveTheTimeout() throws InterruptedException {
+        chatModel.withLatency(2_000);
+        InMemoryChatMemoryRepository repository = new InMemoryChatMemoryRepository();
+        SummarizingChatMemory memory = builder(repository)
+                .shutdownTimeout(Duration.ofMillis(100))
+                .build();
+        for (int i = 0; i < 4; i++) {
+            turn(memory, "chat", i);
+        }
+        await(() -> chatModel.inFlightCalls() == 1);
+
+        long start = System.nanoTime();
+        memory.close();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 1_500, "close should not wait for the model: " + elapsedMillis + " ms");
+        await(() -> memory.stats().pending() == 0);
+        assertEquals(0, memory.stats().summaries());
+        // 取消后返回的摘要不再写入，历史保持原样
+        assertEquals(8, repository.findByConversationId("chat").size());
+    }
+}
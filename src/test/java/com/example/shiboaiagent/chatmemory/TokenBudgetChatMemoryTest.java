@@ -0,0 +1,162 @@
+package com.example.shiboaiagent.chatmemory;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.content.MediaContent;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenBudgetChatMemoryTest {
+
+    /**
+     * 每个字符算一个 token，便于精确断言
+     */
+    private static final TokenCountEstimator CHAR_COUNT = new TokenCountEstimator() {
+        @Override
+        public int estimate(String text) {
+            return text == null ? 0 : text.length();
+        }
+
+        @Override
+        public int estimate(MediaContent content) {
+            return estimate(content.getText());
+        }
+
+        @Override
+        public int estimate(Iterable<MediaContent> messages) {
+            int total = 0;
+            for (MediaContent message : messages) {
+                total += estimate(message);
+            }
+            return total;
+        }
+    };
+
+    private static TokenBudgetChatMemory memory(int maxTokens) {
+        return TokenBudgetChatMemory.builder()
+                .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                .tokenCountEstimator(CHAR_COUNT)
+                .maxTokens(maxTokens)
+                .build();
+    }
+
+    @Test
+    void shortHistoryIsSentUntouched() {
+        TokenBudgetChatMemory memory = memory(1000);
+        memory.add("chat", List.of(new UserMessage("你好"), new AssistantMessage("你好，有什么可以帮你？")));
+
+        assertEquals(2, memory.get("chat").size());
+        assertEquals(0, memory.stats().tokensSaved());
+        assertEquals(0, memory.stats().trimmedRequests());
+    }
+
+    @Test
+    void longHistoryIsTrimmedFromTheOldestTurn() {
+        TokenBudgetChatMemory memory = memory(60);
+        // 每条消息 10 个字符 + 4 个固定开销 = 14 token
+        for (int turn = 0; turn < 5; turn++) {
+            memory.add("chat", List.of(new UserMessage("第" + turn + "轮问题，我失眠了"), new AssistantMessage("第" + turn + "轮回答，早点睡觉")));
+        }
+
+        List<Message> kept = memory.get("chat");
+
+        // 60 token 只够最近两轮（4 条消息，56 token）
+        assertEquals(4, kept.size());
+        assertInstanceOf(UserMessage.class, kept.get(0));
+        assertEquals("第3轮问题，我失眠了", kept.get(0).getText());
+        assertEquals("第4轮回答，早点睡觉", kept.get(3).getText());
+        TokenBudgetChatMemory.TokenBudgetStats stats = memory.stats();
+        assertEquals(1, stats.trimmedRequests());
+        assertEquals(56, stats.tokensSent());
+        assertEquals(14 * 10 - 56, stats.tokensSaved());
+        assertEquals(84.0, stats.tokensSavedPerRequest());
+    }
+
+    @Test
+    void tokensPerRequestArePublishedAsDistributions() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TokenBudgetChatMemory memory = TokenBudgetChatMemory.builder()
+                .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                .tokenCountEstimator(CHAR_COUNT)
+                .maxTokens(60)
+                .app("test")
+                .meterRegistry(registry)
+                .build();
+        memory.add("chat", List.of(new UserMessage("第0轮问题，我失眠了"), new AssistantMessage("第0轮回答，早点睡觉")));
+        memory.get("chat");
+        for (int turn = 1; turn < 5; turn++) {
+            memory.add("chat", List.of(new UserMessage("第" + turn + "轮问题，我失眠了"), new AssistantMessage("第" + turn + "轮回答，早点睡觉")));
+        }
+        memory.get("chat");
+
+        DistributionSummary saved = registry.get(TokenBudgetChatMemory.TOKENS_SAVED).tag("app", "test").summary();
+        DistributionSummary sent = registry.get(TokenBudgetChatMemory.TOKENS_SENT).tag("app", "test").summary();
+        // 未裁剪的请求记为节省 0
+        assertEquals(2, saved.count());
+        assertEquals(14 * 10 - 56, saved.totalAmount());
+        assertEquals(14 * 10 - 56, saved.max());
+        assertEquals(28 + 56, sent.totalAmount());
+    }
+
+    @Test
+    void systemMessageAndLatestTurnAreAlwaysKept() {
+        TokenBudgetChatMemory memory = memory(10);
+        memory.add("chat", List.of(
+                new SystemMessage("你是一位医生"),
+                new UserMessage("以前的问题"),
+                new AssistantMessage("以前的回答"),
+                new UserMessage("这是一段远远超过预算的很长很长的最新问题描述"),
+                new AssistantMessage("这是同样很长的最新回答内容")));
+
+        List<Message> kept = memory.get("chat");
+
+        assertEquals(3, kept.size());
+        assertInstanceOf(SystemMessage.class, kept.get(0));
+        assertEquals("这是一段远远超过预算的很长很长的最新问题描述", kept.get(1).getText());
+        assertTrue(memory.stats().tokensSaved() > 0);
+    }
+
+    @Test
+    void trimmedHistoryNeverStartsWithAnOrphanReply() {
+        TokenBudgetChatMemory memory = memory(30);
+        memory.add("chat", List.of(
+                new UserMessage("一二三四五六七八九十"),
+                new AssistantMessage("一二三四五六"),
+                new UserMessage("一二三"),
+                new AssistantMessage("一二三")));
+
+        // 最近一轮 14 token，前一条回答 10 token 放得下，但它前面的提问（14 token）放不下：回答也不保留
+        List<Message> kept = memory.get("chat");
+
+        assertEquals(2, kept.size());
+        assertInstanceOf(UserMessage.class, kept.get(0));
+    }
+
+    @Test
+    void newSystemMessageReplacesTheOldOneAndStorageIsCapped() {
+        TokenBudgetChatMemory memory = TokenBudgetChatMemory.builder()
+                .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                .tokenCountEstimator(CHAR_COUNT)
+                .maxStoredMessages(3)
+                .build();
+        memory.add("chat", List.of(new SystemMessage("旧的系统提示词"), new UserMessage("1")));
+        memory.add("chat", List.of(new SystemMessage("新的系统提示词"), new UserMessage("2"), new UserMessage("3")));
+
+        List<Message> stored = memory.get("chat");
+        assertEquals(3, stored.size());
+        assertEquals("新的系统提示词", stored.get(0).getText());
+        assertEquals("2", stored.get(1).getText());
+        assertEquals("3", stored.get(2).getText());
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingChatMemoryRepositoryTest {
+
+    /** 统计读写次数的底层仓库 */
+    static class CountingRepository implements ChatMemoryRepository {
+        final ChatMemoryRepository store = new InMemoryChatMemoryRepository();
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger writes = new AtomicInteger();
+
+        @Override
+        public List<String> findConversationIds() {
+            return store.findConversationIds();
+        }
+
+        @Override
+        public List<Message> findByConversationId(String conversationId) {
+            reads.incrementAndGet();
+            return store.findByConversationId(conversationId);
+        }
+
+        @Override
+        public void saveAll(String conversationId, List<Message> messages) {
+            writes.incrementAndGet();
+            store.saveAll(conversationId, messages);
+        }
+
+        @Override
+        public void deleteByConversationId(String conversationId) {
+            store.deleteByConversationId(conversationId);
+        }
+    }
+
+    @Test
+    void writeBehindCoalescesSavesAndFlushesOnClose() {
+        CountingRepository delegate = new CountingRepository();
+        CachingChatMemoryRepository repository = CachingChatMemoryRepository.builder(delegate)
+                .flushInterval(Duration.ofHours(1))
+                .build();
+
+        List<Message> messages = new ArrayList<>();
+        for (int turn = 0; turn < 20; turn++) {
+            messages = repository.findByConversationId("chat");
+            messages.add(new UserMessage("第" + turn + "轮"));
+            repository.saveAll("chat", messages);
+        }
+
+        // 只有第一次读取未命中，写入全部停留在缓存中
+        assertEquals(1, delegate.reads.get());
+        assertEquals(0, delegate.writes.get());
+        assertTrue(repository.findConversationIds().contains("chat"));
+
+        repository.close();
+        assertEquals(1, delegate.writes.get());
+        assertEquals(20, delegate.store.findByConversationId("chat").size());
+    }
+
+    @Test
+    void writeThroughPersistsBeforeReturning() {
+        CountingRepository delegate = new CountingRepository();
+        CachingChatMemoryRepository repository = CachingChatMemoryRepository.builder(delegate)
+                .durability(CachingChatMemoryRepository.Durability.WRITE_THROUGH)
+                .build();
+
+        repository.saveAll("chat", List.of(new UserMessage("你好")));
+        assertEquals(1, delegate.writes.get());
+
+        repository.deleteByConversationId("chat");
+        assertTrue(delegate.store.findByConversationId("chat").isEmpty());
+        repository.close();
+    }
+
+    @Test
+    void deleteIsNotUndoneByConcurrentMissLoad() throws Exception {
+        CountDownLatch loaded = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingRepository delegate = new CountingRepository() {
+            @Override
+            public List<Message> findByConversationId(String conversationId) {
+                List<Message> messages = super.findByConversationId(conversationId);
+                // 读到删除前的数据后停住，让删除在加载完成之前发起
+                loaded.countDown();
+                await(release);
+                return messages;
+            }
+        };
+        delegate.store.saveAll("chat", List.of(new UserMessage("删除前的消息")));
+        CachingChatMemoryRepository repository = CachingChatMemoryRepository.builder(delegate)
+                .flushInterval(Duration.ofHours(1))
+                .build();
+
+        CompletableFuture<List<Message>> load = CompletableFuture.supplyAsync(
+                () -> repository.findByConversationId("chat"));
+        loaded.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Void> delete = CompletableFuture.runAsync(() -> repository.deleteByConversationId("chat"));
+        Thread.sleep(100);
+        release.countDown();
+        load.get(5, TimeUnit.SECONDS);
+        delete.get(5, TimeUnit.SECONDS);
+
+        assertTrue(repository.findByConversationId("chat").isEmpty());
+        repository.close();
+        assertTrue(delegate.store.findByConversationId("chat").isEmpty());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 并发压力测试：64 个对话同时读写同一个仓库，验证序列化结果没有串写或损坏
+ */
+class FileChatMemoryRepositoryConcurrencyTest {
+
+    private static final int CONVERSATIONS = 64;
+
+    private static final int TURNS = 30;
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @EnumSource(FileChatMemoryRepository.StorageMode.class)
+    void parallelConversationsDoNotCorruptEachOther(FileChatMemoryRepository.StorageMode mode) throws Exception {
+        FileChatMemoryRepository repository = new FileChatMemoryRepository(tempDir.toString(), mode);
+        ExecutorService executor = Executors.newFixedThreadPool(CONVERSATIONS);
+        CountDownLatch start = new CountDownLatch(1);
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < CONVERSATIONS; c++) {
+                String conversationId = "conversation-" + c;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int turn = 0; turn < TURNS; turn++) {
+                        // 与 MessageWindowChatMemory 相同的读-改-写流程
+                        List<Message> messages = new ArrayList<>(repository.findByConversationId(conversationId));
+                        messages.add(new UserMessage(conversationId + " 问题 " + turn));
+                        messages.add(new AssistantMessage(conversationId + " 回答 " + turn));
+                        while (messages.size() > 10) {
+                            messages.remove(0);
+                        }
+                        repository.saveAll(conversationId, messages);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(CONVERSATIONS, repository.findConversationIds().size());
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            String conversationId = "conversation-" + c;
+            List<Message> messages = repository.findByConversationId(conversationId);
+            assertEquals(10, messages.size());
+            for (int i = 0; i < messages.size(); i += 2) {
+                int turn = TURNS - 5 + i / 2;
+                assertTrue(messages.get(i) instanceof UserMessage);
+                assertEquals(conversationId + " 问题 " + turn, messages.get(i).getText());
+                assertTrue(messages.get(i + 1) instanceof AssistantMessage);
+                assertEquals(conversationId + " 回答 " + turn, messages.get(i + 1).getText());
+            }
+        }
+    }
+
+    @Test
+    void readersDoNotTruncateRecordsBeingAppended() throws Exception {
+        // 读取方和写入方并发访问同一个对话，读取时的尾部修复不能截掉正在追加的记录
+        FileChatMemoryRepository repository = new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean writing = new AtomicBoolean(true);
+
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 3; r++) {
+                readers.add(executor.submit(() -> {
+                    while (writing.get()) {
+                        repository.findByConversationId("chat");
+                    }
+                    return null;
+                }));
+            }
+            List<Message> messages = new ArrayList<>();
+            for (int turn = 0; turn < 200; turn++) {
+                messages.add(new UserMessage("问题 " + turn));
+                messages.add(new AssistantMessage("回答 " + turn));
+                repository.saveAll("chat", messages);
+            }
+            writing.set(false);
+            for (Future<?> reader : readers) {
+                reader.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            writing.set(false);
+            executor.shutdownNow();
+        }
+
+        // 读取方不会把写了一半的记录当成损坏尾部截掉
+        List<Message> reloaded = new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG).findByConversationId("chat");
+        assertEquals(400, reloaded.size());
+        assertEquals("回答 199", reloaded.get(399).getText());
+    }
+}
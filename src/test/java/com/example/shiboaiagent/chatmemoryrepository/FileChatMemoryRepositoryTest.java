@@ -0,0 +1,192 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileChatMemoryRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void appendLogReplaysWindowedHistory() {
+        FileChatMemoryRepository repository = new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG);
+
+        // 模拟滑动窗口：每轮追加两条消息，只保留最近4条
+        List<Message> window = new ArrayList<>();
+        for (int turn = 0; turn < 5; turn++) {
+            window.add(new UserMessage("问题" + turn));
+            window.add(new AssistantMessage("回答" + turn));
+            while (window.size() > 4) {
+                window.remove(0);
+            }
+            repository.saveAll("chat", window);
+        }
+
+        List<Message> loaded = repository.findByConversationId("chat");
+        assertEquals(4, loaded.size());
+        assertEquals("问题3", loaded.get(0).getText());
+        assertEquals("回答4", loaded.get(3).getText());
+        assertEquals(List.of("chat"), repository.findConversationIds());
+    }
+
+    @Test
+    void appendLogRecoversFromTornTail() throws Exception {
+        FileChatMemoryRepository repository = new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG);
+        repository.saveAll("chat", List.of(new UserMessage("你好"), new AssistantMessage("你好，有什么可以帮你？")));
+
+        // 模拟写到一半崩溃：尾部只写入了半条记录
+        File logFile = new File(tempDir.toFile(), "chat.log");
+        long intactLength = logFile.length();
+        try (FileOutputStream out = new FileOutputStream(logFile, true)) {
+            out.write(new byte[]{0, 0, 0, 42, 1, 2});
+        }
+
+        List<Message> loaded = repository.findByConversationId("chat");
+        assertEquals(2, loaded.size());
+        assertEquals(intactLength, logFile.length());
+
+        // 修复后可以继续追加
+        List<Message> next = new ArrayList<>(loaded);
+        next.add(new UserMessage("我最近有点失眠"));
+        repository.saveAll("chat", next);
+        assertEquals("我最近有点失眠", repository.findByConversationId("chat").get(2).getText());
+    }
+
+    @Test
+    void appendLogCompactsDeadRecords() {
+        FileChatMemoryRepository repository = new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG, 8);
+        File logFile = new File(tempDir.toFile(), "chat.log");
+
+        List<Message> window = new ArrayList<>();
+        long maxLength = 0;
+        for (int turn = 0; turn < 100; turn++) {
+            window.add(new UserMessage("问题" + turn));
+            if (window.size() > 2) {
+                window.remove(0);
+            }
+            repository.saveAll("chat", window);
+            maxLength = Math.max(maxLength, logFile.length());
+        }
+
+        assertEquals("问题99", repository.findByConversationId("chat").get(1).getText());
+
+        // 日志会被周期性压缩，不会随轮数无限增长：最大长度只是两条消息日志的常数倍
+        repository.saveAll("fresh", window);
+        long freshLength = new File(tempDir.toFile(), "fresh.log").length();
+        assertTrue(maxLength < freshLength * 8);
+    }
+
+    @Test
+    void appendLogReplaysOnlyOnFirstAccess() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            FileChatMemoryRepository repository = new FileChatMemoryRepository(
+                    tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG);
+            double before = replays(registry);
+
+            for (int turn = 0; turn < 20; turn++) {
+                // 与 MessageWindowChatMemory 相同的读-改-写流程
+                List<Message> history = new ArrayList<>(repository.findByConversationId("chat"));
+                history.add(new UserMessage("问题" + turn));
+                history.add(new AssistantMessage("回答" + turn));
+                repository.saveAll("chat", history);
+            }
+
+            // 每轮保存只追加增量，不会重新回放整个日志
+            assertEquals(1, replays(registry) - before);
+            assertEquals(40, repository.findByConversationId("chat").size());
+
+            // 新实例（例如重启后）回放一次即可恢复
+            FileChatMemoryRepository restarted = new FileChatMemoryRepository(
+                    tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG);
+            assertEquals("回答19", restarted.findByConversationId("chat").get(39).getText());
+            assertEquals(2, replays(registry) - before);
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    @Test
+    void appendLogKeepsOnlyRecentlyUsedStatesInMemory() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        Metrics.addRegistry(registry);
+        try {
+            FileChatMemoryRepository repository = new FileChatMemoryRepository(
+                    tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG, 64, 2);
+            for (String chatId : List.of("a", "b", "c")) {
+                repository.saveAll(chatId, List.of(new UserMessage("问题-" + chatId), new AssistantMessage("回答-" + chatId)));
+            }
+            double before = replays(registry);
+
+            // c、b 仍在内存中，a 已被淘汰，重新访问时回放一次日志
+            repository.findByConversationId("c");
+            repository.findByConversationId("b");
+            assertEquals(0, replays(registry) - before);
+            List<Message> evicted = repository.findByConversationId("a");
+            assertEquals(1, replays(registry) - before);
+            assertEquals("回答-a", evicted.get(1).getText());
+
+            // 淘汰后的对话继续追加，日志内容保持完整
+            List<Message> next = new ArrayList<>(evicted);
+            next.add(new UserMessage("追问-a"));
+            repository.saveAll("a", next);
+            List<Message> reloaded = new FileChatMemoryRepository(
+                    tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG).findByConversationId("a");
+            assertEquals(3, reloaded.size());
+            assertEquals("追问-a", reloaded.get(2).getText());
+        } finally {
+            Metrics.removeRegistry(registry);
+        }
+    }
+
+    @Test
+    void appendLogMigratesExistingSnapshot() {
+        FileChatMemoryRepository snapshotRepository = new FileChatMemoryRepository(tempDir.toString());
+        snapshotRepository.saveAll("chat", List.of(new UserMessage("你好"), new AssistantMessage("你好，有什么可以帮你？")));
+        File snapshotFile = new File(tempDir.toFile(), "chat.kryo");
+        assertTrue(snapshotFile.exists());
+
+        FileChatMemoryRepository repository = new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG);
+        // 切换存储模式后旧对话仍然可见
+        assertEquals(List.of("chat"), repository.findConversationIds());
+
+        List<Message> loaded = repository.findByConversationId("chat");
+        assertEquals(2, loaded.size());
+        assertEquals("你好，有什么可以帮你？", loaded.get(1).getText());
+        assertFalse(snapshotFile.exists());
+        assertTrue(new File(tempDir.toFile(), "chat.log").exists());
+
+        List<Message> next = new ArrayList<>(loaded);
+        next.add(new UserMessage("我最近有点失眠"));
+        repository.saveAll("chat", next);
+        List<Message> reloaded = new FileChatMemoryRepository(
+                tempDir.toString(), FileChatMemoryRepository.StorageMode.APPEND_LOG).findByConversationId("chat");
+        assertEquals(3, reloaded.size());
+        assertEquals("你好", reloaded.get(0).getText());
+    }
+
+    private static double replays(SimpleMeterRegistry registry) {
+        return registry.get("ai.memory.file.replay").tag("mode", "APPEND_LOG").counter().count();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedChatMemoryRepositoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void savesListsAndReloadsConversations() {
+        try (MappedChatMemoryRepository repository = new MappedChatMemoryRepository(tempDir.toString(), 64 * 1024)) {
+            for (int i = 0; i < 2000; i++) {
+                repository.saveAll("chat-" + i, List.of(new UserMessage("问题" + i), new AssistantMessage("回答" + i)));
+            }
+            repository.deleteByConversationId("chat-7");
+
+            // 分页遍历得到全部对话，且没有重复
+            Set<String> ids = new HashSet<>();
+            for (int page = 0; ; page++) {
+                List<String> pageIds = repository.findConversationIds(page, 300);
+                if (pageIds.isEmpty()) {
+                    break;
+                }
+                ids.addAll(pageIds);
+            }
+            assertEquals(1999, ids.size());
+            assertEquals(1999, repository.conversationCount());
+        }
+
+        // 重新打开后通过回放重建索引
+        try (MappedChatMemoryRepository reopened = new MappedChatMemoryRepository(tempDir.toString(), 64 * 1024)) {
+            List<Message> messages = reopened.findByConversationId("chat-1234");
+            assertEquals(2, messages.size());
+            assertEquals("回答1234", messages.get(1).getText());
+            assertTrue(reopened.findByConversationId("chat-7").isEmpty());
+            assertEquals(1999, reopened.findConversationIds().size());
+        }
+    }
+
+    @Test
+    void compactsOverwrittenRecords() throws Exception {
+        try (MappedChatMemoryRepository repository = new MappedChatMemoryRepository(tempDir.toString(), 16 * 1024)) {
+            for (int turn = 0; turn < 2000; turn++) {
+                repository.saveAll("chat-" + (turn % 10), List.of(new UserMessage("第" + turn + "轮")));
+            }
+            assertEquals("第1999轮", repository.findByConversationId("chat-9").get(0).getText());
+        }
+
+        // 旧段被压缩删除，磁盘占用只与有效数据量相关
+        try (Stream<Path> files = Files.list(tempDir)) {
+            assertTrue(files.filter(p -> p.getFileName().toString().endsWith(".dat")).count() <= 3);
+        }
+        try (MappedChatMemoryRepository reopened = new MappedChatMemoryRepository(tempDir.toString(), 16 * 1024)) {
+            assertEquals(10, reopened.conversationCount());
+            assertEquals("第1990轮", reopened.findByConversationId("chat-0").get(0).getText());
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import com.alibaba.cloud.ai.dashscope.api.DashScopeApi;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.junit.jupiter.api.Test;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.content.Media;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MessageKryoPoolTest {
+
+    private static List<Message> conversation() {
+        UserMessage user = UserMessage.builder()
+                .text("这是我的睡眠记录")
+                .media(List.of(
+                        new Media(MimeTypeUtils.IMAGE_PNG, URI.create("https://example.com/sleep.png")),
+                        Media.builder()
+                                .mimeType(MimeType.valueOf("text/plain;charset=UTF-8"))
+                                .data(new byte[]{1, 2, 3})
+                                .name("diary")
+                                .build()))
+                .build();
+        AssistantMessage assistant = new AssistantMessage("建议规律作息", Map.of(
+                "finishReason", "STOP",
+                "role", DashScopeApi.ChatCompletionMessage.Role.ASSISTANT,
+                "usage", new DefaultUsage(12, 34)));
+        return new ArrayList<>(List.of(user, assistant));
+    }
+
+    private static byte[] write(Kryo kryo, List<Message> messages) {
+        try (Output output = new Output(1024, -1)) {
+            kryo.writeObject(output, messages);
+            return output.toBytes();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Message> read(Kryo kryo, byte[] bytes) {
+        try (Input input = new Input(bytes)) {
+            return (List<Message>) kryo.readObject(input, ArrayList.class);
+        }
+    }
+
+    private static void assertConversation(List<Message> loaded) {
+        assertEquals(2, loaded.size());
+
+        UserMessage user = (UserMessage) loaded.get(0);
+        assertEquals("这是我的睡眠记录", user.getText());
+        assertEquals(2, user.getMedia().size());
+        Media image = user.getMedia().get(0);
+        assertEquals(MimeTypeUtils.IMAGE_PNG, image.getMimeType());
+        assertEquals("https://example.com/sleep.png", image.getData().toString());
+        Media diary = user.getMedia().get(1);
+        assertEquals(MimeType.valueOf("text/plain;charset=UTF-8"), diary.getMimeType());
+        assertEquals("UTF-8", diary.getMimeType().getCharset().name());
+        assertEquals("diary", diary.getName());
+        assertArrayEquals(new byte[]{1, 2, 3}, diary.getDataAsByteArray());
+
+        AssistantMessage assistant = (AssistantMessage) loaded.get(1);
+        assertEquals("建议规律作息", assistant.getText());
+        assertEquals("STOP", assistant.getMetadata().get("finishReason"));
+        assertEquals(DashScopeApi.ChatCompletionMessage.Role.ASSISTANT, assistant.getMetadata().get("role"));
+        assertEquals(new DefaultUsage(12, 34), assistant.getMetadata().get("usage"));
+    }
+
+    @Test
+    void roundTripsMediaAndProviderMetadata() {
+        Kryo kryo = MessageKryoPool.createKryo();
+
+        assertConversation(read(kryo, write(kryo, conversation())));
+    }
+
+    @Test
+    void readsFilesWrittenWithoutRegistrations() {
+        // 旧版本的 Kryo 配置：不注册任何类型，全部按类名写入
+        Kryo legacy = new Kryo();
+        legacy.setRegistrationRequired(false);
+        legacy.setInstantiatorStrategy(new StdInstantiatorStrategy());
+        List<Message> messages = List.of(new UserMessage("你好"), new AssistantMessage("你好，有什么可以帮你？"));
+
+        List<Message> loaded = read(MessageKryoPool.createKryo(), write(legacy, new ArrayList<>(messages)));
+
+        assertEquals(2, loaded.size());
+        assertEquals("你好", loaded.get(0).getText());
+        assertEquals("你好，有什么可以帮你？", loaded.get(1).getText());
+    }
+}
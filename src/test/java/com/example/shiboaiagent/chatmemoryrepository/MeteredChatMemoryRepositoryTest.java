@@ -0,0 +1,35 @@
+package com.example.shiboaiagent.chatmemoryrepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MeteredChatMemoryRepositoryTest {
+
+    @Test
+    void loadAndSaveAreTimedPerApp() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        MeteredChatMemoryRepository repository = MeteredChatMemoryRepository.builder(new InMemoryChatMemoryRepository())
+                .app("file-memory")
+                .meterRegistry(registry)
+                .build();
+
+        repository.saveAll("chat", List.of(new UserMessage("失眠")));
+        List<Message> messages = repository.findByConversationId("chat");
+        repository.findByConversationId("other");
+
+        assertEquals(1, messages.size());
+        assertEquals(1, registry.get(MeteredChatMemoryRepository.SAVE_TIMER).tag("app", "file-memory").timer().count());
+        assertEquals(2, registry.get(MeteredChatMemoryRepository.LOAD_TIMER).tag("app", "file-memory").timer().count());
+        // 列表、删除操作不计时
+        repository.deleteByConversationId("chat");
+        assertEquals(List.of(), repository.findConversationIds());
+        assertEquals(2, registry.get(MeteredChatMemoryRepository.LOAD_TIMER).timer().count());
+    }
+}
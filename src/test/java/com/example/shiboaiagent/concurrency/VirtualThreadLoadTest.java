@@ -0,0 +1,175 @@
+package com.example.shiboaiagent.concurrency;
+
+import com.example.shiboaiagent.chatmemory.ConversationLockStripes;
+import com.example.shiboaiagent.chatmemory.StripedLockChatMemory;
+import com.example.shiboaiagent.support.StubChatModel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.model.ChatModel;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.ai.chat.memory.ChatMemory.CONVERSATION_ID;
+
+/**
+ * 阻塞的 ChatClient.call() 在平台线程池和虚拟线程上的并发对比
+ *
+ * 模型替身固定延迟 200ms，同时发出 1000 个请求：
+ * 200 个平台线程（Tomcat 默认上限）最多 200 个请求同时在途，其余排队；
+ * 虚拟线程下所有请求同时在途，并发上限改由 {@link Bulkhead} 控制。
+ */
+@Slf4j
+class VirtualThreadLoadTest {
+
+    private static final int REQUESTS = 1000;
+
+    private static final long MODEL_LATENCY_MILLIS = 200;
+
+    /** 与 Tomcat 默认的 server.tomcat.threads.max 相同 */
+    private static final int PLATFORM_THREADS = 200;
+
+    /**
+     * 一轮压测的结果
+     *
+     * @param wallMillis 全部请求完成的耗时
+     * @param peakInFlight 模型替身观察到的最大并发调用数
+     * @param heapBytesPerInFlight 峰值时每个在途请求占用的堆内存（虚拟线程的栈也在堆上）
+     * @param platformThreads 压测期间新增的平台线程数（每个线程的栈在堆外，默认预留 1MB）
+     */
+    record LoadResult(long wallMillis, int peakInFlight, long heapBytesPerInFlight, int platformThreads) {
+    }
+
+    private static ChatClient chatClient(ChatModel chatModel) {
+        MessageWindowChatMemory chatMemory = MessageWindowChatMemory.builder()
+                .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                .maxMessages(10)
+                .build();
+        return ChatClient.builder(chatModel)
+                .defaultSystem("你是一位医生，你会帮助到用户")
+                .defaultAdvisors(MessageChatMemoryAdvisor.builder(
+                        new StripedLockChatMemory(chatMemory, new ConversationLockStripes(64))).build())
+                .build();
+    }
+
+    private static LoadResult run(ExecutorService executor, ChatModel chatModel, StubChatModel stub)
+            throws InterruptedException, ExecutionException {
+        ChatClient chatClient = chatClient(chatModel);
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.gc();
+        long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        int baselineThreads = threads.getThreadCount();
+
+        long start = System.nanoTime();
+        List<Future<String>> futures = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            String chatId = "load-" + i;
+            futures.add(executor.submit(() -> chatClient.prompt()
+                    .user("我最近总是睡不好")
+                    .advisors(spec -> spec.param(CONVERSATION_ID, chatId))
+                    .call()
+                    .content()));
+        }
+
+        // 请求执行期间采样在途请求数最多时的堆占用和平台线程数
+        int sampledPeak = 0;
+        long heapAtPeak = baselineHeap;
+        int peakThreads = baselineThreads;
+        while (!futures.stream().allMatch(Future::isDone)) {
+            int inFlight = stub.inFlightCalls();
+            if (inFlight > sampledPeak) {
+                sampledPeak = inFlight;
+                heapAtPeak = memory.getHeapMemoryUsage().getUsed();
+            }
+            peakThreads = Math.max(peakThreads, threads.getThreadCount());
+            Thread.sleep(5);
+        }
+        for (Future<String> future : futures) {
+            future.get();
+        }
+        long wallMillis = (System.nanoTime() - start) / 1_000_000;
+
+        long heapPerInFlight = sampledPeak == 0 ? 0 : Math.max(0, heapAtPeak - baselineHeap) / sampledPeak;
+        return new LoadResult(wallMillis, stub.maxConcurrentCalls(), heapPerInFlight, peakThreads - baselineThreads);
+    }
+
+    @Test
+    void virtualThreadsLiftTheConcurrencyCeiling() throws Exception {
+        StubChatModel platformStub = new StubChatModel().withLatency(MODEL_LATENCY_MILLIS);
+        LoadResult platform;
+        try (ExecutorService executor = Executors.newFixedThreadPool(PLATFORM_THREADS)) {
+            platform = run(executor, platformStub, platformStub);
+        }
+
+        StubChatModel virtualStub = new StubChatModel().withLatency(MODEL_LATENCY_MILLIS);
+        LoadResult virtual;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            virtual = run(executor, virtualStub, virtualStub);
+        }
+
+        log.info("{} requests, model latency {} ms", REQUESTS, MODEL_LATENCY_MILLIS);
+        log.info("platform threads ({}): {}", PLATFORM_THREADS, platform);
+        log.info("virtual threads: {}", virtual);
+
+        assertEquals(REQUESTS, platformStub.callCount());
+        assertEquals(REQUESTS, virtualStub.callCount());
+        assertTrue(platform.peakInFlight() <= PLATFORM_THREADS, platform.toString());
+        assertTrue(virtual.peakInFlight() > PLATFORM_THREADS, virtual.toString());
+        assertTrue(virtual.wallMillis() * 3 < platform.wallMillis() * 2,
+                "virtual threads should finish well ahead: " + virtual + " vs " + platform);
+    }
+
+    @Test
+    void bulkheadCapsUpstreamConcurrencyOnVirtualThreads() throws Exception {
+        StubChatModel stub = new StubChatModel().withLatency(MODEL_LATENCY_MILLIS);
+        Bulkhead bulkhead = new Bulkhead("chat-model", 50, Duration.ofSeconds(30));
+        LoadResult result;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            result = run(executor, new BulkheadChatModel(stub, bulkhead), stub);
+        }
+
+        log.info("virtual threads with bulkhead: {}, {}", result, bulkhead.stats());
+        assertEquals(REQUESTS, stub.callCount());
+        assertTrue(result.peakInFlight() <= 50, result.toString());
+        assertEquals(REQUESTS, bulkhead.stats().calls());
+        assertEquals(0, bulkhead.stats().activeCalls());
+    }
+
+    @Test
+    void bulkheadRejectsAfterAcquireTimeout() throws Exception {
+        StubChatModel stub = new StubChatModel().withLatency(MODEL_LATENCY_MILLIS);
+        Bulkhead bulkhead = new Bulkhead("chat-model", 1, Duration.ofMillis(20));
+        ChatClient chatClient = chatClient(new BulkheadChatModel(stub, bulkhead));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            Future<String> first = executor.submit(() -> chatClient.prompt().user("问题一").call().content());
+            while (stub.inFlightCalls() == 0) {
+                Thread.sleep(1);
+            }
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> CompletableFuture
+                    .supplyAsync(() -> chatClient.prompt().user("问题二").call().content(), executor)
+                    .get());
+            assertInstanceOf(Bulkhead.BulkheadFullException.class, failure.getCause());
+            first.get();
+        }
+        assertEquals(1, bulkhead.stats().rejected());
+    }
+}
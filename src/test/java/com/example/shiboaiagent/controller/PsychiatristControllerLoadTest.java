@@ -0,0 +1,144 @@
+package com.example.shiboaiagent.controller;
+
+import com.example.shiboaiagent.app.PsychiatristApp;
+import com.example.shiboaiagent.app.PsychiatristApp4FileChatMemory;
+import com.example.shiboaiagent.app.PsychiatristApp4PdfDocument;
+import com.example.shiboaiagent.rag.Bm25Index;
+import com.example.shiboaiagent.support.LatencyDistribution;
+import com.example.shiboaiagent.support.LoadGenerator;
+import com.example.shiboaiagent.support.StubChatModel;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 三个应用的流式接口在离线模型替身下的压测，不需要 DashScope 密钥
+ *
+ * 模型替身的首字延迟为对数正态分布（p50 200ms、p99 800ms），生成速度 400 token/秒，
+ * 每 8 个字推送一个片段，1% 的请求在生成中途失败；向量模型的延迟为 p50 20ms、p99 80ms。
+ * 按固定速率调用控制器的 SSE 接口方法并读完整个事件流，收到 error 事件记为失败，
+ * 依次报告内存记忆、文件记忆和 PDF 检索增强三个应用的吞吐、延迟分位数和资源占用。
+ * 应用内的语义缓存、提示词缓存照常工作，命中的请求不调用模型，报告的延迟包含缓存的效果。
+ *
+ * 速率和时长可以通过系统属性调整：-Dloadtest.rps=200 -Dloadtest.seconds=30
+ */
+@Slf4j
+class PsychiatristControllerLoadTest {
+
+    private static final double RPS = Double.parseDouble(System.getProperty("loadtest.rps", "50"));
+
+    private static final Duration DURATION = Duration.ofSeconds(Long.getLong("loadtest.seconds", 3));
+
+    private static final Duration WARMUP = Duration.ofSeconds(1);
+
+    private static final double ERROR_RATE = 0.01;
+
+    /** 对话在固定数量的会话ID之间轮换，记忆随压测增长 */
+    private static final int CONVERSATIONS = 32;
+
+    private static final List<String> QUESTIONS = List.of("最近总是失眠怎么办", "头痛伴有恶心应该注意什么",
+            "感冒发烧流鼻涕吃什么好", "腰膝酸软怕冷是肾虚吗", "工作压力大总是焦虑", "偏头痛反复发作怎么调理",
+            "晚上多梦容易惊醒", "经常口干舌燥手脚心发热");
+
+    private static final String ANSWER = "建议规律作息，每天固定时间起床，睡前一小时远离手机，"
+            + "饮食清淡，适量运动，如果症状持续两周以上或明显加重，请及时到医院就诊。".repeat(2);
+
+    private final StubChatModel chatModel = new StubChatModel()
+            .withResponder(prompt -> ANSWER)
+            .withLatency(LatencyDistribution.logNormal(200, 800))
+            .withTokenRate(400)
+            .withStreamChunkSize(8)
+            .withUsage(300, ANSWER.length())
+            .withErrorRate(ERROR_RATE);
+
+    private final StubEmbeddingModel embeddingModel = new StubEmbeddingModel(256)
+            .withLatency(LatencyDistribution.logNormal(20, 80), 0);
+
+    private final LoadGenerator loadGenerator = new LoadGenerator(RPS, WARMUP, DURATION);
+
+    @TempDir
+    Path memoryDir;
+
+    @Test
+    void reportsThroughputAndLatencyPerAppVariant() throws Exception {
+        PsychiatristApp4FileChatMemory fileMemoryApp = new PsychiatristApp4FileChatMemory(chatModel,
+                memoryDir.resolve("chat_memory").toString());
+        PsychiatristApp4PdfDocument pdfDocumentApp = pdfDocumentApp();
+        List<LoadGenerator.Report> reports;
+        try {
+            PsychiatristController controller = new PsychiatristController(
+                    new PsychiatristApp(chatModel, embeddingModel), fileMemoryApp, pdfDocumentApp);
+
+            reports = List.of(
+                    run("PsychiatristApp", (message, chatId) -> controller.chatBySse(message, chatId, false)),
+                    run("PsychiatristApp4FileChatMemory", controller::fileMemoryChatBySse),
+                    run("PsychiatristApp4PdfDocument", (message, chatId) -> controller.ragChatBySse(message, chatId, false)));
+        } finally {
+            // 停止记忆缓存的后台线程并把记忆刷入临时目录，临时目录随测试结束删除
+            fileMemoryApp.close();
+            pdfDocumentApp.close();
+        }
+
+        log.info("model: latency {}, 400 token/s, error rate {}", LatencyDistribution.logNormal(200, 800), ERROR_RATE);
+        reports.forEach(report -> log.info("{}", report));
+
+        long expected = Math.round(DURATION.toSeconds() * RPS);
+        for (LoadGenerator.Report report : reports) {
+            assertEquals(expected, report.sent(), report.toString());
+            assertEquals(report.sent(), report.succeeded() + report.failed(), report.toString());
+            // 注入 1% 的故障，失败率明显偏高说明应用自身出了问题
+            assertTrue(report.failed() <= Math.max(5, report.sent() / 10), report.toString());
+            assertTrue(report.p50Millis() <= report.p99Millis(), report.toString());
+        }
+    }
+
+    private LoadGenerator.Report run(String name,
+                                     BiFunction<String, String, ResponseEntity<Flux<ServerSentEvent<String>>>> endpoint)
+            throws InterruptedException {
+        return loadGenerator.run(name, sequence -> {
+            // 问题随机抽取，各会话的历史各不相同；开场问题相同的请求仍可能命中语义缓存和提示词缓存
+            String message = QUESTIONS.get(ThreadLocalRandom.current().nextInt(QUESTIONS.size()));
+            String chatId = "load-" + name + "-" + sequence % CONVERSATIONS;
+            List<ServerSentEvent<String>> events = endpoint.apply(message, chatId).getBody().collectList().block();
+            return events != null && !events.isEmpty() && events.stream()
+                    .noneMatch(event -> PsychiatristController.ERROR_EVENT.equals(event.event()));
+        });
+    }
+
+    /**
+     * 知识库为 200 个合成切片，向量库和关键词索引包含相同的切片
+     */
+    private PsychiatristApp4PdfDocument pdfDocumentApp() {
+        List<String> topics = List.of("失眠", "头痛", "感冒", "肾虚", "焦虑", "偏头痛", "多梦", "阴虚");
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            String topic = topics.get(i % topics.size());
+            documents.add(new Document("chunk-" + i,
+                    "第" + i + "段：" + topic + "的常见症状、辨证分型与调理方法，包括饮食、作息和常用方剂。",
+                    Map.of("source", "中医治疗-" + topic + "篇.pdf")));
+        }
+        SimpleVectorStore vectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        vectorStore.add(documents);
+        Bm25Index keywordIndex = new Bm25Index();
+        keywordIndex.add(documents);
+        return new PsychiatristApp4PdfDocument(chatModel, vectorStore, keywordIndex,
+                memoryDir.resolve("chat_memory_rag").toString());
+    }
+}
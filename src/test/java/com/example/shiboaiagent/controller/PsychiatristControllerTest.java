@@ -0,0 +1,152 @@
+package com.example.shiboaiagent.controller;
+
+import com.example.shiboaiagent.app.PsychiatristApp;
+import com.example.shiboaiagent.support.StubChatModel;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class PsychiatristControllerTest {
+
+    private static final String ANSWER = "建议每天固定时间起床，睡前一小时远离手机，午睡不超过半小时。";
+
+    private final StubChatModel chatModel = new StubChatModel().withStreamChunkSize(4);
+
+    private PsychiatristApp psychiatristApp;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        psychiatristApp = new PsychiatristApp(chatModel, new StubEmbeddingModel(64));
+        // 这里只测试内存记忆的接口，文件记忆和PDF检索的应用不参与
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(new PsychiatristController(psychiatristApp, null, null))
+                .build();
+    }
+
+    /**
+     * 发起 SSE 请求并等待流结束
+     */
+    private MockHttpServletResponse streamResponse(String message, String chatId) throws Exception {
+        return streamResponse(message, chatId, false);
+    }
+
+    private MockHttpServletResponse streamResponse(String message, String chatId, boolean bypassCache)
+            throws Exception {
+        MvcResult mvcResult = mockMvc.perform(get("/psychiatrist/chat/sse")
+                        .param("message", message)
+                        .param("chatId", chatId)
+                        .header(PsychiatristController.CACHE_BYPASS_HEADER, String.valueOf(bypassCache)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mvcResult.getAsyncResult(5_000);
+        return mvcResult.getResponse();
+    }
+
+    /**
+     * 发起 SSE 请求并等待流结束，按响应声明的字符集解码，返回原始响应体
+     */
+    private String stream(String message, String chatId) throws Exception {
+        return streamResponse(message, chatId).getContentAsString();
+    }
+
+    private static List<String> dataLines(String body) {
+        List<String> data = new ArrayList<>();
+        for (String line : body.split("\n")) {
+            if (line.startsWith("data:")) {
+                data.add(line.substring("data:".length()));
+            }
+        }
+        return data;
+    }
+
+    @Test
+    void streamsChunksAsServerSentEvents() throws Exception {
+        chatModel.withResponder(prompt -> ANSWER);
+
+        List<String> chunks = dataLines(stream("我失眠怎么办", "sse-1"));
+
+        assertTrue(chunks.size() > 1, "answer should arrive in several events: " + chunks);
+        assertEquals(ANSWER, String.join("", chunks));
+        assertEquals(1, chatModel.streamCount());
+        assertEquals(0, chatModel.callCount());
+    }
+
+    @Test
+    void eventStreamDeclaresUtf8() throws Exception {
+        chatModel.withResponder(prompt -> ANSWER);
+
+        MockHttpServletResponse response = streamResponse("我失眠怎么办", "sse-utf8");
+
+        assertEquals("text/event-stream;charset=UTF-8", response.getContentType());
+        assertEquals(ANSWER, String.join("", dataLines(response.getContentAsString(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void memoryIsPersistedWhenTheStreamCompletes() throws Exception {
+        chatModel.withResponder(prompt -> ANSWER);
+        stream("我失眠怎么办", "sse-2");
+
+        chatModel.withResponder(prompt -> "好的。");
+        stream("那午睡呢", "sse-2");
+
+        boolean previousAnswerInPrompt = chatModel.lastPrompt().getInstructions().stream()
+                .anyMatch(message -> message instanceof AssistantMessage && ANSWER.equals(message.getText()));
+        assertTrue(previousAnswerInPrompt, "second turn should see the streamed answer in memory");
+        assertTrue(psychiatristApp.memoryLockStats().acquisitions() >= 4, "memory lock stats should be exposed");
+    }
+
+    @Test
+    void cacheBypassHeaderForcesModelCall() throws Exception {
+        chatModel.withResponder(prompt -> ANSWER);
+        streamResponse("我失眠怎么办", "sse-bypass-1");
+        streamResponse("我失眠怎么办", "sse-bypass-2");
+        assertEquals(1, chatModel.streamCount(), "same opening question should be answered from cache");
+
+        MockHttpServletResponse response = streamResponse("我失眠怎么办", "sse-bypass-3", true);
+
+        assertEquals(2, chatModel.streamCount(), "bypass header should skip the answer caches");
+        assertEquals(ANSWER, String.join("", dataLines(response.getContentAsString(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    void cacheBypassHeaderAppliesToSyncChat() throws Exception {
+        chatModel.withResponder(prompt -> ANSWER);
+        mockMvc.perform(get("/psychiatrist/chat").param("message", "我失眠怎么办").param("chatId", "sync-1"));
+        mockMvc.perform(get("/psychiatrist/chat").param("message", "我失眠怎么办").param("chatId", "sync-2"));
+        assertEquals(1, chatModel.callCount(), "same opening question should be answered from cache");
+
+        mockMvc.perform(get("/psychiatrist/chat")
+                .param("message", "我失眠怎么办")
+                .param("chatId", "sync-3")
+                .header(PsychiatristController.CACHE_BYPASS_HEADER, "true"));
+
+        assertEquals(2, chatModel.callCount(), "bypass header should skip the answer caches");
+    }
+
+    @Test
+    void modelFailureBecomesErrorEvent() throws Exception {
+        chatModel.withResponder(prompt -> {
+            throw new IllegalStateException("model unavailable");
+        });
+
+        String body = stream("我失眠怎么办", "sse-3");
+
+        assertTrue(body.contains("event:" + PsychiatristController.ERROR_EVENT), body);
+    }
+}
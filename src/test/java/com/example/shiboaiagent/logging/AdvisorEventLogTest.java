@@ -0,0 +1,188 @@
+package com.example.shiboaiagent.logging;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.event.Level;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdvisorEventLogTest {
+
+    private final List<AdvisorLogEvent> written = new CopyOnWriteArrayList<>();
+
+    @Test
+    void eventsAreCappedAndWrittenInOrder() {
+        AdvisorEventLog eventLog = AdvisorEventLog.builder()
+                .maxContentChars(5)
+                .sink(written::add)
+                .build();
+        eventLog.start();
+
+        eventLog.record("call", "c1", System.nanoTime(), "失眠怎么办啊医生", "规律作息", 4, AdvisorLogEvent.Outcome.OK, null);
+        eventLog.record("stream", "c2", System.nanoTime(), "头痛", "多休息，", 100, AdvisorLogEvent.Outcome.OK, null);
+        eventLog.close();
+
+        assertEquals(2, written.size());
+        AdvisorLogEvent first = written.get(0);
+        assertEquals(Level.INFO, first.level());
+        assertEquals("c1", first.conversationId());
+        assertEquals("失眠怎么办...", first.request());
+        assertEquals(8, first.requestLength());
+        assertEquals("规律作息", first.response());
+        assertNull(first.error());
+        // 流式调用传入的是截断后的回答，原始长度单独记录
+        assertEquals("stream", written.get(1).mode());
+        assertEquals(100, written.get(1).responseLength());
+        assertEquals(new AdvisorEventLog.Stats(2, 0, 0, 2, 0), eventLog.stats());
+    }
+
+    @Test
+    void levelFollowsOutcomeAndDuration() {
+        AdvisorEventLog eventLog = AdvisorEventLog.builder()
+                .slowCallThreshold(Duration.ofMillis(100))
+                .sink(written::add)
+                .build();
+
+        long slowStart = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(200);
+        eventLog.record("call", null, System.nanoTime(), "问题", "", 0, AdvisorLogEvent.Outcome.ERROR,
+                new IllegalStateException("模型超时"));
+        eventLog.record("call", null, slowStart, "问题", "回答", 2, AdvisorLogEvent.Outcome.OK, null);
+        eventLog.close();
+
+        assertEquals(Level.ERROR, written.get(0).level());
+        assertEquals("java.lang.IllegalStateException: 模型超时", written.get(0).error());
+        assertEquals(Level.WARN, written.get(1).level());
+        assertTrue(written.get(1).durationMillis() >= 200);
+    }
+
+    @Test
+    void sampleRatesApplyPerLevel() {
+        AdvisorEventLog eventLog = AdvisorEventLog.builder()
+                .sampleRate(Level.INFO, 0)
+                .sink(written::add)
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            assertFalse(eventLog.record("call", null, System.nanoTime(), "问题", "回答", 2,
+                    AdvisorLogEvent.Outcome.OK, null));
+        }
+        assertTrue(eventLog.record("call", null, System.nanoTime(), "问题", "", 0,
+                AdvisorLogEvent.Outcome.ERROR, new RuntimeException()));
+        eventLog.close();
+
+        assertEquals(1, written.size());
+        assertEquals(100, eventLog.stats().sampledOut());
+    }
+
+    @Test
+    void eventsAreDroppedWhenTheQueueIsFull() {
+        AdvisorEventLog eventLog = AdvisorEventLog.builder()
+                .capacity(4)
+                .sink(written::add)
+                .build();
+
+        // 写线程还没有启动，队列满后新事件被丢弃，记录方不阻塞
+        for (int i = 0; i < 10; i++) {
+            eventLog.record("call", "c" + i, System.nanoTime(), "问题", "回答", 2, AdvisorLogEvent.Outcome.OK, null);
+        }
+        assertEquals(4, eventLog.stats().queued());
+        eventLog.start();
+        eventLog.close();
+
+        assertEquals(List.of("c0", "c1", "c2", "c3"), written.stream().map(AdvisorLogEvent::conversationId).toList());
+        assertEquals(new AdvisorEventLog.Stats(4, 0, 6, 4, 0), eventLog.stats());
+    }
+
+    @Test
+    void concurrentProducersLoseNoEvents() throws InterruptedException {
+        int threads = 8;
+        int perThread = 5000;
+        AdvisorEventLog eventLog = AdvisorEventLog.builder()
+                .capacity(1024)
+                .sink(written::add)
+                .build();
+        eventLog.start();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    // 队列满时重试，验证的是并发写入不丢失、不重复
+                    while (!eventLog.record("call", thread + "-" + i, System.nanoTime(), "问题", "回答", 2,
+                            AdvisorLogEvent.Outcome.OK, null)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        eventLog.close();
+
+        Set<String> ids = new HashSet<>();
+        for (AdvisorLogEvent event : written) {
+            assertTrue(ids.add(event.conversationId()), "duplicate event " + event.conversationId());
+        }
+        assertEquals(threads * perThread, ids.size());
+    }
+
+    @Test
+    void ringBufferWrapsAround() {
+        LogEventRingBuffer<Integer> buffer = new LogEventRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                assertTrue(buffer.offer(round * 10 + i));
+            }
+            assertFalse(buffer.offer(-1));
+            for (int i = 0; i < 4; i++) {
+                assertEquals(round * 10 + i, buffer.poll());
+            }
+            assertNull(buffer.poll());
+        }
+    }
+
+    @Test
+    void idleWriterIsWokenByTheNextEvent() throws InterruptedException {
+        AdvisorEventLog eventLog = AdvisorEventLog.builder()
+                .idleInterval(Duration.ofMinutes(1))
+                .sink(written::add)
+                .build();
+        eventLog.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                // 让写线程进入休眠，新事件不必等到休眠结束
+                Thread.sleep(50);
+                eventLog.record("call", "c" + i, System.nanoTime(), "问题", "回答", 2, AdvisorLogEvent.Outcome.OK, null);
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (written.size() <= i && System.nanoTime() < deadline) {
+                    Thread.sleep(5);
+                }
+                assertEquals(i + 1, written.size());
+            }
+        } finally {
+            eventLog.close();
+        }
+    }
+}
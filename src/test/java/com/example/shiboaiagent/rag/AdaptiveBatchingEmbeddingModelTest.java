@@ -0,0 +1,177 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class AdaptiveBatchingEmbeddingModelTest {
+
+    private static List<String> texts(int count) {
+        List<String> texts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            texts.add("第" + i + "段：肾阳虚表现为畏寒肢冷、腰膝酸软，宜温补肾阳。");
+        }
+        return texts;
+    }
+
+    @Test
+    void packsWithinServerLimitsAndKeepsOrder() {
+        StubEmbeddingModel stub = new StubEmbeddingModel(32).withMaxItemsPerRequest(10);
+        List<String> texts = texts(95);
+        try (AdaptiveBatchingEmbeddingModel model = AdaptiveBatchingEmbeddingModel.builder(stub)
+                .maxBatchSize(10)
+                .build()) {
+            List<float[]> embeddings = model.embed(texts);
+
+            assertEquals(texts.size(), embeddings.size());
+            for (int i = 0; i < texts.size(); i++) {
+                assertArrayEquals(stub.vectorOf(texts.get(i)), embeddings.get(i));
+            }
+            assertEquals(10, stub.callCount());
+            assertTrue(stub.maxObservedBatch() <= 10);
+        }
+    }
+
+    @Test
+    void tokenBudgetLimitsBatchSize() {
+        StubEmbeddingModel stub = new StubEmbeddingModel(32);
+        List<String> texts = texts(40);
+        int tokensPerText = AdaptiveBatchingEmbeddingModel.estimateTokens(texts.get(0));
+        try (AdaptiveBatchingEmbeddingModel model = AdaptiveBatchingEmbeddingModel.builder(stub)
+                .maxBatchSize(100)
+                .initialBatchSize(100)
+                .maxTokensPerRequest(tokensPerText * 4)
+                .build()) {
+            model.embed(texts);
+            assertTrue(stub.maxObservedBatch() <= 4);
+        }
+    }
+
+    @Test
+    void failedBatchesAreSplitAndRetried() {
+        StubEmbeddingModel stub = new StubEmbeddingModel(32);
+        stub.failNextCalls(3);
+        List<String> texts = texts(20);
+        try (AdaptiveBatchingEmbeddingModel model = AdaptiveBatchingEmbeddingModel.builder(stub)
+                .retryBackoff(Duration.ofMillis(1))
+                .build()) {
+            List<float[]> embeddings = model.embed(texts);
+
+            for (int i = 0; i < texts.size(); i++) {
+                assertArrayEquals(stub.vectorOf(texts.get(i)), embeddings.get(i));
+            }
+            AdaptiveBatchingEmbeddingModel.BatchingStats stats = model.stats();
+            assertEquals(3, stats.failures());
+            assertEquals(texts.size(), stats.embeddedTexts());
+        }
+    }
+
+    @Test
+    void persistentFailureIsReported() {
+        StubEmbeddingModel stub = new StubEmbeddingModel(32);
+        stub.failNextCalls(Integer.MAX_VALUE);
+        try (AdaptiveBatchingEmbeddingModel model = AdaptiveBatchingEmbeddingModel.builder(stub)
+                .maxRetries(1)
+                .retryBackoff(Duration.ofMillis(1))
+                .build()) {
+            assertThrows(TransientAiException.class, () -> model.embed(texts(4)));
+        }
+    }
+
+    @Test
+    void nonRetryableFailureIsRethrownImmediately() {
+        StubEmbeddingModel stub = new StubEmbeddingModel(32) {
+            @Override
+            public EmbeddingResponse call(EmbeddingRequest request) {
+                super.call(request);
+                throw new NonTransientAiException("401 - {\"code\":\"InvalidApiKey\"}");
+            }
+        };
+        try (AdaptiveBatchingEmbeddingModel model = AdaptiveBatchingEmbeddingModel.builder(stub)
+                .retryBackoff(Duration.ofMillis(1))
+                .build()) {
+            assertThrows(NonTransientAiException.class, () -> model.embed(texts(10)));
+
+            // 鉴权失败不拆分、不重试
+            assertEquals(1, stub.callCount());
+            assertEquals(0, model.stats().splits());
+        }
+    }
+
+    @Test
+    void classifiesSizeAndRateLimitErrors() {
+        assertEquals(AdaptiveBatchingEmbeddingModel.FailureKind.TOO_LARGE, AdaptiveBatchingEmbeddingModel.classify(
+                HttpClientErrorException.create(HttpStatus.PAYLOAD_TOO_LARGE, "Payload Too Large", null, null, null)));
+        assertEquals(AdaptiveBatchingEmbeddingModel.FailureKind.TOO_LARGE, AdaptiveBatchingEmbeddingModel.classify(
+                new NonTransientAiException("400 - batch size is invalid, it should not be larger than 10")));
+        assertEquals(AdaptiveBatchingEmbeddingModel.FailureKind.TRANSIENT, AdaptiveBatchingEmbeddingModel.classify(
+                new NonTransientAiException("429 - {\"code\":\"Throttling.RateQuota\"}")));
+        assertEquals(AdaptiveBatchingEmbeddingModel.FailureKind.TRANSIENT, AdaptiveBatchingEmbeddingModel.classify(
+                new IllegalStateException("wrapped", new TransientAiException("503 - Service Unavailable"))));
+        assertEquals(AdaptiveBatchingEmbeddingModel.FailureKind.FATAL, AdaptiveBatchingEmbeddingModel.classify(
+                new NonTransientAiException("400 - {\"code\":\"InvalidParameter\"}")));
+        assertEquals(AdaptiveBatchingEmbeddingModel.FailureKind.FATAL, AdaptiveBatchingEmbeddingModel.classify(
+                new NullPointerException()));
+    }
+
+    @Test
+    void slowRequestsShrinkTheBatch() {
+        // 每条文本 10ms，目标延迟 35ms：批量会收敛到 3 左右
+        StubEmbeddingModel stub = new StubEmbeddingModel(32).withLatency(0, 10);
+        try (AdaptiveBatchingEmbeddingModel model = AdaptiveBatchingEmbeddingModel.builder(stub)
+                .maxBatchSize(10)
+                .targetLatency(Duration.ofMillis(35))
+                .build()) {
+            model.embed(texts(60));
+            assertTrue(model.stats().batchSize() < 10, "batch size should shrink: " + model.stats());
+        }
+    }
+
+    /**
+     * 入库吞吐对比：逐条请求 vs 自适应批量 + 并发
+     */
+    @Test
+    void batchedIngestIsMuchFasterThanOneRequestPerChunk() {
+        List<String> texts = texts(100);
+        // 每次请求固定 20ms 网络开销，每条文本 1ms
+        StubEmbeddingModel oneByOne = new StubEmbeddingModel(32).withLatency(20, 1);
+        long start = System.nanoTime();
+        for (String text : texts) {
+            oneByOne.embed(text);
+        }
+        long oneByOneMillis = (System.nanoTime() - start) / 1_000_000;
+
+        StubEmbeddingModel stub = new StubEmbeddingModel(32).withLatency(20, 1).withMaxItemsPerRequest(10);
+        try (AdaptiveBatchingEmbeddingModel model = AdaptiveBatchingEmbeddingModel.builder(stub)
+                .maxBatchSize(10)
+                .concurrency(4)
+                .build()) {
+            start = System.nanoTime();
+            model.embed(texts);
+            long batchedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            log.info("one request per chunk: {} requests in {} ms; adaptive batching: {} requests in {} ms",
+                    oneByOne.callCount(), oneByOneMillis, stub.callCount(), batchedMillis);
+            assertEquals(texts.size(), oneByOne.callCount());
+            assertEquals(10, stub.callCount());
+            assertTrue(batchedMillis * 5 < oneByOneMillis,
+                    "expected a large speedup: " + oneByOneMillis + " ms vs " + batchedMillis + " ms");
+        }
+    }
+}
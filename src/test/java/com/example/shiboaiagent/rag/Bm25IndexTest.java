@@ -0,0 +1,48 @@
+package com.example.shiboaiagent.rag;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class Bm25IndexTest {
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+
+    @Test
+    void deletedSlotsAreReclaimedPastTheThreshold() {
+        Bm25Index index = new Bm25Index(0.5);
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            documents.add(new Document("doc-" + i, "第" + i + "段：失眠多梦", Map.of()));
+        }
+        documents.add(new Document("kidney", "肾阳虚表现为畏寒肢冷", Map.of()));
+        index.add(documents);
+        List<Document> before = index.search("肾阳虚 畏寒", 3);
+
+        // 未超过阈值时只打删除标记
+        index.delete(List.of("doc-0", "doc-1", "doc-2", "doc-3", "doc-4"));
+        assertEquals(5, index.deletedSize());
+
+        // 超过阈值后压缩，分数与压缩前一致
+        index.delete(List.of("doc-5"));
+        assertEquals(0, index.deletedSize());
+        assertEquals(5, index.size());
+        List<Document> after = index.search("肾阳虚 畏寒", 3);
+        assertEquals(ids(before), ids(after));
+        assertEquals(List.of("doc-6", "doc-7", "doc-8", "doc-9"), ids(index.search("失眠", 10)).stream().sorted().toList());
+
+        // 压缩后的更新和删除仍然按ID生效
+        index.add(List.of(new Document("doc-9", "胃胀气可用保和丸", Map.of())));
+        index.delete(List.of("doc-6"));
+        assertEquals(List.of("doc-9"), ids(index.search("胃胀气", 10)));
+        assertEquals(List.of("doc-7", "doc-8"), ids(index.search("失眠", 10)).stream().sorted().toList());
+        assertEquals(4, index.size());
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CachingEmbeddingModelTest {
+
+    @Test
+    void normalizedQueriesShareOneEmbedding() {
+        StubEmbeddingModel delegate = new StubEmbeddingModel(32);
+        CachingEmbeddingModel embeddingModel = CachingEmbeddingModel.builder(delegate).maxEntries(2).build();
+
+        float[] first = embeddingModel.embed("失眠多梦怎么办");
+        float[] second = embeddingModel.embed(" 失眠多梦怎么办\n");
+        assertArrayEquals(first, second);
+        assertArrayEquals(delegate.vectorOf("失眠多梦怎么办"), first);
+        assertEquals(1, delegate.callCount());
+
+        // 修改返回的数组不影响缓存
+        second[0] = 42;
+        assertArrayEquals(first, embeddingModel.embed("失眠多梦怎么办"));
+
+        embeddingModel.embed("头痛");
+        embeddingModel.embed("感冒");
+        CachingEmbeddingModel.CacheStats stats = embeddingModel.stats();
+        assertEquals(2, stats.hits());
+        assertEquals(3, stats.misses());
+        assertEquals(2, stats.size());
+    }
+
+    @Test
+    void documentEmbeddingsAreNotCached() {
+        StubEmbeddingModel delegate = new StubEmbeddingModel(32);
+        CachingEmbeddingModel embeddingModel = CachingEmbeddingModel.builder(delegate).build();
+        Document document = new Document("a", "头痛", Map.of());
+
+        embeddingModel.embed(document);
+        embeddingModel.embed(document);
+
+        assertEquals(2, delegate.callCount());
+        assertEquals(0, embeddingModel.stats().size());
+    }
+}
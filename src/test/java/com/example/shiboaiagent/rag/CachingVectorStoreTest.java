@@ -0,0 +1,115 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CachingVectorStoreTest {
+
+    private final StubEmbeddingModel embeddingModel = new StubEmbeddingModel(64);
+
+    private SimpleVectorStore simpleVectorStore() {
+        SimpleVectorStore vectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        vectorStore.add(List.of(
+                new Document("a", "肾阳虚表现为畏寒肢冷", Map.of("source", "kidney.pdf")),
+                new Document("b", "肾阴虚表现为五心烦热", Map.of("source", "kidney.pdf")),
+                new Document("c", "失眠多梦可用酸枣仁汤", Map.of("source", "sleep.pdf"))));
+        embeddingModel.reset();
+        return vectorStore;
+    }
+
+    private static SearchRequest query(String text, int topK) {
+        return SearchRequest.builder().query(text).topK(topK).build();
+    }
+
+    @Test
+    void repeatedQueriesSkipEmbeddingAndSearch() {
+        CachingVectorStore vectorStore = CachingVectorStore.builder(simpleVectorStore()).build();
+
+        List<Document> first = vectorStore.similaritySearch(query("失眠多梦怎么办", 2));
+        // 空白和全角字符归一化后是同一个查询
+        List<Document> second = vectorStore.similaritySearch(query("  失眠多梦怎么办　", 2));
+
+        assertEquals(1, embeddingModel.callCount());
+        assertEquals(first.stream().map(Document::getId).toList(), second.stream().map(Document::getId).toList());
+        assertEquals(first.get(0).getScore(), second.get(0).getScore());
+
+        // topK 和过滤条件不同的查询分别缓存
+        vectorStore.similaritySearch(query("失眠多梦怎么办", 3));
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        List<Document> filtered = vectorStore.similaritySearch(SearchRequest.builder().query("失眠多梦怎么办").topK(2)
+                .filterExpression(b.eq("source", "kidney.pdf").build()).build());
+        assertTrue(filtered.stream().allMatch(document -> "kidney.pdf".equals(document.getMetadata().get("source"))));
+        assertEquals(3, embeddingModel.callCount());
+
+        CachingVectorStore.CacheStats stats = vectorStore.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(3, stats.misses());
+        assertEquals(0.25, stats.hitRatio(), 1e-9);
+    }
+
+    @Test
+    void writesThroughTheDecoratorInvalidateCachedResults() {
+        CachingVectorStore vectorStore = CachingVectorStore.builder(simpleVectorStore()).build();
+        assertEquals(3, vectorStore.similaritySearch(query("肾虚", 5)).size());
+
+        vectorStore.add(List.of(new Document("d", "肾虚腰痛可用六味地黄丸", Map.of("source", "kidney.pdf"))));
+        assertEquals(4, vectorStore.similaritySearch(query("肾虚", 5)).size());
+
+        vectorStore.delete(List.of("a", "d"));
+        List<Document> results = vectorStore.similaritySearch(query("肾虚", 5));
+        assertEquals(List.of("b", "c"), results.stream().map(Document::getId).sorted().toList());
+        assertEquals(0, vectorStore.stats().hits());
+        assertEquals(2, vectorStore.stats().invalidations());
+    }
+
+    @Test
+    void segmentReplacedBehindTheDecoratorInvalidatesCachedResults() {
+        SegmentedVectorStore segmentedVectorStore = SegmentedVectorStore.builder(embeddingModel).build();
+        segmentedVectorStore.replaceSource("cold.pdf", List.of(chunk("cold-0", "风寒感冒宜辛温解表")));
+        CachingVectorStore vectorStore = CachingVectorStore.builder(segmentedVectorStore).build();
+
+        assertEquals("风寒感冒宜辛温解表", vectorStore.similaritySearch(query("感冒", 1)).get(0).getText());
+        assertEquals("风寒感冒宜辛温解表", vectorStore.similaritySearch(query("感冒", 1)).get(0).getText());
+        assertEquals(1, vectorStore.stats().hits());
+
+        // 目录监听器直接替换段，不经过缓存
+        segmentedVectorStore.replaceSource("cold.pdf", List.of(chunk("cold-0", "风热感冒宜辛凉解表")));
+        assertEquals("风热感冒宜辛凉解表", vectorStore.similaritySearch(query("感冒", 1)).get(0).getText());
+        assertEquals(2, vectorStore.stats().misses());
+    }
+
+    @Test
+    void cachedResultsAreCopiedAndBounded() {
+        CachingVectorStore vectorStore = CachingVectorStore.builder(simpleVectorStore()).maxEntries(2).build();
+        vectorStore.similaritySearch(query("肾虚", 1)).get(0).getMetadata().put("source", "changed");
+        assertFalse("changed".equals(vectorStore.similaritySearch(query("肾虚", 1)).get(0).getMetadata().get("source")));
+
+        vectorStore.similaritySearch(query("失眠", 1));
+        vectorStore.similaritySearch(query("烦热", 1));
+        CachingVectorStore.CacheStats stats = vectorStore.stats();
+        assertEquals(2, stats.size());
+        assertEquals(1, stats.evictions());
+    }
+
+    private EmbeddedChunk chunk(String id, String text) {
+        return new EmbeddedChunk(id, text, Map.of(), embeddingModel.vectorOf(text));
+    }
+
+    @Test
+    void normalizeFoldsWidthWhitespaceAndCase() {
+        assertEquals("头痛 怎么办 abc", CachingVectorStore.normalize("　头痛\n怎么办  ＡＢＣ "));
+        assertEquals("", CachingVectorStore.normalize(null));
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.support.ClusteredEmbeddingModel;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class HnswVectorStoreTest {
+
+    @Test
+    void searchReturnsMostSimilarDocumentsWithScores() {
+        HnswVectorStore vectorStore = HnswVectorStore.builder(new StubEmbeddingModel(128)).build();
+        vectorStore.add(List.of(
+                new Document("a", "肾阳虚表现为畏寒肢冷、腰膝酸软", Map.of("source", "中医治疗-肾虚.pdf")),
+                new Document("b", "失眠多梦可用酸枣仁汤加减调理", Map.of("source", "中医治疗-失眠.pdf")),
+                new Document("c", "肝郁气滞常见胸胁胀痛、情志抑郁", Map.of("source", "中医治疗-肝郁.pdf"))));
+
+        List<Document> results = vectorStore.similaritySearch(SearchRequest.builder()
+                .query("失眠多梦怎么调理").topK(2).build());
+
+        assertEquals(2, results.size());
+        assertEquals("b", results.get(0).getId());
+        assertTrue(results.get(0).getScore() >= results.get(1).getScore());
+        assertEquals("中医治疗-失眠.pdf", results.get(0).getMetadata().get("source"));
+    }
+
+    @Test
+    void filterDeleteAndUpdateBehaveLikeSimpleVectorStore() {
+        HnswVectorStore vectorStore = HnswVectorStore.builder(new StubEmbeddingModel(128)).build();
+        vectorStore.add(List.of(
+                new Document("a", "肾阳虚表现为畏寒肢冷", Map.of("source", "kidney.pdf")),
+                new Document("b", "肾阴虚表现为五心烦热", Map.of("source", "kidney.pdf")),
+                new Document("c", "失眠多梦可用酸枣仁汤", Map.of("source", "sleep.pdf"))));
+
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        List<Document> filtered = vectorStore.similaritySearch(SearchRequest.builder()
+                .query("肾虚").topK(5).filterExpression(b.eq("source", "sleep.pdf").build()).build());
+        assertEquals(List.of("c"), filtered.stream().map(Document::getId).toList());
+
+        vectorStore.delete(List.of("a"));
+        vectorStore.delete(b.eq("source", "sleep.pdf").build());
+        assertEquals(1, vectorStore.size());
+
+        // 相同ID再次写入视为更新
+        vectorStore.add(List.of(new Document("b", "肾阴虚宜滋阴补肾", Map.of("source", "kidney.pdf"))));
+        List<Document> all = vectorStore.similaritySearch(SearchRequest.builder().query("肾阴虚").topK(5).build());
+        assertEquals(1, all.size());
+        assertEquals("肾阴虚宜滋阴补肾", all.get(0).getText());
+    }
+
+    @Test
+    void deletedNodesAreReclaimedPastTheThreshold() {
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(64);
+        HnswVectorStore vectorStore = HnswVectorStore.builder(embeddingModel).compactionThreshold(0.5).build();
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            documents.add(new Document("doc-" + i, "第" + i + "段：失眠多梦可用酸枣仁汤调理", Map.of("page", i)));
+        }
+        vectorStore.add(documents);
+
+        // 未超过阈值时只打删除标记
+        vectorStore.delete(List.of("doc-0", "doc-1", "doc-2", "doc-3", "doc-4"));
+        assertEquals(5, vectorStore.deletedSize());
+        int embedCalls = embeddingModel.callCount();
+
+        // 超过阈值后重建索引，不重新请求向量模型
+        vectorStore.delete(List.of("doc-5", "doc-6", "doc-7", "doc-8", "doc-9", "doc-10"));
+        assertEquals(0, vectorStore.deletedSize());
+        assertEquals(9, vectorStore.size());
+        assertEquals(embedCalls, embeddingModel.callCount());
+
+        // 重建后的检索、更新和删除仍然正确
+        List<Document> all = vectorStore.similaritySearch(SearchRequest.builder().query("失眠").topK(20).build());
+        Set<String> ids = new HashSet<>(all.stream().map(Document::getId).toList());
+        assertEquals(9, ids.size());
+        for (int i = 11; i < 20; i++) {
+            assertTrue(ids.contains("doc-" + i), ids.toString());
+        }
+        vectorStore.add(List.of(new Document("doc-19", "更新后的内容", Map.of("page", 19))));
+        vectorStore.delete(new FilterExpressionBuilder().eq("page", 11).build());
+        assertEquals(8, vectorStore.size());
+        assertEquals("更新后的内容", vectorStore.similaritySearch(SearchRequest.builder().query("更新后的内容")
+                .topK(1).build()).get(0).getText());
+    }
+
+    @Test
+    void addEmbedsDocumentsInBatches() {
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(64);
+        HnswVectorStore vectorStore = HnswVectorStore.builder(embeddingModel).build();
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            documents.add(new Document("doc-" + i, "第" + i + "段：失眠多梦可用酸枣仁汤加减调理", Map.of()));
+        }
+
+        vectorStore.add(documents);
+
+        // 50 个短切片放得进一个批次，只请求一次向量模型
+        assertEquals(1, embeddingModel.callCount());
+        assertEquals(50, embeddingModel.embeddedTextCount());
+        assertEquals(50, vectorStore.size());
+        List<Document> results = vectorStore.similaritySearch(SearchRequest.builder()
+                .query("第7段：失眠多梦可用酸枣仁汤加减调理").topK(1).build());
+        assertEquals("doc-7", results.get(0).getId());
+    }
+
+    /**
+     * recall@k 与 QPS 基准：以 SimpleVectorStore 的暴力检索结果为标准答案
+     */
+    @Test
+    void recallAndThroughputAgainstBruteForce() {
+        int dimensions = 64;
+        int documentCount = 10_000;
+        int queryCount = 300;
+        int topK = 10;
+        ClusteredEmbeddingModel embeddingModel = new ClusteredEmbeddingModel(dimensions, 50, 7);
+
+        List<Document> documents = new ArrayList<>(documentCount);
+        for (int i = 0; i < documentCount; i++) {
+            documents.add(new Document("doc-" + i, "doc-" + i, Map.of()));
+        }
+        SimpleVectorStore bruteForce = SimpleVectorStore.builder(embeddingModel).build();
+        HnswVectorStore hnsw = HnswVectorStore.builder(embeddingModel).m(16).efConstruction(100).efSearch(64).build();
+        bruteForce.add(documents);
+        long buildStart = System.nanoTime();
+        hnsw.add(documents);
+        long buildMillis = (System.nanoTime() - buildStart) / 1_000_000;
+
+        List<SearchRequest> queries = new ArrayList<>(queryCount);
+        for (int i = 0; i < queryCount; i++) {
+            queries.add(SearchRequest.builder().query("query-" + i).topK(topK).build());
+        }
+        // 预热
+        for (SearchRequest query : queries.subList(0, 50)) {
+            bruteForce.similaritySearch(query);
+            hnsw.similaritySearch(query);
+        }
+
+        int hits = 0;
+        long bruteForceNanos = 0;
+        long hnswNanos = 0;
+        for (SearchRequest query : queries) {
+            long start = System.nanoTime();
+            List<Document> expected = bruteForce.similaritySearch(query);
+            bruteForceNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            List<Document> actual = hnsw.similaritySearch(query);
+            hnswNanos += System.nanoTime() - start;
+
+            Set<String> expectedIds = new HashSet<>();
+            expected.forEach(document -> expectedIds.add(document.getId()));
+            for (Document document : actual) {
+                if (expectedIds.contains(document.getId())) {
+                    hits++;
+                }
+            }
+        }
+
+        double recall = (double) hits / (queryCount * topK);
+        double bruteForceQps = queryCount / (bruteForceNanos / 1e9);
+        double hnswQps = queryCount / (hnswNanos / 1e9);
+        log.info("documents={}, recall@{}={}, brute-force QPS={}, HNSW QPS={}, HNSW build={}ms",
+                documentCount, topK, String.format("%.3f", recall), String.format("%.0f", bruteForceQps),
+                String.format("%.0f", hnswQps), buildMillis);
+        assertTrue(recall >= 0.95, "recall@" + topK + " too low: " + recall);
+    }
+}
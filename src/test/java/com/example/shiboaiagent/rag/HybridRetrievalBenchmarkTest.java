@@ -0,0 +1,187 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 混合检索的效果与延迟基准：基于项目自带的 中医治疗-*.pdf
+ *
+ * 采用已知答案（known-item）查询：从某个切片中抽取只在该切片出现的 4 个连续汉字，
+ * 包装成用户提问，检索结果中该切片的排名即为评估依据。分别统计纯向量、纯 BM25 和融合检索的
+ * recall@5、MRR@10 和平均延迟。
+ */
+@Slf4j
+class HybridRetrievalBenchmarkTest {
+
+    private static final int TOP_K = 10;
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * 单路检索器的评估结果
+     *
+     * @param recallAt5 目标切片出现在前 5 的比例
+     * @param mrr 目标切片排名倒数的平均值（前 10 以外记 0）
+     * @param averageMicros 平均每次查询耗时（微秒）
+     */
+    private record RetrievalMetrics(double recallAt5, double mrr, double averageMicros) {
+
+        @Override
+        public String toString() {
+            return String.format("recall@5=%.3f, MRR@10=%.3f, latency=%.0fus", recallAt5, mrr, averageMicros);
+        }
+    }
+
+    private record KnownItemQuery(String query, String expectedId) {
+    }
+
+    @Test
+    void hybridRetrievalIsAtLeastAsGoodAsVectorOnly() {
+        PagePdfDocumentReader reader = new PagePdfDocumentReader(new PathMatchingResourcePatternResolver());
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(64);
+        List<EmbeddedChunk> chunks = new PdfEmbeddingCache(reader, tempDir.resolve("pdf-embeddings.bin"))
+                .loadOrEmbed(embeddingModel);
+        List<Document> documents = chunks.stream().map(EmbeddedChunk::toDocument).toList();
+        assertFalse(documents.isEmpty());
+
+        SimpleVectorStore vectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        vectorStore.add(documents);
+        Bm25Index keywordIndex = new Bm25Index();
+        keywordIndex.add(documents);
+        HybridDocumentRetriever hybrid = HybridDocumentRetriever.builder(vectorStore, keywordIndex)
+                .topK(TOP_K)
+                .candidates(20)
+                .build();
+
+        List<KnownItemQuery> queries = knownItemQueries(documents, 60, new Random(42));
+        assertFalse(queries.isEmpty(), "no known-item queries could be sampled from the PDFs");
+
+        RetrievalMetrics dense = evaluate(queries, query -> vectorStore.similaritySearch(
+                SearchRequest.builder().query(query).topK(TOP_K).build()));
+        RetrievalMetrics keyword = evaluate(queries, query -> keywordIndex.search(query, TOP_K));
+        RetrievalMetrics fused = evaluate(queries, hybrid::retrieve);
+        log.info("chunks={}, queries={}", documents.size(), queries.size());
+        log.info("vector: {}", dense);
+        log.info("bm25:   {}", keyword);
+        log.info("hybrid: {}", fused);
+
+        assertTrue(fused.recallAt5() >= dense.recallAt5(),
+                "hybrid recall@5 " + fused.recallAt5() + " below vector-only " + dense.recallAt5());
+        assertTrue(keyword.recallAt5() >= 0.5, "bm25 recall@5 too low: " + keyword.recallAt5());
+    }
+
+    @Test
+    void fusedDocumentsCarryBothRanks() {
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(128);
+        SimpleVectorStore vectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        Bm25Index keywordIndex = new Bm25Index();
+        List<Document> documents = List.of(
+                new Document("a", "肾阳虚表现为畏寒肢冷、腰膝酸软，可用金匮肾气丸", Map.of()),
+                new Document("b", "风寒感冒宜辛温解表，可用荆防败毒散", Map.of()),
+                new Document("c", "肝阳上亢型头痛可用天麻钩藤饮", Map.of()));
+        vectorStore.add(documents);
+        keywordIndex.add(documents);
+
+        List<Document> results = HybridDocumentRetriever.builder(vectorStore, keywordIndex)
+                .topK(2)
+                .candidates(3)
+                .build()
+                .retrieve("金匮肾气丸怎么吃");
+
+        assertEquals(2, results.size());
+        assertEquals("a", results.get(0).getId());
+        assertEquals(1, results.get(0).getMetadata().get(HybridDocumentRetriever.KEYWORD_RANK));
+        assertTrue(results.get(0).getMetadata().containsKey(HybridDocumentRetriever.DENSE_RANK));
+        assertEquals(2.0 / 61, results.get(0).getScore(), 1e-9);
+    }
+
+    /**
+     * 从切片中抽取只出现在该切片中的 4 个连续汉字作为查询词
+     */
+    private static List<KnownItemQuery> knownItemQueries(List<Document> documents, int limit, Random random) {
+        // 与分词器一致：汉字之间的空白（PDF 换行）不切断词语
+        List<String> normalized = documents.stream()
+                .map(document -> document.getText().replaceAll("\\s+", ""))
+                .toList();
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < documents.size(); i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, random);
+
+        List<KnownItemQuery> queries = new ArrayList<>();
+        for (int round = 0; round < 5 && queries.size() < limit; round++) {
+            for (int index : order) {
+                if (queries.size() >= limit) {
+                    break;
+                }
+                String text = normalized.get(index);
+                if (text.length() < 4) {
+                    continue;
+                }
+                int start = random.nextInt(text.length() - 3);
+                String term = text.substring(start, start + 4);
+                if (!term.codePoints().allMatch(Character::isIdeographic) || !uniqueTo(term, index, normalized)) {
+                    continue;
+                }
+                queries.add(new KnownItemQuery("请问" + term + "该怎么办", documents.get(index).getId()));
+            }
+        }
+        return queries;
+    }
+
+    private static boolean uniqueTo(String term, int index, List<String> texts) {
+        for (int i = 0; i < texts.size(); i++) {
+            if (i != index && texts.get(i).contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static RetrievalMetrics evaluate(List<KnownItemQuery> queries, Function<String, List<Document>> retriever) {
+        // 预热
+        for (KnownItemQuery query : queries) {
+            retriever.apply(query.query());
+        }
+        int hitsAt5 = 0;
+        double reciprocalRanks = 0;
+        long totalNanos = 0;
+        for (KnownItemQuery query : queries) {
+            long start = System.nanoTime();
+            List<Document> results = retriever.apply(query.query());
+            totalNanos += System.nanoTime() - start;
+            for (int rank = 1; rank <= results.size() && rank <= TOP_K; rank++) {
+                if (results.get(rank - 1).getId().equals(query.expectedId())) {
+                    if (rank <= 5) {
+                        hitsAt5++;
+                    }
+                    reciprocalRanks += 1.0 / rank;
+                    break;
+                }
+            }
+        }
+        return new RetrievalMetrics((double) hitsAt5 / queries.size(), reciprocalRanks / queries.size(),
+                totalNanos / 1_000.0 / queries.size());
+    }
+}
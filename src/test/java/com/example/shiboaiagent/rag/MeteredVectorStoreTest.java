@@ -0,0 +1,58 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MeteredVectorStoreTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void searchAndQueryEmbeddingAreTimedSeparately() {
+        MeteredEmbeddingModel embeddingModel = MeteredEmbeddingModel.builder(new StubEmbeddingModel(64))
+                .app("pdf-rag")
+                .meterRegistry(registry)
+                .build();
+        MeteredVectorStore vectorStore = MeteredVectorStore.builder(SimpleVectorStore.builder(embeddingModel).build())
+                .app("pdf-rag")
+                .meterRegistry(registry)
+                .build();
+        vectorStore.add(List.of(
+                new Document("a", "肾阳虚表现为畏寒肢冷", Map.of("source", "kidney.pdf")),
+                new Document("b", "失眠多梦可用酸枣仁汤", Map.of("source", "sleep.pdf"))));
+
+        List<Document> results = vectorStore.similaritySearch(SearchRequest.builder().query("失眠多梦").topK(1).build());
+        vectorStore.similaritySearch(SearchRequest.builder().query("畏寒").topK(1).build());
+
+        assertEquals(1, results.size());
+        assertEquals(2, registry.get(MeteredVectorStore.SEARCH_TIMER).tag("app", "pdf-rag").timer().count());
+        assertEquals(2, registry.get(MeteredEmbeddingModel.EMBEDDING_TIMER)
+                .tags("app", "pdf-rag", "operation", "query").timer().count());
+    }
+
+    @Test
+    void searchTimerOutsideTheCacheIncludesHits() {
+        StubEmbeddingModel stubEmbeddingModel = new StubEmbeddingModel(64);
+        SimpleVectorStore simpleVectorStore = SimpleVectorStore.builder(stubEmbeddingModel).build();
+        simpleVectorStore.add(List.of(new Document("a", "失眠多梦可用酸枣仁汤", Map.of())));
+        MeteredVectorStore vectorStore = MeteredVectorStore.builder(CachingVectorStore.builder(simpleVectorStore).build())
+                .app("pdf-rag")
+                .meterRegistry(registry)
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            vectorStore.similaritySearch(SearchRequest.builder().query("失眠").topK(1).build());
+        }
+
+        assertEquals(3, registry.get(MeteredVectorStore.SEARCH_TIMER).timer().count());
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfDirectoryWatcherTest {
+
+    private static final String HEADACHE = "中医治疗-头痛篇.pdf";
+
+    private static final String COLD = "中医治疗-感冒篇.pdf";
+
+    @TempDir
+    Path tempDir;
+
+    private static void copyPdf(String name, Path directory) throws IOException {
+        try (InputStream inputStream = new ClassPathResource("document/" + name).getInputStream()) {
+            Files.copy(inputStream, directory.resolve(name));
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        // 部分平台的 WatchService 基于轮询，事件可能延迟数秒
+        long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean(), "condition not met in time");
+    }
+
+    @Test
+    void addedChangedAndDeletedPdfsAreSyncedInTheBackground() throws Exception {
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(64);
+        SegmentedVectorStore vectorStore = SegmentedVectorStore.builder(embeddingModel).build();
+        Bm25Index keywordIndex = new Bm25Index();
+        PagePdfDocumentReader reader = new PagePdfDocumentReader(new PathMatchingResourcePatternResolver());
+        copyPdf(HEADACHE, tempDir);
+
+        try (PdfDirectoryWatcher watcher = PdfDirectoryWatcher.builder(tempDir, vectorStore,
+                        PdfIngestionPipeline.builder(reader).build(), embeddingModel)
+                .keywordIndex(keywordIndex)
+                .quietPeriod(Duration.ofMillis(100))
+                .build()) {
+            // 启动时目录中已有的 PDF
+            watcher.start();
+            // 入库次数在向量库和关键词索引都更新之后才增加，等到它变化再检查两边的一致性
+            await(() -> vectorStore.hasSource(HEADACHE) && watcher.stats().ingestedFiles() == 1);
+            int headacheChunks = vectorStore.size();
+            assertTrue(headacheChunks > 0);
+            assertEquals(headacheChunks, keywordIndex.size());
+
+            // 运行中新增的 PDF
+            copyPdf(COLD, tempDir);
+            await(() -> vectorStore.hasSource(COLD) && watcher.stats().ingestedFiles() == 2
+                    && watcher.stats().pending() == 0);
+            assertTrue(vectorStore.size() > headacheChunks);
+            assertFalse(vectorStore.similaritySearch(SearchRequest.builder().query("感冒").build()).isEmpty());
+
+            // 内容没有变化的修改事件不会重新入库
+            Files.setLastModifiedTime(tempDir.resolve(COLD), Files.getLastModifiedTime(tempDir.resolve(COLD)));
+            long ingested = watcher.stats().ingestedFiles();
+
+            // 删除的 PDF 从向量库和关键词索引中移除
+            Files.delete(tempDir.resolve(HEADACHE));
+            // 与入库相同，移除次数在向量库和关键词索引都更新之后才增加
+            await(() -> !vectorStore.hasSource(HEADACHE) && watcher.stats().removedFiles() == 1);
+            assertEquals(vectorStore.size(), keywordIndex.size());
+
+            assertEquals(2, ingested);
+            assertEquals(1, watcher.stats().removedFiles());
+            assertEquals(0, watcher.stats().failures());
+        }
+    }
+
+    @Test
+    void missingDirectoryIsCreatedAndWatched() throws Exception {
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(64);
+        SegmentedVectorStore vectorStore = SegmentedVectorStore.builder(embeddingModel).build();
+        PagePdfDocumentReader reader = new PagePdfDocumentReader(new PathMatchingResourcePatternResolver());
+        Path directory = tempDir.resolve("document");
+
+        try (PdfDirectoryWatcher watcher = PdfDirectoryWatcher.builder(directory, vectorStore,
+                        PdfIngestionPipeline.builder(reader).build(), embeddingModel)
+                .quietPeriod(Duration.ofMillis(100))
+                .build()) {
+            watcher.start();
+            assertTrue(Files.isDirectory(directory));
+
+            copyPdf(COLD, directory);
+            await(() -> vectorStore.hasSource(COLD) && watcher.stats().pending() == 0);
+            assertEquals(1, watcher.stats().ingestedFiles());
+        }
+    }
+}
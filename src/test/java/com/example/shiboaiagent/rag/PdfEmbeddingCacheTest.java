@@ -0,0 +1,86 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfEmbeddingCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void unchangedCorpusTriggersNoEmbeddingCalls() {
+        PagePdfDocumentReader reader = new PagePdfDocumentReader(new PathMatchingResourcePatternResolver());
+        Path indexFile = tempDir.resolve("pdf-embeddings.bin");
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(64);
+
+        // 第一次启动：全部 PDF 都需要向量化
+        List<EmbeddedChunk> first = new PdfEmbeddingCache(reader, indexFile).loadOrEmbed(embeddingModel);
+        assertFalse(first.isEmpty());
+        assertTrue(embeddingModel.callCount() > 0);
+
+        // 第二次启动：语料没有变化，直接从磁盘加载
+        embeddingModel.reset();
+        List<EmbeddedChunk> second = new PdfEmbeddingCache(reader, indexFile).loadOrEmbed(embeddingModel);
+        assertEquals(0, embeddingModel.callCount());
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).id(), second.get(i).id());
+            assertEquals(first.get(i).text(), second.get(i).text());
+            assertEquals(first.get(i).metadata(), second.get(i).metadata());
+            assertArrayEquals(first.get(i).embedding(), second.get(i).embedding());
+        }
+    }
+
+    @Test
+    void changedModelOrSplitterInvalidatesTheIndex() {
+        PagePdfDocumentReader reader = new PagePdfDocumentReader(new PathMatchingResourcePatternResolver());
+        Path indexFile = tempDir.resolve("pdf-embeddings.bin");
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(64);
+        PdfIngestionPipeline pipeline = PdfIngestionPipeline.builder(reader).build();
+        new PdfEmbeddingCache(reader, indexFile, pipeline, "text-embedding-v1").loadOrEmbed(embeddingModel);
+
+        // 同一个模型和切分参数：复用
+        embeddingModel.reset();
+        new PdfEmbeddingCache(reader, indexFile, pipeline, "text-embedding-v1").loadOrEmbed(embeddingModel);
+        assertEquals(0, embeddingModel.callCount());
+
+        // 换了向量模型：全部重新向量化
+        new PdfEmbeddingCache(reader, indexFile, pipeline, "text-embedding-v2").loadOrEmbed(embeddingModel);
+        assertTrue(embeddingModel.callCount() > 0);
+
+        // 换了切分参数：切片不同，同样全部重新向量化
+        embeddingModel.reset();
+        PdfIngestionPipeline smallerChunks = PdfIngestionPipeline.builder(reader)
+                .textSplitter(new TokenTextSplitter(200, 100, 5, 10000, true), "TokenTextSplitter(chunkSize=200)")
+                .build();
+        List<EmbeddedChunk> rechunked = new PdfEmbeddingCache(reader, indexFile, smallerChunks, "text-embedding-v2")
+                .loadOrEmbed(embeddingModel);
+        assertTrue(embeddingModel.callCount() > 0);
+        assertFalse(rechunked.isEmpty());
+    }
+
+    @Test
+    void precomputedEmbeddingsSkipTheModelWhenFillingTheStore() {
+        StubEmbeddingModel delegate = new StubEmbeddingModel(8);
+        PrecomputedEmbeddingModel embeddingModel = new PrecomputedEmbeddingModel(delegate);
+        EmbeddedChunk chunk = new EmbeddedChunk("doc-1", "肾虚的调理", Map.of(), new float[8]);
+        embeddingModel.register(chunk.id(), chunk.embedding());
+
+        assertArrayEquals(chunk.embedding(), embeddingModel.embed(chunk.toDocument()));
+        assertEquals(0, delegate.callCount());
+    }
+}
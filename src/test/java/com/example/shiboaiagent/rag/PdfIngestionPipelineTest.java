@@ -0,0 +1,78 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfIngestionPipelineTest {
+
+    private final PagePdfDocumentReader reader = new PagePdfDocumentReader(new PathMatchingResourcePatternResolver());
+
+    @Test
+    void ingestsAllPdfsThroughSmallBoundedQueues() {
+        List<Resource> resources = List.of(reader.loadPdfResources());
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(64);
+        // 队列容量很小，各阶段必须依靠背压交替推进
+        PdfIngestionPipeline pipeline = PdfIngestionPipeline.builder(reader)
+                .parseThreads(2)
+                .queueCapacity(2)
+                .embedBatchSize(4)
+                .build();
+
+        List<EmbeddedChunk> chunks = new ArrayList<>();
+        Set<String> sources = new HashSet<>();
+        PdfIngestionPipeline.IngestionReport report = pipeline.run(resources, embeddingModel, (source, chunk) -> {
+            sources.add(source);
+            chunks.add(chunk);
+        });
+
+        assertEquals(resources.size(), report.files());
+        assertTrue(report.failedSources().isEmpty());
+        assertEquals(resources.size(), sources.size());
+        assertFalse(chunks.isEmpty());
+
+        PdfIngestionPipeline.StageStats parse = report.stages().get(0);
+        PdfIngestionPipeline.StageStats chunk = report.stages().get(1);
+        PdfIngestionPipeline.StageStats embed = report.stages().get(2);
+        assertTrue(parse.items() > 0);
+        assertEquals(chunks.size(), chunk.items());
+        assertEquals(chunks.size(), embed.items());
+        assertEquals(chunks.size(), embeddingModel.embeddedTextCount());
+        // 每次请求最多 4 个切片
+        assertTrue(embeddingModel.callCount() >= (chunks.size() + 3) / 4);
+    }
+
+    @Test
+    void embeddingFailureAbortsWithoutHanging() {
+        List<Resource> resources = List.of(reader.loadPdfResources());
+        StubEmbeddingModel failing = new StubEmbeddingModel(64) {
+            @Override
+            public EmbeddingResponse call(EmbeddingRequest request) {
+                throw new IllegalStateException("embedding service unavailable");
+            }
+        };
+        PdfIngestionPipeline pipeline = PdfIngestionPipeline.builder(reader).queueCapacity(1).build();
+
+        IllegalStateException error = assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                assertThrows(IllegalStateException.class,
+                        () -> pipeline.run(resources, failing, (source, chunk) -> {
+                        })));
+        assertEquals("embedding service unavailable", error.getMessage());
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.QuantizedVectorStore.Encoding;
+import com.example.shiboaiagent.rag.QuantizedVectorStore.MemoryStats;
+import com.example.shiboaiagent.support.ClusteredEmbeddingModel;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class QuantizedVectorStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void scoresAreRescoredWithFullPrecision() {
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(128);
+        List<Document> documents = List.of(
+                new Document("a", "肾阳虚表现为畏寒肢冷、腰膝酸软", Map.of("source", "中医治疗-肾虚.pdf")),
+                new Document("b", "失眠多梦可用酸枣仁汤加减调理", Map.of("source", "中医治疗-失眠.pdf")),
+                new Document("c", "肝郁气滞常见胸胁胀痛、情志抑郁", Map.of("source", "中医治疗-肝郁.pdf")));
+        SimpleVectorStore exact = SimpleVectorStore.builder(embeddingModel).build();
+        exact.add(documents);
+
+        try (QuantizedVectorStore vectorStore = QuantizedVectorStore.builder(embeddingModel)
+                .vectorFile(tempDir.resolve("vectors.f32"))
+                .build()) {
+            vectorStore.add(documents);
+            SearchRequest request = SearchRequest.builder().query("失眠多梦怎么调理").topK(2).build();
+
+            List<Document> results = vectorStore.similaritySearch(request);
+            List<Document> expected = exact.similaritySearch(request);
+
+            assertEquals(2, results.size());
+            assertEquals("b", results.get(0).getId());
+            assertEquals(expected.get(0).getScore(), results.get(0).getScore(), 1e-5);
+            assertEquals("中医治疗-失眠.pdf", results.get(0).getMetadata().get("source"));
+        }
+    }
+
+    @Test
+    void filterDeleteAndUpdateBehaveLikeSimpleVectorStore() {
+        Path vectorFile = tempDir.resolve("vectors.f32");
+        try (QuantizedVectorStore vectorStore = QuantizedVectorStore.builder(new StubEmbeddingModel(128))
+                .encoding(Encoding.BINARY)
+                .vectorFile(vectorFile)
+                .build()) {
+            vectorStore.add(List.of(
+                    new Document("a", "肾阳虚表现为畏寒肢冷", Map.of("source", "kidney.pdf")),
+                    new Document("b", "肾阴虚表现为五心烦热", Map.of("source", "kidney.pdf")),
+                    new Document("c", "失眠多梦可用酸枣仁汤", Map.of("source", "sleep.pdf"))));
+
+            FilterExpressionBuilder b = new FilterExpressionBuilder();
+            List<Document> filtered = vectorStore.similaritySearch(SearchRequest.builder()
+                    .query("肾虚").topK(5).filterExpression(b.eq("source", "sleep.pdf").build()).build());
+            assertEquals(List.of("c"), filtered.stream().map(Document::getId).toList());
+
+            vectorStore.delete(List.of("a"));
+            vectorStore.delete(b.eq("source", "sleep.pdf").build());
+            assertEquals(1, vectorStore.size());
+
+            // 相同ID再次写入视为更新
+            vectorStore.add(List.of(new Document("b", "肾阴虚宜滋阴补肾", Map.of("source", "kidney.pdf"))));
+            List<Document> all = vectorStore.similaritySearch(SearchRequest.builder().query("肾阴虚").topK(5).build());
+            assertEquals(1, all.size());
+            assertEquals("肾阴虚宜滋阴补肾", all.get(0).getText());
+        }
+        assertTrue(Files.exists(vectorFile));
+    }
+
+    @Test
+    void temporaryVectorFileIsRemovedOnClose() {
+        QuantizedVectorStore vectorStore = QuantizedVectorStore.builder(new StubEmbeddingModel(16)).build();
+        vectorStore.add(List.of(new Document("a", "头痛", Map.of())));
+        assertFalse(vectorStore.similaritySearch(SearchRequest.builder().query("头痛").build()).isEmpty());
+        Path vectorFile = vectorStore.vectorFile();
+        assertTrue(Files.exists(vectorFile));
+
+        vectorStore.close();
+        assertFalse(Files.exists(vectorFile));
+    }
+
+    /**
+     * 内存与召回率基准：以 SimpleVectorStore 的全精度暴力检索结果为标准答案
+     */
+    @Test
+    void memoryAndRecallAgainstFullPrecision() {
+        int dimensions = 256;
+        int documentCount = 5_000;
+        int queryCount = 200;
+        int topK = 10;
+        ClusteredEmbeddingModel embeddingModel = new ClusteredEmbeddingModel(dimensions, 50, 7);
+        List<Document> documents = new ArrayList<>(documentCount);
+        for (int i = 0; i < documentCount; i++) {
+            documents.add(new Document("doc-" + i, "doc-" + i, Map.of()));
+        }
+        SimpleVectorStore exact = SimpleVectorStore.builder(embeddingModel).build();
+        exact.add(documents);
+        List<SearchRequest> queries = new ArrayList<>(queryCount);
+        List<Set<String>> expected = new ArrayList<>(queryCount);
+        long exactNanos = 0;
+        for (int i = 0; i < queryCount; i++) {
+            SearchRequest query = SearchRequest.builder().query("query-" + i).topK(topK).build();
+            queries.add(query);
+            long start = System.nanoTime();
+            List<Document> results = exact.similaritySearch(query);
+            exactNanos += System.nanoTime() - start;
+            Set<String> ids = new HashSet<>();
+            results.forEach(document -> ids.add(document.getId()));
+            expected.add(ids);
+        }
+        log.info("full precision: vector bytes={}, QPS={}", (long) documentCount * dimensions * Float.BYTES,
+                String.format("%.0f", queryCount / (exactNanos / 1e9)));
+
+        for (Encoding encoding : Encoding.values()) {
+            try (QuantizedVectorStore vectorStore = QuantizedVectorStore.builder(embeddingModel)
+                    .encoding(encoding)
+                    .vectorFile(tempDir.resolve(encoding + ".f32"))
+                    .build()) {
+                vectorStore.add(documents);
+
+                int hits = 0;
+                long nanos = 0;
+                for (int i = 0; i < queryCount; i++) {
+                    long start = System.nanoTime();
+                    List<Document> results = vectorStore.similaritySearch(queries.get(i));
+                    nanos += System.nanoTime() - start;
+                    for (Document document : results) {
+                        if (expected.get(i).contains(document.getId())) {
+                            hits++;
+                        }
+                    }
+                }
+
+                double recall = (double) hits / (queryCount * topK);
+                MemoryStats memory = vectorStore.memoryStats();
+                log.info("{}: vector bytes={}, compression={}x, recall@{}={}, QPS={}", encoding,
+                        memory.quantizedBytes(), String.format("%.1f", memory.compressionRatio()), topK,
+                        String.format("%.3f", recall), String.format("%.0f", queryCount / (nanos / 1e9)));
+
+                assertTrue(memory.compressionRatio() >= 4, encoding + " compression too low: " + memory);
+                assertTrue(recall >= (encoding == Encoding.INT8 ? 0.95 : 0.8),
+                        encoding + " recall@" + topK + " too low: " + recall);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.shiboaiagent.rag;
+
+import com.example.shiboaiagent.rag.PersistentEmbeddingIndex.EmbeddedChunk;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentedVectorStoreTest {
+
+    private final StubEmbeddingModel embeddingModel = new StubEmbeddingModel(128);
+
+    private List<EmbeddedChunk> chunks(String source, int version, String... texts) {
+        List<EmbeddedChunk> chunks = new ArrayList<>();
+        for (int i = 0; i < texts.length; i++) {
+            chunks.add(new EmbeddedChunk(source + "-" + i, texts[i], Map.of("file_name", source, "version", version),
+                    embeddingModel.vectorOf(texts[i])));
+        }
+        return chunks;
+    }
+
+    @Test
+    void replacingASourceSwapsTheWholeSegment() {
+        SegmentedVectorStore vectorStore = SegmentedVectorStore.builder(embeddingModel).build();
+        vectorStore.replaceSource("kidney.pdf", chunks("kidney.pdf", 1, "肾阳虚表现为畏寒肢冷", "肾阴虚表现为五心烦热"));
+        vectorStore.replaceSource("sleep.pdf", chunks("sleep.pdf", 1, "失眠多梦可用酸枣仁汤"));
+        assertEquals(3, vectorStore.size());
+        assertEquals(2, vectorStore.segmentCount());
+
+        List<String> replaced = vectorStore.replaceSource("kidney.pdf", chunks("kidney.pdf", 2, "肾阴虚宜滋阴补肾"));
+        assertEquals(Set.of("kidney.pdf-0", "kidney.pdf-1"), new HashSet<>(replaced));
+
+        List<Document> results = vectorStore.similaritySearch(SearchRequest.builder().query("肾阴虚").topK(5).build());
+        assertEquals(2, results.size());
+        assertEquals("肾阴虚宜滋阴补肾", results.get(0).getText());
+        assertEquals(2, results.get(0).getMetadata().get("version"));
+        assertTrue(results.get(0).getScore() >= results.get(1).getScore());
+
+        assertEquals(List.of("sleep.pdf-0"), vectorStore.removeSource("sleep.pdf"));
+        assertFalse(vectorStore.hasSource("sleep.pdf"));
+        assertEquals(1, vectorStore.size());
+    }
+
+    @Test
+    void filterDeleteAndUpdateBehaveLikeSimpleVectorStore() {
+        SegmentedVectorStore vectorStore = SegmentedVectorStore.builder(embeddingModel).build();
+        vectorStore.add(List.of(
+                new Document("a", "肾阳虚表现为畏寒肢冷", Map.of("source", "kidney.pdf")),
+                new Document("b", "肾阴虚表现为五心烦热", Map.of("source", "kidney.pdf")),
+                new Document("c", "失眠多梦可用酸枣仁汤", Map.of("source", "sleep.pdf"))));
+
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        List<Document> filtered = vectorStore.similaritySearch(SearchRequest.builder()
+                .query("肾虚").topK(5).filterExpression(b.eq("source", "sleep.pdf").build()).build());
+        assertEquals(List.of("c"), filtered.stream().map(Document::getId).toList());
+
+        vectorStore.delete(List.of("a"));
+        vectorStore.delete(b.eq("source", "sleep.pdf").build());
+        assertEquals(1, vectorStore.size());
+
+        // 相同ID再次写入视为更新，旧段中的文档打删除标记
+        vectorStore.add(List.of(new Document("b", "肾阴虚宜滋阴补肾", Map.of("source", "kidney.pdf"))));
+        List<Document> all = vectorStore.similaritySearch(SearchRequest.builder().query("肾阴虚").topK(5).build());
+        assertEquals(1, all.size());
+        assertEquals("肾阴虚宜滋阴补肾", all.get(0).getText());
+    }
+
+    @Test
+    void searchesAreNotBlockedWhileASegmentIsBeingBuilt() throws Exception {
+        CountDownLatch embeddingStarted = new CountDownLatch(1);
+        StubEmbeddingModel slowDocuments = new StubEmbeddingModel(128) {
+            @Override
+            public float[] embed(Document document) {
+                embeddingStarted.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.embed(document);
+            }
+        };
+        SegmentedVectorStore vectorStore = SegmentedVectorStore.builder(slowDocuments).build();
+        vectorStore.replaceSource("sleep.pdf", chunks("sleep.pdf", 1, "失眠多梦可用酸枣仁汤"));
+
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> vectorStore.add(List.of(
+                new Document("a", "肾阳虚表现为畏寒肢冷", Map.of()),
+                new Document("b", "肾阴虚表现为五心烦热", Map.of()),
+                new Document("c", "肝郁气滞常见胸胁胀痛", Map.of()))));
+        assertTrue(embeddingStarted.await(5, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        List<Document> during = vectorStore.similaritySearch(SearchRequest.builder().query("肾虚").topK(5).build());
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 100, "search waited for the writer: " + elapsedMillis + " ms");
+        assertEquals(List.of("sleep.pdf-0"), during.stream().map(Document::getId).toList());
+
+        writer.get(5, TimeUnit.SECONDS);
+        assertEquals(4, vectorStore.similaritySearch(SearchRequest.builder().query("肾虚").topK(5).build()).size());
+    }
+
+    @Test
+    void concurrentReadersAlwaysSeeACompleteVersion() throws Exception {
+        SegmentedVectorStore vectorStore = SegmentedVectorStore.builder(embeddingModel).build();
+        String[] texts = {"风寒感冒宜辛温解表", "风热感冒宜辛凉解表", "暑湿感冒宜清暑祛湿", "体虚感冒宜扶正解表"};
+        vectorStore.replaceSource("cold.pdf", chunks("cold.pdf", 0, texts));
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        ConcurrentLinkedQueue<String> violations = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<Integer>> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(CompletableFuture.supplyAsync(() -> {
+                int searches = 0;
+                while (running.get()) {
+                    List<Document> results = vectorStore.similaritySearch(
+                            SearchRequest.builder().query("感冒").topK(10).build());
+                    Set<Object> versions = new HashSet<>();
+                    results.forEach(document -> versions.add(document.getMetadata().get("version")));
+                    if (results.size() != texts.length || versions.size() != 1) {
+                        violations.add(results.size() + " results, versions " + versions);
+                    }
+                    searches++;
+                }
+                return searches;
+            }));
+        }
+        for (int version = 1; version <= 200; version++) {
+            vectorStore.replaceSource("cold.pdf", chunks("cold.pdf", version, texts));
+        }
+        running.set(false);
+
+        int searches = 0;
+        for (CompletableFuture<Integer> reader : readers) {
+            searches += reader.get(10, TimeUnit.SECONDS);
+        }
+        assertTrue(searches > 0);
+        assertTrue(violations.isEmpty(), "inconsistent snapshots: " + violations.peek());
+        assertEquals(1, vectorStore.segmentCount());
+    }
+}
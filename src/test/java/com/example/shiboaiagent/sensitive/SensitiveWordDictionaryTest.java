@@ -0,0 +1,73 @@
+package com.example.shiboaiagent.sensitive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SensitiveWordDictionaryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reloadsChangedFileAndKeepsMatcherOnFailure() throws Exception {
+        Path file = tempDir.resolve("sensitive-words.txt");
+        try (SensitiveWordDictionary dictionary = SensitiveWordDictionary.builder(file).build()) {
+            // 文件不存在时使用空词典
+            assertFalse(dictionary.reloadIfChanged());
+            assertEquals(0, dictionary.current().wordCount());
+
+            Files.write(file, List.of("\uFEFF# 注释", "安眠药", "", "  自残  "), StandardCharsets.UTF_8);
+            assertTrue(dictionary.reloadIfChanged());
+            SensitiveWordMatcher first = dictionary.current();
+            assertEquals(2, first.wordCount());
+            assertEquals("不要***", first.mask("不要安眠药"));
+
+            // 没有变化时不重新构建
+            assertFalse(dictionary.reloadIfChanged());
+            assertSame(first, dictionary.current());
+
+            Files.write(file, List.of("安眠药", "自残", "过量"), StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now().plusSeconds(5)));
+            assertTrue(dictionary.reloadIfChanged());
+            assertEquals(3, dictionary.current().wordCount());
+
+            // 文件被删除时保留当前词典
+            SensitiveWordMatcher current = dictionary.current();
+            Files.delete(file);
+            assertFalse(dictionary.reloadIfChanged());
+            assertSame(current, dictionary.current());
+        }
+    }
+
+    @Test
+    void backgroundRefreshSwapsTheMatcher() throws Exception {
+        Path file = tempDir.resolve("sensitive-words.txt");
+        Files.writeString(file, "安眠药\n", StandardCharsets.UTF_8);
+        try (SensitiveWordDictionary dictionary = SensitiveWordDictionary.builder(file)
+                .refreshInterval(Duration.ofMillis(20))
+                .build()) {
+            dictionary.start();
+            assertEquals(1, dictionary.current().wordCount());
+
+            Files.writeString(file, "安眠药\n自残\n", StandardCharsets.UTF_8);
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (dictionary.current().wordCount() != 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(dictionary.current().containsAny("不想自残"));
+        }
+    }
+}
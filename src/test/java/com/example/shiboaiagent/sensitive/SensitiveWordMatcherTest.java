@@ -0,0 +1,100 @@
+package com.example.shiboaiagent.sensitive;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SensitiveWordMatcherTest {
+
+    private final SensitiveWordMatcher matcher = SensitiveWordMatcher.of(
+            List.of("安眠药", "安眠", "眠药过量", "自残", "Abc", " ", "安眠"));
+
+    @Test
+    void findsOverlappingWordsInOnePass() {
+        assertEquals(5, matcher.wordCount());
+        assertEquals(List.of("安眠", "安眠药", "眠药过量"), matcher.findAll("吃安眠药过量怎么办"));
+        assertTrue(matcher.containsAny("不想自残"));
+        assertFalse(matcher.containsAny("失眠多梦"));
+    }
+
+    @Test
+    void maskKeepsUnmatchedCharactersAndFoldsWidthAndCase() {
+        assertEquals("吃*****怎么办", matcher.mask("吃安眠药过量怎么办"));
+        assertEquals("x###y", matcher.mask("xＡbCy", '#'));
+        String clean = "今天睡得不错";
+        assertSame(clean, matcher.mask(clean));
+    }
+
+    @Test
+    void streamMaskingMatchesWholeTextMaskingForAnyChunking() {
+        Random random = new Random(7);
+        String alphabet = "甲乙丙丁戊";
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            words.add(randomText(random, alphabet, 2 + random.nextInt(3)));
+        }
+        SensitiveWordMatcher randomMatcher = SensitiveWordMatcher.of(words);
+
+        for (int round = 0; round < 500; round++) {
+            String text = randomText(random, alphabet + "，x", random.nextInt(60));
+            String expected = naiveMask(text, words);
+            assertEquals(expected, randomMatcher.mask(text), text);
+
+            SensitiveWordMatcher.StreamMasker masker = randomMatcher.streamMasker('*');
+            StringBuilder streamed = new StringBuilder();
+            for (int start = 0; start < text.length(); ) {
+                int end = Math.min(text.length(), start + 1 + random.nextInt(6));
+                streamed.append(masker.append(text.substring(start, end)));
+                // 扣留的字符不超过最长敏感词
+                assertTrue(masker.pendingLength() < randomMatcher.maxWordLength());
+                start = end;
+            }
+            streamed.append(masker.finish());
+            assertEquals(expected, streamed.toString(), text);
+        }
+    }
+
+    @Test
+    void streamMaskerHoldsBackOnlyPossiblePrefixes() {
+        SensitiveWordMatcher.StreamMasker masker = matcher.streamMasker('*');
+        assertEquals("睡前吃", masker.append("睡前吃安"));
+        assertEquals(1, masker.pendingLength());
+        // "安眠"之后还可能是"安眠药"
+        assertEquals("", masker.append("眠"));
+        // "安眠药"已经完整，只有"眠药"还可能是"眠药过量"的开头
+        assertEquals("*", masker.append("药"));
+        assertEquals(2, masker.pendingLength());
+        assertEquals("**", masker.finish());
+
+        // 敏感词被拆在三个片段中
+        SensitiveWordMatcher.StreamMasker split = matcher.streamMasker('*');
+        String streamed = split.append("我想自") + split.append("残") + split.append("了") + split.finish();
+        assertEquals("我想**了", streamed);
+    }
+
+    private static String naiveMask(String text, List<String> words) {
+        char[] masked = text.toCharArray();
+        for (String word : words) {
+            for (int index = text.indexOf(word); index >= 0; index = text.indexOf(word, index + 1)) {
+                Arrays.fill(masked, index, index + word.length(), '*');
+            }
+        }
+        return new String(masked);
+    }
+
+    private static String randomText(Random random, String alphabet, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+}
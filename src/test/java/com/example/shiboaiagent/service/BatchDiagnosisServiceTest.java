@@ -0,0 +1,138 @@
+package com.example.shiboaiagent.service;
+
+import com.example.shiboaiagent.app.PsychiatristApp;
+import com.example.shiboaiagent.service.BatchDiagnosisService.BatchJobStatus;
+import com.example.shiboaiagent.service.BatchDiagnosisService.DiagnosisRequest;
+import com.example.shiboaiagent.service.BatchDiagnosisService.ItemStatus;
+import com.example.shiboaiagent.service.BatchDiagnosisService.JobState;
+import com.example.shiboaiagent.support.StubChatModel;
+import com.example.shiboaiagent.support.StubEmbeddingModel;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@Slf4j
+class BatchDiagnosisServiceTest {
+
+    private static final String REPORT_JSON = "{\"title\":\"患者的诊断报告\",\"suggestions\":[\"规律作息\",\"清淡饮食\"]}";
+
+    private final StubChatModel chatModel = new StubChatModel();
+
+    private BatchDiagnosisService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    private BatchDiagnosisService service(int parallelism, Duration itemTimeout) {
+        PsychiatristApp psychiatristApp = new PsychiatristApp(chatModel, new StubEmbeddingModel(256));
+        service = new BatchDiagnosisService(psychiatristApp, parallelism, itemTimeout, 1000);
+        return service;
+    }
+
+    private BatchJobStatus awaitCompletion(String jobId) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+        BatchJobStatus status = service.status(jobId).orElseThrow();
+        while (status.state() != JobState.COMPLETED && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            status = service.status(jobId).orElseThrow();
+        }
+        return status;
+    }
+
+    /**
+     * 模拟模型的回答：按症状描述中的关键字模拟慢请求和调用失败
+     */
+    private static String respond(Prompt prompt, long latencyMillis) {
+        String text = prompt.getUserMessage().getText();
+        try {
+            Thread.sleep(text.contains("慢性") ? 5_000 : latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        }
+        if (text.contains("出错")) {
+            throw new IllegalStateException("DashScope returned 500");
+        }
+        return REPORT_JSON;
+    }
+
+    @Test
+    void itemsRunConcurrentlyUnderTheParallelismCap() throws InterruptedException {
+        chatModel.withResponder(prompt -> respond(prompt, 100));
+        BatchDiagnosisService service = service(8, Duration.ofSeconds(10));
+        List<DiagnosisRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            requests.add(new DiagnosisRequest("patient-" + i, "第" + i + "位患者：最近" + i + "天睡眠质量差，白天犯困"));
+        }
+
+        // 先跑一个条目预热（结构化输出的 schema 生成、模板编译等首次调用开销），不计入耗时
+        awaitCompletion(service.submit(List.of(new DiagnosisRequest("warm-up", "预热")), null));
+        int warmUpCalls = chatModel.callCount();
+
+        long start = System.nanoTime();
+        String jobId = service.submit(requests, null);
+        BatchJobStatus status = awaitCompletion(jobId);
+        long wallMillis = (System.nanoTime() - start) / 1_000_000;
+
+        log.info("40 items at 100 ms each with parallelism 8: {} ms, {} model calls, max concurrency {}",
+                wallMillis, chatModel.callCount() - warmUpCalls, chatModel.maxConcurrentCalls());
+        assertEquals(JobState.COMPLETED, status.state());
+        assertEquals(40, status.succeeded());
+        for (int i = 0; i < requests.size(); i++) {
+            assertEquals("patient-" + i, status.results().get(i).chatId());
+            assertNotNull(status.results().get(i).report());
+        }
+        assertTrue(chatModel.maxConcurrentCalls() <= 8, "parallelism cap exceeded: " + chatModel.maxConcurrentCalls());
+        assertTrue(chatModel.maxConcurrentCalls() > 1, "items should run concurrently");
+        assertTrue(wallMillis < 40 * 100 / 2, "should be much faster than sequential calls: " + wallMillis + " ms");
+    }
+
+    @Test
+    void timeoutsAndFailuresLeavePartialResults() throws InterruptedException {
+        chatModel.withResponder(prompt -> respond(prompt, 10));
+        BatchDiagnosisService service = service(4, Duration.ofMillis(300));
+        List<DiagnosisRequest> requests = List.of(
+                new DiagnosisRequest("a", "我最近失眠，晚上总是醒"),
+                new DiagnosisRequest("b", "慢性咽炎反复发作怎么办"),
+                new DiagnosisRequest("c", "胃胀气吃什么药"),
+                new DiagnosisRequest("d", "出错：头痛欲裂"),
+                new DiagnosisRequest("e", "腰膝酸软是肾虚吗"));
+
+        String jobId = service.submit(requests, null);
+        BatchJobStatus status = awaitCompletion(jobId);
+
+        assertEquals(JobState.COMPLETED, status.state());
+        assertEquals(3, status.succeeded());
+        assertEquals(1, status.timedOut());
+        assertEquals(1, status.failed());
+        assertEquals(0, status.pending());
+        assertEquals(ItemStatus.TIMED_OUT, status.results().get(1).status());
+        assertEquals(ItemStatus.FAILED, status.results().get(3).status());
+        assertTrue(status.results().get(3).error().contains("500"), status.results().get(3).error());
+        assertEquals("患者的诊断报告", status.results().get(4).report().title());
+    }
+
+    @Test
+    void invalidBatchesAreRejected() {
+        BatchDiagnosisService service = service(4, Duration.ofSeconds(1));
+
+        assertThrows(IllegalArgumentException.class, () -> service.submit(List.of(), null));
+        assertThrows(IllegalArgumentException.class,
+                () -> service.submit(List.of(new DiagnosisRequest("a", " ")), null));
+        assertTrue(service.status("missing").isEmpty());
+    }
+}
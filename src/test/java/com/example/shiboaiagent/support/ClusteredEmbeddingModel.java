@@ -0,0 +1,68 @@
+package com.example.shiboaiagent.support;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * 以文本为键生成可复现的聚类向量，模拟真实向量的簇状分布
+ *
+ * 用于向量库的召回率和吞吐基准，不调用任何外部服务。
+ */
+public class ClusteredEmbeddingModel implements EmbeddingModel {
+
+    private final int dimensions;
+
+    private final float[][] centers;
+
+    private final Map<String, float[]> cache = new HashMap<>();
+
+    public ClusteredEmbeddingModel(int dimensions, int clusters, long seed) {
+        this.dimensions = dimensions;
+        Random random = new Random(seed);
+        this.centers = new float[clusters][dimensions];
+        for (float[] center : centers) {
+            for (int d = 0; d < dimensions; d++) {
+                center[d] = (float) random.nextGaussian();
+            }
+        }
+    }
+
+    @Override
+    public synchronized EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> embeddings = new ArrayList<>();
+        List<String> inputs = request.getInstructions();
+        for (int i = 0; i < inputs.size(); i++) {
+            embeddings.add(new Embedding(cache.computeIfAbsent(inputs.get(i), this::vectorOf), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private float[] vectorOf(String text) {
+        Random random = new Random(text.hashCode());
+        float[] center = centers[random.nextInt(centers.length)];
+        float[] vector = new float[dimensions];
+        for (int d = 0; d < dimensions; d++) {
+            vector[d] = center[d] + (float) random.nextGaussian() * 0.8f;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.shiboaiagent.support;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * 模型替身使用的延迟分布（毫秒）
+ *
+ * - fixed：固定延迟
+ * - uniform：[min, max] 内均匀分布
+ * - logNormal：按中位数和 p99 拟合的对数正态分布，右侧长尾，接近线上大模型接口的首字延迟
+ */
+public final class LatencyDistribution {
+
+    /** 标准正态分布的 0.99 分位数 */
+    private static final double Z_99 = 2.3263;
+
+    private static final LatencyDistribution NONE = fixed(0);
+
+    private final String description;
+
+    private final DoubleSupplier sampler;
+
+    private LatencyDistribution(String description, DoubleSupplier sampler) {
+        this.description = description;
+        this.sampler = sampler;
+    }
+
+    public static LatencyDistribution none() {
+        return NONE;
+    }
+
+    public static LatencyDistribution fixed(long millis) {
+        return new LatencyDistribution("fixed(" + millis + "ms)", () -> millis);
+    }
+
+    public static LatencyDistribution uniform(long minMillis, long maxMillis) {
+        if (minMillis > maxMillis) {
+            throw new IllegalArgumentException("minMillis must not be greater than maxMillis");
+        }
+        return new LatencyDistribution("uniform(" + minMillis + "ms, " + maxMillis + "ms)",
+                () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1));
+    }
+
+    public static LatencyDistribution logNormal(long medianMillis, long p99Millis) {
+        if (medianMillis <= 0 || p99Millis < medianMillis) {
+            throw new IllegalArgumentException("medianMillis must be positive and not greater than p99Millis");
+        }
+        double mu = Math.log(medianMillis);
+        double sigma = (Math.log(p99Millis) - mu) / Z_99;
+        return new LatencyDistribution("logNormal(p50=" + medianMillis + "ms, p99=" + p99Millis + "ms)",
+                () -> Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    /**
+     * 抽取一次延迟
+     */
+    public long sampleMillis() {
+        return Math.max(0, Math.round(sampler.getAsDouble()));
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
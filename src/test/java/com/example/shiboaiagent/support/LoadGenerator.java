@@ -0,0 +1,218 @@
+package com.example.shiboaiagent.support;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按固定速率发起请求的压测工具（开环）
+ *
+ * 第 i 个请求的计划发起时间为 start + i / rps，每个请求在单独的虚拟线程上执行，
+ * 请求变慢时不会拖慢后续请求的发起；延迟从计划发起时间算起，发起方来不及发出的排队时间也计入延迟，
+ * 避免协调遗漏（coordinated omission）让分位数偏低。
+ *
+ * 先预热一段时间（结果丢弃），再正式压测，报告吞吐、延迟分位数和这段时间内的资源占用。
+ */
+public class LoadGenerator {
+
+    /**
+     * 一次请求，返回是否成功；抛出异常同样记为失败
+     */
+    @FunctionalInterface
+    public interface Request {
+
+        boolean execute(long sequence) throws Exception;
+    }
+
+    /**
+     * 压测期间的资源占用
+     *
+     * @param cpuMillis 进程消耗的 CPU 时间
+     * @param cpuUtilization CPU 时间 / (耗时 × 核数)
+     * @param gcCount 垃圾回收次数
+     * @param gcMillis 垃圾回收累计耗时
+     * @param peakHeapBytes 各堆内存池峰值之和
+     * @param peakPlatformThreads 平台线程数峰值（不含虚拟线程）
+     */
+    public record ResourceUsage(long cpuMillis, double cpuUtilization, long gcCount, long gcMillis,
+                                long peakHeapBytes, int peakPlatformThreads) {
+
+        @Override
+        public String toString() {
+            return String.format("cpu=%dms (%.1f%%), gc=%d/%dms, peakHeap=%dMB, peakThreads=%d",
+                    cpuMillis, cpuUtilization * 100, gcCount, gcMillis, peakHeapBytes >> 20, peakPlatformThreads);
+        }
+    }
+
+    /**
+     * 一轮压测的结果
+     *
+     * @param name 压测对象
+     * @param targetRps 目标速率
+     * @param sent 发起的请求数
+     * @param succeeded 成功的请求数
+     * @param failed 失败的请求数
+     * @param throughput 每秒成功的请求数（从第一个请求发起到最后一个请求完成）
+     * @param p50Millis 成功请求的延迟中位数
+     * @param p99Millis 成功请求的延迟 p99
+     * @param maxMillis 成功请求的最大延迟
+     * @param resources 资源占用
+     */
+    public record Report(String name, double targetRps, long sent, long succeeded, long failed, double throughput,
+                         double p50Millis, double p99Millis, double maxMillis, ResourceUsage resources) {
+
+        @Override
+        public String toString() {
+            return String.format("%s: target=%.0f rps, sent=%d, ok=%d, failed=%d, throughput=%.1f rps, "
+                            + "p50=%.1fms, p99=%.1fms, max=%.1fms, %s",
+                    name, targetRps, sent, succeeded, failed, throughput, p50Millis, p99Millis, maxMillis, resources);
+        }
+    }
+
+    private final double rps;
+
+    private final Duration warmup;
+
+    private final Duration duration;
+
+    /** 全部请求发出后等待完成的最长时间 */
+    private final Duration drainTimeout;
+
+    public LoadGenerator(double rps, Duration warmup, Duration duration) {
+        this(rps, warmup, duration, Duration.ofSeconds(60));
+    }
+
+    public LoadGenerator(double rps, Duration warmup, Duration duration, Duration drainTimeout) {
+        if (rps <= 0) {
+            throw new IllegalArgumentException("rps must be positive");
+        }
+        this.rps = rps;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.drainTimeout = drainTimeout;
+    }
+
+    public Report run(String name, Request request) throws InterruptedException {
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (!warmup.isZero()) {
+                phase(executor, request, 0, requestsIn(warmup));
+            }
+            ResourceSnapshot before = ResourceSnapshot.take();
+            int requests = requestsIn(duration);
+            long start = System.nanoTime();
+            long[] latencies = phase(executor, request, requestsIn(warmup), requests);
+            long elapsedNanos = System.nanoTime() - start;
+            ResourceUsage resources = before.usageSince(elapsedNanos);
+
+            long[] succeeded = Arrays.stream(latencies).filter(latency -> latency >= 0).sorted().toArray();
+            return new Report(name, rps, requests, succeeded.length, requests - succeeded.length,
+                    succeeded.length * 1e9 / elapsedNanos,
+                    percentileMillis(succeeded, 0.5), percentileMillis(succeeded, 0.99),
+                    percentileMillis(succeeded, 1), resources);
+        }
+    }
+
+    /**
+     * 按速率发出 requests 个请求并等待全部完成，返回每个请求的延迟（纳秒），失败的请求为 -1
+     */
+    private long[] phase(ExecutorService executor, Request request, long firstSequence, int requests)
+            throws InterruptedException {
+        long[] latencies = new long[requests];
+        CountDownLatch done = new CountDownLatch(requests);
+        long intervalNanos = (long) (1e9 / rps);
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            long scheduled = start + i * intervalNanos;
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            int index = i;
+            executor.execute(() -> {
+                long latency = -1;
+                try {
+                    if (request.execute(firstSequence + index)) {
+                        latency = System.nanoTime() - scheduled;
+                    }
+                } catch (Exception e) {
+                    // 记为失败
+                } finally {
+                    latencies[index] = latency;
+                    done.countDown();
+                }
+            });
+        }
+        if (!done.await(drainTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException(done.getCount() + " requests still running after " + drainTimeout);
+        }
+        return latencies;
+    }
+
+    private int requestsIn(Duration period) {
+        return (int) Math.round(period.toNanos() / 1e9 * rps);
+    }
+
+    private static double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1);
+        return sorted[index] / 1e6;
+    }
+
+    /**
+     * 压测开始时的 CPU、GC 读数，同时重置堆内存和线程数的峰值
+     */
+    private record ResourceSnapshot(long cpuNanos, long gcCount, long gcMillis) {
+
+        static ResourceSnapshot take() {
+            heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+            ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+            return new ResourceSnapshot(processCpuNanos(), totalGcCount(), totalGcMillis());
+        }
+
+        ResourceUsage usageSince(long elapsedNanos) {
+            long cpu = processCpuNanos() - cpuNanos;
+            int processors = Runtime.getRuntime().availableProcessors();
+            long peakHeap = heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            return new ResourceUsage(cpu / 1_000_000, (double) cpu / elapsedNanos / processors,
+                    totalGcCount() - gcCount, totalGcMillis() - gcMillis, peakHeap, threads.getPeakThreadCount());
+        }
+
+        private static List<MemoryPoolMXBean> heapPools() {
+            return ManagementFactory.getMemoryPoolMXBeans().stream()
+                    .filter(pool -> pool.getType() == MemoryType.HEAP)
+                    .toList();
+        }
+
+        private static long processCpuNanos() {
+            if (ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean os) {
+                return os.getProcessCpuTime();
+            }
+            return 0;
+        }
+
+        private static long totalGcCount() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+                    .sum();
+        }
+
+        private static long totalGcMillis() {
+            return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                    .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                    .sum();
+        }
+    }
+}
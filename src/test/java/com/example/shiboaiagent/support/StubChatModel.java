@@ -0,0 +1,234 @@
+package com.example.shiboaiagent.support;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 本地离线的 ChatModel 替身
+ *
+ * 根据用户消息生成确定的回答，统计调用次数；可以模拟模型延迟、流式输出的片段大小和 token 用量。
+ * 压测时还可以设置延迟分布、生成速度（token/秒，按一个字符一个 token 估算）和按比例注入的故障：
+ * - call：等待首字延迟，再按生成速度等待整段回答的生成时间
+ * - stream：等待首字延迟后按生成速度逐段推送，片段间隔 = 片段字符数 / 生成速度
+ * - 故障：call 在首字延迟后抛出异常；stream 推送一半片段后以异常结束，模拟生成中途断开
+ */
+public class StubChatModel implements ChatModel {
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final AtomicInteger streams = new AtomicInteger();
+
+    /** 正在执行的 call 数 */
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /** 观察到的最大并发 call 数 */
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    /** 注入的故障次数 */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final AtomicInteger failuresRemaining = new AtomicInteger();
+
+    private volatile Function<Prompt, String> responder =
+            prompt -> "针对「" + prompt.getUserMessage().getText() + "」的建议：规律作息，清淡饮食。";
+
+    /** 首字延迟 */
+    private volatile LatencyDistribution latency = LatencyDistribution.none();
+
+    /** 生成速度（token/秒），不大于 0 时整段回答立即生成 */
+    private volatile double tokensPerSecond;
+
+    /** 每次调用失败的概率 */
+    private volatile double errorRate;
+
+    private volatile int streamChunkSize = 8;
+
+    /** 回答携带的 token 用量，为 null 时不携带 */
+    private volatile DefaultUsage usage;
+
+    /** 最近一次收到的提示词 */
+    private volatile Prompt lastPrompt;
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        calls.incrementAndGet();
+        lastPrompt = prompt;
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            sleep(latency.sampleMillis());
+            if (shouldFail()) {
+                throw new IllegalStateException("simulated model failure");
+            }
+            String text = responder.apply(prompt);
+            sleep(generationMillis(text.length()));
+            return response(text, usage);
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        streams.incrementAndGet();
+        lastPrompt = prompt;
+        String text = responder.apply(prompt);
+        List<ChatResponse> chunks = new ArrayList<>();
+        for (int start = 0; start < text.length(); start += streamChunkSize) {
+            int end = Math.min(text.length(), start + streamChunkSize);
+            // 用量只放在最后一个片段上
+            chunks.add(response(text.substring(start, end), end == text.length() ? usage : null));
+        }
+        Flux<ChatResponse> flux;
+        if (shouldFail()) {
+            flux = Flux.fromIterable(chunks.subList(0, chunks.size() / 2))
+                    .concatWith(Flux.error(() -> new IllegalStateException("simulated model failure")));
+        } else {
+            flux = Flux.fromIterable(chunks);
+        }
+        long chunkIntervalNanos = tokensPerSecond > 0 ? (long) (streamChunkSize * 1e9 / tokensPerSecond) : 0;
+        if (chunkIntervalNanos > 0) {
+            flux = flux.delayElements(Duration.ofNanos(chunkIntervalNanos));
+        }
+        long latencyMillis = latency.sampleMillis();
+        return latencyMillis > 0 ? flux.delaySubscription(Duration.ofMillis(latencyMillis)) : flux;
+    }
+
+    /** call 的调用次数 */
+    public int callCount() {
+        return calls.get();
+    }
+
+    /** stream 的调用次数 */
+    public int streamCount() {
+        return streams.get();
+    }
+
+    /** 当前正在执行的 call 数 */
+    public int inFlightCalls() {
+        return inFlight.get();
+    }
+
+    /** 观察到的最大并发 call 数 */
+    public int maxConcurrentCalls() {
+        return maxInFlight.get();
+    }
+
+    /** 注入的故障次数 */
+    public int failureCount() {
+        return failures.get();
+    }
+
+    public Prompt lastPrompt() {
+        return lastPrompt;
+    }
+
+    /**
+     * 自定义回答内容
+     */
+    public StubChatModel withResponder(Function<Prompt, String> responder) {
+        this.responder = responder;
+        return this;
+    }
+
+    /**
+     * 模拟模型延迟（流式调用时为首个片段前的延迟）
+     */
+    public StubChatModel withLatency(long millis) {
+        return withLatency(LatencyDistribution.fixed(millis));
+    }
+
+    /**
+     * 按分布抽取每次调用的模型延迟（流式调用时为首个片段前的延迟）
+     */
+    public StubChatModel withLatency(LatencyDistribution latency) {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * 生成速度（token/秒），同时决定流式片段的推送间隔
+     */
+    public StubChatModel withTokenRate(double tokensPerSecond) {
+        this.tokensPerSecond = tokensPerSecond;
+        return this;
+    }
+
+    /**
+     * 每次调用以 rate 的概率失败
+     */
+    public StubChatModel withErrorRate(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    /**
+     * 接下来的 count 次调用失败
+     */
+    public void failNextCalls(int count) {
+        failuresRemaining.set(count);
+    }
+
+    /**
+     * 流式输出每个片段的字符数
+     */
+    public StubChatModel withStreamChunkSize(int chars) {
+        this.streamChunkSize = Math.max(1, chars);
+        return this;
+    }
+
+    /**
+     * 回答携带的 token 用量（流式调用时在最后一个片段上）
+     */
+    public StubChatModel withUsage(int promptTokens, int completionTokens) {
+        this.usage = new DefaultUsage(promptTokens, completionTokens);
+        return this;
+    }
+
+    private boolean shouldFail() {
+        boolean fail = failuresRemaining.getAndUpdate(n -> Math.max(0, n - 1)) > 0
+                || (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate);
+        if (fail) {
+            failures.incrementAndGet();
+        }
+        return fail;
+    }
+
+    /**
+     * 按生成速度生成 tokens 个 token 的耗时
+     */
+    private long generationMillis(int tokens) {
+        return tokensPerSecond > 0 ? (long) (tokens * 1000 / tokensPerSecond) : 0;
+    }
+
+    private static ChatResponse response(String text, DefaultUsage usage) {
+        List<Generation> generations = List.of(new Generation(new AssistantMessage(text)));
+        if (usage == null) {
+            return new ChatResponse(generations);
+        }
+        return new ChatResponse(generations, ChatResponseMetadata.builder().usage(usage).build());
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
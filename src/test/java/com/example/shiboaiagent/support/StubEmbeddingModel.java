@@ -0,0 +1,178 @@
+package com.example.shiboaiagent.support;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本地离线的 EmbeddingModel 替身
+ *
+ * 把文本的字符二元组哈希到固定维度并归一化，字面相近的文本得到相近的向量；
+ * 统计请求次数和文本数量，用于验证缓存、批处理是否生效。
+ * 可以模拟请求延迟（固定值或按分布抽取）、单次请求的条数上限和暂时性故障（指定次数或按比例）。
+ */
+public class StubEmbeddingModel implements EmbeddingModel {
+
+    private final int dimensions;
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final AtomicLong embeddedTexts = new AtomicLong();
+
+    private final AtomicInteger maxObservedBatch = new AtomicInteger();
+
+    private final AtomicInteger failuresRemaining = new AtomicInteger();
+
+    private volatile LatencyDistribution baseLatency = LatencyDistribution.none();
+
+    private volatile long perItemLatencyMillis;
+
+    private volatile int maxItemsPerRequest = Integer.MAX_VALUE;
+
+    /** 每次请求失败的概率 */
+    private volatile double errorRate;
+
+    public StubEmbeddingModel(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        calls.incrementAndGet();
+        List<String> inputs = request.getInstructions();
+        if (inputs.size() > maxItemsPerRequest) {
+            // 与 DashScope 经 Spring AI 错误处理器转换后的异常一致
+            throw new NonTransientAiException("400 - {\"code\":\"InvalidParameter\",\"message\":"
+                    + "\"batch size is invalid, it should not be larger than " + maxItemsPerRequest + "\"}");
+        }
+        if (failuresRemaining.getAndUpdate(n -> Math.max(0, n - 1)) > 0
+                || (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate)) {
+            throw new TransientAiException("simulated embedding failure");
+        }
+        maxObservedBatch.accumulateAndGet(inputs.size(), Math::max);
+        sleep(baseLatency.sampleMillis() + perItemLatencyMillis * inputs.size());
+        List<Embedding> embeddings = new ArrayList<>();
+        for (int i = 0; i < inputs.size(); i++) {
+            embeddings.add(new Embedding(vectorOf(inputs.get(i)), i));
+        }
+        embeddedTexts.addAndGet(inputs.size());
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /** 向量化请求次数 */
+    public int callCount() {
+        return calls.get();
+    }
+
+    /** 累计向量化的文本数量 */
+    public long embeddedTextCount() {
+        return embeddedTexts.get();
+    }
+
+    /** 单次请求中出现过的最大文本数 */
+    public int maxObservedBatch() {
+        return maxObservedBatch.get();
+    }
+
+    public void reset() {
+        calls.set(0);
+        embeddedTexts.set(0);
+        maxObservedBatch.set(0);
+    }
+
+    /**
+     * 模拟请求延迟：固定开销 + 每条文本的开销
+     */
+    public StubEmbeddingModel withLatency(long baseMillis, long perItemMillis) {
+        return withLatency(LatencyDistribution.fixed(baseMillis), perItemMillis);
+    }
+
+    /**
+     * 模拟请求延迟：固定开销按分布抽取，每条文本的开销固定
+     */
+    public StubEmbeddingModel withLatency(LatencyDistribution baseLatency, long perItemMillis) {
+        this.baseLatency = baseLatency;
+        this.perItemLatencyMillis = perItemMillis;
+        return this;
+    }
+
+    /**
+     * 每次请求以 rate 的概率失败
+     */
+    public StubEmbeddingModel withErrorRate(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    /**
+     * 模拟服务端的单次请求条数上限，超出时抛出异常
+     */
+    public StubEmbeddingModel withMaxItemsPerRequest(int maxItemsPerRequest) {
+        this.maxItemsPerRequest = maxItemsPerRequest;
+        return this;
+    }
+
+    /**
+     * 接下来的 count 次请求失败
+     */
+    public void failNextCalls(int count) {
+        failuresRemaining.set(count);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 字符二元组哈希向量，不调用任何外部服务
+     */
+    public float[] vectorOf(String text) {
+        float[] vector = new float[dimensions];
+        String value = text == null ? "" : text;
+        for (int i = 0; i < value.length(); i++) {
+            int gram = i + 1 < value.length() ? value.charAt(i) * 31 + value.charAt(i + 1) : value.charAt(i);
+            int h = gram * 0x9E3779B1;
+            vector[Math.floorMod(h ^ (h >>> 15), dimensions)] += 1f;
+        }
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        if (norm == 0) {
+            vector[0] = 1f;
+            return vector;
+        }
+        float inverse = (float) (1 / Math.sqrt(norm));
+        for (int d = 0; d < dimensions; d++) {
+            vector[d] *= inverse;
+        }
+        return vector;
+    }
+}